@@ -141,6 +141,22 @@ class MuseTalkWebSocketService:
         audio_time = time.time() - start_time
         print(f"音频处理耗时: {audio_time * 1000:.2f}ms")
         
+        # 降帧率渲染：GPU繁忙时客户端请求较低fps，按步长抽取音频特征，只推理部分帧
+        # 客户端按步长重复帧补齐，与音频时钟对齐
+        audio_frames = len(whisper_chunks)
+        target_fps = options.get("fps")
+        stride = 1
+        if target_fps and 0 < target_fps < self.fps:
+            stride = max(1, int(round(self.fps / target_fps)))
+        if stride > 1:
+            whisper_chunks = whisper_chunks[::stride]
+            await websocket.send(json.dumps({
+                "status": "frame_stride",
+                "stride": stride,
+                "audio_frames": audio_frames
+            }))
+            print(f"降帧率渲染: 步长={stride}, 音频帧数={audio_frames}, 推理帧数={len(whisper_chunks)}")
+        
         # 推理 (优化版)
         video_num = len(whisper_chunks)
         idx = 0
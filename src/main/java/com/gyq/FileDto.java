@@ -22,6 +22,18 @@ public class FileDto {
      * 情绪标识
      */
     private String emotion;
+    /**
+     * 下行Opus音频（Ogg封装）base64，首次按Opus下发时编码，同一段的其它订阅者直接复用
+     */
+    private volatile String opusBase64;
+
+    public String getOpusBase64() {
+        return opusBase64;
+    }
+
+    public void setOpusBase64(String opusBase64) {
+        this.opusBase64 = opusBase64;
+    }
 
     public String getBase64() {
         return base64;
@@ -1,12 +1,12 @@
 package com.gyq.config;
 
+import com.gyq.service.ChatMemoryService.BoundedChatMemoryRepository;
 import com.gyq.service.Enum.SystemPromptEnum;
 import jakarta.annotation.Resource;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
-import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
 import org.springframework.ai.chat.memory.MessageWindowChatMemory;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.context.annotation.Bean;
@@ -21,9 +21,10 @@ public class ChatClientConfig {
     private ChatClient chatClient;
 
     @Bean("chatClient")
-    public ChatClient chatClient(ChatModel chatModel) {
+    public ChatClient chatClient(ChatModel chatModel, BoundedChatMemoryRepository chatMemoryRepository) {
+        // 活跃会话留在内存，其余落盘按需加载
         MessageWindowChatMemory chatMemory = MessageWindowChatMemory.builder()
-                .chatMemoryRepository(new InMemoryChatMemoryRepository())
+                .chatMemoryRepository(chatMemoryRepository)
                 .maxMessages(20)
                 .build();
 
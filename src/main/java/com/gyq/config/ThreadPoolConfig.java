@@ -1,6 +1,7 @@
 package com.gyq.config;
 
 import com.sun.istack.NotNull;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
@@ -8,6 +9,7 @@ import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.util.concurrent.Executor;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicInteger;
 
 @Configuration
@@ -39,4 +41,78 @@ public class ThreadPoolConfig {
         return executor;
     }
 
+    /*
+     * 对话流水线各阶段的隔离线程池：线程数和队列都有上限，
+     * 队列满时直接拒绝（AbortPolicy），某个阶段堵塞不会拖垮其它阶段和WebSocket容器线程
+     */
+
+    @Bean(name = "asrExecutor")
+    public ThreadPoolTaskExecutor asrExecutor(@Value("${pipeline.asr.threads:4}") int threads,
+                                              @Value("${pipeline.asr.queue:16}") int queue) {
+        return stageExecutor("Asr-", threads, queue);
+    }
+
+    @Bean(name = "llmExecutor")
+    public ThreadPoolTaskExecutor llmExecutor(@Value("${pipeline.llm.threads:8}") int threads,
+                                              @Value("${pipeline.llm.queue:32}") int queue) {
+        return stageExecutor("Llm-", threads, queue);
+    }
+
+    @Bean(name = "ttsExecutor")
+    public ThreadPoolTaskExecutor ttsExecutor(@Value("${pipeline.tts.threads:4}") int threads,
+                                              @Value("${pipeline.tts.queue:16}") int queue) {
+        return stageExecutor("Tts-", threads, queue);
+    }
+
+    // 识别通道请求：对冲和落选的请求也占线程，按ASR线程数的两倍配置
+    @Bean(name = "asrProviderExecutor")
+    public ThreadPoolTaskExecutor asrProviderExecutor(@Value("${pipeline.asr-provider.threads:8}") int threads,
+                                                      @Value("${pipeline.asr-provider.queue:32}") int queue) {
+        return stageExecutor("AsrProvider-", threads, queue);
+    }
+
+    // 多服务商TTS请求：对冲和落选的请求也占线程，按TTS线程数的几倍配置
+    @Bean(name = "ttsProviderExecutor")
+    public ThreadPoolTaskExecutor ttsProviderExecutor(@Value("${pipeline.tts-provider.threads:16}") int threads,
+                                                      @Value("${pipeline.tts-provider.queue:64}") int queue) {
+        return stageExecutor("TtsProvider-", threads, queue);
+    }
+
+    // 渲染阶段线程数即同时占用MuseTalk的对话数，按GPU能力配置
+    @Bean(name = "renderExecutor")
+    public ThreadPoolTaskExecutor renderExecutor(@Value("${pipeline.render.threads:4}") int threads,
+                                                 @Value("${pipeline.render.queue:8}") int queue) {
+        return stageExecutor("Render-", threads, queue);
+    }
+
+    @Bean(name = "deliverExecutor")
+    public ThreadPoolTaskExecutor deliverExecutor(@Value("${pipeline.deliver.threads:4}") int threads,
+                                                  @Value("${pipeline.deliver.queue:1000}") int queue) {
+        return stageExecutor("Deliver-", threads, queue);
+    }
+
+    // 说话开始时的连接预热：各项预热并行执行，排不上时直接放弃，不影响正式请求
+    @Bean(name = "prewarmExecutor")
+    public ThreadPoolTaskExecutor prewarmExecutor(@Value("${prewarm.threads:8}") int threads,
+                                                  @Value("${prewarm.queue:32}") int queue) {
+        return stageExecutor("Prewarm-", threads, queue);
+    }
+
+    // 下行Opus编码：渲染循环之外预先编码，满时该段回退为WAV下发
+    @Bean(name = "opusEncodeExecutor")
+    public ThreadPoolTaskExecutor opusEncodeExecutor(@Value("${downlink.opus.threads:2}") int threads,
+                                                     @Value("${downlink.opus.queue:64}") int queue) {
+        return stageExecutor("OpusEncode-", threads, queue);
+    }
+
+    private ThreadPoolTaskExecutor stageExecutor(String prefix, int threads, int queue) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queue);
+        executor.setThreadNamePrefix(prefix);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.initialize();
+        return executor;
+    }
 }
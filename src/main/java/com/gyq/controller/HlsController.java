@@ -0,0 +1,65 @@
+package com.gyq.controller;
+
+import com.gyq.service.BlockingQueueService.HlsBroadcastManager;
+import com.gyq.service.BlockingQueueService.HlsBroadcaster;
+import jakarta.annotation.Resource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * HLS广播拉流接口 - 展厅大屏、远程旁观者用普通HTTP播放器观看对话会话
+ * 播放地址：/hls/{token}/index.m3u8
+ * 播放列表不缓存；init/分片文件名唯一，可被浏览器和CDN长期缓存
+ */
+@RestController
+@RequestMapping("/hls")
+@CrossOrigin
+public class HlsController {
+
+    private static final Pattern TOKEN = Pattern.compile("[A-Za-z0-9_\\-]+");
+    private static final Pattern FILE_NAME = Pattern.compile("[A-Za-z0-9_\\-]+\\.(m3u8|mp4|m4s)");
+    private static final MediaType PLAYLIST_TYPE = MediaType.parseMediaType("application/vnd.apple.mpegurl");
+    private static final MediaType SEGMENT_TYPE = MediaType.parseMediaType("video/mp4");
+
+    @Resource
+    private HlsBroadcastManager hlsBroadcastManager;
+
+    @GetMapping("/{token}/{file:.+}")
+    public ResponseEntity<FileSystemResource> get(@PathVariable String token, @PathVariable String file) {
+        if (!TOKEN.matcher(token).matches() || !FILE_NAME.matcher(file).matches()) {
+            return ResponseEntity.notFound().build();
+        }
+        Path path = hlsBroadcastManager.resolve(token, file);
+        if (path == null) {
+            return ResponseEntity.notFound().build();
+        }
+        boolean playlist = file.equals(HlsBroadcaster.PLAYLIST);
+        if (!Files.isRegularFile(path)) {
+            // 广播刚启动，第一个分片还没生成
+            return playlist
+                    ? ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                        .header(HttpHeaders.RETRY_AFTER, "1").cacheControl(CacheControl.noStore()).build()
+                    : ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .contentType(playlist ? PLAYLIST_TYPE : SEGMENT_TYPE)
+                .cacheControl(playlist
+                        ? CacheControl.noCache()
+                        : CacheControl.maxAge(1, TimeUnit.HOURS).cachePublic().immutable())
+                .body(new FileSystemResource(path));
+    }
+}
@@ -0,0 +1,22 @@
+package com.gyq.service.AsrProviderService;
+
+import java.time.Duration;
+
+/**
+ * 语音识别通道 - 同一段16kHz PCM可以走任意一条通道识别，返回识别文本
+ */
+public interface AsrRecognizer {
+
+    /**
+     * 通道名称，与配置项 asr.recognizers 中的名称对应
+     */
+    String getName();
+
+    /**
+     * 识别一段16kHz单声道16bit PCM；静音时返回空字符串，超时、服务端错误等都以异常返回
+     *
+     * @param pcmPath 16kHz PCM文件路径
+     * @param timeout 本次请求的超时
+     */
+    String recognize(String pcmPath, Duration timeout) throws Exception;
+}
@@ -0,0 +1,43 @@
+package com.gyq.service.AsrProviderService;
+
+import com.gyq.service.ResilienceService.HedgedCall;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * 对冲语音识别 - 按 asr.recognizers 的顺序选择主用和备用通道（REST一句话识别、实时识别），
+ * 主用超过其p90耗时未返回时把同一段音频发给备用通道，选路、对冲和熔断见 {@link HedgedCall}
+ */
+@Service
+public class HedgedAsrClient {
+
+    private static final double HEDGE_PERCENTILE = 0.9;
+
+    private final HedgedCall<AsrRecognizer> hedgedCall;
+
+    public HedgedAsrClient(List<AsrRecognizer> available,
+                           @Qualifier("asrProviderExecutor") Executor executor,
+                           @Value("${asr.recognizers:rest,stream}") String order,
+                           @Value("${asr.hedge.default-delay-ms:1500}") long defaultHedgeDelayMs,
+                           @Value("${asr.breaker.failure-threshold:5}") int failureThreshold,
+                           @Value("${asr.breaker.open-ms:30000}") long openMillis) {
+        this.hedgedCall = new HedgedCall<>("识别通道", available, AsrRecognizer::getName, order, executor,
+                HEDGE_PERCENTILE, defaultHedgeDelayMs, failureThreshold, openMillis);
+    }
+
+    /**
+     * 识别一段16kHz PCM，返回先成功的通道的文本；所有通道都失败或超时时抛出最后一个异常
+     */
+    public String recognize(String pcmPath, Duration timeout) throws Exception {
+        return hedgedCall.call((recognizer, attemptTimeout) -> recognizer.recognize(pcmPath, attemptTimeout), timeout);
+    }
+
+    public List<HedgedCall.BackendStatus> getStatuses() {
+        return hedgedCall.getStatuses();
+    }
+}
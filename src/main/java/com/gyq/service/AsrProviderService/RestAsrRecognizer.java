@@ -0,0 +1,65 @@
+package com.gyq.service.AsrProviderService;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import com.gyq.service.AudioService;
+import com.gyq.service.CredentialService.CredentialManager;
+import com.gyq.service.HttpUtil;
+import jakarta.annotation.Resource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+
+/**
+ * 一句话识别 RESTful 接口（/stream/v1/asr）：整段音频一次上传，一次返回结果
+ */
+@Component
+public class RestAsrRecognizer implements AsrRecognizer {
+
+    private static final int SUCCESS = 20000000;
+
+    @Value("${alibaba.key}")
+    private String key;
+    @Value("${alibaba.url}")
+    private String url;
+    @Resource
+    private CredentialManager credentialManager;
+
+    @Override
+    public String getName() {
+        return "rest";
+    }
+
+    @Override
+    public String recognize(String pcmPath, Duration timeout) throws Exception {
+        /*
+         * 设置HTTPS RESTful POST请求：
+         * 1.设置必选请求参数：appkey、format、sample_rate。
+         * 2.设置可选请求参数：enable_punctuation_prediction、enable_inverse_text_normalization、enable_voice_detection。
+         */
+        String request = url
+                + "?appkey=" + key
+                + "&format=pcm"
+                + "&sample_rate=16000"
+                + "&enable_punctuation_prediction=true"
+                + "&enable_inverse_text_normalization=true"
+                + "&enable_voice_detection=false";
+
+        HashMap<String, String> headers = new HashMap<>();
+        headers.put("X-NLS-Token", credentialManager.get(AudioService.NLS_CREDENTIAL));
+        headers.put("Content-Type", "application/octet-stream");
+
+        String response = HttpUtil.sendPostFile(request, headers, pcmPath, timeout.toMillis());
+        if (response == null) {
+            throw new IOException("一句话识别请求失败或超时");
+        }
+        JSONObject json = JSON.parseObject(response);
+        if (json == null || json.getIntValue("status") != SUCCESS) {
+            throw new IOException("一句话识别失败: " + response);
+        }
+        return json.getString("result") == null ? "" : json.getString("result");
+    }
+}
@@ -0,0 +1,123 @@
+package com.gyq.service.AsrProviderService;
+
+import com.alibaba.nls.client.protocol.InputFormatEnum;
+import com.alibaba.nls.client.protocol.NlsClient;
+import com.alibaba.nls.client.protocol.SampleRateEnum;
+import com.alibaba.nls.client.protocol.asr.SpeechRecognizer;
+import com.alibaba.nls.client.protocol.asr.SpeechRecognizerListener;
+import com.alibaba.nls.client.protocol.asr.SpeechRecognizerResponse;
+import com.gyq.service.AudioService;
+import com.gyq.service.CredentialService.CredentialManager;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 实时识别 WebSocket 通道：整段音频按100ms分块连续发送（不按实时速率等待），收到识别完成事件后返回
+ * 与 REST 接口走不同的网关链路，REST 偶发长尾时作为对冲通道
+ */
+@Component
+public class StreamingAsrRecognizer implements AsrRecognizer {
+
+    // 16kHz 16bit 单声道 100ms
+    private static final int CHUNK_BYTES = 3200;
+
+    @Value("${alibaba.key}")
+    private String appKey;
+    @Value("${alibaba.ws-url:wss://nls-gateway-cn-shanghai.aliyuncs.com/ws/v1}")
+    private String wsUrl;
+    @Resource
+    private CredentialManager credentialManager;
+
+    private NlsClient client;
+
+    @Override
+    public String getName() {
+        return "stream";
+    }
+
+    @Override
+    public String recognize(String pcmPath, Duration timeout) throws Exception {
+        long deadline = System.currentTimeMillis() + timeout.toMillis();
+        CompletableFuture<String> result = new CompletableFuture<>();
+        SpeechRecognizer recognizer = new SpeechRecognizer(getClient(), listener(result));
+        try {
+            recognizer.setAppKey(appKey);
+            recognizer.setFormat(InputFormatEnum.PCM);
+            recognizer.setSampleRate(SampleRateEnum.SAMPLE_RATE_16K);
+            recognizer.setEnableIntermediateResult(false);
+            recognizer.setEnablePunctuation(true);
+            recognizer.setEnableITN(true);
+            recognizer.start();
+            try (InputStream in = Files.newInputStream(Path.of(pcmPath))) {
+                byte[] chunk = new byte[CHUNK_BYTES];
+                int read;
+                while ((read = in.readNBytes(chunk, 0, CHUNK_BYTES)) > 0 && !result.isDone()) {
+                    recognizer.send(read == CHUNK_BYTES ? chunk : Arrays.copyOf(chunk, read));
+                    if (System.currentTimeMillis() >= deadline) {
+                        throw new TimeoutException("实时识别发送音频超时");
+                    }
+                }
+            }
+            recognizer.stop();
+            return result.get(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } finally {
+            recognizer.close();
+        }
+    }
+
+    private SpeechRecognizerListener listener(CompletableFuture<String> result) {
+        return new SpeechRecognizerListener() {
+            @Override
+            public void onRecognitionResultChanged(SpeechRecognizerResponse response) {
+            }
+
+            @Override
+            public void onRecognitionCompleted(SpeechRecognizerResponse response) {
+                String text = response.getRecognizedText();
+                result.complete(text == null ? "" : text);
+            }
+
+            @Override
+            public void onStarted(SpeechRecognizerResponse response) {
+            }
+
+            @Override
+            public void onFail(SpeechRecognizerResponse response) {
+                result.completeExceptionally(new IOException("实时识别失败: " + response.getStatus() + " "
+                        + response.getStatusText()));
+            }
+        };
+    }
+
+    private synchronized NlsClient getClient() throws IOException {
+        String token = credentialManager.get(AudioService.NLS_CREDENTIAL);
+        if (client == null) {
+            client = new NlsClient(wsUrl, token);
+        } else {
+            client.setToken(token);
+        }
+        return client;
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (client != null) {
+            client.shutdown();
+        }
+    }
+}
@@ -0,0 +1,505 @@
+package com.gyq.service.AudioCodecService;
+
+import com.alibaba.fastjson.JSONObject;
+import com.gyq.FileDto;
+import io.github.jaredmdobson.concentus.OpusApplication;
+import io.github.jaredmdobson.concentus.OpusEncoder;
+import io.github.jaredmdobson.concentus.OpusException;
+import io.github.jaredmdobson.concentus.OpusSignal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 下行Opus编码 - 前端用 ?audioCodec=opus 声明后，TTS音频不再以WAV下发，而是在JVM内编码成Ogg Opus，
+ * 16kHz 16bit的WAV约256kbps，默认20kbps的Opus下行字节约为原来的十分之一
+ *
+ * 编码器按采样率池化常驻，每段音频借出一个、用完重置归还，不为每段音频启动进程；
+ * 编码结果写在WAV旁边（同名 .opus），同一段的其它订阅者和重复下发直接复用。WAV本身不变，仍作为MuseTalk的输入
+ * 编码在独立线程池上进行，一轮的分段列表到达时整体预先提交，渲染循环只拿future，不等编码
+ */
+@Service
+public class OpusDownlinkEncoder {
+    private static final Logger logger = LoggerFactory.getLogger(OpusDownlinkEncoder.class);
+
+    public static final String NAME = "opus";
+    public static final String CACHE_SUFFIX = ".opus";
+    // Opus支持的输入采样率，其它采样率先线性插值到不低于原采样率的最近一档
+    private static final int[] SUPPORTED_RATES = {8000, 12000, 16000, 24000, 48000};
+    private static final int FRAME_MS = 20;
+    // Ogg粒度位置固定按48kHz计
+    private static final int GRANULE_RATE = 48000;
+    private static final int MAX_PACKET_BYTES = 1275;
+
+    @Value("${downlink.opus.enabled:true}")
+    private boolean enabled;
+    @Value("${downlink.opus.bitrate:20000}")
+    private int bitrate;
+    // Concentus是纯Java实现，复杂度调低换编码速度，语音下差别不明显
+    @Value("${downlink.opus.complexity:5}")
+    private int complexity;
+    // 每个采样率最多保留的空闲编码器，并发更高时临时创建
+    @Value("${downlink.opus.pool-size:4}")
+    private int poolSize;
+
+    private final Map<Integer, BlockingQueue<OpusEncoder>> pools = new ConcurrentHashMap<>();
+    // 进行中的编码，同一段音频的并发请求共用一个future
+    private final Map<FileDto, CompletableFuture<String>> pending = new ConcurrentHashMap<>();
+    private final Executor executor;
+
+    private final AtomicLong clips = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong encodersCreated = new AtomicLong();
+    private final AtomicLong inputBytes = new AtomicLong();
+    private final AtomicLong outputBytes = new AtomicLong();
+    private final AtomicLong encodeMillis = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public OpusDownlinkEncoder(@Qualifier("opusEncodeExecutor") Executor executor) {
+        this.executor = executor;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 组装下行音频消息：编码成功时带 format=opus，失败时回退为原来的WAV消息
+     */
+    public String audioMessage(FileDto audio) {
+        String opus = encodeBase64(audio);
+        if (opus == null) {
+            return wavMessage(audio);
+        }
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("type", "audio");
+        jsonObject.put("format", NAME);
+        jsonObject.put("content", opus);
+        return jsonObject.toJSONString();
+    }
+
+    /**
+     * 在编码线程池上组装下行音频消息；已编码过的直接返回，线程池满或编码异常时回退为WAV消息
+     */
+    public CompletableFuture<String> audioMessageAsync(FileDto audio) {
+        if (!enabled || audio.getOpusBase64() != null) {
+            return CompletableFuture.completedFuture(audioMessage(audio));
+        }
+        CompletableFuture<String> future = pending.computeIfAbsent(audio, key -> {
+            try {
+                return CompletableFuture.supplyAsync(() -> audioMessage(key), executor)
+                        .exceptionally(e -> {
+                            failures.incrementAndGet();
+                            logger.warn("Opus编码异常，按WAV下发: {}", key.getPath(), e);
+                            return wavMessage(key);
+                        });
+            } catch (RejectedExecutionException e) {
+                rejected.incrementAndGet();
+                return CompletableFuture.completedFuture(wavMessage(key));
+            }
+        });
+        // 在映射函数外登记清理：future可能已经完成，回调会同步执行
+        future.whenComplete((message, e) -> pending.remove(audio, future));
+        return future;
+    }
+
+    /**
+     * 一轮的分段列表到达时预先提交编码，等到逐段下发时大多已经编好
+     */
+    public void prefetch(List<FileDto> audioList) {
+        if (enabled) {
+            audioList.forEach(this::audioMessageAsync);
+        }
+    }
+
+    private static String wavMessage(FileDto audio) {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("type", "audio");
+        jsonObject.put("content", audio.getBase64());
+        return jsonObject.toJSONString();
+    }
+
+    /**
+     * 取该段音频的Ogg Opus（base64）：先看内存，再看WAV旁边的缓存文件，都没有时编码；失败返回null
+     */
+    public String encodeBase64(FileDto audio) {
+        if (!enabled || audio == null) {
+            return null;
+        }
+        String cached = audio.getOpusBase64();
+        if (cached != null) {
+            cacheHits.incrementAndGet();
+            return cached;
+        }
+        // 多个订阅者同时下发同一段时只编码一次
+        synchronized (audio) {
+            cached = audio.getOpusBase64();
+            if (cached != null) {
+                cacheHits.incrementAndGet();
+                return cached;
+            }
+            byte[] ogg = loadOrEncode(audio);
+            if (ogg == null) {
+                return null;
+            }
+            String base64 = Base64.getEncoder().encodeToString(ogg);
+            audio.setOpusBase64(base64);
+            return base64;
+        }
+    }
+
+    private byte[] loadOrEncode(FileDto audio) {
+        Path cache = cachePath(audio.getPath());
+        try {
+            if (cache != null && Files.exists(cache)) {
+                cacheHits.incrementAndGet();
+                return Files.readAllBytes(cache);
+            }
+            byte[] wav = audio.getBase64() != null ? Base64.getDecoder().decode(audio.getBase64())
+                    : Files.readAllBytes(Path.of(audio.getPath()));
+            byte[] ogg = encode(wav);
+            if (cache != null) {
+                Files.write(cache, ogg);
+            }
+            return ogg;
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            logger.warn("Opus编码失败，回退为WAV下发: {}, {}", audio.getPath(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 缓存文件与WAV同目录同名，扩展名换成 .opus
+     */
+    static Path cachePath(String wavPath) {
+        if (wavPath == null) {
+            return null;
+        }
+        String base = wavPath.endsWith(".wav") ? wavPath.substring(0, wavPath.length() - 4) : wavPath;
+        return Path.of(base + CACHE_SUFFIX);
+    }
+
+    /**
+     * 16bit PCM的WAV编码为单声道Ogg Opus
+     */
+    public byte[] encode(byte[] wav) throws IOException, OpusException {
+        long start = System.currentTimeMillis();
+        Pcm pcm = Pcm.fromWav(wav);
+        int rate = encoderRate(pcm.sampleRate);
+        short[] samples = rate == pcm.sampleRate ? pcm.samples : resample(pcm.samples, pcm.sampleRate, rate);
+
+        OpusEncoder encoder = borrow(rate);
+        try {
+            int frame = rate * FRAME_MS / 1000;
+            int frameGranule = GRANULE_RATE * FRAME_MS / 1000;
+            int preSkip = encoder.getLookahead() * (GRANULE_RATE / rate);
+            OggOpusWriter writer = new OggOpusWriter(pcm.sampleRate, preSkip, ThreadLocalRandom.current().nextInt());
+            short[] input = new short[frame];
+            byte[] packet = new byte[MAX_PACKET_BYTES];
+            // 多编码覆盖编码器延迟的静音帧，把尾音完整推出来，多出的部分由最后一页的粒度位置裁掉
+            int paddingFrames = (encoder.getLookahead() + frame - 1) / frame;
+            int frames = (samples.length + frame - 1) / frame + paddingFrames;
+            for (int i = 0; i < frames; i++) {
+                int offset = i * frame;
+                int length = Math.max(0, Math.min(frame, samples.length - offset));
+                if (length > 0) {
+                    System.arraycopy(samples, offset, input, 0, length);
+                }
+                Arrays.fill(input, length, frame, (short) 0);
+                int bytes = encoder.encode(input, 0, frame, packet, 0, packet.length);
+                writer.writePacket(packet, bytes, frameGranule);
+            }
+            byte[] ogg = writer.finish(preSkip + (long) samples.length * (GRANULE_RATE / rate));
+            clips.incrementAndGet();
+            inputBytes.addAndGet(wav.length);
+            outputBytes.addAndGet(ogg.length);
+            encodeMillis.addAndGet(System.currentTimeMillis() - start);
+            return ogg;
+        } finally {
+            giveBack(rate, encoder);
+        }
+    }
+
+    private OpusEncoder borrow(int rate) throws OpusException {
+        OpusEncoder encoder = pools.computeIfAbsent(rate, r -> new ArrayBlockingQueue<>(Math.max(1, poolSize))).poll();
+        if (encoder != null) {
+            return encoder;
+        }
+        encoder = new OpusEncoder(rate, 1, OpusApplication.OPUS_APPLICATION_AUDIO);
+        encoder.setBitrate(bitrate);
+        encoder.setComplexity(complexity);
+        encoder.setSignalType(OpusSignal.OPUS_SIGNAL_VOICE);
+        encodersCreated.incrementAndGet();
+        return encoder;
+    }
+
+    /**
+     * 重置编码状态（码率等设置保留）后归还，池满时直接丢弃
+     */
+    private void giveBack(int rate, OpusEncoder encoder) {
+        encoder.resetState();
+        pools.get(rate).offer(encoder);
+    }
+
+    static int encoderRate(int sampleRate) {
+        for (int rate : SUPPORTED_RATES) {
+            if (rate >= sampleRate) {
+                return rate;
+            }
+        }
+        return SUPPORTED_RATES[SUPPORTED_RATES.length - 1];
+    }
+
+    static short[] resample(short[] samples, int from, int to) {
+        int length = (int) ((long) samples.length * to / from);
+        short[] out = new short[length];
+        for (int i = 0; i < length; i++) {
+            double position = (double) i * from / to;
+            int index = (int) position;
+            double fraction = position - index;
+            int next = Math.min(index + 1, samples.length - 1);
+            out[i] = (short) Math.round(samples[index] * (1 - fraction) + samples[next] * fraction);
+        }
+        return out;
+    }
+
+    /**
+     * WAV解析结果：多声道取平均合成单声道
+     */
+    static class Pcm {
+        final short[] samples;
+        final int sampleRate;
+
+        Pcm(short[] samples, int sampleRate) {
+            this.samples = samples;
+            this.sampleRate = sampleRate;
+        }
+
+        static Pcm fromWav(byte[] bytes) throws IOException {
+            ByteBuffer wav = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            if (wav.remaining() < 12 || wav.getInt(0) != 0x46464952 || wav.getInt(8) != 0x45564157) { // "RIFF" "WAVE"
+                throw new IOException("不是WAV格式");
+            }
+            int channels = 0, sampleRate = 0, bits = 0;
+            int pos = 12;
+            while (pos + 8 <= wav.limit()) {
+                int id = wav.getInt(pos);
+                int size = wav.getInt(pos + 4);
+                int body = pos + 8;
+                if (id == 0x20746D66) { // "fmt "
+                    channels = wav.getShort(body + 2);
+                    sampleRate = wav.getInt(body + 4);
+                    bits = wav.getShort(body + 14);
+                } else if (id == 0x61746164) { // "data"
+                    if (bits != 16 || channels <= 0 || sampleRate <= 0) {
+                        throw new IOException("不支持的WAV格式: channels=" + channels + ", bits=" + bits);
+                    }
+                    // 流式返回的WAV数据块长度可能为0或-1，按实际长度读取
+                    int length = size <= 0 ? wav.limit() - body : Math.min(size, wav.limit() - body);
+                    short[] samples = new short[length / (2 * channels)];
+                    for (int i = 0; i < samples.length; i++) {
+                        int sum = 0;
+                        for (int c = 0; c < channels; c++) {
+                            sum += wav.getShort(body + (i * channels + c) * 2);
+                        }
+                        samples[i] = (short) (sum / channels);
+                    }
+                    return new Pcm(samples, sampleRate);
+                }
+                pos = body + size + (size & 1);
+            }
+            throw new IOException("WAV缺少data块");
+        }
+    }
+
+    /**
+     * Ogg Opus封装（RFC 7845）：头页OpusHead、注释页OpusTags，之后每页最多50个包（1秒），最后一页带EOS标志
+     */
+    static class OggOpusWriter {
+        private static final int PACKETS_PER_PAGE = 50;
+        private static final int FLAG_BOS = 0x02;
+        private static final int FLAG_EOS = 0x04;
+        private static final byte[] VENDOR = "gyq".getBytes(StandardCharsets.US_ASCII);
+        private static final int[] CRC_TABLE = new int[256];
+
+        static {
+            // Ogg的CRC32：多项式0x04C11DB7，不反转，初值0，与java.util.zip.CRC32不同
+            for (int i = 0; i < 256; i++) {
+                int crc = i << 24;
+                for (int j = 0; j < 8; j++) {
+                    crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ 0x04C11DB7 : crc << 1;
+                }
+                CRC_TABLE[i] = crc;
+            }
+        }
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream lacing = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private final int serial;
+        private int sequence;
+        private int packetsInPage;
+        private long granule;
+        private long lastPageGranule;
+
+        OggOpusWriter(int inputSampleRate, int preSkip, int serial) {
+            this.serial = serial;
+            ByteBuffer head = ByteBuffer.allocate(19).order(ByteOrder.LITTLE_ENDIAN);
+            head.put("OpusHead".getBytes(StandardCharsets.US_ASCII));
+            head.put((byte) 1);               // 版本
+            head.put((byte) 1);               // 声道数
+            head.putShort((short) preSkip);
+            head.putInt(inputSampleRate);     // 原始采样率，仅供参考
+            head.putShort((short) 0);         // 输出增益
+            head.put((byte) 0);               // 声道映射族
+            writeSinglePacketPage(head.array(), FLAG_BOS);
+
+            ByteBuffer tags = ByteBuffer.allocate(8 + 4 + VENDOR.length + 4).order(ByteOrder.LITTLE_ENDIAN);
+            tags.put("OpusTags".getBytes(StandardCharsets.US_ASCII));
+            tags.putInt(VENDOR.length);
+            tags.put(VENDOR);
+            tags.putInt(0);                   // 无注释
+            writeSinglePacketPage(tags.array(), 0);
+        }
+
+        void writePacket(byte[] packet, int length, int granuleIncrement) {
+            if (packetsInPage >= PACKETS_PER_PAGE || lacing.size() + length / 255 + 1 > 255) {
+                flushPage(0);
+            }
+            addPacket(packet, length);
+            granule += granuleIncrement;
+        }
+
+        /**
+         * 写出最后一页；endGranule 为 预跳过 + 有效样本数，用于裁掉末尾补齐的静音
+         */
+        byte[] finish(long endGranule) {
+            granule = Math.max(endGranule, lastPageGranule);
+            flushPage(FLAG_EOS);
+            return out.toByteArray();
+        }
+
+        private void writeSinglePacketPage(byte[] packet, int flags) {
+            addPacket(packet, packet.length);
+            flushPage(flags);
+        }
+
+        private void addPacket(byte[] packet, int length) {
+            int remaining = length;
+            while (remaining >= 255) {
+                lacing.write(255);
+                remaining -= 255;
+            }
+            // 段长小于255表示包结束，长度正好是255倍数时补一个0
+            lacing.write(remaining);
+            body.write(packet, 0, length);
+            packetsInPage++;
+        }
+
+        private void flushPage(int flags) {
+            byte[] segments = lacing.toByteArray();
+            byte[] data = body.toByteArray();
+            ByteBuffer page = ByteBuffer.allocate(27 + segments.length + data.length).order(ByteOrder.LITTLE_ENDIAN);
+            page.put("OggS".getBytes(StandardCharsets.US_ASCII));
+            page.put((byte) 0);
+            page.put((byte) flags);
+            page.putLong(granule);
+            page.putInt(serial);
+            page.putInt(sequence++);
+            page.putInt(0);                   // CRC占位
+            page.put((byte) segments.length);
+            page.put(segments);
+            page.put(data);
+            byte[] bytes = page.array();
+            int crc = 0;
+            for (byte b : bytes) {
+                crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ b) & 0xFF];
+            }
+            page.putInt(22, crc);
+            out.write(bytes, 0, bytes.length);
+            lastPageGranule = granule;
+            lacing.reset();
+            body.reset();
+            packetsInPage = 0;
+        }
+    }
+
+    public EncoderStatus getStatus() {
+        int idle = pools.values().stream().mapToInt(BlockingQueue::size).sum();
+        return new EncoderStatus(enabled, bitrate, clips.get(), cacheHits.get(), failures.get(), rejected.get(),
+                encodersCreated.get(), idle, pending.size(), inputBytes.get(), outputBytes.get(), encodeMillis.get());
+    }
+
+    // 下行编码统计：压缩比为WAV字节/Opus字节
+    public static class EncoderStatus {
+        private final boolean enabled;
+        private final int bitrate;
+        private final long clips;
+        private final long cacheHits;
+        private final long failures;
+        private final long rejected;
+        private final long encodersCreated;
+        private final int idleEncoders;
+        private final int pending;
+        private final long inputBytes;
+        private final long outputBytes;
+        private final long encodeMillis;
+
+        public EncoderStatus(boolean enabled, int bitrate, long clips, long cacheHits, long failures, long rejected,
+                             long encodersCreated, int idleEncoders, int pending, long inputBytes, long outputBytes,
+                             long encodeMillis) {
+            this.enabled = enabled;
+            this.bitrate = bitrate;
+            this.clips = clips;
+            this.cacheHits = cacheHits;
+            this.failures = failures;
+            this.rejected = rejected;
+            this.encodersCreated = encodersCreated;
+            this.idleEncoders = idleEncoders;
+            this.pending = pending;
+            this.inputBytes = inputBytes;
+            this.outputBytes = outputBytes;
+            this.encodeMillis = encodeMillis;
+        }
+
+        public long getClips() { return clips; }
+        public long getCacheHits() { return cacheHits; }
+        public int getPending() { return pending; }
+
+        public double getCompressionRatio() {
+            return outputBytes > 0 ? (double) inputBytes / outputBytes : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("EncoderStatus{enabled=%s, bitrate=%d, clips=%d, cacheHits=%d, failures=%d, rejected=%d, encoders=%d(idle %d), pending=%d, wav=%dKB, opus=%dKB, 压缩比=%.1fx, avgEncode=%.0fms}",
+                    enabled, bitrate, clips, cacheHits, failures, rejected, encodersCreated, idleEncoders, pending,
+                    inputBytes / 1024, outputBytes / 1024, getCompressionRatio(),
+                    clips > 0 ? (double) encodeMillis / clips : 0);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.gyq.service.AudioCodecService;
+
+import io.github.jaredmdobson.concentus.OpusDecoder;
+import io.github.jaredmdobson.concentus.OpusException;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 上行Opus解码 - 前端用 ?audio=opus 声明上行格式后，二进制消息按Opus处理，在JVM内解码成16kHz单声道16bit PCM，
+ * 直接进入原来的识别路径（不再需要ffmpeg降采样），上行带宽约为原始48kHz PCM的十分之一
+ *
+ * 支持两种封装：
+ * 1. Ogg（MediaRecorder 的 audio/ogg;codecs=opus）：消息以 "OggS" 开头，页可以跨消息，内部按页拼接出Opus包
+ * 2. 裸Opus包（WebCodecs AudioEncoder）：每条消息一个包
+ *
+ * 每个会话一个实例，只在该会话的消息线程上调用，非线程安全
+ */
+public class OpusUplinkDecoder {
+
+    public static final int OUTPUT_SAMPLE_RATE = 16000;
+    // Opus单包最长120ms
+    private static final int MAX_FRAME_SAMPLES = OUTPUT_SAMPLE_RATE * 120 / 1000;
+    private static final byte[] OGG_MAGIC = "OggS".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] OPUS_HEAD = "OpusHead".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] OPUS_TAGS = "OpusTags".getBytes(StandardCharsets.US_ASCII);
+
+    private OpusDecoder decoder;
+    private final short[] pcm = new short[MAX_FRAME_SAMPLES];
+    private final OggPacketReader oggReader = new OggPacketReader();
+    // 当前这句话是否为Ogg封装，由第一条消息判断
+    private Boolean ogg;
+
+    private long messages;
+    private long packets;
+    private long inputBytes;
+    private long outputBytes;
+    private long errors;
+
+    public OpusUplinkDecoder() throws OpusException {
+        this.decoder = new OpusDecoder(OUTPUT_SAMPLE_RATE, 1);
+    }
+
+    /**
+     * 解码一条上行消息，返回16kHz PCM（小端）；Ogg页还不完整时返回空数组
+     *
+     * @throws OpusException 裸包损坏，调用方丢弃该消息即可；Ogg里的坏包跳过，只计入错误数
+     */
+    public byte[] decode(ByteBuffer message) throws OpusException {
+        byte[] data = new byte[message.remaining()];
+        message.get(data);
+        messages++;
+        inputBytes += data.length;
+        if (ogg == null) {
+            ogg = startsWith(data, OGG_MAGIC);
+        }
+        if (!ogg) {
+            return decodePacket(data);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] packet : oggReader.feed(data)) {
+            // 头包（OpusHead）和注释包（OpusTags）不含音频
+            if (startsWith(packet, OPUS_HEAD) || startsWith(packet, OPUS_TAGS)) {
+                continue;
+            }
+            try {
+                byte[] decoded = decodePacket(packet);
+                out.write(decoded, 0, decoded.length);
+            } catch (OpusException e) {
+                // 同一页里的其它包照常解码
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] decodePacket(byte[] packet) throws OpusException {
+        int samples;
+        try {
+            samples = decoder.decode(packet, 0, packet.length, pcm, 0, MAX_FRAME_SAMPLES, false);
+        } catch (OpusException e) {
+            errors++;
+            throw e;
+        }
+        packets++;
+        byte[] bytes = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            bytes[2 * i] = (byte) pcm[i];
+            bytes[2 * i + 1] = (byte) (pcm[i] >> 8);
+        }
+        outputBytes += bytes.length;
+        return bytes;
+    }
+
+    /**
+     * 一句话结束：下一句可能换封装或重新开始Ogg流，解码器状态一并重置
+     */
+    public void reset() throws OpusException {
+        decoder = new OpusDecoder(OUTPUT_SAMPLE_RATE, 1);
+        oggReader.reset();
+        ogg = null;
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        if (data.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 增量Ogg解析：缓存不完整的页，按段表拼出完整的包（包可以跨页）
+     */
+    static class OggPacketReader {
+        private static final int HEADER_BYTES = 27;
+
+        private byte[] pending = new byte[0];
+        private final ByteArrayOutputStream partialPacket = new ByteArrayOutputStream();
+
+        List<byte[]> feed(byte[] data) {
+            byte[] buffer = new byte[pending.length + data.length];
+            System.arraycopy(pending, 0, buffer, 0, pending.length);
+            System.arraycopy(data, 0, buffer, pending.length, data.length);
+
+            List<byte[]> result = new ArrayList<>();
+            int offset = 0;
+            while (buffer.length - offset >= HEADER_BYTES) {
+                if (buffer[offset] != 'O' || buffer[offset + 1] != 'g' || buffer[offset + 2] != 'g'
+                        || buffer[offset + 3] != 'S') {
+                    // 丢失同步，向后找下一个页头
+                    offset++;
+                    continue;
+                }
+                int segments = buffer[offset + 26] & 0xFF;
+                if (buffer.length - offset < HEADER_BYTES + segments) {
+                    break;
+                }
+                int bodyLength = 0;
+                for (int i = 0; i < segments; i++) {
+                    bodyLength += buffer[offset + HEADER_BYTES + i] & 0xFF;
+                }
+                int bodyStart = offset + HEADER_BYTES + segments;
+                if (buffer.length - bodyStart < bodyLength) {
+                    break;
+                }
+                boolean continued = (buffer[offset + 5] & 0x01) != 0;
+                if (!continued) {
+                    // 上一页末尾未完成的包在新包开始时作废
+                    partialPacket.reset();
+                }
+                int position = bodyStart;
+                for (int i = 0; i < segments; i++) {
+                    int lacing = buffer[offset + HEADER_BYTES + i] & 0xFF;
+                    partialPacket.write(buffer, position, lacing);
+                    position += lacing;
+                    // 段长小于255表示包结束
+                    if (lacing < 255) {
+                        result.add(partialPacket.toByteArray());
+                        partialPacket.reset();
+                    }
+                }
+                offset = bodyStart + bodyLength;
+            }
+            pending = offset == 0 ? buffer : Arrays.copyOfRange(buffer, offset, buffer.length);
+            return result;
+        }
+
+        void reset() {
+            pending = new byte[0];
+            partialPacket.reset();
+        }
+    }
+
+    public DecoderStatus getStatus() {
+        return new DecoderStatus(ogg == null ? "-" : (ogg ? "ogg" : "raw"), messages, packets, inputBytes,
+                outputBytes, errors);
+    }
+
+    // 上行解码统计；压缩比按解码出的16kHz PCM折算成48kHz原始上行计算
+    public static class DecoderStatus {
+        private final String container;
+        private final long messages;
+        private final long packets;
+        private final long inputBytes;
+        private final long outputBytes;
+        private final long errors;
+
+        public DecoderStatus(String container, long messages, long packets, long inputBytes, long outputBytes,
+                             long errors) {
+            this.container = container;
+            this.messages = messages;
+            this.packets = packets;
+            this.inputBytes = inputBytes;
+            this.outputBytes = outputBytes;
+            this.errors = errors;
+        }
+
+        public long getInputBytes() { return inputBytes; }
+        public long getOutputBytes() { return outputBytes; }
+
+        public double getSavingRatio() {
+            return inputBytes > 0 ? (double) outputBytes * 3 / inputBytes : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("DecoderStatus{container=%s, messages=%d, packets=%d, in=%dKB, pcm16k=%dKB, 压缩比=%.1fx, errors=%d}",
+                    container, messages, packets, inputBytes / 1024, outputBytes / 1024, getSavingRatio(), errors);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.gyq.service.AudioCodecService;
+
+import com.gyq.service.AudioService;
+import io.github.jaredmdobson.concentus.OpusException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 上行音频 - 各对话端点共用：按会话记录上行格式（?audio=opus 或原始48kHz PCM），
+ * Opus会话的消息先解码成16kHz PCM，并给出该会话一句话的文件后缀和采样率
+ *
+ * 会话声明Opus后一直按Opus处理；解码器不可用时丢弃消息并记错，不会把Opus包当成PCM送去识别
+ */
+@Service
+public class UplinkAudioService {
+    private static final Logger logger = LoggerFactory.getLogger(UplinkAudioService.class);
+
+    private static final String PCM_SUFFIX = ".pcm";
+
+    /**
+     * 一个Opus上行会话；解码器创建或重置失败时为null，下一条消息重新创建
+     */
+    private static class OpusUplink {
+        volatile OpusUplinkDecoder decoder;
+        long dropped;
+    }
+
+    private final Map<String, OpusUplink> opusUplinks = new ConcurrentHashMap<>();
+
+    /**
+     * 会话建立时登记上行格式
+     */
+    public void open(String token, boolean opus) {
+        if (!opus) {
+            opusUplinks.remove(token);
+            return;
+        }
+        OpusUplink uplink = new OpusUplink();
+        uplink.decoder = createDecoder(token);
+        opusUplinks.put(token, uplink);
+    }
+
+    /**
+     * 解码一条上行消息：PCM会话原样返回；Opus会话返回16kHz PCM
+     *
+     * @return 没有可用样本时（坏包、Ogg页还不完整、解码器不可用）返回null，调用方直接忽略这条消息
+     */
+    public ByteBuffer decode(String token, ByteBuffer message) {
+        OpusUplink uplink = opusUplinks.get(token);
+        if (uplink == null) {
+            return message;
+        }
+        OpusUplinkDecoder decoder = uplink.decoder;
+        if (decoder == null) {
+            decoder = uplink.decoder = createDecoder(token);
+            if (decoder == null) {
+                uplink.dropped++;
+                return null;
+            }
+        }
+        try {
+            byte[] pcm = decoder.decode(message);
+            return pcm.length > 0 ? ByteBuffer.wrap(pcm) : null;
+        } catch (OpusException e) {
+            logger.warn("[{}]Opus包解码失败，已丢弃: {}", token, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 一句话结束：重置解码器，下一句可能换封装或重新开始Ogg流；重置失败时仍按Opus接收，下一条消息重建解码器
+     */
+    public void endUtterance(String token) {
+        OpusUplink uplink = opusUplinks.get(token);
+        if (uplink == null || uplink.decoder == null) {
+            return;
+        }
+        try {
+            uplink.decoder.reset();
+        } catch (OpusException e) {
+            logger.error("[{}]重置Opus解码器失败，下一条消息重新创建: {}", token, e.getMessage());
+            uplink.decoder = null;
+        }
+    }
+
+    /**
+     * 一句话的文件名后缀：Opus上行解码后已是16kHz，用后缀告诉识别路径跳过降采样
+     */
+    public String fileSuffix(String token) {
+        return opusUplinks.containsKey(token) ? AudioService.PCM_16K_SUFFIX : PCM_SUFFIX;
+    }
+
+    /**
+     * 交给插话检测等逐帧处理的PCM采样率
+     */
+    public int sampleRate(String token) {
+        return opusUplinks.containsKey(token) ? OpusUplinkDecoder.OUTPUT_SAMPLE_RATE : AudioService.PCM_UPLINK_SAMPLE_RATE;
+    }
+
+    public void close(String token) {
+        opusUplinks.remove(token);
+    }
+
+    private static OpusUplinkDecoder createDecoder(String token) {
+        try {
+            return new OpusUplinkDecoder();
+        } catch (OpusException e) {
+            logger.error("[{}]创建Opus解码器失败，本条上行丢弃: {}", token, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 各Opus上行会话的解码统计
+     */
+    public Map<String, String> getStatuses() {
+        Map<String, String> statuses = new LinkedHashMap<>();
+        opusUplinks.forEach((token, uplink) -> {
+            OpusUplinkDecoder decoder = uplink.decoder;
+            statuses.put(token, (decoder != null ? decoder.getStatus().toString() : "DecoderStatus{不可用}")
+                    + (uplink.dropped > 0 ? ", dropped=" + uplink.dropped : ""));
+        });
+        return statuses;
+    }
+}
@@ -1,37 +1,62 @@
 package com.gyq.service;
 
-import com.alibaba.fastjson.JSONPath;
 import com.alibaba.nls.client.AccessToken;
+import com.gyq.service.AsrProviderService.HedgedAsrClient;
+import com.gyq.service.CredentialService.CredentialManager;
+import com.gyq.service.TurnService.TurnDeadline;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.HashMap;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class AudioService {
-    private AccessToken accessToken; // 新增：用于存储当前的AccessToken对象
-    @Value("${alibaba.key}")
-    private String key;
+    // 单次识别（格式转换 + 识别请求）的上限，与本轮剩余预算取小
+    private static final long ASR_TIMEOUT_MS = 60_000;
+    public static final String NLS_CREDENTIAL = "nls";
+    // 已是16kHz的PCM文件后缀（ffmpeg转换的输出、上行Opus解码的结果），识别前不再转换
+    public static final String PCM_16K_SUFFIX = "_16000.pcm";
+    // 前端直传的PCM上行采样率
+    public static final int PCM_UPLINK_SAMPLE_RATE = 48000;
+    // NLS token由凭证管理器在过期前后台刷新
+    @Resource
+    private CredentialManager credentialManager;
+    @Resource
+    private HedgedAsrClient hedgedAsrClient;
     @Value("${alibaba.secret}")
     private String secret;
     @Value("${alibaba.id}")
     private String id;
-    @Value("${alibaba.url}")
-    private String url;
+
+    @PostConstruct
+    public void init() {
+        credentialManager.register(NLS_CREDENTIAL, () -> {
+            AccessToken accessToken = new AccessToken(id, secret);
+            accessToken.apply();
+            // getExpireTime 是秒级时间戳
+            return new CredentialManager.Credential(accessToken.getToken(),
+                    TimeUnit.SECONDS.toMillis(accessToken.getExpireTime()));
+        });
+    }
 
     /**
-     * 获取token
+     * 获取token：读取凭证管理器的快照，不在请求路径上申请token
      */
     public String getToken() throws IOException {
-        if (accessToken == null || System.currentTimeMillis() >= accessToken.getExpireTime()) { // 检查token是否过期
-            accessToken = new AccessToken(id, secret);
-            accessToken.apply();
-        }
-        System.out.println("过期时间"+accessToken.getExpireTime());
-        return accessToken.getToken(); // 返回有效的token
+        return credentialManager.get(NLS_CREDENTIAL);
+    }
+
+    /**
+     * 预热token：快到期时提前刷新，有效期充足时什么也不做
+     */
+    public void prewarmToken(Duration timeout) throws IOException {
+        credentialManager.refreshIfExpiring(NLS_CREDENTIAL, timeout);
     }
 
     /**
@@ -41,69 +66,48 @@ public class AudioService {
      * @return
      */
     public String process(String fileName) {
+        return process(fileName, TurnDeadline.unbounded());
+    }
+
+    /**
+     * 限时版本：格式转换和识别请求都不超过本轮剩余预算，用完时抛出 DeadlineExceededException
+     */
+    public String process(String fileName, TurnDeadline deadline) {
+        deadline.check("ASR");
         // 1.转换音频为16000Hz
-        String convertedFileName = convertTo16000Hz(fileName);
+        String convertedFileName = is16k(fileName) ? fileName
+                : convertTo16000Hz(fileName, deadline.timeoutMillis(ASR_TIMEOUT_MS));
+        deadline.check("ASR");
         if (convertedFileName == null) {
             System.err.println("音频转换失败!");
             return null;
         }
 
 
-        /**
-         * 设置HTTPS RESTful POST请求：
-         * 1.使用HTTPS协议。
-         * 2.语音识别服务域名：nls-gateway-cn-shanghai.aliyuncs.com。
-         * 3.语音识别接口请求路径：/stream/v1/asr。
-         * 4.设置必选请求参数：appkey、format、sample_rate。
-         * 5.设置可选请求参数：enable_punctuation_prediction、enable_inverse_text_normalization、enable_voice_detection。
-         */
-        String request = url;
-        request = request + "?appkey=" + key;
-        request = request + "&format=" + "pcm";
-        request = request + "&sample_rate=" + 16000;
-        request = request + "&enable_punctuation_prediction=" + true;
-        request = request + "&enable_inverse_text_normalization=" + true;
-        request = request + "&enable_voice_detection=" + false;
-        System.out.println("Request: " + request);
-
-        /**
-         * 设置HTTPS头部字段：
-         * 1.鉴权参数。
-         * 2.Content-Type：application/octet-stream。
-         */
-        HashMap<String, String> headers = new HashMap<String, String>();
+        // 2.REST一句话识别与实时识别对冲，主用超过p90未返回时由另一条通道补发
         try {
-            String token = getToken();
-            headers.put("X-NLS-Token", token);
-        } catch (IOException e) {
-            System.out.println("获取Token失败");
-        }
-
-        headers.put("Content-Type", "application/octet-stream");
-
-        /**
-         * 发送HTTPS POST请求，返回服务端的响应。
-         */
-        String response = HttpUtil.sendPostFile(request, headers, convertedFileName);
-
-        if (response != null) {
-            System.out.println("Response: " + response);
-            String result = JSONPath.read(response, "result").toString();
+            String result = hedgedAsrClient.recognize(convertedFileName,
+                    Duration.ofMillis(deadline.timeoutMillis(ASR_TIMEOUT_MS)));
             System.out.println("识别结果：" + result);
             return result;
-        } else {
-            System.err.println("识别失败!");
+        } catch (Exception e) {
+            deadline.check("ASR");
+            System.err.println("识别失败! " + e.getMessage());
         }
         return null;
     }
 
-    private String convertTo16000Hz(String fileName) {
+    public static boolean is16k(String fileName) {
+        return fileName.endsWith(PCM_16K_SUFFIX);
+    }
+
+    private String convertTo16000Hz(String fileName, long timeoutMillis) {
         try {
             // 输出文件路径
-            String outputFileName = fileName.replace(".pcm", "_16000.pcm");
+            String outputFileName = fileName.replace(".pcm", PCM_16K_SUFFIX);
 
             // 构建 FFmpeg 命令
-            String command = String.format("ffmpeg -f s16le -ar 48000 -ac 1 -i %s -ar 16000 -f s16le %s", fileName, outputFileName);
+            String command = String.format("ffmpeg -f s16le -ar %d -ac 1 -i %s -ar 16000 -f s16le %s", PCM_UPLINK_SAMPLE_RATE, fileName, outputFileName);
 
             // 执行命令
             Process process = Runtime.getRuntime().exec(command);
@@ -139,7 +143,12 @@ public class AudioService {
             }).start();
 
             // 等待 FFmpeg 命令执行完毕
-            int exitCode = process.waitFor();
+            if (!process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly();
+                System.err.println("FFmpeg 转换音频超时");
+                return null;
+            }
+            int exitCode = process.exitValue();
             if (exitCode == 0) {
                 System.out.println("音频转换成功：" + outputFileName);
                 System.out.println("FFmpeg 输出: " + output.toString());
@@ -0,0 +1,334 @@
+package com.gyq.service.BlockingQueueService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 差分帧转码器 - MuseTalk相邻两帧之间只有脸部/嘴部区域变化，
+ * 只把变化区域的包围盒编码成小JPEG补丁发给前端，由前端在画布上合成。
+ *
+ * 1. JPEG解码提交到多核解码线程池，按输入顺序流水线取回（最多 pipelineDepth 帧在途）
+ * 2. 与前端当前画面（参考帧）逐像素比较，求变化包围盒，按16像素对齐
+ * 3. 每 keyInterval 帧、尺寸变化或变化面积过大时直接转发原始JPEG作为关键帧
+ *
+ * 消息格式见 docs/差分帧下行协议.md
+ */
+public class DeltaFrameTranscoder implements FrameTranscoder {
+    private static final Logger logger = LoggerFactory.getLogger(DeltaFrameTranscoder.class);
+
+    public static final String NAME = "delta";
+    private static final byte KEY_TAG = 'K';
+    private static final byte PATCH_TAG = 'P';
+    private static final int KEY_HEADER = 10;
+    private static final int PATCH_HEADER = 14;
+    private static final int ALIGN = 16;             // JPEG MCU大小，对齐后补丁边缘没有色块
+    private static final double MAX_PATCH_AREA = 0.6; // 变化面积超过60%时直接发关键帧
+    private static final int STATS_INTERVAL = 250;   // 每250帧（约10秒）输出一次统计
+
+    private static final ThreadMXBean THREAD_MX = ManagementFactory.getThreadMXBean();
+
+    private final String sessionId;
+    private final VideoFrameBuffer output;
+    private final ExecutorService decodePool;
+    private final int keyInterval;
+    private final int threshold;
+    private final float quality;
+    private final int pipelineDepth;
+
+    // 按输入顺序排队的解码任务，只由发送线程访问
+    private final ArrayDeque<Future<Decoded>> pending = new ArrayDeque<>();
+    // 前端画布当前内容（关键帧 + 已下发补丁）
+    private int[] reference;
+    private int width;
+    private int height;
+    private long sinceKey;
+    private volatile boolean healthy = true;
+
+    private final AtomicLong frames = new AtomicLong(0);
+    private final AtomicLong keyFrames = new AtomicLong(0);
+    private final AtomicLong patchFrames = new AtomicLong(0);
+    private final AtomicLong emptyFrames = new AtomicLong(0);
+    private final AtomicLong inputBytes = new AtomicLong(0);
+    private final AtomicLong outputBytes = new AtomicLong(0);
+    private final AtomicLong cpuNanos = new AtomicLong(0);
+
+    public DeltaFrameTranscoder(String sessionId, VideoFrameBuffer output, ExecutorService decodePool,
+                                int keyInterval, int threshold, float quality, int pipelineDepth) {
+        this.sessionId = sessionId;
+        this.output = output;
+        this.decodePool = decodePool;
+        this.keyInterval = Math.max(1, keyInterval);
+        this.threshold = threshold;
+        this.quality = quality;
+        this.pipelineDepth = Math.max(1, pipelineDepth);
+        logger.info("差分帧转码已启用: session={}, keyInterval={}, threshold={}, pipeline={}",
+                sessionId, this.keyInterval, threshold, this.pipelineDepth);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getConfigMessage() {
+        return String.format("{\"type\":\"video_config\",\"codec\":\"%s\",\"key_interval\":%d}", NAME, keyInterval);
+    }
+
+    @Override
+    public void onFrame(ByteBuffer jpeg) throws IOException {
+        if (!healthy) {
+            throw new IOException("差分帧转码器已关闭");
+        }
+        ByteBuffer frame = jpeg.duplicate();
+        try {
+            pending.add(decodePool.submit(() -> decode(frame)));
+        } catch (RejectedExecutionException e) {
+            throw new IOException("解码线程池已关闭", e);
+        }
+        // 队首已解码完成或在途帧过多时按顺序输出
+        while (!pending.isEmpty() && (pending.peek().isDone() || pending.size() > pipelineDepth)) {
+            process(await(pending.poll()));
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        while (!pending.isEmpty()) {
+            process(await(pending.poll()));
+        }
+    }
+
+    @Override
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    /**
+     * 解码线程执行：解码JPEG并取出像素，记录本线程CPU耗时
+     */
+    private Decoded decode(ByteBuffer jpeg) throws IOException {
+        long cpuStart = THREAD_MX.getCurrentThreadCpuTime();
+        BufferedImage image = JpegCodec.decode(jpeg);
+        int w = image.getWidth();
+        int h = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, w, h, null, 0, w);
+        long cpu = THREAD_MX.getCurrentThreadCpuTime() - cpuStart;
+        return new Decoded(jpeg, image, pixels, w, h, cpu);
+    }
+
+    private Decoded await(Future<Decoded> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待解码结果被中断", e);
+        } catch (ExecutionException e) {
+            throw new IOException("JPEG解码失败", e.getCause());
+        }
+    }
+
+    /**
+     * 发送线程执行：求变化包围盒，输出关键帧或补丁
+     */
+    private void process(Decoded frame) throws IOException {
+        long cpuStart = THREAD_MX.getCurrentThreadCpuTime();
+        long seq = frames.getAndIncrement();
+        inputBytes.addAndGet(frame.jpeg.remaining());
+
+        boolean key = reference == null || frame.width != width || frame.height != height || sinceKey >= keyInterval;
+        int[] box = key ? null : changedBox(frame.pixels);
+        if (!key && box != null && (long) box[2] * box[3] > MAX_PATCH_AREA * width * height) {
+            key = true;
+        }
+
+        if (key) {
+            sendKey(frame, seq);
+        } else if (box == null) {
+            sendPatch(seq, 0, 0, 0, 0, null);
+            emptyFrames.incrementAndGet();
+            sinceKey++;
+        } else {
+            BufferedImage crop = frame.image.getSubimage(box[0], box[1], box[2], box[3]);
+            sendPatch(seq, box[0], box[1], box[2], box[3], JpegCodec.encode(crop, quality));
+            applyPatch(frame.pixels, box);
+            patchFrames.incrementAndGet();
+            sinceKey++;
+        }
+
+        cpuNanos.addAndGet(frame.decodeCpuNanos + THREAD_MX.getCurrentThreadCpuTime() - cpuStart);
+        if ((seq + 1) % STATS_INTERVAL == 0) {
+            logger.info("差分帧统计[{}]: {}", sessionId, getStatus());
+        }
+    }
+
+    /**
+     * 与参考帧比较，任一通道差值超过阈值视为变化；返回对齐后的 {x, y, w, h}，无变化返回null
+     */
+    private int[] changedBox(int[] pixels) {
+        int minX = width, minY = height, maxX = -1, maxY = -1;
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                int a = pixels[row + x];
+                int b = reference[row + x];
+                if (a == b) {
+                    continue;
+                }
+                if (Math.abs(((a >> 16) & 0xFF) - ((b >> 16) & 0xFF)) > threshold
+                        || Math.abs(((a >> 8) & 0xFF) - ((b >> 8) & 0xFF)) > threshold
+                        || Math.abs((a & 0xFF) - (b & 0xFF)) > threshold) {
+                    if (x < minX) minX = x;
+                    if (x > maxX) maxX = x;
+                    if (y < minY) minY = y;
+                    if (y > maxY) maxY = y;
+                }
+            }
+        }
+        if (maxX < 0) {
+            return null;
+        }
+        int x0 = minX / ALIGN * ALIGN;
+        int y0 = minY / ALIGN * ALIGN;
+        int x1 = Math.min(width, (maxX / ALIGN + 1) * ALIGN);
+        int y1 = Math.min(height, (maxY / ALIGN + 1) * ALIGN);
+        return new int[]{x0, y0, x1 - x0, y1 - y0};
+    }
+
+    /**
+     * 补丁区域写回参考帧，保持与前端画布一致（忽略补丁JPEG的量化误差，由周期关键帧纠正）
+     */
+    private void applyPatch(int[] pixels, int[] box) {
+        for (int y = box[1]; y < box[1] + box[3]; y++) {
+            System.arraycopy(pixels, y * width + box[0], reference, y * width + box[0], box[2]);
+        }
+    }
+
+    /**
+     * 关键帧直接转发原始JPEG，不重新编码
+     */
+    private void sendKey(Decoded frame, long seq) {
+        ByteBuffer jpeg = frame.jpeg.duplicate();
+        ByteBuffer message = ByteBuffer.allocate(KEY_HEADER + jpeg.remaining());
+        message.put(KEY_TAG).put((byte) 1).putInt((int) seq);
+        message.putShort((short) frame.width).putShort((short) frame.height);
+        message.put(jpeg).flip();
+        reference = frame.pixels;
+        width = frame.width;
+        height = frame.height;
+        sinceKey = 1;
+        keyFrames.incrementAndGet();
+        outputBytes.addAndGet(message.remaining());
+        output.sendEncoded(message);
+    }
+
+    private void sendPatch(long seq, int x, int y, int w, int h, ByteBuffer jpeg) {
+        int length = jpeg == null ? 0 : jpeg.remaining();
+        ByteBuffer message = ByteBuffer.allocate(PATCH_HEADER + length);
+        message.put(PATCH_TAG).put((byte) 0).putInt((int) seq);
+        message.putShort((short) x).putShort((short) y).putShort((short) w).putShort((short) h);
+        if (jpeg != null) {
+            message.put(jpeg);
+        }
+        message.flip();
+        outputBytes.addAndGet(message.remaining());
+        output.sendEncoded(message);
+    }
+
+    @Override
+    public void close() {
+        healthy = false;
+        pending.forEach(future -> future.cancel(true));
+        pending.clear();
+        reference = null;
+        logger.info("差分帧转码已关闭: session={}, {}", sessionId, getStatus());
+    }
+
+    public DeltaStatus getStatus() {
+        return new DeltaStatus(frames.get(), keyFrames.get(), patchFrames.get(), emptyFrames.get(),
+                inputBytes.get(), outputBytes.get(), cpuNanos.get());
+    }
+
+    /**
+     * 已解码的一帧
+     */
+    private static class Decoded {
+        final ByteBuffer jpeg;
+        final BufferedImage image;
+        final int[] pixels;
+        final int width;
+        final int height;
+        final long decodeCpuNanos;
+
+        Decoded(ByteBuffer jpeg, BufferedImage image, int[] pixels, int width, int height, long decodeCpuNanos) {
+            this.jpeg = jpeg;
+            this.image = image;
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+            this.decodeCpuNanos = decodeCpuNanos;
+        }
+    }
+
+    /**
+     * 差分帧统计：每帧输入/输出字节数和CPU耗时，用于调整关键帧间隔和阈值
+     */
+    public static class DeltaStatus {
+        private final long frames;
+        private final long keyFrames;
+        private final long patchFrames;
+        private final long emptyFrames;
+        private final long inputBytes;
+        private final long outputBytes;
+        private final long cpuNanos;
+
+        public DeltaStatus(long frames, long keyFrames, long patchFrames, long emptyFrames,
+                           long inputBytes, long outputBytes, long cpuNanos) {
+            this.frames = frames;
+            this.keyFrames = keyFrames;
+            this.patchFrames = patchFrames;
+            this.emptyFrames = emptyFrames;
+            this.inputBytes = inputBytes;
+            this.outputBytes = outputBytes;
+            this.cpuNanos = cpuNanos;
+        }
+
+        public long getFrames() { return frames; }
+        public long getKeyFrames() { return keyFrames; }
+        public long getPatchFrames() { return patchFrames; }
+        public long getEmptyFrames() { return emptyFrames; }
+        public long getInputBytes() { return inputBytes; }
+        public long getOutputBytes() { return outputBytes; }
+
+        public double getInputBytesPerFrame() {
+            return frames > 0 ? (double) inputBytes / frames : 0;
+        }
+
+        public double getOutputBytesPerFrame() {
+            return frames > 0 ? (double) outputBytes / frames : 0;
+        }
+
+        public double getCpuMsPerFrame() {
+            return frames > 0 ? cpuNanos / 1_000_000.0 / frames : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("DeltaStatus{frames=%d, key=%d, patch=%d, empty=%d, in=%.0fB/帧, out=%.0fB/帧(%.1f%%), cpu=%.2fms/帧}",
+                frames, keyFrames, patchFrames, emptyFrames, getInputBytesPerFrame(), getOutputBytesPerFrame(),
+                inputBytes > 0 ? outputBytes * 100.0 / inputBytes : 0, getCpuMsPerFrame());
+        }
+    }
+}
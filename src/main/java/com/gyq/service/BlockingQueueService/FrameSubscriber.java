@@ -0,0 +1,62 @@
+package com.gyq.service.BlockingQueueService;
+
+import com.gyq.FileDto;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * 观看组订阅者 - 接收一路渲染会话广播出的视频帧、音频和JSON事件
+ */
+public interface FrameSubscriber {
+
+    /**
+     * 订阅者标识（一般为前端会话ID）
+     */
+    String getSubscriberId();
+
+    /**
+     * 接收一帧视频，frame 是共享帧的只读视图，seq 为组内帧序号
+     */
+    boolean onFrame(ByteBuffer frame, long seq);
+
+    /**
+     * 接收JSON事件
+     */
+    void onText(String message);
+
+    /**
+     * 接收一段TTS音频，默认按JSON消息转发
+     */
+    default void onAudio(FileDto audio, String message) {
+        onText(message);
+    }
+
+    /**
+     * 一轮的全部分段在渲染前到达，需要转码音频的订阅者可提前开始
+     */
+    default void prepareAudio(List<FileDto> audioList) {
+    }
+
+    /**
+     * 分段开始/结束，用于切换待机帧
+     */
+    default void beginSegment(String avatar) {
+    }
+
+    default void endSegment() {
+    }
+
+    /**
+     * 对话被取消：丢弃尚未播出的帧和音频
+     */
+    default void flush() {
+    }
+
+    /**
+     * 订阅者是否仍然有效，无效的订阅者会被观看组移除
+     */
+    boolean isActive();
+
+    void close();
+}
@@ -0,0 +1,46 @@
+package com.gyq.service.BlockingQueueService;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 帧转码阶段 - 挂在 VideoFrameBuffer 的发送线程上，把MuseTalk输出的JPEG帧
+ * 转成其它下行格式（H.264、差分帧等），结果通过 VideoFrameBuffer 发出
+ */
+public interface FrameTranscoder {
+
+    /**
+     * 转码器名称，同时作为前端 video_config 消息里的 codec 标识
+     */
+    String getName();
+
+    /**
+     * 切换到该格式时发给前端的 video_config 消息（JSON）
+     */
+    String getConfigMessage();
+
+    /**
+     * 输入一帧JPEG（只读视图），由发送线程调用
+     */
+    void onFrame(ByteBuffer jpeg) throws IOException;
+
+    /**
+     * 发送队列暂时为空时调用，流水线型转码器可在此输出积压的结果
+     */
+    default void flush() throws IOException {
+    }
+
+    /**
+     * 是否接受抽帧/缩放后的输入；要求固定帧率和分辨率的转码器返回false，观看档位固定为原画
+     */
+    default boolean supportsRendition() {
+        return true;
+    }
+
+    /**
+     * 转码器是否仍可用，不可用时 VideoFrameBuffer 回退为直接发送JPEG
+     */
+    boolean isHealthy();
+
+    void close();
+}
@@ -0,0 +1,193 @@
+package com.gyq.service.BlockingQueueService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * H.264 流式编码器 - 每个前端会话一个常驻的 ffmpeg/x264 进程
+ * JPEG帧写入 ffmpeg 标准输入，标准输出的 Annex-B 码流按访问单元（AUD分隔）切开后发给前端，
+ * 前端用 WebCodecs VideoDecoder 解码。x264 使用 zerolatency、无B帧、每个关键帧重复SPS/PPS。
+ *
+ * 下行二进制消息格式：
+ *   [0]    'H' (0x48)
+ *   [1]    标志位，bit0=1 表示关键帧（含IDR）
+ *   [2..5] 帧序号，uint32 大端
+ *   [6..]  一个访问单元的 Annex-B 数据
+ */
+public class H264StreamEncoder implements FrameTranscoder {
+    private static final Logger logger = LoggerFactory.getLogger(H264StreamEncoder.class);
+
+    public static final String NAME = "h264";
+    // Constrained Baseline, Level 4.0（1080p@25）
+    public static final String CODEC_STRING = "avc1.42E028";
+    private static final byte TAG = 'H';
+    private static final int FPS = 25;
+    private static final int GOP = 50; // 2秒一个关键帧，观看屏幕中途加入最多等2秒
+
+    private final String sessionId;
+    private final VideoFrameBuffer output;
+    private final Process process;
+    private final WritableByteChannel stdin;
+    private final Thread readerThread;
+    private final AtomicLong inputFrames = new AtomicLong(0);
+    private final AtomicLong outputUnits = new AtomicLong(0);
+    private final AtomicLong outputBytes = new AtomicLong(0);
+    private volatile boolean healthy = true;
+
+    public H264StreamEncoder(String ffmpegPath, String bitrate, String sessionId, VideoFrameBuffer output) throws IOException {
+        this.sessionId = sessionId;
+        this.output = output;
+        ProcessBuilder builder = new ProcessBuilder(List.of(
+                ffmpegPath, "-hide_banner", "-loglevel", "error",
+                "-probesize", "32", "-analyzeduration", "0", "-fflags", "nobuffer",
+                "-f", "image2pipe", "-c:v", "mjpeg", "-framerate", String.valueOf(FPS), "-i", "pipe:0",
+                "-an", "-c:v", "libx264", "-preset", "ultrafast", "-tune", "zerolatency",
+                "-profile:v", "baseline", "-level", "4.0", "-pix_fmt", "yuv420p",
+                "-bf", "0", "-g", String.valueOf(GOP), "-keyint_min", String.valueOf(GOP),
+                "-b:v", bitrate, "-maxrate", bitrate, "-bufsize", bitrate,
+                "-x264-params", "aud=1:repeat-headers=1",
+                "-flush_packets", "1", "-f", "h264", "pipe:1"));
+        builder.redirectError(ProcessBuilder.Redirect.DISCARD);
+        this.process = builder.start();
+        OutputStream processInput = process.getOutputStream();
+        this.stdin = Channels.newChannel(processInput);
+        this.readerThread = new Thread(this::readOutput, "H264Reader-" + sessionId);
+        this.readerThread.setDaemon(true);
+        this.readerThread.start();
+        logger.info("H.264编码进程已启动: session={}, bitrate={}", sessionId, bitrate);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getConfigMessage() {
+        return String.format("{\"type\":\"video_config\",\"codec\":\"%s\",\"codec_string\":\"%s\",\"format\":\"annexb\",\"fps\":%d}",
+                NAME, CODEC_STRING, FPS);
+    }
+
+    @Override
+    public void onFrame(ByteBuffer jpeg) throws IOException {
+        if (!healthy) {
+            throw new IOException("H.264编码进程已退出");
+        }
+        ByteBuffer view = jpeg.duplicate();
+        while (view.hasRemaining()) {
+            stdin.write(view);
+        }
+        inputFrames.incrementAndGet();
+    }
+
+    @Override
+    public boolean supportsRendition() {
+        // ffmpeg按固定25fps、固定分辨率编码
+        return false;
+    }
+
+    @Override
+    public boolean isHealthy() {
+        return healthy && process.isAlive();
+    }
+
+    /**
+     * 读取编码输出，按AUD（NAL type 9）切分访问单元
+     */
+    private void readOutput() {
+        byte[] chunk = new byte[64 * 1024];
+        ByteArrayOutputStream pending = new ByteArrayOutputStream(256 * 1024);
+        try (InputStream in = process.getInputStream()) {
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                pending.write(chunk, 0, read);
+                byte[] data = pending.toByteArray();
+                int start = 0;
+                int next;
+                // 从第一个AUD之后开始找下一个AUD，两者之间是一个完整的访问单元
+                while ((next = findAud(data, start + 4)) >= 0) {
+                    if (findAud(data, start) == start) {
+                        emit(data, start, next);
+                    }
+                    start = next;
+                }
+                pending.reset();
+                pending.write(data, start, data.length - start);
+            }
+            // 进程结束时把最后一个访问单元发出
+            if (pending.size() > 0) {
+                byte[] data = pending.toByteArray();
+                emit(data, 0, data.length);
+            }
+        } catch (IOException e) {
+            logger.debug("H.264编码输出读取结束: {}", sessionId, e);
+        } finally {
+            healthy = false;
+            logger.info("H.264编码进程输出结束: session={}, 输入{}帧, 输出{}个访问单元, {}KB",
+                    sessionId, inputFrames.get(), outputUnits.get(), outputBytes.get() / 1024);
+        }
+    }
+
+    private void emit(byte[] data, int from, int to) {
+        int length = to - from;
+        ByteBuffer message = ByteBuffer.allocate(6 + length);
+        message.put(TAG);
+        message.put((byte) (containsIdr(data, from, to) ? 1 : 0));
+        message.putInt((int) outputUnits.getAndIncrement());
+        message.put(data, from, length);
+        message.flip();
+        outputBytes.addAndGet(length);
+        output.sendEncoded(message);
+    }
+
+    /**
+     * 查找 start 之后第一个 AUD 起始码（00 00 01 09 或 00 00 00 01 09）的位置
+     */
+    static int findAud(byte[] data, int start) {
+        for (int i = Math.max(start, 0); i + 3 < data.length; i++) {
+            if (data[i] == 0 && data[i + 1] == 0) {
+                if (data[i + 2] == 1 && (data[i + 3] & 0x1F) == 9) {
+                    // 前面还有一个0时按4字节起始码计算
+                    return i > 0 && data[i - 1] == 0 && i - 1 >= start ? i - 1 : i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 访问单元中是否包含IDR切片（NAL type 5）
+     */
+    static boolean containsIdr(byte[] data, int from, int to) {
+        for (int i = from; i + 3 < to; i++) {
+            if (data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 1 && (data[i + 3] & 0x1F) == 5) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void close() {
+        healthy = false;
+        try {
+            stdin.close();
+        } catch (IOException ignore) {
+        }
+        process.destroy();
+        readerThread.interrupt();
+    }
+
+    public long getInputFrames() { return inputFrames.get(); }
+    public long getOutputBytes() { return outputBytes.get(); }
+}
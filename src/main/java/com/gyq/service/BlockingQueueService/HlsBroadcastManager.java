@@ -0,0 +1,136 @@
+package com.gyq.service.BlockingQueueService;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HLS广播管理器 - 观众首次请求某个会话的播放列表时启动广播，
+ * 一段时间没有HTTP请求后自动停止，释放ffmpeg进程
+ */
+@Service
+public class HlsBroadcastManager {
+    private static final Logger logger = LoggerFactory.getLogger(HlsBroadcastManager.class);
+
+    @Value("${hls.dir:/tmp/musetalk-hls/}")
+    private String hlsDir;
+    @Value("${video.h264.ffmpeg:ffmpeg}")
+    private String ffmpegPath;
+    @Value("${hls.bitrate:800k}")
+    private String bitrate;
+    @Value("${hls.idle-timeout-seconds:60}")
+    private int idleTimeoutSeconds;
+
+    @Resource
+    private VideoFrameManager videoFrameManager;
+    @Resource
+    private IdleLoopManager idleLoopManager;
+
+    private final Map<String, HlsBroadcaster> broadcasters = new ConcurrentHashMap<>();
+    private final Map<String, Long> lastAccess = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "HlsMonitor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @PostConstruct
+    public void init() {
+        scheduler.scheduleAtFixedRate(this::checkBroadcasters, 10, 10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 解析观众请求的文件路径，必要时启动该会话的广播；会话不存在时返回null
+     */
+    public Path resolve(String token, String fileName) {
+        HlsBroadcaster broadcaster = getOrStart(token);
+        if (broadcaster == null) {
+            return null;
+        }
+        lastAccess.put(token, System.currentTimeMillis());
+        return broadcaster.getOutputDir().resolve(fileName);
+    }
+
+    private synchronized HlsBroadcaster getOrStart(String token) {
+        HlsBroadcaster broadcaster = broadcasters.get(token);
+        if (broadcaster != null && broadcaster.isActive()) {
+            return broadcaster;
+        }
+        if (broadcaster != null) {
+            stop(token);
+        }
+        if (videoFrameManager.getGroup(token) == null) {
+            return null;
+        }
+        try {
+            broadcaster = new HlsBroadcaster(token, Path.of(hlsDir, token), ffmpegPath, bitrate, idleLoopManager);
+        } catch (IOException e) {
+            logger.error("启动HLS广播失败: token={}", token, e);
+            return null;
+        }
+        // 启动期间会话可能已结束、观看组已移除
+        if (videoFrameManager.subscribeExisting(token, broadcaster) == null) {
+            broadcaster.close();
+            return null;
+        }
+        broadcasters.put(token, broadcaster);
+        lastAccess.put(token, System.currentTimeMillis());
+        return broadcaster;
+    }
+
+    public synchronized void stop(String token) {
+        HlsBroadcaster broadcaster = broadcasters.remove(token);
+        lastAccess.remove(token);
+        if (broadcaster == null) {
+            return;
+        }
+        // 取消订阅时观看组会关闭广播；广播是最后一个订阅者时观看组一并移除
+        videoFrameManager.unsubscribe(token, broadcaster.getSubscriberId());
+        broadcaster.close();
+    }
+
+    /**
+     * 定时检查：停止没有观众或已异常退出的广播
+     */
+    private void checkBroadcasters() {
+        long now = System.currentTimeMillis();
+        for (String token : broadcasters.keySet()) {
+            HlsBroadcaster broadcaster = broadcasters.get(token);
+            Long last = lastAccess.get(token);
+            if (broadcaster == null) {
+                continue;
+            }
+            if (!broadcaster.isActive()) {
+                logger.warn("HLS广播已异常退出: {}", broadcaster);
+                stop(token);
+            } else if (last == null || now - last > TimeUnit.SECONDS.toMillis(idleTimeoutSeconds)) {
+                logger.info("HLS广播{}秒无观众请求，停止: {}", idleTimeoutSeconds, token);
+                stop(token);
+            } else {
+                logger.info("HLS广播状态: {}", broadcaster);
+            }
+        }
+    }
+
+    public int getActiveCount() {
+        return broadcasters.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        broadcasters.keySet().forEach(this::stop);
+    }
+}
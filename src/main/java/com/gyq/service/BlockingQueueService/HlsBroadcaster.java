@@ -0,0 +1,418 @@
+package com.gyq.service.BlockingQueueService;
+
+import com.gyq.FileDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * HLS广播 - 把一个观看组的画面和TTS音频打包成 fMP4 HLS，供大量被动观众通过HTTP拉流
+ * 作为观看组的一个订阅者，整组只编码一次，观众数量不影响编码开销。
+ *
+ * 节拍线程按25fps匀速向一个常驻 ffmpeg 进程写入：
+ *   - 视频：JPEG帧写入标准输入（image2pipe），没有直播帧时写待机帧或重复上一帧
+ *   - 音频：16kHz单声道PCM经本机TCP写入，每帧对应1280字节，没有TTS音频时写静音
+ * 音视频按相同节拍写入，时间戳都由帧数推出，天然同步；TTS音频在该分段第一帧播出时开始写入。
+ */
+public class HlsBroadcaster implements FrameSubscriber {
+    private static final Logger logger = LoggerFactory.getLogger(HlsBroadcaster.class);
+
+    public static final String PLAYLIST = "index.m3u8";
+    private static final int FPS = 25;
+    private static final long FRAME_NANOS = TimeUnit.SECONDS.toNanos(1) / FPS;
+    private static final int SAMPLE_RATE = 16000;
+    private static final int AUDIO_BYTES_PER_FRAME = SAMPLE_RATE * 2 / FPS;
+    private static final int LIVE_QUEUE_CAPACITY = FPS * 10;          // 渲染快于实时时最多缓存10秒
+    private static final int MAX_AUDIO_BACKLOG = SAMPLE_RATE * 2 * 10; // ffmpeg连上音频输入前最多缓存10秒
+    private static final long MAX_LAG_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final String groupId;
+    private final Path outputDir;
+    private final IdleLoopManager idleLoopManager;
+    private final Process process;
+    private final WritableByteChannel videoIn;
+    private final ServerSocket audioServer;
+    private volatile Socket audioSocket;
+    private volatile OutputStream audioOut;
+    private final Thread tickerThread;
+    private volatile boolean running = true;
+
+    private final BlockingQueue<ByteBuffer> liveFrames = new ArrayBlockingQueue<>(LIVE_QUEUE_CAPACITY);
+    // 已收到、等待对应分段开播的TTS音频（PCM）
+    private final ConcurrentLinkedQueue<byte[]> armedAudio = new ConcurrentLinkedQueue<>();
+    private volatile boolean segmentActive = false;
+    private volatile boolean audioPending = false;
+    private volatile boolean flushAudio = false;
+
+    // 以下字段只由节拍线程访问
+    private ByteBuffer activeAudio;
+    private ByteBuffer lastFrame;
+    private long idleIndex;
+    private final byte[] audioChunk = new byte[AUDIO_BYTES_PER_FRAME];
+    private final ByteArrayOutputStream audioBacklog = new ByteArrayOutputStream();
+
+    private final AtomicLong liveCount = new AtomicLong(0);
+    private final AtomicLong idleCount = new AtomicLong(0);
+    private final AtomicLong repeatedCount = new AtomicLong(0);
+    private final AtomicLong droppedCount = new AtomicLong(0);
+    private final long startTime = System.currentTimeMillis();
+
+    public HlsBroadcaster(String groupId, Path outputDir, String ffmpegPath, String bitrate,
+                          IdleLoopManager idleLoopManager) throws IOException {
+        this.groupId = groupId;
+        this.outputDir = outputDir;
+        this.idleLoopManager = idleLoopManager;
+        Files.createDirectories(outputDir);
+
+        // 音频输入由Java监听、ffmpeg主动连接，不存在端口抢占
+        this.audioServer = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        // 分片名带启动时间，广播重启后不会命中观众端/CDN缓存的旧分片
+        String prefix = Long.toString(startTime, 36);
+        ProcessBuilder builder = new ProcessBuilder(List.of(
+                ffmpegPath, "-hide_banner", "-loglevel", "error",
+                "-f", "image2pipe", "-c:v", "mjpeg", "-framerate", String.valueOf(FPS), "-i", "pipe:0",
+                "-f", "s16le", "-ar", String.valueOf(SAMPLE_RATE), "-ac", "1",
+                "-i", "tcp://127.0.0.1:" + audioServer.getLocalPort(),
+                "-map", "0:v", "-map", "1:a",
+                "-c:v", "libx264", "-preset", "veryfast", "-tune", "zerolatency", "-pix_fmt", "yuv420p",
+                "-g", String.valueOf(FPS), "-keyint_min", String.valueOf(FPS), "-sc_threshold", "0",
+                "-b:v", bitrate, "-maxrate", bitrate, "-bufsize", bitrate,
+                "-c:a", "aac", "-b:a", "64k", "-ar", "48000",
+                "-f", "hls", "-hls_time", "1", "-hls_list_size", "6",
+                "-hls_flags", "delete_segments+independent_segments+omit_endlist+temp_file",
+                "-hls_segment_type", "fmp4",
+                "-hls_fmp4_init_filename", "init_" + prefix + ".mp4",
+                "-hls_segment_filename", outputDir.resolve("seg_" + prefix + "_%05d.m4s").toString(),
+                outputDir.resolve(PLAYLIST).toString()));
+        builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        builder.redirectError(ProcessBuilder.Redirect.DISCARD);
+        try {
+            this.process = builder.start();
+        } catch (IOException e) {
+            audioServer.close();
+            throw e;
+        }
+        this.videoIn = Channels.newChannel(process.getOutputStream());
+
+        Thread acceptor = new Thread(this::acceptAudio, "HlsAudio-" + groupId);
+        acceptor.setDaemon(true);
+        acceptor.start();
+        this.tickerThread = new Thread(this::tick, "HlsTicker-" + groupId);
+        this.tickerThread.setDaemon(true);
+        this.tickerThread.start();
+        logger.info("HLS广播已启动: group={}, dir={}, bitrate={}", groupId, outputDir, bitrate);
+    }
+
+    private void acceptAudio() {
+        try {
+            audioServer.setSoTimeout(30000);
+            Socket socket = audioServer.accept();
+            socket.setTcpNoDelay(true);
+            audioSocket = socket;
+            audioOut = socket.getOutputStream();
+            logger.info("HLS广播音频输入已连接: {}", groupId);
+        } catch (IOException e) {
+            if (running) {
+                logger.error("HLS广播等待ffmpeg音频连接失败: {}", groupId, e);
+                running = false;
+            }
+        } finally {
+            try {
+                audioServer.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    /**
+     * 节拍线程：每40ms写一帧视频和对应时长的音频
+     */
+    private void tick() {
+        long next = System.nanoTime();
+        try {
+            while (running && process.isAlive()) {
+                ByteBuffer frame = nextFrame();
+                // 还没有任何画面时不推进时间线
+                if (frame != null) {
+                    while (frame.hasRemaining()) {
+                        videoIn.write(frame);
+                    }
+                    writeAudio();
+                }
+                next += FRAME_NANOS;
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                } else if (-wait > MAX_LAG_NANOS) {
+                    // ffmpeg处理不过来时重置节拍，不集中补帧
+                    next = System.nanoTime();
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                logger.error("HLS广播写入ffmpeg失败: {}", groupId, e);
+            }
+        } finally {
+            running = false;
+            logger.info("HLS广播节拍线程退出: {}", this);
+        }
+    }
+
+    private ByteBuffer nextFrame() {
+        ByteBuffer live = liveFrames.poll();
+        if (live != null) {
+            liveCount.incrementAndGet();
+            // 分段第一帧播出时开始写入该分段的TTS音频
+            if (audioPending) {
+                byte[] pcm = armedAudio.poll();
+                if (pcm != null) {
+                    activeAudio = ByteBuffer.wrap(pcm);
+                    audioPending = false;
+                }
+            }
+            lastFrame = live;
+            return live.duplicate();
+        }
+        if (!segmentActive && idleLoopManager != null) {
+            IdleLoop loop = idleLoopManager.getLoop(idleLoopManager.getDefaultAvatar());
+            if (loop != null) {
+                idleCount.incrementAndGet();
+                lastFrame = loop.frame(idleIndex++);
+                return lastFrame.duplicate();
+            }
+        }
+        if (lastFrame == null) {
+            return null;
+        }
+        // 推理跟不上实时或没有待机循环时重复上一帧
+        repeatedCount.incrementAndGet();
+        return lastFrame.duplicate();
+    }
+
+    private void writeAudio() throws IOException {
+        if (flushAudio) {
+            flushAudio = false;
+            activeAudio = null;
+        }
+        int filled = 0;
+        if (activeAudio != null) {
+            filled = Math.min(activeAudio.remaining(), audioChunk.length);
+            activeAudio.get(audioChunk, 0, filled);
+            if (!activeAudio.hasRemaining()) {
+                activeAudio = null;
+            }
+        }
+        Arrays.fill(audioChunk, filled, audioChunk.length, (byte) 0);
+
+        OutputStream out = audioOut;
+        if (out == null) {
+            if (audioBacklog.size() < MAX_AUDIO_BACKLOG) {
+                audioBacklog.write(audioChunk, 0, audioChunk.length);
+            }
+            return;
+        }
+        if (audioBacklog.size() > 0) {
+            audioBacklog.writeTo(out);
+            audioBacklog.reset();
+        }
+        out.write(audioChunk);
+    }
+
+    @Override
+    public String getSubscriberId() {
+        return groupId + "#hls";
+    }
+
+    @Override
+    public boolean onFrame(ByteBuffer frame, long seq) {
+        if (!running) {
+            return false;
+        }
+        if (!liveFrames.offer(frame)) {
+            liveFrames.poll();
+            droppedCount.incrementAndGet();
+            liveFrames.offer(frame);
+        }
+        return true;
+    }
+
+    @Override
+    public void onText(String message) {
+        // HLS只有音视频，JSON事件不转发
+    }
+
+    @Override
+    public void onAudio(FileDto audio, String message) {
+        byte[] pcm = decodeWav(audio.getBase64());
+        if (pcm != null) {
+            armedAudio.offer(pcm);
+        }
+    }
+
+    @Override
+    public void beginSegment(String avatar) {
+        segmentActive = true;
+        audioPending = true;
+    }
+
+    @Override
+    public void endSegment() {
+        segmentActive = false;
+        // 分段没有产出任何画面时丢弃它的音频，避免错位到下一段
+        if (audioPending) {
+            armedAudio.poll();
+            audioPending = false;
+        }
+    }
+
+    @Override
+    public void flush() {
+        liveFrames.clear();
+        armedAudio.clear();
+        audioPending = false;
+        flushAudio = true;
+    }
+
+    @Override
+    public boolean isActive() {
+        return running;
+    }
+
+    @Override
+    public void close() {
+        if (!running && !process.isAlive()) {
+            return;
+        }
+        running = false;
+        tickerThread.interrupt();
+        try {
+            videoIn.close();
+        } catch (IOException ignore) {
+        }
+        try {
+            audioServer.close();
+            if (audioSocket != null) {
+                audioSocket.close();
+            }
+        } catch (IOException ignore) {
+        }
+        process.destroy();
+        try {
+            if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+        deleteOutput();
+        logger.info("HLS广播已停止: {}", this);
+    }
+
+    private void deleteOutput() {
+        try (Stream<Path> files = Files.list(outputDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(outputDir);
+        } catch (IOException e) {
+            logger.warn("清理HLS输出目录失败: {}", outputDir, e);
+        }
+    }
+
+    /**
+     * TTS音频（base64 WAV）转为16kHz单声道PCM；非16bit PCM的WAV返回null
+     */
+    static byte[] decodeWav(String base64) {
+        if (base64 == null) {
+            return null;
+        }
+        ByteBuffer wav = ByteBuffer.wrap(Base64.getDecoder().decode(base64)).order(ByteOrder.LITTLE_ENDIAN);
+        if (wav.remaining() < 12 || wav.getInt(0) != 0x46464952 || wav.getInt(8) != 0x45564157) { // "RIFF" "WAVE"
+            logger.warn("HLS广播忽略非WAV格式的音频");
+            return null;
+        }
+        int channels = 0, sampleRate = 0, bits = 0;
+        int pos = 12;
+        while (pos + 8 <= wav.limit()) {
+            int id = wav.getInt(pos);
+            int size = wav.getInt(pos + 4);
+            int body = pos + 8;
+            if (id == 0x20746D66) { // "fmt "
+                channels = wav.getShort(body + 2);
+                sampleRate = wav.getInt(body + 4);
+                bits = wav.getShort(body + 14);
+            } else if (id == 0x61746164) { // "data"
+                if (bits != 16 || channels <= 0) {
+                    logger.warn("HLS广播不支持的WAV格式: channels={}, bits={}", channels, bits);
+                    return null;
+                }
+                int length = Math.min(size < 0 ? Integer.MAX_VALUE : size, wav.limit() - body);
+                return resample(wav, body, length / (2 * channels), channels, sampleRate);
+            }
+            pos = body + size + (size & 1);
+        }
+        return null;
+    }
+
+    /**
+     * 下混为单声道并线性插值重采样到16kHz
+     */
+    private static byte[] resample(ByteBuffer wav, int offset, int frames, int channels, int sampleRate) {
+        short[] mono = new short[frames];
+        for (int i = 0; i < frames; i++) {
+            int sum = 0;
+            for (int c = 0; c < channels; c++) {
+                sum += wav.getShort(offset + (i * channels + c) * 2);
+            }
+            mono[i] = (short) (sum / channels);
+        }
+        int outFrames = sampleRate == SAMPLE_RATE ? frames : (int) ((long) frames * SAMPLE_RATE / sampleRate);
+        ByteBuffer out = ByteBuffer.allocate(outFrames * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < outFrames; i++) {
+            if (sampleRate == SAMPLE_RATE) {
+                out.putShort(mono[i]);
+                continue;
+            }
+            double src = (double) i * sampleRate / SAMPLE_RATE;
+            int idx = (int) src;
+            double frac = src - idx;
+            int a = mono[Math.min(idx, frames - 1)];
+            int b = mono[Math.min(idx + 1, frames - 1)];
+            out.putShort((short) Math.round(a + (b - a) * frac));
+        }
+        return out.array();
+    }
+
+    public String getGroupId() { return groupId; }
+    public Path getOutputDir() { return outputDir; }
+
+    @Override
+    public String toString() {
+        return String.format("HlsBroadcaster{group=%s, running=%s, live=%d, idle=%d, repeated=%d, dropped=%d, queued=%d, uptime=%ds}",
+            groupId, running, liveCount.get(), idleCount.get(), repeatedCount.get(), droppedCount.get(),
+            liveFrames.size(), (System.currentTimeMillis() - startTime) / 1000);
+    }
+}
@@ -0,0 +1,59 @@
+package com.gyq.service.BlockingQueueService;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * 数字人待机循环帧 - 每个avatar只渲染一次，常驻内存
+ * 帧数据为只读的直接内存，所有会话通过 duplicate() 视图共享，发送时不复制
+ */
+public class IdleLoop {
+    private final String avatar;
+    private final ByteBuffer[] frames;
+    private final long totalBytes;
+
+    public IdleLoop(String avatar, List<byte[]> jpegFrames) {
+        if (jpegFrames.isEmpty()) {
+            throw new IllegalArgumentException("待机循环帧不能为空: " + avatar);
+        }
+        this.avatar = avatar;
+        this.frames = new ByteBuffer[jpegFrames.size()];
+        long total = 0;
+        for (int i = 0; i < jpegFrames.size(); i++) {
+            byte[] bytes = jpegFrames.get(i);
+            ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+            direct.put(bytes).flip();
+            frames[i] = direct.asReadOnlyBuffer();
+            total += bytes.length;
+        }
+        this.totalBytes = total;
+    }
+
+    /**
+     * 循环长度：正放 + 倒放（去掉首尾重复帧），首尾衔接处不会跳帧
+     */
+    public int length() {
+        return frames.length <= 1 ? frames.length : frames.length * 2 - 2;
+    }
+
+    /**
+     * 获取第 index 帧的只读视图，每次调用返回独立的 position/limit
+     */
+    public ByteBuffer frame(long index) {
+        int len = length();
+        int pos = (int) (index % len);
+        if (pos >= frames.length) {
+            pos = len - pos;
+        }
+        return frames[pos].duplicate();
+    }
+
+    public String getAvatar() { return avatar; }
+    public int getFrameCount() { return frames.length; }
+    public long getTotalBytes() { return totalBytes; }
+
+    @Override
+    public String toString() {
+        return String.format("IdleLoop{avatar=%s, frames=%d, size=%dKB}", avatar, frames.length, totalBytes / 1024);
+    }
+}
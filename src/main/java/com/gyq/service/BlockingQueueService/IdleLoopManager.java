@@ -0,0 +1,219 @@
+package com.gyq.service.BlockingQueueService;
+
+import com.alibaba.fastjson.JSONObject;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 待机循环管理器 - 没有分段在推理时，由帧分发线程从这里取待机帧
+ * 1. 优先加载磁盘上已渲染好的帧（idle.loop.dir/{avatar}/*.jpg）
+ * 2. 没有时用一段静音音频请求MuseTalk渲染一次，并落盘，后续重启直接加载
+ */
+@Service
+public class IdleLoopManager {
+    private static final Logger logger = LoggerFactory.getLogger(IdleLoopManager.class);
+
+    // 静音音频参数，与豆包TTS输出保持一致
+    private static final int SAMPLE_RATE = 16000;
+    private static final int RENDER_TIMEOUT_SECONDS = 60;
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final long RETRY_INTERVAL_MS = 60_000; // 加载失败后的重试间隔
+
+    @Value("${idle.loop.dir:/home/main/wyw/java/idle/}")
+    private String idleDir;
+    @Value("${idle.loop.audio-dir:/home/main/wyw/java/audio/}")
+    private String audioDir;
+    @Value("${idle.loop.avatar:happy}")
+    private String defaultAvatar;
+    @Value("${idle.loop.seconds:3}")
+    private int loopSeconds;
+    @Value("${musetalk.url:ws://192.168.10.101:8765}")
+    private String museTalkUrl;
+
+    private final Map<String, IdleLoop> loops = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> loading = new ConcurrentHashMap<>();
+    private final Map<String, Long> failedAt = new ConcurrentHashMap<>();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @PostConstruct
+    public void preload() {
+        // 启动时异步预热默认avatar，不阻塞应用启动
+        getLoop(defaultAvatar);
+    }
+
+    /**
+     * 获取avatar的待机循环；尚未就绪时触发一次异步加载并返回null
+     */
+    public IdleLoop getLoop(String avatar) {
+        if (avatar == null) {
+            avatar = defaultAvatar;
+        }
+        IdleLoop loop = loops.get(avatar);
+        if (loop != null) {
+            return loop;
+        }
+        Long lastFailure = failedAt.get(avatar);
+        if (lastFailure != null && System.currentTimeMillis() - lastFailure < RETRY_INTERVAL_MS) {
+            return null;
+        }
+        final String key = avatar;
+        // 同一avatar只允许一个加载任务
+        if (loading.putIfAbsent(key, Boolean.TRUE) == null) {
+            CompletableFuture.supplyAsync(() -> load(key)).whenComplete((result, error) -> {
+                if (result != null) {
+                    loops.put(key, result);
+                    logger.info("待机循环已就绪: {}", result);
+                } else {
+                    // 失败后间隔 RETRY_INTERVAL_MS 允许重新尝试
+                    failedAt.put(key, System.currentTimeMillis());
+                    logger.warn("待机循环加载失败: avatar={}, {}", key, error != null ? error.getMessage() : "无帧");
+                }
+                loading.remove(key);
+            });
+        }
+        return null;
+    }
+
+    public String getDefaultAvatar() {
+        return defaultAvatar;
+    }
+
+    /**
+     * 加载待机帧：先读磁盘，没有再渲染
+     */
+    private IdleLoop load(String avatar) {
+        Path dir = Path.of(idleDir, avatar);
+        try {
+            List<byte[]> frames = readFrames(dir);
+            if (frames.isEmpty()) {
+                frames = renderWithMuseTalk(avatar);
+                saveFrames(dir, frames);
+            }
+            return frames.isEmpty() ? null : new IdleLoop(avatar, frames);
+        } catch (Exception e) {
+            throw new RuntimeException("加载待机循环失败: " + avatar, e);
+        }
+    }
+
+    private List<byte[]> readFrames(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return Collections.emptyList();
+        }
+        List<byte[]> frames = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files.filter(p -> p.toString().endsWith(".jpg")).sorted()::iterator) {
+                frames.add(Files.readAllBytes(file));
+            }
+        }
+        logger.info("从磁盘加载待机帧: dir={}, frames={}", dir, frames.size());
+        return frames;
+    }
+
+    private void saveFrames(Path dir, List<byte[]> frames) {
+        try {
+            Files.createDirectories(dir);
+            for (int i = 0; i < frames.size(); i++) {
+                Files.write(dir.resolve(String.format("%04d.jpg", i)), frames.get(i));
+            }
+        } catch (IOException e) {
+            // 落盘失败不影响使用，下次启动重新渲染
+            logger.warn("待机帧落盘失败: {}", dir, e);
+        }
+    }
+
+    /**
+     * 用静音音频请求MuseTalk渲染一次，收集返回的全部JPEG帧
+     */
+    private List<byte[]> renderWithMuseTalk(String avatar) throws Exception {
+        Path silence = Path.of(audioDir, "idle_" + avatar + ".wav");
+        Files.createDirectories(silence.getParent());
+        Files.write(silence, silentWav(loopSeconds));
+
+        List<byte[]> frames = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+        WebSocketClient client = new WebSocketClient(new URI(museTalkUrl)) {
+            @Override
+            public void onOpen(ServerHandshake handshake) {
+                logger.info("待机循环渲染连接已建立: avatar={}", avatar);
+            }
+
+            @Override
+            public void onMessage(String message) {
+                if ("completed".equals(JSONObject.parseObject(message).getString("status"))) {
+                    done.countDown();
+                }
+            }
+
+            @Override
+            public void onMessage(ByteBuffer bytes) {
+                byte[] frame = new byte[bytes.remaining()];
+                bytes.get(frame);
+                frames.add(frame);
+            }
+
+            @Override
+            public void onClose(int code, String reason, boolean remote) {
+                done.countDown();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                logger.warn("待机循环渲染连接异常: {}", e.getMessage());
+                done.countDown();
+            }
+        };
+
+        try {
+            if (!client.connectBlocking(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new IOException("连接MuseTalk服务超时: " + museTalkUrl);
+            }
+            client.send(objectMapper.writeValueAsString(Map.of(
+                    "audio_path", silence.toString(),
+                    "avatar", avatar,
+                    "options", Map.of("jpeg_quality", 50, "batch_send", false, "verbose", false)
+            )));
+            if (!done.await(RENDER_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw new IOException("待机循环渲染超时: " + avatar);
+            }
+        } finally {
+            client.close();
+        }
+        logger.info("MuseTalk待机循环渲染完成: avatar={}, frames={}", avatar, frames.size());
+        return new ArrayList<>(frames);
+    }
+
+    /**
+     * 生成16kHz单声道16bit的静音WAV
+     */
+    static byte[] silentWav(int seconds) {
+        int dataLen = SAMPLE_RATE * 2 * seconds;
+        ByteBuffer wav = ByteBuffer.allocate(44 + dataLen).order(ByteOrder.LITTLE_ENDIAN);
+        wav.put("RIFF".getBytes()).putInt(36 + dataLen).put("WAVE".getBytes());
+        wav.put("fmt ".getBytes()).putInt(16).putShort((short) 1).putShort((short) 1)
+                .putInt(SAMPLE_RATE).putInt(SAMPLE_RATE * 2).putShort((short) 2).putShort((short) 16);
+        wav.put("data".getBytes()).putInt(dataLen);
+        return wav.array();
+    }
+}
@@ -0,0 +1,96 @@
+package com.gyq.service.BlockingQueueService;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * JPEG编解码工具 - 视频帧在Java侧做二次处理（淡入淡出等）时使用
+ */
+public final class JpegCodec {
+
+    // 与MuseTalk请求中的 jpeg_quality=50 保持一致
+    public static final float DEFAULT_QUALITY = 0.5f;
+
+    private JpegCodec() {
+    }
+
+    /**
+     * 解码JPEG帧，不改变入参的position
+     */
+    public static BufferedImage decode(ByteBuffer jpeg) throws IOException {
+        ByteBuffer view = jpeg.duplicate();
+        byte[] bytes = new byte[view.remaining()];
+        view.get(bytes);
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
+        if (image == null) {
+            throw new IOException("无法解码的JPEG帧: " + bytes.length + " 字节");
+        }
+        return image;
+    }
+
+    /**
+     * 按指定质量编码为JPEG
+     */
+    public static ByteBuffer encode(BufferedImage image, float quality) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+        if (!writers.hasNext()) {
+            throw new IOException("当前JRE没有可用的JPEG编码器");
+        }
+        ImageWriter writer = writers.next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(toRgb(image), null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    /**
+     * 两帧线性混合：alpha=0 完全是 from，alpha=1 完全是 to
+     */
+    public static BufferedImage blend(BufferedImage from, BufferedImage to, float alpha) {
+        int width = to.getWidth();
+        int height = to.getHeight();
+        int[] a = from.getRGB(0, 0, width, height, null, 0, width);
+        int[] b = to.getRGB(0, 0, width, height, null, 0, width);
+        int wb = Math.round(alpha * 256);
+        int wa = 256 - wb;
+        for (int i = 0; i < a.length; i++) {
+            int pa = a[i];
+            int pb = b[i];
+            int r = (((pa >> 16) & 0xFF) * wa + ((pb >> 16) & 0xFF) * wb) >> 8;
+            int g = (((pa >> 8) & 0xFF) * wa + ((pb >> 8) & 0xFF) * wb) >> 8;
+            int bl = ((pa & 0xFF) * wa + (pb & 0xFF) * wb) >> 8;
+            a[i] = (r << 16) | (g << 8) | bl;
+        }
+        BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        out.setRGB(0, 0, width, height, a, 0, width);
+        return out;
+    }
+
+    /**
+     * JPEG编码器不支持带alpha通道的图像，统一转成RGB
+     */
+    private static BufferedImage toRgb(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+            return image;
+        }
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        rgb.getGraphics().drawImage(image, 0, 0, null);
+        return rgb;
+    }
+}
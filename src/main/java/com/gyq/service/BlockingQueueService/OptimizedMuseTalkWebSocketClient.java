@@ -13,6 +13,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -38,12 +39,35 @@ public class OptimizedMuseTalkWebSocketClient extends WebSocketClient {
     // 视频帧缓冲器
     private final VideoFrameBuffer frameBuffer;
     private final String sessionId;
+    // 缓冲器由本客户端创建时才负责停止；共享的缓冲器由VideoFrameManager管理生命周期
+    private final boolean ownsFrameBuffer;
+    // 观看组（可为空）：设置后帧和JSON事件广播给组内所有订阅者
+    private volatile ViewerGroup viewerGroup;
+    // 本轮对话被取消后不再转发残留的帧和消息
+    private volatile boolean cancelled = false;
+    // 降帧率渲染：每个推理帧重复 frameStride 次，补齐到音频帧数，与音频时钟对齐
+    private volatile int frameStride = 1;
+    private volatile long audioFrames = 0;
+    private final AtomicLong emittedFrames = new AtomicLong(0);
+    private volatile ByteBuffer lastFrame;
     
     public OptimizedMuseTalkWebSocketClient(URI serverUri, Session userSession, String sessionId) {
+        this(serverUri, userSession, sessionId, null);
+    }
+    
+    /**
+     * 使用会话级共享的视频帧缓冲器，连接断开后缓冲器继续播放待机帧
+     */
+    public OptimizedMuseTalkWebSocketClient(URI serverUri, Session userSession, String sessionId, VideoFrameBuffer sharedBuffer) {
         super(serverUri);
         this.userSession = userSession;
         this.sessionId = sessionId;
-        this.frameBuffer = new VideoFrameBuffer(userSession, sessionId);
+        this.ownsFrameBuffer = sharedBuffer == null;
+        this.frameBuffer = sharedBuffer != null ? sharedBuffer : new VideoFrameBuffer(userSession, sessionId);
+    }
+    
+    public void setViewerGroup(ViewerGroup viewerGroup) {
+        this.viewerGroup = viewerGroup;
     }
     
     @Override
@@ -57,19 +81,29 @@ public class OptimizedMuseTalkWebSocketClient extends WebSocketClient {
     }
     
     public void sendAudioRequest(String audioPath, String emotion) throws IOException {
+        sendAudioRequest(audioPath, emotion, 0);
+    }
+    
+    /**
+     * @param fps 请求MuseTalk的渲染帧率，0表示完整帧率；降帧率时由本客户端重复帧补齐
+     */
+    public void sendAudioRequest(String audioPath, String emotion, int fps) throws IOException {
         try {
             if (!isOpen()) {
                 throw new IOException("WebSocket连接未建立或已关闭，当前状态: " + getReadyState());
             }
             
+            Map<String, Object> options = new HashMap<>();
+            options.put("jpeg_quality", 50);
+            options.put("batch_send", false);
+            options.put("verbose", false);
+            if (fps > 0) {
+                options.put("fps", fps);
+            }
             Map<String, Object> request = Map.of(
                 "audio_path", audioPath,
                 "avatar", emotion,
-                "options", Map.of(
-                    "jpeg_quality", 50,
-                    "batch_send", false,
-                    "verbose", false
-                )
+                "options", options
             );
             
             String json = objectMapper.writeValueAsString(request);
@@ -81,6 +115,10 @@ public class OptimizedMuseTalkWebSocketClient extends WebSocketClient {
             // 重置统计信息
             frameCount.set(0);
             totalFrameSize.set(0);
+            frameStride = 1;
+            audioFrames = 0;
+            emittedFrames.set(0);
+            lastFrame = null;
             
             logger.info("音频请求已发送，等待处理完成...");
         } catch (Exception e) {
@@ -90,8 +128,33 @@ public class OptimizedMuseTalkWebSocketClient extends WebSocketClient {
         }
     }
     
+    /**
+     * 取消当前推理：通知MuseTalk并断开连接
+     * MuseTalk服务按顺序处理消息、推理中不读取新消息，断开后其发送帧失败即停止推理，释放GPU
+     */
+    public void cancelRender() {
+        cancelled = true;
+        try {
+            if (isOpen()) {
+                send("{\"type\":\"cancel\"}");
+            }
+        } catch (Exception e) {
+            logger.debug("发送取消消息失败: {}", sessionId, e);
+        }
+        close();
+        doneLatch.countDown();
+        logger.info("已取消MuseTalk推理: {}, 已接收{}帧", sessionId, frameCount.get());
+    }
+    
+    public boolean isCancelled() {
+        return cancelled;
+    }
+    
     @Override
     public void onMessage(String message) {
+        if (cancelled) {
+            return;
+        }
         int count = messageCount.incrementAndGet();
         logger.debug("接收到第{}条JSON消息: {}", count, message);
         
@@ -99,9 +162,18 @@ public class OptimizedMuseTalkWebSocketClient extends WebSocketClient {
             JSONObject jsonObject = JSONObject.parseObject(message);
             String status = jsonObject.getString("status");
             
+            // 降帧率渲染的步长，不转发给前端
+            if ("frame_stride".equals(status)) {
+                frameStride = Math.max(1, jsonObject.getIntValue("stride"));
+                audioFrames = jsonObject.getLongValue("audio_frames");
+                logger.info("降帧率渲染: 步长={}, 音频帧数={}", frameStride, audioFrames);
+                return;
+            }
+            
             // 处理结束标识
             if ("completed".equals(status)) {
                 logger.info("推理完成此段，设置完成状态为true");
+                padToAudioClock();
                 isCompleted.set(true);
                 doneLatch.countDown();
                 
@@ -111,7 +183,10 @@ public class OptimizedMuseTalkWebSocketClient extends WebSocketClient {
             }
             
             // 转发JSON消息到前端
-            if (userSession.isOpen()) {
+            ViewerGroup group = viewerGroup;
+            if (group != null) {
+                group.publishText(message);
+            } else if (userSession.isOpen()) {
                 userSession.getAsyncRemote().sendText(message);
                 logger.debug("JSON消息已转发到前端");
             } else {
@@ -125,13 +200,26 @@ public class OptimizedMuseTalkWebSocketClient extends WebSocketClient {
     
     @Override
     public void onMessage(ByteBuffer bytes) {
+        if (cancelled) {
+            return;
+        }
         try {
             // 统计视频帧信息
             long currentFrame = frameCount.incrementAndGet();
             long currentSize = totalFrameSize.addAndGet(bytes.remaining());
             
-            // 添加到缓冲队列而不是直接发送
-            boolean success = frameBuffer.addFrame(bytes);
+            // 添加到缓冲队列而不是直接发送；降帧率时重复该帧补齐
+            boolean success = true;
+            int repeat = frameStride;
+            if (repeat > 1) {
+                lastFrame = bytes.asReadOnlyBuffer();
+            }
+            for (int i = 0; i < repeat; i++) {
+                if (repeat > 1 && audioFrames > 0 && emittedFrames.get() >= audioFrames) {
+                    break;
+                }
+                success &= publishFrame(repeat > 1 ? lastFrame.duplicate() : bytes);
+            }
             
             if (success) {
                 logger.debug("视频帧已加入缓冲队列: frame={}, size={}bytes, total={}bytes", 
@@ -151,12 +239,38 @@ public class OptimizedMuseTalkWebSocketClient extends WebSocketClient {
         }
     }
     
+    /**
+     * 有观看组时广播给所有订阅者，否则加入本会话的缓冲队列
+     */
+    private boolean publishFrame(ByteBuffer frame) {
+        emittedFrames.incrementAndGet();
+        ViewerGroup group = viewerGroup;
+        if (group != null) {
+            group.publishFrame(frame);
+            return true;
+        }
+        return frameBuffer.addFrame(frame);
+    }
+    
+    /**
+     * 降帧率渲染结束时，重复最后一帧补齐到音频帧数
+     */
+    private void padToAudioClock() {
+        ByteBuffer frame = lastFrame;
+        if (frameStride <= 1 || frame == null) {
+            return;
+        }
+        while (emittedFrames.get() < audioFrames) {
+            publishFrame(frame.duplicate());
+        }
+    }
+    
     @Override
     public void onClose(int code, String reason, boolean remote) {
         logger.info("连接关闭: code={}, reason={}, remote={}", code, reason, remote);
         
         // 停止视频帧缓冲器
-        frameBuffer.stop();
+        stopOwnedBuffer();
         
         isCompleted.set(true);
         doneLatch.countDown();
@@ -167,7 +281,7 @@ public class OptimizedMuseTalkWebSocketClient extends WebSocketClient {
         logger.error("WebSocket错误: {}", e.getMessage(), e);
         
         // 停止视频帧缓冲器
-        frameBuffer.stop();
+        stopOwnedBuffer();
         
         isCompleted.set(true);
         doneLatch.countDown();
@@ -187,6 +301,19 @@ public class OptimizedMuseTalkWebSocketClient extends WebSocketClient {
         return isCompleted.get();
     }
     
+    private void stopOwnedBuffer() {
+        if (ownsFrameBuffer) {
+            frameBuffer.stop();
+        }
+    }
+    
+    /**
+     * 获取视频帧缓冲器
+     */
+    public VideoFrameBuffer getFrameBuffer() {
+        return frameBuffer;
+    }
+    
     /**
      * 获取视频帧缓冲器状态
      */
@@ -215,7 +342,7 @@ public class OptimizedMuseTalkWebSocketClient extends WebSocketClient {
         logger.info("开始优雅关闭WebSocket客户端: {}", sessionId);
         
         // 停止视频帧缓冲器
-        frameBuffer.stop();
+        stopOwnedBuffer();
         
         // 关闭WebSocket连接
         if (isOpen()) {
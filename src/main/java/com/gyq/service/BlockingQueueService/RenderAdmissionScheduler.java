@@ -0,0 +1,373 @@
+package com.gyq.service.BlockingQueueService;
+
+import com.gyq.service.TurnService.DeadlineExceededException;
+import com.gyq.service.TurnService.TurnDeadline;
+import com.gyq.service.TurnService.TurnHandle;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * MuseTalk渲染准入调度 - 全局限制每个推理节点同时渲染的分段数
+ * 等待中的分段按对话轮次轮转分配，保证参观团高峰时每个会话都能轮到；
+ * 每轮的第一段优先（用户正在等数字人开口），排队时向前端推送排队位置和预计等待时间
+ */
+@Service
+public class RenderAdmissionScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(RenderAdmissionScheduler.class);
+
+    private static final long POSITION_UPDATE_MS = 1000;
+    private static final double EWMA_ALPHA = 0.2;
+
+    @Value("${musetalk.workers:${musetalk.url:ws://192.168.10.101:8765}}")
+    private String workerList;
+    @Value("${render.slots-per-worker:2}")
+    private int slotsPerWorker;
+    @Value("${render.queue-timeout-seconds:120}")
+    private int queueTimeoutSeconds;
+    // 单段渲染超时 = 基础时间 + 音频时长 × 倍数
+    @Value("${render.timeout-base-ms:5000}")
+    private long renderTimeoutBaseMs;
+    @Value("${render.timeout-ratio:2.0}")
+    private double renderTimeoutRatio;
+
+    private final List<URI> workers = new ArrayList<>();
+    private int[] busy;
+
+    // 按轮次排队：键为轮次ID，迭代顺序即轮转顺序
+    private final Map<String, Deque<Request>> queues = new LinkedHashMap<>();
+    private final Deque<String> rotation = new ArrayDeque<>();
+    private long arrivalSeq = 0;
+    private long granted = 0;
+    private long timedOut = 0;
+    private double avgRenderMs = 5000;  // 分段平均渲染时长，未有样本时按5秒估算
+
+    @PostConstruct
+    public void init() {
+        for (String worker : workerList.split(",")) {
+            if (!worker.isBlank()) {
+                workers.add(URI.create(worker.trim()));
+            }
+        }
+        busy = new int[workers.size()];
+        logger.info("渲染准入调度: 推理节点={}, 每节点{}个并发分段", workers, slotsPerWorker);
+    }
+
+    /**
+     * 排队位置通知
+     */
+    public static class QueuePosition {
+        private final int position;
+        private final long etaMillis;
+
+        public QueuePosition(int position, long etaMillis) {
+            this.position = position;
+            this.etaMillis = etaMillis;
+        }
+
+        public int getPosition() { return position; }
+        public long getEtaMillis() { return etaMillis; }
+    }
+
+    /**
+     * 已分配的渲染名额，用完必须 release
+     */
+    public static class RenderSlot {
+        private final int workerIndex;
+        private final URI worker;
+        private final long grantedAt = System.currentTimeMillis();
+
+        RenderSlot(int workerIndex, URI worker) {
+            this.workerIndex = workerIndex;
+            this.worker = worker;
+        }
+
+        public URI getWorker() { return worker; }
+    }
+
+    private static class Request {
+        final String key;
+        final String sessionId;
+        final int segmentIndex;
+        final long arrival;
+        final CountDownLatch grantedLatch = new CountDownLatch(1);
+        volatile RenderSlot slot;
+
+        Request(String key, String sessionId, int segmentIndex, long arrival) {
+            this.key = key;
+            this.sessionId = sessionId;
+            this.segmentIndex = segmentIndex;
+            this.arrival = arrival;
+        }
+    }
+
+    /**
+     * 申请一个渲染名额，阻塞直到分配；等待期间每秒回调一次排队位置（位置变化时）
+     * 最长等待时间不超过本轮对话的剩余预算
+     *
+     * @throws CancellationException      本轮对话在排队时被取消
+     * @throws DeadlineExceededException  排队时本轮预算用完
+     * @throws RejectedExecutionException 排队超时
+     */
+    public RenderSlot acquire(String sessionId, TurnHandle turn, int segmentIndex,
+                              Consumer<QueuePosition> onQueued) throws InterruptedException {
+        String key = turn != null ? turn.getTurnId() : sessionId;
+        Request request;
+        synchronized (this) {
+            request = new Request(key, sessionId, segmentIndex, arrivalSeq++);
+            Deque<Request> queue = queues.get(key);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                queues.put(key, queue);
+                rotation.addLast(key);
+            }
+            queue.addLast(request);
+            dispatch();
+        }
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(queueTimeoutSeconds);
+        TurnDeadline turnDeadline = turn != null ? turn.getDeadline() : TurnDeadline.unbounded();
+        int lastPosition = -1;
+        while (!request.grantedLatch.await(turnDeadline.timeoutMillis(POSITION_UPDATE_MS), TimeUnit.MILLISECONDS)) {
+            if (turn != null && turn.isCancelled()) {
+                abandon(request);
+                throw new CancellationException("排队时对话已取消");
+            }
+            if (turnDeadline.isExpired()) {
+                abandon(request);
+                synchronized (this) {
+                    timedOut++;
+                }
+                throw new DeadlineExceededException("RENDER", turnDeadline.elapsedMillis());
+            }
+            if (System.currentTimeMillis() > deadline) {
+                abandon(request);
+                synchronized (this) {
+                    timedOut++;
+                }
+                throw new RejectedExecutionException("等待渲染资源超时");
+            }
+            QueuePosition position = positionOf(request);
+            if (position != null && position.getPosition() != lastPosition && onQueued != null) {
+                lastPosition = position.getPosition();
+                onQueued.accept(position);
+            }
+        }
+        if (lastPosition > 0) {
+            logger.info("会话{}分段{}排队结束，分配到节点{}", sessionId, segmentIndex, request.slot.getWorker());
+        }
+        return request.slot;
+    }
+
+    /**
+     * 归还名额，并把它分给下一个等待的分段
+     */
+    public synchronized void release(RenderSlot slot) {
+        if (slot == null) {
+            return;
+        }
+        busy[slot.workerIndex]--;
+        long held = System.currentTimeMillis() - slot.grantedAt;
+        avgRenderMs = avgRenderMs * (1 - EWMA_ALPHA) + held * EWMA_ALPHA;
+        dispatch();
+    }
+
+    /**
+     * 有空闲名额时按优先级分配：先给各轮次的第一段（最早到达的优先），再按轮次轮转
+     */
+    private void dispatch() {
+        int worker;
+        while ((worker = freeWorker()) >= 0) {
+            Request next = pickNext(queues, rotation);
+            if (next == null) {
+                return;
+            }
+            busy[worker]++;
+            granted++;
+            next.slot = new RenderSlot(worker, workers.get(worker));
+            next.grantedLatch.countDown();
+        }
+    }
+
+    /**
+     * 当前最空闲的推理节点，用于提前建立连接；实际分配以 acquire 为准
+     */
+    public synchronized URI preferredWorker() {
+        int best = -1;
+        for (int i = 0; i < workers.size(); i++) {
+            if (best < 0 || busy[i] < busy[best]) {
+                best = i;
+            }
+        }
+        return best < 0 ? null : workers.get(best);
+    }
+
+    private int freeWorker() {
+        int best = -1;
+        for (int i = 0; i < workers.size(); i++) {
+            if (busy[i] < slotsPerWorker && (best < 0 || busy[i] < busy[best])) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 从队列中取出下一个要分配的请求；dispatch 与排队位置估算共用同一套规则
+     */
+    private static Request pickNext(Map<String, Deque<Request>> queues, Deque<String> rotation) {
+        Request first = null;
+        for (Deque<Request> queue : queues.values()) {
+            Request head = queue.peekFirst();
+            if (head != null && head.segmentIndex == 0 && (first == null || head.arrival < first.arrival)) {
+                first = head;
+            }
+        }
+        Request next;
+        if (first != null) {
+            next = first;
+        } else {
+            String key = rotation.peekFirst();
+            if (key == null) {
+                return null;
+            }
+            next = queues.get(key).peekFirst();
+        }
+        Deque<Request> queue = queues.get(next.key);
+        queue.pollFirst();
+        // 被选中的轮次移到队尾
+        rotation.remove(next.key);
+        if (queue.isEmpty()) {
+            queues.remove(next.key);
+        } else {
+            rotation.addLast(next.key);
+        }
+        return next;
+    }
+
+    private synchronized void abandon(Request request) {
+        if (request.slot != null) {
+            // 超时/取消与分配同时发生，名额已分到手，直接归还
+            release(request.slot);
+            return;
+        }
+        Deque<Request> queue = queues.get(request.key);
+        if (queue != null && queue.remove(request) && queue.isEmpty()) {
+            queues.remove(request.key);
+            rotation.remove(request.key);
+        }
+    }
+
+    /**
+     * 模拟分配顺序计算排队位置；预计等待 = 前面的分段数 / 总名额 × 平均渲染时长
+     */
+    private synchronized QueuePosition positionOf(Request request) {
+        if (request.slot != null) {
+            return null;
+        }
+        Map<String, Deque<Request>> queuesCopy = new LinkedHashMap<>();
+        queues.forEach((key, queue) -> queuesCopy.put(key, new ArrayDeque<>(queue)));
+        Deque<String> rotationCopy = new ArrayDeque<>(rotation);
+        int position = 1;
+        Request next;
+        while ((next = pickNext(queuesCopy, rotationCopy)) != null && next != request) {
+            position++;
+        }
+        int totalSlots = Math.max(1, workers.size() * slotsPerWorker);
+        long eta = (long) (Math.ceil((double) position / totalSlots) * avgRenderMs);
+        return new QueuePosition(position, eta);
+    }
+
+    /**
+     * 单段渲染的等待上限，按音频时长伸缩；时长未知时按平均渲染时长估算
+     */
+    public long renderTimeoutMillis(long audioMillis) {
+        double basis = audioMillis > 0 ? audioMillis : avgRenderMs;
+        return renderTimeoutBaseMs + (long) (basis * renderTimeoutRatio);
+    }
+
+    /**
+     * 新分段现在申请名额的预计等待时间；有空闲名额时为0
+     */
+    public synchronized long estimateWaitMillis() {
+        if (freeWorker() >= 0) {
+            return 0;
+        }
+        int waiting = 0;
+        for (Deque<Request> queue : queues.values()) {
+            waiting += queue.size();
+        }
+        int totalSlots = Math.max(1, workers.size() * slotsPerWorker);
+        return (long) (Math.ceil((double) (waiting + 1) / totalSlots) * avgRenderMs);
+    }
+
+    /**
+     * 排队通知消息：{"type":"render_queue","content":{"position":2,"eta_ms":5000}}
+     */
+    public static String toMessage(QueuePosition position) {
+        return String.format("{\"type\":\"render_queue\",\"content\":{\"position\":%d,\"eta_ms\":%d}}",
+                position.getPosition(), position.getEtaMillis());
+    }
+
+    public synchronized SchedulerStatus getStatus() {
+        int waiting = 0;
+        for (Deque<Request> queue : queues.values()) {
+            waiting += queue.size();
+        }
+        int inUse = 0;
+        for (int b : busy) {
+            inUse += b;
+        }
+        return new SchedulerStatus(workers.size(), workers.size() * slotsPerWorker, inUse, waiting,
+                queues.size(), granted, timedOut, avgRenderMs);
+    }
+
+    // 调度器状态
+    public static class SchedulerStatus {
+        private final int workers;
+        private final int totalSlots;
+        private final int busySlots;
+        private final int waitingSegments;
+        private final int waitingTurns;
+        private final long granted;
+        private final long timedOut;
+        private final double avgRenderMs;
+
+        public SchedulerStatus(int workers, int totalSlots, int busySlots, int waitingSegments, int waitingTurns,
+                               long granted, long timedOut, double avgRenderMs) {
+            this.workers = workers;
+            this.totalSlots = totalSlots;
+            this.busySlots = busySlots;
+            this.waitingSegments = waitingSegments;
+            this.waitingTurns = waitingTurns;
+            this.granted = granted;
+            this.timedOut = timedOut;
+            this.avgRenderMs = avgRenderMs;
+        }
+
+        public int getBusySlots() { return busySlots; }
+        public int getTotalSlots() { return totalSlots; }
+        public int getWaitingSegments() { return waitingSegments; }
+
+        @Override
+        public String toString() {
+            return String.format("SchedulerStatus{workers=%d, slots=%d/%d, waiting=%d(%d轮), granted=%d, timedOut=%d, avgRender=%.0fms}",
+                    workers, busySlots, totalSlots, waitingSegments, waitingTurns, granted, timedOut, avgRenderMs);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.gyq.service.BlockingQueueService;
+
+import jakarta.annotation.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 渲染降级策略 - MuseTalk推理节点繁忙时，按预计排队时间决定每段的渲染方式：
+ * 完整渲染、降帧率渲染（客户端重复帧补齐），或只播放TTS音频（保持待机循环）
+ * 升级有阈值、恢复要求负载降到阈值的一定比例以下，避免在两种模式间来回切换
+ */
+@Service
+public class RenderDegradationPolicy {
+    private static final Logger logger = LoggerFactory.getLogger(RenderDegradationPolicy.class);
+
+    private static final int FULL_FPS = 25; // MuseTalk 输出帧率
+
+    public enum Mode {
+        FULL,
+        REDUCED_FPS,
+        AUDIO_ONLY
+    }
+
+    @Value("${render.degrade.enabled:true}")
+    private boolean enabled;
+    @Value("${render.degrade.reduced-fps-eta-ms:4000}")
+    private long reducedFpsEtaMs;
+    @Value("${render.degrade.audio-only-eta-ms:15000}")
+    private long audioOnlyEtaMs;
+    @Value("${render.degrade.restore-ratio:0.5}")
+    private double restoreRatio;
+    @Value("${render.degrade.reduced-fps:12}")
+    private int reducedFps;
+
+    @Resource
+    private RenderAdmissionScheduler renderAdmissionScheduler;
+
+    private Mode mode = Mode.FULL;
+    private long lastEtaMs = 0;
+    private final AtomicLong[] decisions = {new AtomicLong(), new AtomicLong(), new AtomicLong()};
+    private final AtomicLong transitions = new AtomicLong();
+
+    /**
+     * 为即将申请渲染名额的分段选择渲染方式，并计入统计
+     */
+    public Mode decide() {
+        return decide(true);
+    }
+
+    /**
+     * 同上；调用方不支持降帧率时，降帧率按完整渲染返回和计数
+     */
+    public Mode decide(boolean reducedFpsSupported) {
+        Mode decided = enabled ? evaluate(renderAdmissionScheduler.estimateWaitMillis()) : Mode.FULL;
+        if (decided == Mode.REDUCED_FPS && !reducedFpsSupported) {
+            decided = Mode.FULL;
+        }
+        decisions[decided.ordinal()].incrementAndGet();
+        return decided;
+    }
+
+    private synchronized Mode evaluate(long etaMs) {
+        lastEtaMs = etaMs;
+        Mode next;
+        if (etaMs >= audioOnlyEtaMs || (mode == Mode.AUDIO_ONLY && etaMs >= audioOnlyEtaMs * restoreRatio)) {
+            next = Mode.AUDIO_ONLY;
+        } else if (etaMs >= reducedFpsEtaMs || (mode != Mode.FULL && etaMs >= reducedFpsEtaMs * restoreRatio)) {
+            next = Mode.REDUCED_FPS;
+        } else {
+            next = Mode.FULL;
+        }
+        if (next != mode) {
+            transitions.incrementAndGet();
+            logger.info("渲染降级模式切换: {} -> {}, 预计排队{}ms", mode, next, etaMs);
+            mode = next;
+        }
+        return next;
+    }
+
+    /**
+     * 降帧率渲染时向MuseTalk请求的帧率
+     */
+    public int getReducedFps() {
+        return Math.max(1, Math.min(reducedFps, FULL_FPS));
+    }
+
+    /**
+     * 降级通知消息：{"type":"render_mode","content":{"mode":"AUDIO_ONLY","fps":0}}
+     */
+    public String toMessage(Mode mode) {
+        int fps = mode == Mode.FULL ? FULL_FPS : mode == Mode.REDUCED_FPS ? getReducedFps() : 0;
+        return String.format("{\"type\":\"render_mode\",\"content\":{\"mode\":\"%s\",\"fps\":%d}}", mode, fps);
+    }
+
+    /**
+     * WAV音频时长（毫秒），只播放音频时用来控制分段节奏；读取失败返回0
+     * 流式合成的WAV头里长度字段不可靠，按文件大小和采样格式计算
+     */
+    public static long audioDurationMillis(String path) {
+        try {
+            File file = new File(path);
+            AudioFormat format = AudioSystem.getAudioFileFormat(file).getFormat();
+            double bytesPerSecond = format.getFrameRate() * format.getFrameSize();
+            if (bytesPerSecond <= 0) {
+                return 0;
+            }
+            return (long) (Math.max(0, file.length() - 44) * 1000 / bytesPerSecond);
+        } catch (Exception e) {
+            logger.debug("读取音频时长失败: {}", path, e);
+            return 0;
+        }
+    }
+
+    public synchronized DegradationStatus getStatus() {
+        return new DegradationStatus(enabled, mode, lastEtaMs, decisions[0].get(), decisions[1].get(),
+                decisions[2].get(), transitions.get());
+    }
+
+    // 降级策略状态
+    public static class DegradationStatus {
+        private final boolean enabled;
+        private final Mode mode;
+        private final long lastEtaMs;
+        private final long full;
+        private final long reducedFps;
+        private final long audioOnly;
+        private final long transitions;
+
+        public DegradationStatus(boolean enabled, Mode mode, long lastEtaMs, long full, long reducedFps,
+                                 long audioOnly, long transitions) {
+            this.enabled = enabled;
+            this.mode = mode;
+            this.lastEtaMs = lastEtaMs;
+            this.full = full;
+            this.reducedFps = reducedFps;
+            this.audioOnly = audioOnly;
+            this.transitions = transitions;
+        }
+
+        public Mode getMode() { return mode; }
+        public long getFull() { return full; }
+        public long getReducedFps() { return reducedFps; }
+        public long getAudioOnly() { return audioOnly; }
+        public long getTransitions() { return transitions; }
+
+        @Override
+        public String toString() {
+            return String.format("DegradationStatus{enabled=%s, mode=%s, eta=%dms, full=%d, reducedFps=%d, audioOnly=%d, transitions=%d}",
+                    enabled, mode, lastEtaMs, full, reducedFps, audioOnly, transitions);
+        }
+    }
+}
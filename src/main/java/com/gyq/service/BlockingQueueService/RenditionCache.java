@@ -0,0 +1,156 @@
+package com.gyq.service.BlockingQueueService;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 画质档位转码缓存 - 按（帧来源, 帧序号, 档位）缓存转码结果
+ * 同一观看组里同档位的屏幕只转码一次；并发请求同一帧时后到者等待先到者的结果
+ */
+public class RenditionCache {
+    private final int capacity;
+    private final Map<Key, CompletableFuture<ByteBuffer>> entries;
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong transcodeNanos = new AtomicLong(0);
+
+    public RenditionCache(int capacity) {
+        this.capacity = capacity;
+        // 访问顺序的LinkedHashMap实现LRU
+        this.entries = new LinkedHashMap<>(capacity * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CompletableFuture<ByteBuffer>> eldest) {
+                return size() > RenditionCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * 获取帧的指定档位版本；source 为空时不缓存（如淡入合成帧）
+     */
+    public ByteBuffer get(String source, long index, RenditionProfile profile, ByteBuffer original) throws IOException {
+        // 只抽帧不缩放的档位直接使用原始帧
+        if (profile.getScale() >= 1.0f) {
+            return original;
+        }
+        if (source == null) {
+            misses.incrementAndGet();
+            return transcode(original, profile);
+        }
+        Key key = new Key(source, index, profile);
+        CompletableFuture<ByteBuffer> future;
+        boolean owner = false;
+        synchronized (entries) {
+            future = entries.get(key);
+            if (future == null) {
+                future = new CompletableFuture<>();
+                entries.put(key, future);
+                owner = true;
+            }
+        }
+        if (!owner) {
+            hits.incrementAndGet();
+            return await(future).duplicate();
+        }
+        misses.incrementAndGet();
+        try {
+            ByteBuffer result = transcode(original, profile).asReadOnlyBuffer();
+            future.complete(result);
+            return result.duplicate();
+        } catch (IOException | RuntimeException e) {
+            synchronized (entries) {
+                entries.remove(key, future);
+            }
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private static ByteBuffer await(CompletableFuture<ByteBuffer> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待转码结果被中断", e);
+        } catch (ExecutionException e) {
+            throw new IOException("转码失败", e.getCause());
+        }
+    }
+
+    /**
+     * 解码、双线性缩放、按档位质量重新编码
+     */
+    private ByteBuffer transcode(ByteBuffer jpeg, RenditionProfile profile) throws IOException {
+        long start = System.nanoTime();
+        BufferedImage source = JpegCodec.decode(jpeg);
+        int width = Math.max(1, Math.round(source.getWidth() * profile.getScale()));
+        int height = Math.max(1, Math.round(source.getHeight() * profile.getScale()));
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        ByteBuffer result = JpegCodec.encode(scaled, profile.getQuality());
+        transcodeNanos.addAndGet(System.nanoTime() - start);
+        return result;
+    }
+
+    public long getHits() { return hits.get(); }
+    public long getMisses() { return misses.get(); }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        long h = hits.get();
+        long m = misses.get();
+        return String.format("RenditionCache{size=%d/%d, hits=%d, misses=%d, hitRate=%.1f%%, transcode=%.1fms/帧}",
+            size(), capacity, h, m, h + m > 0 ? h * 100.0 / (h + m) : 0,
+            m > 0 ? transcodeNanos.get() / 1_000_000.0 / m : 0);
+    }
+
+    private static final class Key {
+        private final String source;
+        private final long index;
+        private final RenditionProfile profile;
+
+        Key(String source, long index, RenditionProfile profile) {
+            this.source = source;
+            this.index = index;
+            this.profile = profile;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return index == other.index && profile == other.profile && source.equals(other.source);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(source, index, profile);
+        }
+    }
+}
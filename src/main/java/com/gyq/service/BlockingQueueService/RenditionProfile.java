@@ -0,0 +1,58 @@
+package com.gyq.service.BlockingQueueService;
+
+/**
+ * 观看端画质档位 - 均匀抽帧 + 缩放 + 重新编码，由高到低排列
+ */
+public enum RenditionProfile {
+    FULL(1, 1.0f, 0f),       // 原始帧直发，不做处理
+    HIGH(1, 0.75f, 0.5f),    // 25fps，缩放到3/4
+    MEDIUM(2, 0.75f, 0.45f), // 12.5fps，缩放到3/4
+    LOW(3, 0.5f, 0.4f);      // 8.3fps，缩放到1/2
+
+    private final int decimation;
+    private final float scale;
+    private final float quality;
+
+    RenditionProfile(int decimation, float scale, float quality) {
+        this.decimation = decimation;
+        this.scale = scale;
+        this.quality = quality;
+    }
+
+    /**
+     * 每 decimation 帧保留一帧（按组内帧序号取模，同档位的屏幕保留同一批帧）
+     */
+    public int getDecimation() { return decimation; }
+    public float getScale() { return scale; }
+    public float getQuality() { return quality; }
+
+    public boolean isPassThrough() {
+        return scale >= 1.0f && decimation == 1;
+    }
+
+    public double getFps() {
+        return 25.0 / decimation;
+    }
+
+    public RenditionProfile lower() {
+        return this == LOW ? LOW : values()[ordinal() + 1];
+    }
+
+    public RenditionProfile higher() {
+        return this == FULL ? FULL : values()[ordinal() - 1];
+    }
+
+    /**
+     * 解析前端参数，无法识别时返回null（表示自动）
+     */
+    public static RenditionProfile parse(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return RenditionProfile.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
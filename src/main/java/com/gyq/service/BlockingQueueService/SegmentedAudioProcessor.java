@@ -3,7 +3,9 @@ package com.gyq.service.BlockingQueueService;
 import java.net.URI;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -11,6 +13,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.gyq.FileDto;
+import com.gyq.service.TurnService.DeadlineExceededException;
+import com.gyq.service.TurnService.TurnDeadline;
+import com.gyq.service.TurnService.TurnHandle;
 
 import jakarta.websocket.Session;
 
@@ -21,6 +26,9 @@ import jakarta.websocket.Session;
 public class SegmentedAudioProcessor {
     private static final Logger logger = LoggerFactory.getLogger(SegmentedAudioProcessor.class);
     
+    private static final long DEFAULT_RENDER_TIMEOUT_MS = 60_000; // 未接入渲染调度时的单段渲染上限
+    private static final long CONNECT_TIMEOUT_MS = 10_000;        // 连接MuseTalk的上限
+    
     // 音频段处理结果
     public static class ProcessResult {
         private final boolean success;
@@ -51,6 +59,12 @@ public class SegmentedAudioProcessor {
         private final FileDto audioSegment;
         private final int segmentIndex;
         private final BlockingQueue<ProcessResult> resultQueue;
+        // 渲染准入分配的推理节点，为空时使用处理器默认节点
+        private volatile URI worker;
+        // 降帧率渲染时请求的帧率，0表示完整帧率
+        private volatile int fps;
+        // 本段渲染的等待上限，按音频时长伸缩
+        private volatile long renderTimeoutMillis = DEFAULT_RENDER_TIMEOUT_MS;
         
         public AudioSegmentTask(FileDto audioSegment, int segmentIndex) {
             this.audioSegment = audioSegment;
@@ -61,26 +75,37 @@ public class SegmentedAudioProcessor {
         public FileDto getAudioSegment() { return audioSegment; }
         public int getSegmentIndex() { return segmentIndex; }
         public BlockingQueue<ProcessResult> getResultQueue() { return resultQueue; }
+        public URI getWorker() { return worker; }
+        public void setWorker(URI worker) { this.worker = worker; }
+        public int getFps() { return fps; }
+        public void setFps(int fps) { this.fps = fps; }
+        public long getRenderTimeoutMillis() { return renderTimeoutMillis; }
+        public void setRenderTimeoutMillis(long renderTimeoutMillis) { this.renderTimeoutMillis = renderTimeoutMillis; }
         
-        // 设置处理结果
+        // 设置处理结果：只保留第一个结果（取消与推理结束可能同时到达）
         public void setResult(ProcessResult result) {
-            try {
-                resultQueue.offer(result, 5, TimeUnit.SECONDS);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                logger.error("设置处理结果被中断: segment={}", segmentIndex);
+            if (!resultQueue.offer(result)) {
+                logger.debug("音频段{}已有处理结果，忽略: {}", segmentIndex, result.getMessage());
             }
         }
         
         // 等待处理结果
         public ProcessResult waitForResult(long timeoutSeconds) throws InterruptedException {
-            return resultQueue.poll(timeoutSeconds, TimeUnit.SECONDS);
+            return waitForResultMillis(TimeUnit.SECONDS.toMillis(timeoutSeconds));
+        }
+        
+        public ProcessResult waitForResultMillis(long timeoutMillis) throws InterruptedException {
+            return resultQueue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
         }
     }
     
     private final Session userSession;
     private final String sessionId;
     private final URI museTalkUri;
+    // 会话级视频帧缓冲器（可为空），用于切换待机帧/实时帧
+    private final VideoFrameBuffer frameBuffer;
+    // 观看组（可为空），帧、音频和JSON事件广播给主会话及所有观看屏幕
+    private final ViewerGroup viewerGroup;
     private final AtomicBoolean isProcessing = new AtomicBoolean(false);
     
     // 任务队列 - 存储待处理的音频段
@@ -89,10 +114,39 @@ public class SegmentedAudioProcessor {
     // 处理线程
     private Thread processingThread;
     
+    // 当前MuseTalk连接和正在等待结果的任务，取消时使用
+    private volatile OptimizedMuseTalkWebSocketClient currentClient;
+    private volatile AudioSegmentTask pendingTask;
+    
+    // 全局渲染准入调度（可为空，为空时不限制并发）
+    private volatile RenderAdmissionScheduler renderScheduler;
+    // 渲染降级策略（可为空，为空时始终完整渲染）
+    private volatile RenderDegradationPolicy degradationPolicy;
+    private volatile RenderDegradationPolicy.Mode renderMode = RenderDegradationPolicy.Mode.FULL;
+    
     public SegmentedAudioProcessor(Session userSession, String sessionId, URI museTalkUri) {
+        this(userSession, sessionId, museTalkUri, null);
+    }
+    
+    public SegmentedAudioProcessor(Session userSession, String sessionId, URI museTalkUri, VideoFrameBuffer frameBuffer) {
+        this(userSession, sessionId, museTalkUri, frameBuffer, null);
+    }
+    
+    public SegmentedAudioProcessor(Session userSession, String sessionId, URI museTalkUri,
+                                   VideoFrameBuffer frameBuffer, ViewerGroup viewerGroup) {
         this.userSession = userSession;
         this.sessionId = sessionId;
         this.museTalkUri = museTalkUri;
+        this.frameBuffer = frameBuffer;
+        this.viewerGroup = viewerGroup;
+    }
+    
+    public void setRenderScheduler(RenderAdmissionScheduler renderScheduler) {
+        this.renderScheduler = renderScheduler;
+    }
+    
+    public void setDegradationPolicy(RenderDegradationPolicy degradationPolicy) {
+        this.degradationPolicy = degradationPolicy;
     }
     
     /**
@@ -124,50 +178,177 @@ public class SegmentedAudioProcessor {
      * 处理音频段列表 - 主要接口方法
      */
     public void processAudioList(List<FileDto> audioList) {
+        processAudioList(audioList, null);
+    }
+    
+    /**
+     * 可取消版本：本轮对话被取消时中止MuseTalk推理、丢弃排队的分段和积压的帧
+     */
+    public void processAudioList(List<FileDto> audioList, TurnHandle turn) {
         if (!isProcessing.get()) {
             logger.error("处理器未启动，无法处理音频列表");
             return;
         }
+        if (turn != null) {
+            turn.onCancel(this::cancelCurrent);
+        }
         
         logger.info("开始处理音频列表，共{}段", audioList.size());
+        if (viewerGroup != null) {
+            // Opus订阅者提前在编码线程池上转码整轮音频
+            viewerGroup.prepareAudio(audioList);
+        }
+        TurnDeadline deadline = turn != null ? turn.getDeadline() : TurnDeadline.unbounded();
+        // 超出本轮预算或渲染超时后，剩余分段只播放音频
+        boolean audioOnlyFallback = false;
         
         for (int i = 0; i < audioList.size(); i++) {
+            if (turn != null && turn.isCancelled()) {
+                logger.info("对话已取消，跳过剩余{}段音频", audioList.size() - i);
+                break;
+            }
             FileDto audioSegment = audioList.get(i);
             AudioSegmentTask task = new AudioSegmentTask(audioSegment, i);
+            RenderAdmissionScheduler scheduler = renderScheduler;
+            RenderAdmissionScheduler.RenderSlot slot = null;
+            int segmentIndex = turn != null ? turn.nextSegmentIndex() : i;
+            long audioMillis = RenderDegradationPolicy.audioDurationMillis(audioSegment.getPath());
             
             try {
+                if (!audioOnlyFallback && deadline.isExpired()) {
+                    logger.warn("音频段{}开始渲染前已超出本轮预算，剩余分段只播放音频: {}", i, deadline);
+                    audioOnlyFallback = true;
+                }
+                // 推理节点繁忙时降级：只播放音频，或降低帧率渲染
+                RenderDegradationPolicy.Mode mode = audioOnlyFallback
+                        ? RenderDegradationPolicy.Mode.AUDIO_ONLY : chooseRenderMode();
+                if (mode == RenderDegradationPolicy.Mode.AUDIO_ONLY) {
+                    playAudioOnly(audioSegment, audioMillis, turn);
+                    deadline.extend(audioMillis);
+                    continue;
+                }
+                if (mode == RenderDegradationPolicy.Mode.REDUCED_FPS) {
+                    task.setFps(degradationPolicy.getReducedFps());
+                }
+                
+                // 0. 申请渲染名额，排队期间推送排队位置；拿到名额后再下发音频，保证音画同步
+                if (scheduler != null) {
+                    try {
+                        slot = scheduler.acquire(sessionId, turn, segmentIndex,
+                                position -> sendText(RenderAdmissionScheduler.toMessage(position)));
+                    } catch (DeadlineExceededException e) {
+                        logger.warn("音频段{}排队时超出本轮预算，剩余分段只播放音频: {}", i, deadline);
+                        audioOnlyFallback = true;
+                        playAudioOnly(audioSegment, audioMillis, turn);
+                        deadline.extend(audioMillis);
+                        continue;
+                    }
+                    task.setWorker(slot.getWorker());
+                    task.setRenderTimeoutMillis(scheduler.renderTimeoutMillis(audioMillis));
+                }
+                
                 // 1. 先发送音频数据到前端
                 sendAudioToFrontend(audioSegment);
                 
                 // 2. 将任务加入队列
+                pendingTask = task;
                 taskQueue.offer(task, 10, TimeUnit.SECONDS);
                 
-                // 3. 等待这一段处理完成
-                ProcessResult result = task.waitForResult(60); // 60秒超时
+                // 3. 等待这一段处理完成，上限按音频时长伸缩（处理线程可能需要先重连）
+                ProcessResult result = task.waitForResultMillis(task.getRenderTimeoutMillis() + CONNECT_TIMEOUT_MS);
+                pendingTask = null;
                 
-                if (result == null) {
-                    logger.error("音频段{}处理超时", i);
-                    break;
-                } else if (!result.isSuccess()) {
-                    logger.error("音频段{}处理失败: {}", i, result.getMessage());
+                if (turn != null && turn.isCancelled()) {
                     break;
+                } else if (result == null || !result.isSuccess()) {
+                    // 音频已下发，停止这段推理，剩余分段只播放音频，不让用户干等
+                    logger.error("音频段{}处理{}，剩余分段只播放音频", i,
+                            result == null ? "超时" : "失败: " + result.getMessage());
+                    cancelCurrent();
+                    audioOnlyFallback = true;
                 } else {
                     logger.info("音频段{}处理成功", i);
                 }
+                deadline.extend(audioMillis);
                 
             } catch (InterruptedException e) {
                 logger.error("处理音频段{}被中断", i);
                 Thread.currentThread().interrupt();
                 break;
+            } catch (CancellationException e) {
+                logger.info("音频段{}排队时对话已取消", i);
+                break;
+            } catch (RejectedExecutionException e) {
+                // 渲染资源排队超时，交给调用方提示用户
+                throw e;
             } catch (Exception e) {
                 logger.error("处理音频段{}异常", i, e);
                 break;
+            } finally {
+                if (slot != null) {
+                    scheduler.release(slot);
+                }
             }
         }
         
         logger.info("音频列表处理完成");
     }
     
+    /**
+     * 按当前负载选择本段的渲染方式，方式变化时通知前端和观看屏幕
+     */
+    private RenderDegradationPolicy.Mode chooseRenderMode() {
+        RenderDegradationPolicy policy = degradationPolicy;
+        if (policy == null) {
+            return RenderDegradationPolicy.Mode.FULL;
+        }
+        RenderDegradationPolicy.Mode mode = policy.decide();
+        if (mode != renderMode) {
+            renderMode = mode;
+            sendText(policy.toMessage(mode));
+        }
+        return mode;
+    }
+    
+    /**
+     * 只播放音频：不占用推理节点，画面保持待机循环；按音频时长等待，保证与后续渲染分段的顺序
+     */
+    private void playAudioOnly(FileDto audioSegment, long audioMillis, TurnHandle turn) throws InterruptedException {
+        sendAudioToFrontend(audioSegment);
+        long deadline = System.currentTimeMillis() + audioMillis;
+        long remaining;
+        while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+            if (turn != null && turn.isCancelled()) {
+                return;
+            }
+            Thread.sleep(Math.min(remaining, 100));
+        }
+    }
+    
+    /**
+     * 取消当前对话的推理：丢弃排队的分段，中止MuseTalk推理，清空待发送的帧
+     * 下一个分段到来时自动重新连接MuseTalk
+     */
+    public void cancelCurrent() {
+        taskQueue.clear();
+        AudioSegmentTask task = pendingTask;
+        if (task != null) {
+            task.setResult(ProcessResult.failure("已取消", task.getAudioSegment()));
+        }
+        OptimizedMuseTalkWebSocketClient client = currentClient;
+        if (client != null && client.isOpen()) {
+            client.cancelRender();
+        }
+        if (viewerGroup != null) {
+            viewerGroup.flush();
+            viewerGroup.endSegment();
+        } else if (frameBuffer != null) {
+            frameBuffer.flush();
+            frameBuffer.endSegment();
+        }
+        logger.info("已取消当前推理: {}", sessionId);
+    }
+    
     /**
      * 分段处理主循环 - 后台线程执行
      */
@@ -177,25 +358,32 @@ public class SegmentedAudioProcessor {
         OptimizedMuseTalkWebSocketClient client = null;
         
         try {
-            // 创建WebSocket客户端
-            client = new OptimizedMuseTalkWebSocketClient(museTalkUri, userSession, sessionId);
-            
-            // 连接并等待连接建立
-            client.connect();
+            // 预先建立连接，失败时在第一个分段到来时重试
             try {
-                waitForConnection(client);
+                client = connect(museTalkUri);
             } catch (InterruptedException e) {
                 logger.error("等待连接被中断: {}", sessionId);
                 Thread.currentThread().interrupt();
                 return;
+            } catch (Exception e) {
+                logger.warn("预连接MuseTalk失败: {}, {}", sessionId, e.getMessage());
             }
             
             while (isProcessing.get() && !Thread.currentThread().isInterrupted()) {
+                AudioSegmentTask task = null;
                 try {
                     // 从队列中取出任务，超时等待避免无限阻塞
-                    AudioSegmentTask task = taskQueue.poll(5, TimeUnit.SECONDS);
+                    task = taskQueue.poll(5, TimeUnit.SECONDS);
                     
                     if (task != null) {
+                        // 取消推理会断开连接、分到的推理节点可能变化，这里按需重连
+                        URI worker = task.getWorker() != null ? task.getWorker() : museTalkUri;
+                        if (client == null || !client.isOpen() || !client.getURI().equals(worker)) {
+                            if (client != null && client.isOpen()) {
+                                client.shutdown();
+                            }
+                            client = connect(worker);
+                        }
                         processSegment(client, task);
                     }
                     
@@ -205,11 +393,15 @@ public class SegmentedAudioProcessor {
                     break;
                 } catch (Exception e) {
                     logger.error("处理音频段异常: {}", sessionId, e);
+                    if (task != null) {
+                        task.setResult(ProcessResult.failure("处理异常: " + e.getMessage(), task.getAudioSegment()));
+                    }
                 }
             }
             
         } finally {
             // 清理资源
+            currentClient = null;
             if (client != null && client.isOpen()) {
                 client.shutdown();
             }
@@ -227,17 +419,22 @@ public class SegmentedAudioProcessor {
         logger.info("开始处理音频段{}: path={}, emotion={}", 
             segmentIndex, audioSegment.getPath(), audioSegment.getEmotion());
         
+        // 暂停待机帧，实时帧到达后从待机画面淡入
+        beginSegment(client, audioSegment.getEmotion());
         try {
             // 重置客户端状态
             client.resetStatus();
             
             // 发送音频请求到MuseTalk
-            client.sendAudioRequest(audioSegment.getPath(), audioSegment.getEmotion());
+            client.sendAudioRequest(audioSegment.getPath(), audioSegment.getEmotion(), task.getFps());
             
             // 等待处理完成 - 这里使用原有的CountDownLatch机制
-            boolean completed = client.awaitCompleted(60_000);
+            boolean completed = client.awaitCompleted(task.getRenderTimeoutMillis());
             
-            if (completed && client.isCompleted()) {
+            if (client.isCancelled()) {
+                task.setResult(ProcessResult.failure("已取消", audioSegment));
+                logger.info("音频段{}推理已取消", segmentIndex);
+            } else if (completed && client.isCompleted()) {
                 // 处理成功
                 task.setResult(ProcessResult.success(audioSegment));
                 logger.info("音频段{}推理完成", segmentIndex);
@@ -250,6 +447,24 @@ public class SegmentedAudioProcessor {
         } catch (Exception e) {
             task.setResult(ProcessResult.failure("推理异常: " + e.getMessage(), audioSegment));
             logger.error("音频段{}推理异常", segmentIndex, e);
+        } finally {
+            endSegment(client);
+        }
+    }
+    
+    private void beginSegment(OptimizedMuseTalkWebSocketClient client, String avatar) {
+        if (viewerGroup != null) {
+            viewerGroup.beginSegment(avatar);
+        } else {
+            client.getFrameBuffer().beginSegment(avatar);
+        }
+    }
+    
+    private void endSegment(OptimizedMuseTalkWebSocketClient client) {
+        if (viewerGroup != null) {
+            viewerGroup.endSegment();
+        } else {
+            client.getFrameBuffer().endSegment();
         }
     }
     
@@ -258,8 +473,10 @@ public class SegmentedAudioProcessor {
      */
     private void sendAudioToFrontend(FileDto audioSegment) {
         try {
-            if (userSession.isOpen()) {
-                String audioMessage = getResult("audio", audioSegment.getBase64());
+            String audioMessage = getResult("audio", audioSegment.getBase64());
+            if (viewerGroup != null) {
+                viewerGroup.publishAudio(audioSegment, audioMessage);
+            } else if (userSession.isOpen()) {
                 userSession.getAsyncRemote().sendText(audioMessage);
                 logger.debug("音频数据已发送到前端");
             }
@@ -268,13 +485,37 @@ public class SegmentedAudioProcessor {
         }
     }
     
+    /**
+     * 发送JSON文本消息到前端和观看屏幕
+     */
+    private void sendText(String message) {
+        if (viewerGroup != null) {
+            viewerGroup.publishText(message);
+        } else if (userSession.isOpen()) {
+            userSession.getAsyncRemote().sendText(message);
+        }
+    }
+    
+    /**
+     * 创建并连接MuseTalk客户端
+     */
+    private OptimizedMuseTalkWebSocketClient connect(URI uri) throws InterruptedException {
+        OptimizedMuseTalkWebSocketClient client =
+                new OptimizedMuseTalkWebSocketClient(uri, userSession, sessionId, frameBuffer);
+        client.setViewerGroup(viewerGroup);
+        client.connect();
+        waitForConnection(client);
+        currentClient = client;
+        return client;
+    }
+    
     /**
      * 等待WebSocket连接建立
      */
     private void waitForConnection(OptimizedMuseTalkWebSocketClient client) throws InterruptedException {
         long startTime = System.currentTimeMillis();
         while (!client.isOpen()) {
-            if (System.currentTimeMillis() - startTime > 10000) {
+            if (System.currentTimeMillis() - startTime > CONNECT_TIMEOUT_MS) {
                 throw new RuntimeException("连接MuseTalk服务超时");
             }
             Thread.sleep(100);
@@ -296,7 +537,8 @@ public class SegmentedAudioProcessor {
         return new ProcessorStatus(
             isProcessing.get(),
             taskQueue.size(),
-            sessionId
+            sessionId,
+            renderMode
         );
     }
     
@@ -307,21 +549,25 @@ public class SegmentedAudioProcessor {
         private final boolean isProcessing;
         private final int queueSize;
         private final String sessionId;
+        private final RenderDegradationPolicy.Mode renderMode;
         
-        public ProcessorStatus(boolean isProcessing, int queueSize, String sessionId) {
+        public ProcessorStatus(boolean isProcessing, int queueSize, String sessionId,
+                               RenderDegradationPolicy.Mode renderMode) {
             this.isProcessing = isProcessing;
             this.queueSize = queueSize;
             this.sessionId = sessionId;
+            this.renderMode = renderMode;
         }
         
         public boolean isProcessing() { return isProcessing; }
         public int getQueueSize() { return queueSize; }
         public String getSessionId() { return sessionId; }
+        public RenderDegradationPolicy.Mode getRenderMode() { return renderMode; }
         
         @Override
         public String toString() {
-            return String.format("ProcessorStatus{processing=%s, queueSize=%d, sessionId=%s}", 
-                isProcessing, queueSize, sessionId);
+            return String.format("ProcessorStatus{processing=%s, queueSize=%d, sessionId=%s, renderMode=%s}", 
+                isProcessing, queueSize, sessionId, renderMode);
         }
     }
 }
@@ -1,54 +1,146 @@
 package com.gyq.service.BlockingQueueService;
 
+import com.gyq.FileDto;
+import com.gyq.service.AudioCodecService.OpusDownlinkEncoder;
 import jakarta.websocket.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.awt.image.BufferedImage;
 import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 视频帧缓冲器 - 使用阻塞队列优化视频帧传输
+ * 每个前端会话（主会话或观看屏幕）一个，拥有独立的队列、丢帧策略和发送背压
  */
-public class VideoFrameBuffer {
+public class VideoFrameBuffer implements FrameSubscriber {
     private static final Logger logger = LoggerFactory.getLogger(VideoFrameBuffer.class);
     
+    /**
+     * 队列满时的丢帧策略
+     */
+    public enum DropPolicy {
+        DROP_OLDEST,   // 丢弃最旧的帧（默认，保证实时性）
+        DROP_NEWEST,   // 丢弃新到的帧（保证已排队帧连续）
+        LATEST_ONLY,   // 清空队列只保留最新帧（弱网屏幕优先追上进度）
+        BLOCK;         // 阻塞生产者等待空位，反压到MuseTalk推理（仅用于主会话）
+        
+        public static DropPolicy parse(String value) {
+            if (value == null || value.isEmpty()) {
+                return DROP_OLDEST;
+            }
+            try {
+                return DropPolicy.valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return DROP_OLDEST;
+            }
+        }
+    }
+    
     // 视频帧数据结构
     public static class FrameData {
         private final ByteBuffer data;
         private final long timestamp;
         private final String sessionId;
+        private final long seq;
         
         public FrameData(ByteBuffer data, String sessionId) {
+            this(data, sessionId, 0);
+        }
+        
+        public FrameData(ByteBuffer data, String sessionId, long seq) {
             this.data = data;
             this.timestamp = System.currentTimeMillis();
             this.sessionId = sessionId;
+            this.seq = seq;
         }
         
         public ByteBuffer getData() { return data; }
         public long getTimestamp() { return timestamp; }
         public String getSessionId() { return sessionId; }
+        public long getSeq() { return seq; }
     }
     
+    // 唤醒发送线程的标记帧（有文本消息待发送时投递）
+    private static final FrameData WAKEUP = new FrameData(ByteBuffer.allocate(0), "wakeup");
+    
     // 阻塞队列配置
     private final BlockingQueue<FrameData> frameQueue;
+    // JSON/音频消息不丢弃，由发送线程按加入顺序优先发送，避免与帧并发写同一会话；
+    // 内容还在生成的消息（如Opus编码中的音频）占住顺序，后面的消息等它完成
+    private final Queue<CompletableFuture<String>> textQueue = new ConcurrentLinkedQueue<>();
     private final AtomicBoolean isRunning = new AtomicBoolean(false);
     private final Session userSession;
     private final String sessionId;
+    private final int queueCapacity;
+    private final DropPolicy dropPolicy;
+    private final boolean receiveAudio;
     private Thread senderThread;
     
+    // 发送统计
+    private final AtomicLong sentFrames = new AtomicLong(0);
+    private final AtomicLong droppedFrames = new AtomicLong(0);
+    private final AtomicLong sentBytes = new AtomicLong(0);
+    private volatile double avgSendLatencyMs = 0;
+    
+    // 可选的转码阶段（H.264等），为空时直接发送JPEG
+    private volatile FrameTranscoder transcoder;
+    // 发送线程、转码输出线程共用一个会话，写操作串行化
+    private final Object sendLock = new Object();
+    private static final String JPEG_CONFIG = "{\"type\":\"video_config\",\"codec\":\"jpeg\"}";
+    // 可选的下行音频编码（Opus），为空时按原消息下发WAV
+    private volatile OpusDownlinkEncoder audioEncoder;
+    
+    // 待机循环：没有分段在推理时由发送线程按帧率播放
+    private volatile IdleLoopManager idleLoopManager;
+    private volatile String idleAvatar;
+    private volatile boolean segmentActive = false;
+    private long idleFrameIndex = 0;
+    private long nextIdleFrameAt = 0;
+    private ByteBuffer lastIdleFrame;
+    private int fadeRemaining = 0;
+    
+    // 画质档位：弱网屏幕均匀抽帧、缩放，代替队列满后成批丢帧
+    private volatile RenditionCache renditionCache;
+    private volatile String renditionSource;
+    private volatile RenditionProfile rendition = RenditionProfile.FULL;
+    private volatile RenditionProfile maxRendition = RenditionProfile.FULL;
+    private volatile boolean adaptive = false;
+    private final AtomicLong decimatedFrames = new AtomicLong(0);
+    private long lastAdaptAt = 0;
+    private long droppedAtLastAdapt = 0;
+    private int calmChecks = 0;
+    
     // 配置参数
     private static final int QUEUE_CAPACITY = 100;  // 队列容量
+    private static final long BLOCK_TIMEOUT_MS = 1000; // BLOCK策略最长等待时间，超时后退回丢弃最旧帧
     private static final int SEND_TIMEOUT_MS = 5000; // 发送超时
     private static final int MAX_RETRY_COUNT = 3;    // 最大重试次数
+    private static final int FRAME_INTERVAL_MS = 40; // 待机帧间隔（25fps，与MuseTalk一致）
+    private static final int FADE_FRAMES = 6;        // 待机切换到实时帧的淡入帧数
+    private static final long ADAPT_INTERVAL_MS = 1000; // 画质档位评估间隔
+    private static final int CALM_CHECKS_TO_UPGRADE = 5; // 连续5次评估空闲才升档，避免来回切换
     
     public VideoFrameBuffer(Session userSession, String sessionId) {
-        this.frameQueue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+        this(userSession, sessionId, QUEUE_CAPACITY, DropPolicy.DROP_OLDEST, true);
+    }
+    
+    public VideoFrameBuffer(Session userSession, String sessionId, int queueCapacity, DropPolicy dropPolicy, boolean receiveAudio) {
+        this.queueCapacity = queueCapacity > 0 ? queueCapacity : QUEUE_CAPACITY;
+        this.frameQueue = new LinkedBlockingQueue<>(this.queueCapacity);
         this.userSession = userSession;
         this.sessionId = sessionId;
+        this.dropPolicy = dropPolicy;
+        this.receiveAudio = receiveAudio;
     }
     
     /**
@@ -72,31 +164,196 @@ public class VideoFrameBuffer {
                 senderThread.interrupt();
             }
             frameQueue.clear();
+            textQueue.clear();
+            FrameTranscoder current = transcoder;
+            transcoder = null;
+            if (current != null) {
+                current.close();
+            }
             logger.info("视频帧发送线程已停止: {}", sessionId);
         }
     }
     
+    /**
+     * 设置待机循环来源，没有分段推理时播放对应avatar的待机帧
+     */
+    public void setIdleLoop(IdleLoopManager idleLoopManager, String avatar) {
+        this.idleLoopManager = idleLoopManager;
+        this.idleAvatar = avatar;
+    }
+    
+    /**
+     * 设置画质档位
+     * @param cache    同组共享的转码缓存
+     * @param source   帧来源标识（观看组ID），作为缓存键的一部分
+     * @param profile  固定档位；自动模式下为最高档位
+     * @param adaptive 是否按发送耗时和队列深度自动调整
+     */
+    public void setRendition(RenditionCache cache, String source, RenditionProfile profile, boolean adaptive) {
+        this.renditionCache = cache;
+        this.renditionSource = source;
+        this.maxRendition = profile;
+        this.adaptive = adaptive;
+        changeRendition(profile, "初始设置");
+    }
+    
+    public RenditionProfile getRendition() {
+        return rendition;
+    }
+    
+    /**
+     * 设置下行转码阶段，并通知前端切换解码方式
+     */
+    public void setTranscoder(FrameTranscoder transcoder) {
+        FrameTranscoder old = this.transcoder;
+        this.transcoder = transcoder;
+        if (old != null) {
+            old.close();
+        }
+        addText(transcoder != null ? transcoder.getConfigMessage() : JPEG_CONFIG);
+        logger.info("会话{}下行视频格式: {}", sessionId, transcoder != null ? transcoder.getName() : "jpeg");
+    }
+    
+    public FrameTranscoder getTranscoder() {
+        return transcoder;
+    }
+    
+    public void setAudioEncoder(OpusDownlinkEncoder audioEncoder) {
+        this.audioEncoder = audioEncoder;
+        logger.info("会话{}下行音频格式: {}", sessionId, audioEncoder != null ? OpusDownlinkEncoder.NAME : "wav");
+    }
+    
+    /**
+     * 分段开始推理：停止待机帧，后续实时帧从最后一帧待机画面淡入
+     */
+    @Override
+    public void beginSegment(String avatar) {
+        if (avatar != null) {
+            idleAvatar = avatar;
+        }
+        segmentActive = true;
+    }
+    
+    /**
+     * 分段推理结束：队列中的实时帧发完后恢复待机循环
+     */
+    @Override
+    public void endSegment() {
+        segmentActive = false;
+    }
+    
     /**
      * 添加视频帧到队列
      */
     public boolean addFrame(ByteBuffer frameData) {
+        return enqueue(new FrameData(frameData, sessionId));
+    }
+    
+    @Override
+    public boolean onFrame(ByteBuffer frame, long seq) {
+        // 按组内帧序号均匀抽帧，入队前丢弃，不占队列
+        int decimation = effectiveRendition().getDecimation();
+        if (decimation > 1 && seq % decimation != 0) {
+            decimatedFrames.incrementAndGet();
+            return true;
+        }
+        return enqueue(new FrameData(frame, sessionId, seq));
+    }
+    
+    /**
+     * 添加JSON消息，由发送线程按顺序发出
+     */
+    public void addText(String message) {
+        addText(CompletableFuture.completedFuture(message));
+    }
+    
+    /**
+     * 添加内容还在生成的消息：先占住发送顺序，完成后由发送线程发出；生成失败或为null的跳过
+     */
+    public void addText(CompletableFuture<String> pendingMessage) {
+        if (!isRunning.get()) {
+            return;
+        }
+        textQueue.offer(pendingMessage);
+        // 消息就绪时唤醒可能阻塞在poll上的发送线程，队列满时发送线程本就不会等待
+        pendingMessage.whenComplete((message, e) -> frameQueue.offer(WAKEUP));
+    }
+    
+    @Override
+    public void onText(String message) {
+        addText(message);
+    }
+    
+    @Override
+    public void onAudio(FileDto audio, String message) {
+        if (!receiveAudio) {
+            return;
+        }
+        OpusDownlinkEncoder encoder = audioEncoder;
+        if (encoder == null) {
+            addText(message);
+            return;
+        }
+        // 编码在编码线程池上完成（通常已在prepareAudio时提交），不占用渲染线程；失败时按原消息下发
+        addText(encoder.audioMessageAsync(audio).exceptionally(e -> message));
+    }
+    
+    @Override
+    public void prepareAudio(List<FileDto> audioList) {
+        OpusDownlinkEncoder encoder = audioEncoder;
+        if (receiveAudio && encoder != null) {
+            encoder.prefetch(audioList);
+        }
+    }
+    
+    private boolean enqueue(FrameData frame) {
         if (!isRunning.get()) {
             logger.warn("发送线程未运行，丢弃帧数据: {}", sessionId);
             return false;
         }
         
-        FrameData frame = new FrameData(frameData, sessionId);
-        
-        // 非阻塞添加，队列满时丢弃最旧的帧
-        if (!frameQueue.offer(frame)) {
-            FrameData oldFrame = frameQueue.poll(); // 移除最旧的帧
-            if (oldFrame != null) {
-                logger.debug("队列已满，丢弃旧帧: {}", sessionId);
-            }
-            return frameQueue.offer(frame); // 重新尝试添加
+        // 非阻塞添加，队列满时按策略丢帧
+        if (frameQueue.offer(frame)) {
+            return true;
         }
-        
-        return true;
+        switch (dropPolicy) {
+            case DROP_NEWEST:
+                droppedFrames.incrementAndGet();
+                logger.debug("队列已满，丢弃新帧: {}", sessionId);
+                return false;
+            case LATEST_ONLY:
+                droppedFrames.addAndGet(frameQueue.size());
+                frameQueue.clear();
+                logger.debug("队列已满，清空队列只保留最新帧: {}", sessionId);
+                return frameQueue.offer(frame);
+            case BLOCK:
+                // 阻塞MuseTalk接收线程，TCP流控使推理端发送变慢
+                try {
+                    if (frameQueue.offer(frame, BLOCK_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                // 超时仍满，按丢弃最旧帧处理
+            default:
+                FrameData oldFrame = frameQueue.poll(); // 移除最旧的帧
+                if (oldFrame != null) {
+                    droppedFrames.incrementAndGet();
+                    logger.debug("队列已满，丢弃旧帧: {}", sessionId);
+                }
+                return frameQueue.offer(frame); // 重新尝试添加
+        }
+    }
+    
+    /**
+     * 清空待发送的帧、消息和编码中的音频，打断后不再下发上一轮的内容
+     */
+    @Override
+    public void flush() {
+        frameQueue.clear();
+        textQueue.clear();
     }
     
     /**
@@ -107,11 +364,35 @@ public class VideoFrameBuffer {
         
         while (isRunning.get() && !Thread.currentThread().isInterrupted()) {
             try {
-                // 从队列中取出帧数据，超时等待避免无限阻塞
-                FrameData frame = frameQueue.poll(1000, TimeUnit.MILLISECONDS);
+                IdleLoop idleLoop = currentIdleLoop();
+                // 待机循环驱动输出时等到下一帧待机画面；分段推理中按帧间隔等待实时帧，其余情况超时等待避免无限阻塞
+                long timeout;
+                if (segmentActive) {
+                    timeout = FRAME_INTERVAL_MS;
+                } else if (idleLoop != null) {
+                    timeout = Math.max(1, nextIdleFrameAt - System.currentTimeMillis());
+                } else {
+                    timeout = 1000;
+                }
+                FrameData frame = frameQueue.poll(timeout, TimeUnit.MILLISECONDS);
+                
+                // JSON消息优先发送
+                drainTextQueue();
+                adaptRendition();
                 
+                if (frame == WAKEUP) {
+                    continue;
+                }
+                if (frame == null) {
+                    flushTranscoder();
+                }
                 if (frame != null) {
-                    sendFrameWithRetry(frame);
+                    FrameData faded = crossFade(frame);
+                    // 淡入合成帧各屏幕不同，不进缓存
+                    String source = faded == frame && frame.getSeq() > 0 ? renditionSource : null;
+                    sendFrameWithRetry(render(faded, source, frame.getSeq()));
+                } else if (idleLoop != null && !segmentActive) {
+                    sendIdleFrame(idleLoop);
                 }
                 
             } catch (InterruptedException e) {
@@ -126,17 +407,226 @@ public class VideoFrameBuffer {
         logger.info("视频帧发送队列处理结束: {}", sessionId);
     }
     
+    private void drainTextQueue() {
+        CompletableFuture<String> head;
+        // 队首还没就绪时停下，保持消息顺序；flush可能同时清空队列，按对象移除
+        while ((head = textQueue.peek()) != null && head.isDone()) {
+            if (!textQueue.remove(head)) {
+                continue;
+            }
+            String message = head.isCompletedExceptionally() ? null : head.join();
+            if (message == null) {
+                continue;
+            }
+            try {
+                if (userSession.isOpen()) {
+                    synchronized (sendLock) {
+                        userSession.getAsyncRemote().sendText(message).get(SEND_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.warn("JSON消息发送失败: {}", sessionId, e);
+            }
+        }
+    }
+    
+    private IdleLoop currentIdleLoop() {
+        IdleLoopManager manager = idleLoopManager;
+        return manager != null ? manager.getLoop(idleAvatar) : null;
+    }
+    
+    /**
+     * 发送一帧待机画面（共享帧的只读视图，不复制）
+     */
+    private void sendIdleFrame(IdleLoop idleLoop) {
+        long now = System.currentTimeMillis();
+        if (now < nextIdleFrameAt) {
+            return;
+        }
+        long index = idleFrameIndex++ % idleLoop.length();
+        ByteBuffer view = idleLoop.frame(index);
+        lastIdleFrame = view.duplicate();
+        fadeRemaining = FADE_FRAMES;
+        nextIdleFrameAt = now + (long) FRAME_INTERVAL_MS * effectiveRendition().getDecimation();
+        // 待机帧所有会话共享，按avatar缓存
+        sendFrameWithRetry(render(new FrameData(view, sessionId), "idle:" + idleLoop.getAvatar(), index));
+    }
+    
+    /**
+     * 待机画面切换到实时帧时，前几帧做线性淡入，避免画面跳变
+     */
+    private FrameData crossFade(FrameData frame) {
+        if (fadeRemaining <= 0 || lastIdleFrame == null) {
+            return frame;
+        }
+        float alpha = (float) (FADE_FRAMES - fadeRemaining + 1) / (FADE_FRAMES + 1);
+        fadeRemaining--;
+        try {
+            BufferedImage idle = JpegCodec.decode(lastIdleFrame);
+            BufferedImage live = JpegCodec.decode(frame.getData());
+            if (idle.getWidth() != live.getWidth() || idle.getHeight() != live.getHeight()) {
+                fadeRemaining = 0;
+                return frame;
+            }
+            ByteBuffer blended = JpegCodec.encode(JpegCodec.blend(idle, live, alpha), JpegCodec.DEFAULT_QUALITY);
+            return new FrameData(blended, sessionId);
+        } catch (Exception e) {
+            logger.debug("淡入帧合成失败，直接发送实时帧: {}", sessionId, e);
+            fadeRemaining = 0;
+            return frame;
+        }
+    }
+    
+    /**
+     * 当前生效的档位：转码器不接受缩放输入时固定为原画
+     */
+    private RenditionProfile effectiveRendition() {
+        FrameTranscoder current = transcoder;
+        return current != null && !current.supportsRendition() ? RenditionProfile.FULL : rendition;
+    }
+    
+    /**
+     * 按当前档位缩放、重新编码；失败时发送原始帧
+     */
+    private FrameData render(FrameData frame, String source, long index) {
+        RenditionProfile profile = effectiveRendition();
+        RenditionCache cache = renditionCache;
+        if (cache == null || profile.getScale() >= 1.0f) {
+            return frame;
+        }
+        try {
+            return new FrameData(cache.get(source, index, profile, frame.getData()), sessionId, frame.getSeq());
+        } catch (Exception e) {
+            logger.debug("档位转码失败，发送原始帧: {}", sessionId, e);
+            return frame;
+        }
+    }
+    
+    /**
+     * 自动档位：队列积压、丢帧或发送耗时接近帧间隔时降档；持续空闲时逐级升档
+     */
+    private void adaptRendition() {
+        long now = System.currentTimeMillis();
+        if (!adaptive || now - lastAdaptAt < ADAPT_INTERVAL_MS) {
+            return;
+        }
+        lastAdaptAt = now;
+        RenditionProfile current = rendition;
+        double usage = (double) frameQueue.size() / queueCapacity;
+        double budgetMs = (double) FRAME_INTERVAL_MS * current.getDecimation();
+        long dropped = droppedFrames.get();
+        boolean dropping = dropped > droppedAtLastAdapt;
+        droppedAtLastAdapt = dropped;
+        
+        if (usage > 0.5 || dropping || avgSendLatencyMs > budgetMs * 0.8) {
+            calmChecks = 0;
+            if (current != RenditionProfile.LOW) {
+                changeRendition(current.lower(), String.format("队列%.0f%%, 发送耗时%.1fms, 丢帧=%s",
+                        usage * 100, avgSendLatencyMs, dropping));
+            }
+        } else if (usage < 0.1 && avgSendLatencyMs < budgetMs * 0.3) {
+            if (++calmChecks >= CALM_CHECKS_TO_UPGRADE && current != maxRendition) {
+                calmChecks = 0;
+                changeRendition(current.higher(), String.format("发送耗时%.1fms", avgSendLatencyMs));
+            }
+        } else {
+            calmChecks = 0;
+        }
+    }
+    
+    private void changeRendition(RenditionProfile profile, String reason) {
+        if (profile.ordinal() < maxRendition.ordinal()) {
+            profile = maxRendition;
+        }
+        RenditionProfile old = rendition;
+        rendition = profile;
+        if (old != profile) {
+            logger.info("会话{}画质档位 {} -> {}: {}", sessionId, old, profile, reason);
+        }
+        // 通知前端按新帧率调整播放节奏
+        addText(String.format("{\"type\":\"rendition\",\"profile\":\"%s\",\"fps\":%.1f,\"scale\":%.2f,\"adaptive\":%s}",
+                profile.name().toLowerCase(), profile.getFps(), profile.getScale(), adaptive));
+    }
+    
+    /**
+     * 交给转码阶段处理；转码失败时回退为JPEG直发
+     */
+    private boolean transcode(FrameTranscoder current, FrameData frame) {
+        try {
+            if (current.isHealthy()) {
+                current.onFrame(frame.getData());
+                sentFrames.incrementAndGet();
+                return true;
+            }
+            logger.warn("转码器{}不可用，回退为JPEG: {}", current.getName(), sessionId);
+        } catch (Exception e) {
+            logger.warn("转码器{}处理失败，回退为JPEG: {}", current.getName(), sessionId, e);
+        }
+        setTranscoder(null);
+        return false;
+    }
+    
+    private void flushTranscoder() {
+        FrameTranscoder current = transcoder;
+        if (current == null) {
+            return;
+        }
+        try {
+            current.flush();
+        } catch (Exception e) {
+            logger.warn("转码器{}输出失败: {}", current.getName(), sessionId, e);
+        }
+    }
+    
+    /**
+     * 转码输出回调：由转码器（可能在其它线程）调用，直接写给前端
+     */
+    public void sendEncoded(ByteBuffer data) {
+        if (!isRunning.get() || !userSession.isOpen()) {
+            return;
+        }
+        try {
+            writeBinary(data);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.warn("转码数据发送失败: {}", sessionId, e);
+        }
+    }
+    
+    /**
+     * 写二进制消息并等待完成，统计发送耗时和字节数
+     */
+    private void writeBinary(ByteBuffer data) throws Exception {
+        int length = data.remaining();
+        long sendStart = System.currentTimeMillis();
+        synchronized (sendLock) {
+            userSession.getAsyncRemote().sendBinary(data).get(SEND_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        long sendLatency = System.currentTimeMillis() - sendStart;
+        avgSendLatencyMs = avgSendLatencyMs * 0.9 + sendLatency * 0.1;
+        sentBytes.addAndGet(length);
+    }
+    
     /**
      * 带重试机制的帧发送
      */
     private void sendFrameWithRetry(FrameData frame) {
+        FrameTranscoder current = transcoder;
+        if (current != null && transcode(current, frame)) {
+            return;
+        }
         int retryCount = 0;
         
         while (retryCount < MAX_RETRY_COUNT && isRunning.get()) {
             try {
                 if (userSession.isOpen()) {
-                    // 异步发送，避免阻塞
-                    userSession.getAsyncRemote().sendBinary(frame.getData());
+                    // 等待本帧写出后再发下一帧：慢的屏幕只会积压自己的队列，按丢帧策略处理
+                    writeBinary(frame.getData().duplicate());
+                    sentFrames.incrementAndGet();
                     
                     // 记录发送统计
                     long latency = System.currentTimeMillis() - frame.getTimestamp();
@@ -151,6 +641,9 @@ public class VideoFrameBuffer {
                     return;
                 }
                 
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
             } catch (Exception e) {
                 retryCount++;
                 logger.warn("视频帧发送失败，重试 {}/{}: {}", retryCount, MAX_RETRY_COUNT, sessionId, e);
@@ -169,15 +662,41 @@ public class VideoFrameBuffer {
         logger.error("视频帧发送最终失败，已达最大重试次数: {}", sessionId);
     }
     
+    @Override
+    public String getSubscriberId() {
+        return sessionId;
+    }
+    
+    @Override
+    public boolean isActive() {
+        return isRunning.get() && userSession.isOpen();
+    }
+    
+    @Override
+    public void close() {
+        stop();
+    }
+    
+    public double getAvgSendLatencyMs() {
+        return avgSendLatencyMs;
+    }
+    
     /**
      * 获取队列状态信息
      */
     public QueueStatus getQueueStatus() {
         return new QueueStatus(
             frameQueue.size(),
-            QUEUE_CAPACITY,
+            queueCapacity,
             isRunning.get(),
-            userSession.isOpen()
+            userSession.isOpen(),
+            dropPolicy,
+            sentFrames.get(),
+            droppedFrames.get(),
+            sentBytes.get(),
+            avgSendLatencyMs,
+            effectiveRendition(),
+            decimatedFrames.get()
         );
     }
     
@@ -189,24 +708,48 @@ public class VideoFrameBuffer {
         private final int queueCapacity;
         private final boolean isRunning;
         private final boolean sessionOpen;
+        private final DropPolicy dropPolicy;
+        private final long sentFrames;
+        private final long droppedFrames;
+        private final long sentBytes;
+        private final double avgSendLatencyMs;
+        private final RenditionProfile rendition;
+        private final long decimatedFrames;
         
-        public QueueStatus(int queueSize, int queueCapacity, boolean isRunning, boolean sessionOpen) {
+        public QueueStatus(int queueSize, int queueCapacity, boolean isRunning, boolean sessionOpen,
+                           DropPolicy dropPolicy, long sentFrames, long droppedFrames, long sentBytes,
+                           double avgSendLatencyMs, RenditionProfile rendition, long decimatedFrames) {
             this.queueSize = queueSize;
             this.queueCapacity = queueCapacity;
             this.isRunning = isRunning;
             this.sessionOpen = sessionOpen;
+            this.dropPolicy = dropPolicy;
+            this.sentFrames = sentFrames;
+            this.droppedFrames = droppedFrames;
+            this.sentBytes = sentBytes;
+            this.avgSendLatencyMs = avgSendLatencyMs;
+            this.rendition = rendition;
+            this.decimatedFrames = decimatedFrames;
         }
         
         public int getQueueSize() { return queueSize; }
         public int getQueueCapacity() { return queueCapacity; }
         public boolean isRunning() { return isRunning; }
         public boolean isSessionOpen() { return sessionOpen; }
+        public DropPolicy getDropPolicy() { return dropPolicy; }
+        public long getSentFrames() { return sentFrames; }
+        public long getDroppedFrames() { return droppedFrames; }
+        public long getSentBytes() { return sentBytes; }
+        public double getAvgSendLatencyMs() { return avgSendLatencyMs; }
+        public RenditionProfile getRendition() { return rendition; }
+        public long getDecimatedFrames() { return decimatedFrames; }
         public double getQueueUsage() { return (double) queueSize / queueCapacity; }
         
         @Override
         public String toString() {
-            return String.format("QueueStatus{size=%d/%d(%.1f%%), running=%s, sessionOpen=%s}", 
-                queueSize, queueCapacity, getQueueUsage() * 100, isRunning, sessionOpen);
+            return String.format("QueueStatus{size=%d/%d(%.1f%%), running=%s, sessionOpen=%s, policy=%s, rendition=%s, sent=%d, dropped=%d, decimated=%d, bytes=%dKB, sendLatency=%.1fms}", 
+                queueSize, queueCapacity, getQueueUsage() * 100, isRunning, sessionOpen,
+                dropPolicy, rendition, sentFrames, droppedFrames, decimatedFrames, sentBytes / 1024, avgSendLatencyMs);
         }
     }
 }
@@ -1,11 +1,16 @@
 package com.gyq.service.BlockingQueueService;
 
+import com.gyq.service.AudioCodecService.OpusDownlinkEncoder;
+import jakarta.annotation.Resource;
 import jakarta.websocket.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -20,10 +25,54 @@ public class VideoFrameManager {
     // 存储每个会话的视频帧缓冲器
     private final ConcurrentHashMap<String, VideoFrameBuffer> bufferMap = new ConcurrentHashMap<>();
     
+    // 观看组：渲染会话token -> 订阅该路画面的所有前端（主会话 + 观看屏幕）
+    private final ConcurrentHashMap<String, ViewerGroup> groupMap = new ConcurrentHashMap<>();
+    
     // 定时任务执行器，用于监控和清理
     private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
     
-    public VideoFrameManager() {
+    // 待机循环，所有会话共享同一份帧数据
+    @Resource
+    private IdleLoopManager idleLoopManager;
+    
+    // Opus下行：编码器常驻共享，结果按音频段缓存
+    @Resource
+    private OpusDownlinkEncoder opusDownlinkEncoder;
+    
+    // H.264下行：前端支持WebCodecs时按需启用，否则保持JPEG
+    @Value("${video.h264.enabled:true}")
+    private boolean h264Enabled;
+    @Value("${video.h264.ffmpeg:ffmpeg}")
+    private String ffmpegPath;
+    @Value("${video.h264.bitrate:600k}")
+    private String h264Bitrate;
+    
+    // 差分帧下行：关键帧间隔、像素变化阈值、补丁JPEG质量
+    @Value("${video.delta.key-interval:50}")
+    private int deltaKeyInterval;
+    @Value("${video.delta.threshold:12}")
+    private int deltaThreshold;
+    @Value("${video.delta.quality:0.5}")
+    private float deltaQuality;
+    
+    // 画质档位：默认自动调整，转码结果全局共享缓存
+    // 主会话的丢帧策略，BLOCK 时前端接收慢会反压到MuseTalk推理
+    @Value("${video.session.drop-policy:DROP_OLDEST}")
+    private String sessionDropPolicy;
+    @Value("${video.rendition.adaptive:true}")
+    private boolean renditionAdaptive;
+    private final RenditionCache renditionCache;
+    
+    // 差分帧的JPEG解码线程池，所有会话共享，按CPU核数分配
+    private final int decodeThreads = Runtime.getRuntime().availableProcessors();
+    private final ExecutorService deltaDecodePool = Executors.newFixedThreadPool(decodeThreads, r -> {
+        Thread t = new Thread(r, "DeltaDecoder");
+        t.setDaemon(true);
+        return t;
+    });
+    
+    public VideoFrameManager(@Value("${video.rendition.cache-size:300}") int renditionCacheSize) {
+        this.renditionCache = new RenditionCache(renditionCacheSize);
         // 启动定时监控任务
         startMonitoringTasks();
     }
@@ -32,8 +81,13 @@ public class VideoFrameManager {
      * 为会话创建视频帧缓冲器
      */
     public VideoFrameBuffer createBuffer(String sessionId, Session userSession) {
-        VideoFrameBuffer buffer = new VideoFrameBuffer(userSession, sessionId);
+        VideoFrameBuffer buffer = new VideoFrameBuffer(userSession, sessionId, 0,
+                VideoFrameBuffer.DropPolicy.parse(sessionDropPolicy), true);
+        if (idleLoopManager != null) {
+            buffer.setIdleLoop(idleLoopManager, idleLoopManager.getDefaultAvatar());
+        }
         buffer.start();
+        applyRendition(buffer, sessionId, null);
         
         VideoFrameBuffer oldBuffer = bufferMap.put(sessionId, buffer);
         if (oldBuffer != null) {
@@ -41,10 +95,139 @@ public class VideoFrameManager {
             oldBuffer.stop();
         }
         
+        // 主会话自身也是观看组的一个订阅者；/ws/chat 和优化版会话都在这里建组，HLS可直接观看
+        subscribe(sessionId, buffer);
+        
         logger.info("为会话{}创建视频帧缓冲器", sessionId);
         return buffer;
     }
     
+    /**
+     * 设置画质档位：rendition 为 full/high/medium/low 时固定档位，缺省或 auto 时按网络状况自动调整
+     */
+    public void applyRendition(VideoFrameBuffer buffer, String groupId, String rendition) {
+        RenditionProfile fixed = RenditionProfile.parse(rendition);
+        if (fixed != null) {
+            buffer.setRendition(renditionCache, groupId, fixed, false);
+        } else {
+            buffer.setRendition(renditionCache, groupId, RenditionProfile.FULL, renditionAdaptive);
+        }
+    }
+    
+    /**
+     * 按前端声明的格式设置下行编码：codec=h264 启用H.264，codec=delta 启用差分帧，其它情况保持JPEG
+     */
+    public void applyCodec(VideoFrameBuffer buffer, String codec) {
+        if (DeltaFrameTranscoder.NAME.equalsIgnoreCase(codec)) {
+            buffer.setTranscoder(new DeltaFrameTranscoder(buffer.getSubscriberId(), buffer, deltaDecodePool,
+                    deltaKeyInterval, deltaThreshold, deltaQuality, decodeThreads));
+            return;
+        }
+        if (!H264StreamEncoder.NAME.equalsIgnoreCase(codec)) {
+            return;
+        }
+        if (!h264Enabled) {
+            logger.info("H.264下行未启用，会话{}使用JPEG", buffer.getSubscriberId());
+            return;
+        }
+        try {
+            buffer.setTranscoder(new H264StreamEncoder(ffmpegPath, h264Bitrate, buffer.getSubscriberId(), buffer));
+        } catch (IOException e) {
+            logger.warn("启动H.264编码器失败，会话{}回退为JPEG: {}", buffer.getSubscriberId(), e.getMessage());
+        }
+    }
+    
+    /**
+     * 按前端声明的格式设置下行音频编码：audioCodec=opus 时TTS音频编码为Ogg Opus下发，其它情况保持WAV
+     */
+    public void applyAudioCodec(VideoFrameBuffer buffer, String audioCodec) {
+        if (!OpusDownlinkEncoder.NAME.equalsIgnoreCase(audioCodec)) {
+            return;
+        }
+        if (opusDownlinkEncoder == null || !opusDownlinkEncoder.isEnabled()) {
+            logger.info("Opus下行未启用，会话{}使用WAV", buffer.getSubscriberId());
+            return;
+        }
+        buffer.setAudioEncoder(opusDownlinkEncoder);
+    }
+    
+    /**
+     * 获取或创建观看组
+     */
+    public ViewerGroup getOrCreateGroup(String groupId) {
+        return groupMap.computeIfAbsent(groupId, ViewerGroup::new);
+    }
+    
+    /**
+     * 获取观看组，不存在时返回null
+     */
+    public ViewerGroup getGroup(String groupId) {
+        return groupMap.get(groupId);
+    }
+    
+    /**
+     * 订阅观看组，不存在时创建；与移除空组互斥，不会订阅到刚被移除的组
+     */
+    public ViewerGroup subscribe(String groupId, FrameSubscriber subscriber) {
+        return groupMap.compute(groupId, (id, group) -> {
+            ViewerGroup target = group != null ? group : new ViewerGroup(id);
+            target.subscribe(subscriber);
+            return target;
+        });
+    }
+    
+    /**
+     * 订阅已存在的观看组，组不存在（会话已结束或从未建立）时不创建，返回null
+     */
+    public ViewerGroup subscribeExisting(String groupId, FrameSubscriber subscriber) {
+        return groupMap.computeIfPresent(groupId, (id, group) -> {
+            group.subscribe(subscriber);
+            return group;
+        });
+    }
+    
+    /**
+     * 取消订阅；组里没有主会话、观看屏幕和HLS广播时移除该组
+     */
+    public void unsubscribe(String groupId, String subscriberId) {
+        groupMap.computeIfPresent(groupId, (id, group) -> {
+            group.unsubscribe(subscriberId);
+            if (group.getSubscriberCount() == 0) {
+                logger.info("观看组{}已无订阅者，移除", id);
+                return null;
+            }
+            return group;
+        });
+    }
+    
+    /**
+     * 观看屏幕订阅某一路渲染会话，每个屏幕有独立的队列容量和丢帧策略
+     * @param rendition 画质档位，见 {@link #applyRendition}
+     */
+    public VideoFrameBuffer subscribeViewer(String groupId, Session viewerSession, int queueCapacity,
+                                            VideoFrameBuffer.DropPolicy dropPolicy, boolean receiveAudio, String rendition) {
+        String viewerId = groupId + "#" + viewerSession.getId();
+        if (dropPolicy == VideoFrameBuffer.DropPolicy.BLOCK) {
+            // 观看屏幕不能拖慢整组的渲染
+            dropPolicy = VideoFrameBuffer.DropPolicy.DROP_OLDEST;
+        }
+        VideoFrameBuffer buffer = new VideoFrameBuffer(viewerSession, viewerId, queueCapacity, dropPolicy, receiveAudio);
+        if (idleLoopManager != null) {
+            buffer.setIdleLoop(idleLoopManager, idleLoopManager.getDefaultAvatar());
+        }
+        buffer.start();
+        applyRendition(buffer, groupId, rendition);
+        subscribe(groupId, buffer);
+        return buffer;
+    }
+    
+    /**
+     * 观看屏幕取消订阅
+     */
+    public void unsubscribeViewer(String groupId, Session viewerSession) {
+        unsubscribe(groupId, groupId + "#" + viewerSession.getId());
+    }
+    
     /**
      * 获取会话的视频帧缓冲器
      */
@@ -61,6 +244,8 @@ public class VideoFrameManager {
             buffer.stop();
             logger.info("移除会话{}的视频帧缓冲器", sessionId);
         }
+        // 观看组里还有屏幕时保留，屏幕继续播放待机帧，主会话重连后恢复
+        unsubscribe(sessionId, sessionId);
     }
     
     /**
@@ -111,7 +296,10 @@ public class VideoFrameManager {
         }
         
         SystemStatus status = getSystemStatus();
-        logger.info("视频帧系统状态: {}", status);
+        logger.info("视频帧系统状态: {}, {}", status, renditionCache);
+        groupMap.values().stream()
+            .filter(group -> group.getSubscriberCount() > 1)
+            .forEach(group -> logger.info("观看组状态: {}", group));
         
         // 如果队列使用率过高，输出警告
         if (status.getQueueUsage() > 0.8) {
@@ -137,6 +325,8 @@ public class VideoFrameManager {
             
             return false;
         });
+        // 没有订阅者的观看组一并清理
+        groupMap.entrySet().removeIf(entry -> entry.getValue().getSubscriberCount() == 0);
     }
     
     /**
@@ -148,6 +338,10 @@ public class VideoFrameManager {
         // 停止所有缓冲器
         bufferMap.values().forEach(VideoFrameBuffer::stop);
         bufferMap.clear();
+        groupMap.values().forEach(ViewerGroup::close);
+        groupMap.clear();
+        
+        deltaDecodePool.shutdownNow();
         
         // 关闭定时任务
         scheduler.shutdown();
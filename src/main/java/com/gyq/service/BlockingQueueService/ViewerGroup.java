@@ -0,0 +1,135 @@
+package com.gyq.service.BlockingQueueService;
+
+import com.gyq.FileDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 观看组 - 一路MuseTalk渲染广播给多个订阅者（主会话 + 展厅多块屏幕）
+ * 每帧只保存一份，订阅者拿到的是只读的 duplicate() 视图；增加屏幕不会增加GPU推理
+ */
+public class ViewerGroup {
+    private static final Logger logger = LoggerFactory.getLogger(ViewerGroup.class);
+
+    private final String groupId;
+    private final List<FrameSubscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final AtomicLong frameSeq = new AtomicLong(0);
+    private final AtomicLong publishedBytes = new AtomicLong(0);
+    private volatile boolean segmentActive = false;
+    private volatile String currentAvatar;
+
+    public ViewerGroup(String groupId) {
+        this.groupId = groupId;
+    }
+
+    public void subscribe(FrameSubscriber subscriber) {
+        subscribers.add(subscriber);
+        // 中途加入的屏幕同步当前分段状态
+        if (segmentActive) {
+            subscriber.beginSegment(currentAvatar);
+        }
+        logger.info("观看组{}新增订阅者: {}, 当前订阅数: {}", groupId, subscriber.getSubscriberId(), subscribers.size());
+    }
+
+    public void unsubscribe(String subscriberId) {
+        subscribers.removeIf(s -> {
+            if (s.getSubscriberId().equals(subscriberId)) {
+                s.close();
+                return true;
+            }
+            return false;
+        });
+        logger.info("观看组{}移除订阅者: {}, 当前订阅数: {}", groupId, subscriberId, subscribers.size());
+    }
+
+    /**
+     * 广播一帧：只包装一次只读缓冲，不复制帧数据
+     */
+    public long publishFrame(ByteBuffer frame) {
+        long seq = frameSeq.incrementAndGet();
+        ByteBuffer shared = frame.asReadOnlyBuffer();
+        publishedBytes.addAndGet(shared.remaining());
+        for (FrameSubscriber subscriber : subscribers) {
+            if (subscriber.isActive()) {
+                subscriber.onFrame(shared.duplicate(), seq);
+            }
+        }
+        removeInactive();
+        return seq;
+    }
+
+    public void prepareAudio(List<FileDto> audioList) {
+        for (FrameSubscriber subscriber : subscribers) {
+            if (subscriber.isActive()) {
+                subscriber.prepareAudio(audioList);
+            }
+        }
+    }
+
+    public void publishText(String message) {
+        for (FrameSubscriber subscriber : subscribers) {
+            if (subscriber.isActive()) {
+                subscriber.onText(message);
+            }
+        }
+    }
+
+    public void publishAudio(FileDto audio, String message) {
+        for (FrameSubscriber subscriber : subscribers) {
+            if (subscriber.isActive()) {
+                subscriber.onAudio(audio, message);
+            }
+        }
+    }
+
+    public void beginSegment(String avatar) {
+        currentAvatar = avatar;
+        segmentActive = true;
+        subscribers.forEach(s -> s.beginSegment(avatar));
+    }
+
+    public void endSegment() {
+        segmentActive = false;
+        subscribers.forEach(FrameSubscriber::endSegment);
+    }
+
+    /**
+     * 对话被取消：所有订阅者丢弃积压的帧
+     */
+    public void flush() {
+        subscribers.forEach(FrameSubscriber::flush);
+    }
+
+    private void removeInactive() {
+        subscribers.removeIf(s -> {
+            if (!s.isActive()) {
+                logger.info("观看组{}清理失效订阅者: {}", groupId, s.getSubscriberId());
+                s.close();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    public void close() {
+        subscribers.forEach(FrameSubscriber::close);
+        subscribers.clear();
+    }
+
+    public String getGroupId() { return groupId; }
+    public List<FrameSubscriber> getSubscribers() { return subscribers; }
+    public int getSubscriberCount() { return subscribers.size(); }
+    public long getFrameCount() { return frameSeq.get(); }
+    public long getPublishedBytes() { return publishedBytes.get(); }
+
+    @Override
+    public String toString() {
+        return String.format("ViewerGroup{id=%s, subscribers=%d, frames=%d, bytes=%dKB}",
+            groupId, subscribers.size(), frameSeq.get(), publishedBytes.get() / 1024);
+    }
+}
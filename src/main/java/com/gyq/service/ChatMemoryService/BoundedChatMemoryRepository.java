@@ -0,0 +1,277 @@
+package com.gyq.service.ChatMemoryService;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * 有界的对话记忆仓库 - 替代 InMemoryChatMemoryRepository
+ * 内存里只保留最近活跃的会话（LRU + 空闲超时淘汰），每次保存同步追加到磁盘日志；
+ * 冷会话再次出现时从日志按需加载，后台定期压缩日志
+ */
+@Component
+public class BoundedChatMemoryRepository implements ChatMemoryRepository {
+    private static final Logger logger = LoggerFactory.getLogger(BoundedChatMemoryRepository.class);
+
+    // 每条消息对象、字符串头等固定开销的估算
+    private static final int MESSAGE_OVERHEAD_BYTES = 96;
+
+    @Value("${chat-memory.dir:./data/chat-memory}")
+    private String dir;
+    @Value("${chat-memory.max-active:500}")
+    private int maxActive;
+    @Value("${chat-memory.ttl-minutes:30}")
+    private long ttlMinutes;
+    @Value("${chat-memory.log-initial-mb:16}")
+    private int logInitialMb;
+    @Value("${chat-memory.compact-interval-seconds:300}")
+    private long compactIntervalSeconds;
+    @Value("${chat-memory.compact-garbage-ratio:0.5}")
+    private double compactGarbageRatio;
+
+    private ChatMemoryLog log;
+
+    private static class Window {
+        final List<Message> messages;
+        final long bytes;
+        long lastAccess = System.currentTimeMillis();
+
+        Window(List<Message> messages) {
+            this.messages = messages;
+            this.bytes = footprint(messages);
+        }
+    }
+
+    // 访问顺序的LRU
+    private final LinkedHashMap<String, Window> active = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ChatMemoryCompactor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @PostConstruct
+    public void init() throws IOException {
+        log = new ChatMemoryLog(Path.of(dir, "chat-memory.log"), logInitialMb * 1024 * 1024);
+        scheduler.scheduleWithFixedDelay(this::maintain, compactIntervalSeconds, compactIntervalSeconds,
+                TimeUnit.SECONDS);
+    }
+
+    @Override
+    public List<String> findConversationIds() {
+        Set<String> ids = new LinkedHashSet<>();
+        synchronized (this) {
+            ids.addAll(active.keySet());
+        }
+        ids.addAll(log.conversationIds());
+        return new ArrayList<>(ids);
+    }
+
+    @Override
+    public List<Message> findByConversationId(String conversationId) {
+        synchronized (this) {
+            Window window = active.get(conversationId);
+            if (window != null) {
+                hits.incrementAndGet();
+                window.lastAccess = System.currentTimeMillis();
+                return new ArrayList<>(window.messages);
+            }
+        }
+        // 冷会话：从日志加载后放回内存
+        List<Message> messages = log.load(conversationId);
+        if (messages == null) {
+            return new ArrayList<>();
+        }
+        loads.incrementAndGet();
+        synchronized (this) {
+            if (!active.containsKey(conversationId)) {
+                put(conversationId, new Window(messages));
+            }
+        }
+        return new ArrayList<>(messages);
+    }
+
+    @Override
+    public synchronized void saveAll(String conversationId, List<Message> messages) {
+        List<Message> copy = List.copyOf(messages);
+        try {
+            log.save(conversationId, copy);
+        } catch (IOException e) {
+            throw new UncheckedIOException("对话记忆写入失败: " + conversationId, e);
+        }
+        put(conversationId, new Window(copy));
+    }
+
+    /**
+     * 把会话开头的一段消息替换成 replacement；开头已不是 expectedPrefix（期间被改写过）时不替换，返回false
+     * 用于后台压缩：摘要生成期间新追加的消息会原样保留在摘要之后
+     */
+    public synchronized boolean replacePrefix(String conversationId, List<Message> expectedPrefix,
+                                              List<Message> replacement) {
+        List<Message> current = findByConversationId(conversationId);
+        if (current.size() < expectedPrefix.size()) {
+            return false;
+        }
+        for (int i = 0; i < expectedPrefix.size(); i++) {
+            Message a = current.get(i);
+            Message b = expectedPrefix.get(i);
+            if (a.getMessageType() != b.getMessageType() || !Objects.equals(a.getText(), b.getText())) {
+                return false;
+            }
+        }
+        List<Message> merged = new ArrayList<>(replacement);
+        merged.addAll(current.subList(expectedPrefix.size(), current.size()));
+        saveAll(conversationId, merged);
+        return true;
+    }
+
+    @Override
+    public void deleteByConversationId(String conversationId) {
+        try {
+            log.delete(conversationId);
+        } catch (IOException e) {
+            throw new UncheckedIOException("对话记忆删除失败: " + conversationId, e);
+        }
+        synchronized (this) {
+            active.remove(conversationId);
+        }
+    }
+
+    private void put(String conversationId, Window window) {
+        active.put(conversationId, window);
+        // 超出上限时淘汰最久未访问的，内容已在日志里，不需要回写
+        Iterator<Map.Entry<String, Window>> it = active.entrySet().iterator();
+        while (active.size() > maxActive && it.hasNext()) {
+            it.next();
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * 后台任务：淘汰空闲超时的会话，日志垃圾过多时压缩
+     */
+    private void maintain() {
+        try {
+            long expireBefore = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(ttlMinutes);
+            synchronized (this) {
+                Iterator<Map.Entry<String, Window>> it = active.entrySet().iterator();
+                while (it.hasNext()) {
+                    if (it.next().getValue().lastAccess < expireBefore) {
+                        it.remove();
+                        evictions.incrementAndGet();
+                    }
+                }
+            }
+            if (log.garbageRatio() >= compactGarbageRatio) {
+                log.compact();
+            }
+        } catch (Exception e) {
+            logger.error("对话记忆维护失败", e);
+        }
+    }
+
+    private static long footprint(List<Message> messages) {
+        long bytes = 0;
+        for (Message message : messages) {
+            String text = message.getText();
+            bytes += MESSAGE_OVERHEAD_BYTES + (text != null ? text.length() * 2L : 0);
+        }
+        return bytes;
+    }
+
+    /**
+     * 各活跃会话的内存占用估算（字节），从大到小
+     */
+    public synchronized Map<String, Long> getFootprints() {
+        return active.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, Window> e) -> e.getValue().bytes).reversed())
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().bytes, (a, b) -> a, LinkedHashMap::new));
+    }
+
+    public synchronized MemoryStatus getStatus() {
+        long heapBytes = 0;
+        long largest = 0;
+        for (Window window : active.values()) {
+            heapBytes += window.bytes;
+            largest = Math.max(largest, window.bytes);
+        }
+        return new MemoryStatus(active.size(), maxActive, log.conversationIds().size(), heapBytes, largest,
+                hits.get(), loads.get(), evictions.get(), log.getSizeBytes(), log.garbageRatio(), log.getCompactions());
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        scheduler.shutdownNow();
+        log.close();
+    }
+
+    // 对话记忆状态
+    public static class MemoryStatus {
+        private final int active;
+        private final int maxActive;
+        private final int stored;
+        private final long heapBytes;
+        private final long largestBytes;
+        private final long hits;
+        private final long loads;
+        private final long evictions;
+        private final long logBytes;
+        private final double garbageRatio;
+        private final long compactions;
+
+        public MemoryStatus(int active, int maxActive, int stored, long heapBytes, long largestBytes, long hits,
+                            long loads, long evictions, long logBytes, double garbageRatio, long compactions) {
+            this.active = active;
+            this.maxActive = maxActive;
+            this.stored = stored;
+            this.heapBytes = heapBytes;
+            this.largestBytes = largestBytes;
+            this.hits = hits;
+            this.loads = loads;
+            this.evictions = evictions;
+            this.logBytes = logBytes;
+            this.garbageRatio = garbageRatio;
+            this.compactions = compactions;
+        }
+
+        public int getActive() { return active; }
+        public int getStored() { return stored; }
+        public long getHeapBytes() { return heapBytes; }
+        public long getEvictions() { return evictions; }
+
+        @Override
+        public String toString() {
+            return String.format("MemoryStatus{active=%d/%d, stored=%d, heap=%dB(max %dB/会话), hits=%d, loads=%d, evictions=%d, log=%dB(垃圾%.0f%%), compactions=%d}",
+                    active, maxActive, stored, heapBytes, largestBytes, hits, loads, evictions, logBytes,
+                    garbageRatio * 100, compactions);
+        }
+    }
+}
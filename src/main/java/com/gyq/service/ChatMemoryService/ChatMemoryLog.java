@@ -0,0 +1,291 @@
+package com.gyq.service.ChatMemoryService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 对话记忆的追加写日志 - 文件整体内存映射，每次保存追加一条该会话的完整窗口，删除追加一条墓碑
+ * 内存里只保留 会话ID → 最新记录偏移 的索引，消息内容按需从映射区读取
+ * 旧版本记录成为垃圾，由 compact 重写成只含最新记录的新文件
+ *
+ * 记录格式：[int 长度][int CRC32][byte 类型][short ID长度][ID][int 消息数]{[byte 消息类型][int 长度][文本]}...
+ * 长度为0处即日志末尾；CRC不符（写到一半时进程退出）的记录及其后内容丢弃
+ */
+public class ChatMemoryLog {
+    private static final Logger logger = LoggerFactory.getLogger(ChatMemoryLog.class);
+
+    private static final byte OP_SAVE = 1;
+    private static final byte OP_DELETE = 2;
+    private static final int HEADER = 8;
+
+    private final Path file;
+    private final int initialCapacity;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int end = 0;
+    private long liveBytes = 0;
+    private long compactions = 0;
+    // 会话ID → 最新保存记录的偏移和长度
+    private final Map<String, int[]> index = new HashMap<>();
+
+    public ChatMemoryLog(Path file, int initialCapacity) throws IOException {
+        this.file = file;
+        this.initialCapacity = initialCapacity;
+        Files.createDirectories(file.getParent());
+        open();
+        recover();
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = Math.max(channel.size(), initialCapacity);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * 启动时顺序扫描一遍，重建索引，确定日志末尾
+     */
+    private void recover() {
+        int pos = 0;
+        int records = 0;
+        while (pos + HEADER <= buffer.capacity()) {
+            int length = buffer.getInt(pos);
+            if (length <= 0 || pos + HEADER + length > buffer.capacity()) {
+                break;
+            }
+            int crc = buffer.getInt(pos + 4);
+            if (crc != crc(pos + HEADER, length)) {
+                logger.warn("对话记忆日志在偏移{}处记录损坏，丢弃其后内容", pos);
+                break;
+            }
+            apply(pos, length);
+            pos += HEADER + length;
+            records++;
+        }
+        end = pos;
+        // 清掉损坏记录的残留，避免下次启动误读
+        for (int i = end; i < Math.min(end + HEADER, buffer.capacity()); i++) {
+            buffer.put(i, (byte) 0);
+        }
+        logger.info("对话记忆日志: {}, {}条记录, {}个会话, {}字节", file, records, index.size(), end);
+    }
+
+    private void apply(int pos, int length) {
+        ByteBuffer record = slice(pos + HEADER, length);
+        byte op = record.get();
+        String id = readId(record);
+        int[] previous = index.remove(id);
+        if (previous != null) {
+            liveBytes -= previous[1];
+        }
+        if (op == OP_SAVE) {
+            index.put(id, new int[]{pos, HEADER + length});
+            liveBytes += HEADER + length;
+        }
+    }
+
+    public synchronized void save(String conversationId, List<Message> messages) throws IOException {
+        append(OP_SAVE, conversationId, messages);
+    }
+
+    public synchronized void delete(String conversationId) throws IOException {
+        if (index.containsKey(conversationId)) {
+            append(OP_DELETE, conversationId, List.of());
+        }
+    }
+
+    /**
+     * 读取会话的最新窗口；没有记录时返回null
+     */
+    public synchronized List<Message> load(String conversationId) {
+        int[] location = index.get(conversationId);
+        if (location == null) {
+            return null;
+        }
+        ByteBuffer record = slice(location[0] + HEADER, location[1] - HEADER);
+        record.get();
+        readId(record);
+        int count = record.getInt();
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte type = record.get();
+            byte[] text = new byte[record.getInt()];
+            record.get(text);
+            messages.add(toMessage(type, new String(text, StandardCharsets.UTF_8)));
+        }
+        return messages;
+    }
+
+    public synchronized List<String> conversationIds() {
+        return new ArrayList<>(index.keySet());
+    }
+
+    public synchronized boolean contains(String conversationId) {
+        return index.containsKey(conversationId);
+    }
+
+    private void append(byte op, String conversationId, List<Message> messages) throws IOException {
+        byte[] record = encode(op, conversationId, messages);
+        ensureCapacity(end + HEADER + record.length + HEADER);
+        int pos = end;
+        buffer.position(pos + HEADER);
+        buffer.put(record);
+        buffer.putInt(pos + 4, crc(pos + HEADER, record.length));
+        // 长度最后写，扫描时长度非0即表示记录完整
+        buffer.putInt(pos, record.length);
+        end = pos + HEADER + record.length;
+        apply(pos, record.length);
+    }
+
+    private static byte[] encode(byte op, String conversationId, List<Message> messages) {
+        byte[] id = conversationId.getBytes(StandardCharsets.UTF_8);
+        List<byte[]> texts = new ArrayList<>(messages.size());
+        int size = 1 + 2 + id.length + 4;
+        for (Message message : messages) {
+            byte[] text = (message.getText() != null ? message.getText() : "").getBytes(StandardCharsets.UTF_8);
+            texts.add(text);
+            size += 1 + 4 + text.length;
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.put(op);
+        out.putShort((short) id.length);
+        out.put(id);
+        out.putInt(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            out.put(typeCode(messages.get(i).getMessageType()));
+            out.putInt(texts.get(i).length);
+            out.put(texts.get(i));
+        }
+        return out.array();
+    }
+
+    // 消息类型按固定编码落盘，不依赖枚举顺序
+    private static byte typeCode(MessageType type) {
+        switch (type) {
+            case ASSISTANT:
+                return 1;
+            case SYSTEM:
+                return 2;
+            default:
+                return 0;
+        }
+    }
+
+    private static Message toMessage(byte type, String text) {
+        switch (type) {
+            case 1:
+                return new AssistantMessage(text);
+            case 2:
+                return new SystemMessage(text);
+            default:
+                return new UserMessage(text);
+        }
+    }
+
+    private String readId(ByteBuffer record) {
+        byte[] id = new byte[record.getShort()];
+        record.get(id);
+        return new String(id, StandardCharsets.UTF_8);
+    }
+
+    private ByteBuffer slice(int pos, int length) {
+        return buffer.duplicate().position(pos).limit(pos + length).slice();
+    }
+
+    private int crc(int pos, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(slice(pos, length));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 映射区不够时按倍数扩大文件并重新映射
+     */
+    private void ensureCapacity(long required) throws IOException {
+        if (required <= buffer.capacity()) {
+            return;
+        }
+        long capacity = buffer.capacity();
+        while (capacity < required) {
+            capacity *= 2;
+        }
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IOException("对话记忆日志超过2GB，需要先压缩");
+        }
+        buffer.force();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    /**
+     * 垃圾占比
+     */
+    public synchronized double garbageRatio() {
+        return end == 0 ? 0 : 1 - (double) liveBytes / end;
+    }
+
+    /**
+     * 把每个会话的最新记录拷到新文件，原子替换旧文件
+     */
+    public synchronized void compact() throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".compact");
+        Files.deleteIfExists(tmp);
+        int before = end;
+        int after = 0;
+        Map<String, int[]> compacted = new HashMap<>();
+        int capacity = (int) Math.max(initialCapacity, Math.min(Integer.MAX_VALUE, liveBytes * 2 + HEADER));
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            MappedByteBuffer target = out.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            for (Map.Entry<String, int[]> entry : index.entrySet()) {
+                int[] location = entry.getValue();
+                target.put(after, slice(location[0], location[1]), 0, location[1]);
+                compacted.put(entry.getKey(), new int[]{after, location[1]});
+                after += location[1];
+            }
+            target.force();
+        }
+        buffer.force();
+        channel.close();
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        open();
+        end = after;
+        index.clear();
+        index.putAll(compacted);
+        liveBytes = end;
+        compactions++;
+        logger.info("对话记忆日志压缩: {} -> {}字节, {}个会话", before, after, index.size());
+    }
+
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    public synchronized long getSizeBytes() {
+        return end;
+    }
+
+    public synchronized long getCompactions() {
+        return compactions;
+    }
+}
@@ -0,0 +1,198 @@
+package com.gyq.service.ChatMemoryService;
+
+import com.gyq.service.LlmRouterService.LlmRouter;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 对话上下文压缩 - 长时间参观后，把较早的对话在后台总结成一段滚动摘要，
+ * 之后每轮只带摘要和最近几轮问答，控制 chatProcess 的提示词长度和首token耗时
+ * 压缩在两轮之间的后台线程执行，不占用对话本身的时间；同时统计每轮提示词token数和耗时的分布
+ *
+ * 只作用于带记忆的 chatProcess（ChatClient + BoundedChatMemoryRepository）。语音对话的 process / streamProcess
+ * 每轮只发系统提示词和本句识别文本，不带历史，没有需要压缩的内容，直方图也不统计这两条路径
+ */
+@Service
+public class ConversationCompactor {
+    private static final Logger logger = LoggerFactory.getLogger(ConversationCompactor.class);
+
+    static final String SYNOPSIS_PREFIX = "此前对话摘要：";
+    private static final Duration SUMMARY_TIMEOUT = Duration.ofSeconds(30);
+    private static final String SUMMARY_PROMPT = """
+            你负责压缩展馆数字人与游客的对话记录。请把给出的“已有摘要”和“较早对话”合并成一段新的摘要：
+            保留游客的身份、兴趣、问过的主题和尚未解答的问题，以及讲解员已经给出的关键信息；
+            去掉寒暄和重复内容，不超过%d字，只输出摘要正文。""";
+
+    @Resource
+    private BoundedChatMemoryRepository chatMemoryRepository;
+    @Resource
+    private LlmRouter llmRouter;
+
+    @Value("${chat-memory.compaction.enabled:true}")
+    private boolean enabled;
+    // 保留原文的最近消息数（一问一答为2条）
+    @Value("${chat-memory.compaction.keep-messages:6}")
+    private int keepMessages;
+    // 可压缩的较早消息达到这个数量才触发
+    @Value("${chat-memory.compaction.min-messages:6}")
+    private int minMessages;
+    @Value("${chat-memory.compaction.summary-max-chars:200}")
+    private int summaryMaxChars;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "ConversationCompactor");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    private final Histogram promptTokens = new Histogram(250, 500, 1000, 2000, 4000, 8000);
+    private final Histogram latencyMs = new Histogram(500, 1000, 2000, 4000, 8000, 16000);
+    private final AtomicLong compactions = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * 记录一轮 chatProcess 的提示词token数和耗时
+     */
+    public void recordTurn(long tokens, long millis) {
+        if (tokens > 0) {
+            promptTokens.record(tokens);
+        }
+        latencyMs.record(millis);
+    }
+
+    /**
+     * 一轮对话结束后调用：历史够长时排队压缩，同一会话同时只排一次
+     */
+    public void schedule(String conversationId) {
+        if (!enabled || !pending.add(conversationId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    compact(conversationId);
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                    logger.warn("会话{}上下文压缩失败: {}", conversationId, e.getMessage());
+                } finally {
+                    pending.remove(conversationId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(conversationId);
+        }
+    }
+
+    void compact(String conversationId) throws Exception {
+        List<Message> history = chatMemoryRepository.findByConversationId(conversationId);
+        String synopsis = null;
+        int start = 0;
+        if (!history.isEmpty() && isSynopsis(history.get(0))) {
+            synopsis = history.get(0).getText().substring(SYNOPSIS_PREFIX.length());
+            start = 1;
+        }
+        int cut = history.size() - keepMessages;
+        if (cut - start < minMessages) {
+            return;
+        }
+        // 从一问开始保留，避免摘要后第一条是孤立的回答
+        while (cut > start && history.get(cut).getMessageType() != MessageType.USER) {
+            cut--;
+        }
+        if (cut - start < minMessages) {
+            return;
+        }
+
+        StringBuilder input = new StringBuilder();
+        if (synopsis != null) {
+            input.append("已有摘要：").append(synopsis).append("\n\n");
+        }
+        input.append("较早对话：\n");
+        for (Message message : history.subList(start, cut)) {
+            input.append(message.getMessageType() == MessageType.USER ? "游客：" : "讲解员：")
+                    .append(message.getText()).append('\n');
+        }
+        List<Map<String, String>> messages = new ArrayList<>();
+        messages.add(Map.of("role", "system", "content", String.format(SUMMARY_PROMPT, summaryMaxChars)));
+        messages.add(Map.of("role", "user", "content", input.toString()));
+        long begin = System.currentTimeMillis();
+        // 后台任务不需要竞速
+        String summary = llmRouter.complete(messages, Integer.MAX_VALUE, null, SUMMARY_TIMEOUT).trim();
+        if (summary.isEmpty()) {
+            return;
+        }
+
+        List<Message> replacement = List.of(new SystemMessage(SYNOPSIS_PREFIX + summary));
+        if (chatMemoryRepository.replacePrefix(conversationId, history.subList(0, cut), replacement)) {
+            compactions.incrementAndGet();
+            logger.info("会话{}上下文压缩: {}条消息 -> 摘要{}字, 耗时{}ms", conversationId, cut, summary.length(),
+                    System.currentTimeMillis() - begin);
+        } else {
+            // 期间历史被改写（窗口滑动等），下一轮再压缩
+            conflicts.incrementAndGet();
+        }
+    }
+
+    private static boolean isSynopsis(Message message) {
+        return message.getMessageType() == MessageType.SYSTEM && message.getText() != null
+                && message.getText().startsWith(SYNOPSIS_PREFIX);
+    }
+
+    public CompactionStatus getStatus() {
+        return new CompactionStatus(enabled, compactions.get(), conflicts.get(), failures.get(),
+                promptTokens.toString(), latencyMs.toString());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // 上下文压缩状态
+    public static class CompactionStatus {
+        private final boolean enabled;
+        private final long compactions;
+        private final long conflicts;
+        private final long failures;
+        private final String promptTokens;
+        private final String latencyMs;
+
+        public CompactionStatus(boolean enabled, long compactions, long conflicts, long failures,
+                                String promptTokens, String latencyMs) {
+            this.enabled = enabled;
+            this.compactions = compactions;
+            this.conflicts = conflicts;
+            this.failures = failures;
+            this.promptTokens = promptTokens;
+            this.latencyMs = latencyMs;
+        }
+
+        public long getCompactions() { return compactions; }
+
+        @Override
+        public String toString() {
+            return String.format("CompactionStatus{enabled=%s, compactions=%d, conflicts=%d, failures=%d, promptTokens=%s, latencyMs=%s}",
+                    enabled, compactions, conflicts, failures, promptTokens, latencyMs);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.gyq.service.ChatMemoryService;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 固定分桶的直方图，bounds 为各桶上界（含），最后一桶统计超过最大上界的样本
+ */
+public class Histogram {
+
+    private final long[] bounds;
+    private final AtomicLongArray counts;
+
+    public Histogram(long... bounds) {
+        this.bounds = bounds;
+        this.counts = new AtomicLongArray(bounds.length + 1);
+    }
+
+    public void record(long value) {
+        int bucket = 0;
+        while (bucket < bounds.length && value > bounds[bucket]) {
+            bucket++;
+        }
+        counts.incrementAndGet(bucket);
+    }
+
+    public long count() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < counts.length(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(i < bounds.length ? "<=" + bounds[i] : ">" + bounds[bounds.length - 1])
+                    .append(':').append(counts.get(i));
+        }
+        return sb.append(']').toString();
+    }
+}
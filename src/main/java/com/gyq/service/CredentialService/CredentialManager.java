@@ -0,0 +1,260 @@
+package com.gyq.service.CredentialService;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 服务商凭证管理 - 各服务商的临时token（如阿里云NLS）由后台线程在过期前刷新，
+ * 请求路径只读取原子快照，不加锁、不发起网络请求
+ * 同一凭证同时只有一个刷新请求，并发的刷新（后台定时、预热、快照缺失时的兜底等待）合并为一次
+ *
+ * 注册方式：credentialManager.register("nls", () -> new Credential(token, 过期时间毫秒))
+ */
+@Service
+public class CredentialManager {
+    private static final Logger logger = LoggerFactory.getLogger(CredentialManager.class);
+
+    // 剩余有效期不足该值时后台刷新
+    @Value("${credential.refresh-ahead-seconds:600}")
+    private long refreshAheadSeconds;
+    @Value("${credential.check-interval-seconds:30}")
+    private long checkIntervalSeconds;
+    // 启动时还没拿到凭证（或已过期）时，请求最多等待进行中的刷新多久
+    @Value("${credential.await-timeout-ms:5000}")
+    private long awaitTimeoutMillis;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "CredentialRefresher");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile boolean started;
+
+    /**
+     * 拉取一次凭证，在刷新线程上调用
+     */
+    @FunctionalInterface
+    public interface CredentialSource {
+        Credential fetch() throws Exception;
+    }
+
+    /**
+     * 凭证快照，不可变
+     */
+    public static class Credential {
+        private final String value;
+        private final long expireAtMillis;
+
+        public Credential(String value, long expireAtMillis) {
+            this.value = value;
+            this.expireAtMillis = expireAtMillis;
+        }
+
+        public String getValue() { return value; }
+        public long getExpireAtMillis() { return expireAtMillis; }
+
+        public boolean isExpired(long now) {
+            return now >= expireAtMillis;
+        }
+    }
+
+    private static class Entry {
+        final String name;
+        final CredentialSource source;
+        final AtomicReference<Credential> snapshot = new AtomicReference<>();
+        // 进行中的刷新，为null表示空闲
+        final AtomicReference<CompletableFuture<Credential>> inFlight = new AtomicReference<>();
+        final AtomicLong refreshes = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong waits = new AtomicLong();
+        volatile String lastError;
+
+        Entry(String name, CredentialSource source) {
+            this.name = name;
+            this.source = source;
+        }
+    }
+
+    /**
+     * 注册凭证并立即在后台拉取第一次，不阻塞调用方
+     */
+    public void register(String name, CredentialSource source) {
+        Entry entry = new Entry(name, source);
+        if (entries.putIfAbsent(name, entry) != null) {
+            throw new IllegalStateException("凭证已注册: " + name);
+        }
+        startIfNeeded();
+        refresh(entry);
+    }
+
+    private synchronized void startIfNeeded() {
+        if (started) {
+            return;
+        }
+        started = true;
+        scheduler.scheduleWithFixedDelay(this::refreshStale, checkIntervalSeconds, checkIntervalSeconds,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * 读取凭证：有效快照直接返回；只有尚未拿到或已过期时才等待进行中的刷新（与其它请求合并）
+     *
+     * @throws IOException 未注册、刷新失败或等待超时
+     */
+    public String get(String name) throws IOException {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            throw new IOException("凭证未注册: " + name);
+        }
+        Credential credential = entry.snapshot.get();
+        if (credential != null && !credential.isExpired(System.currentTimeMillis())) {
+            return credential.getValue();
+        }
+        entry.waits.incrementAndGet();
+        try {
+            return refresh(entry).get(awaitTimeoutMillis, TimeUnit.MILLISECONDS).getValue();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待凭证刷新被中断: " + name, e);
+        } catch (ExecutionException e) {
+            throw new IOException("凭证刷新失败: " + name, e.getCause());
+        } catch (TimeoutException e) {
+            throw new IOException("等待凭证刷新超时: " + name, e);
+        }
+    }
+
+    /**
+     * 提前刷新：剩余有效期不足 refresh-ahead-seconds 时发起刷新（与进行中的刷新合并）并等待结果，
+     * 用于预热，避免在后台检查间隔内过期；有效期充足时直接返回
+     *
+     * @return 是否发起或等待了刷新
+     * @throws IOException 未注册、刷新失败或等待超时
+     */
+    public boolean refreshIfExpiring(String name, Duration timeout) throws IOException {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            throw new IOException("凭证未注册: " + name);
+        }
+        if (!isExpiring(entry.snapshot.get(), System.currentTimeMillis())) {
+            return false;
+        }
+        try {
+            refresh(entry).get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待凭证刷新被中断: " + name, e);
+        } catch (ExecutionException e) {
+            throw new IOException("凭证刷新失败: " + name, e.getCause());
+        } catch (TimeoutException e) {
+            throw new IOException("等待凭证刷新超时: " + name, e);
+        }
+    }
+
+    private boolean isExpiring(Credential credential, long now) {
+        return credential == null
+                || credential.getExpireAtMillis() <= now + TimeUnit.SECONDS.toMillis(refreshAheadSeconds);
+    }
+
+    /**
+     * 发起刷新；已有进行中的刷新时返回同一个 future
+     */
+    private CompletableFuture<Credential> refresh(Entry entry) {
+        CompletableFuture<Credential> running = entry.inFlight.get();
+        if (running != null) {
+            return running;
+        }
+        CompletableFuture<Credential> future = new CompletableFuture<>();
+        if (!entry.inFlight.compareAndSet(null, future)) {
+            return entry.inFlight.get();
+        }
+        scheduler.execute(() -> {
+            try {
+                Credential credential = entry.source.fetch();
+                // 部分SDK（如阿里云 AccessToken.apply）失败时不抛异常，只留下空token和0过期时间
+                if (credential == null || credential.getValue() == null || credential.getValue().isBlank()) {
+                    throw new IOException("凭证为空");
+                }
+                if (credential.isExpired(System.currentTimeMillis())) {
+                    throw new IOException("凭证已过期: " + new Date(credential.getExpireAtMillis()));
+                }
+                entry.snapshot.set(credential);
+                entry.refreshes.incrementAndGet();
+                entry.lastError = null;
+                logger.info("凭证{}已刷新，有效期至{}", entry.name, new Date(credential.getExpireAtMillis()));
+                entry.inFlight.set(null);
+                future.complete(credential);
+            } catch (Exception e) {
+                // 保留旧快照到过期为止，下次检查时重试
+                entry.failures.incrementAndGet();
+                entry.lastError = e.getMessage();
+                logger.warn("凭证{}刷新失败: {}", entry.name, e.getMessage());
+                entry.inFlight.set(null);
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    private void refreshStale() {
+        long now = System.currentTimeMillis();
+        for (Entry entry : entries.values()) {
+            if (isExpiring(entry.snapshot.get(), now)) {
+                refresh(entry);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    public CredentialStatus getStatus() {
+        long now = System.currentTimeMillis();
+        Map<String, String> states = new LinkedHashMap<>();
+        entries.values().forEach(entry -> {
+            Credential credential = entry.snapshot.get();
+            String ttl = credential == null ? "无" : Math.max(0, (credential.getExpireAtMillis() - now) / 1000) + "s";
+            states.put(entry.name, String.format("ttl=%s, refreshes=%d, failures=%d, waits=%d%s", ttl,
+                    entry.refreshes.get(), entry.failures.get(), entry.waits.get(),
+                    entry.lastError == null ? "" : ", error=" + entry.lastError));
+        });
+        return new CredentialStatus(states);
+    }
+
+    // 凭证状态：剩余有效期、刷新/失败次数、请求路径上的等待次数（正常应为0）
+    public static class CredentialStatus {
+        private final Map<String, String> credentials;
+
+        public CredentialStatus(Map<String, String> credentials) {
+            this.credentials = credentials;
+        }
+
+        public Map<String, String> getCredentials() { return credentials; }
+
+        @Override
+        public String toString() {
+            return String.format("CredentialStatus%s", credentials);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.gyq.service.EmotionService;
+
+import com.gyq.service.ModelService;
+import com.gyq.service.TurnService.TurnHandle;
+import com.gyq.service.dto.EmotionTextDto;
+import jakarta.annotation.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 语音合成前的情绪切分 - 默认走本地规则切分（EmotionSegmenter），不再为切句打标签单独请求一次大模型
+ * emotion.segmenter.mode=llm 时仍用大模型润色并切分，结果为空、解析失败或情绪不在 avatar 列表里时回退到本地切分
+ *
+ * 每个 avatar 对应一种情绪，各自的关键词可配置：emotion.avatars=happy,fear,angry
+ *                                        emotion.lexicon.{avatar}=词1,词2:权重,...（未配置时用内置词典）
+ */
+@Service
+public class EmotionSegmentService {
+    private static final Logger logger = LoggerFactory.getLogger(EmotionSegmentService.class);
+
+    // 内置词典，面向展馆讲解（反邪教、人工智能与数据安全）场景
+    private static final Map<String, String> DEFAULT_LEXICON = Map.of(
+            "happy", "欢迎:2,开心:2,高兴:2,快乐:2,幸福:2,愉快:2,美好,喜欢,感谢:2,谢谢:2,祝,希望,期待,热爱:2,"
+                    + "积极,健康,和谐,温暖,精彩,有趣,太好了:2,棒,成功,放心,安心,欣慰,骄傲,自豪,美丽,阳光,"
+                    + "光明,进步,繁荣,共建,信心,乐观,珍爱,珍惜,守护,笑",
+            "fear", "害怕:2,恐惧:2,可怕:2,恐怖:2,毛骨悚然:3,惊恐:2,恐慌:2,危险:2,威胁,担心,担忧,不安,风险,"
+                    + "隐患,灾难:2,死亡:2,丧命:2,身亡:2,伤亡:2,自杀:2,自焚:2,致死:2,惨剧:2,悲剧,黑影,阴森,诡异,"
+                    + "警惕,当心,小心,泄露,攻击,入侵,病毒,失控,末日:2,毁灭:2,家破人亡:3,吓",
+            "angry", "愤怒:2,生气:2,气愤:2,可恶:2,可恨:2,无耻:2,卑鄙:2,不可接受:3,岂有此理:3,简直,太过分:2,"
+                    + "过分,欺骗:2,骗取:2,诈骗:2,蛊惑:2,敛财:2,迫害:2,残害:2,摧残:2,践踏:2,坑害:2,邪教:2,"
+                    + "歪理邪说:2,反人类:2,反社会:2,罪恶:2,罪行:2,犯罪,恶劣,痛恨:2,谴责:2,揭露,绝不,决不,严惩:2,"
+                    + "非法,愚弄:2,洗脑:2,荒谬,荒唐,精神控制:2");
+
+    @Resource
+    private ModelService modelService;
+
+    private final EmotionSegmenter segmenter;
+    private final boolean llmMode;
+
+    private final AtomicLong localCalls = new AtomicLong();
+    private final AtomicLong localNanos = new AtomicLong();
+    private final AtomicLong llmCalls = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    public EmotionSegmentService(Environment env,
+                                 @Value("${emotion.segmenter.mode:local}") String mode,
+                                 @Value("${emotion.avatars:happy,fear,angry}") String avatars,
+                                 @Value("${emotion.default:happy}") String defaultEmotion,
+                                 @Value("${emotion.segmenter.max-chars:40}") int maxChars,
+                                 @Value("${emotion.segmenter.min-chars:4}") int minChars) {
+        this.llmMode = "llm".equalsIgnoreCase(mode.trim());
+        Map<String, Map<String, Integer>> lexicon = new LinkedHashMap<>();
+        for (String name : avatars.split(",")) {
+            String avatar = name.trim();
+            String keywords = env.getProperty("emotion.lexicon." + avatar, DEFAULT_LEXICON.getOrDefault(avatar, ""));
+            if (keywords.isBlank()) {
+                logger.warn("avatar {}没有配置情绪关键词，只在未命中任何关键词且为默认情绪时使用", avatar);
+            }
+            lexicon.put(avatar, EmotionSegmenter.parseKeywords(keywords));
+        }
+        this.segmenter = new EmotionSegmenter(lexicon, defaultEmotion.trim(), maxChars, minChars);
+        logger.info("情绪切分: mode={}, avatars={}, 默认={}", llmMode ? "llm" : "local", segmenter.getEmotions(),
+                segmenter.getDefaultEmotion());
+    }
+
+    /**
+     * 内置词典、默认avatar顺序的切分器，用于基准测试和准确率对比
+     */
+    static EmotionSegmenter defaultSegmenter(int maxChars, int minChars) {
+        Map<String, Map<String, Integer>> lexicon = new LinkedHashMap<>();
+        for (String avatar : List.of("happy", "fear", "angry")) {
+            lexicon.put(avatar, EmotionSegmenter.parseKeywords(DEFAULT_LEXICON.get(avatar)));
+        }
+        return new EmotionSegmenter(lexicon, "happy", maxChars, minChars);
+    }
+
+    /**
+     * 切分回复文本并标注每段的情绪，不会返回null
+     *
+     * @param turn 本轮句柄，大模型模式下用于取消请求，可为null
+     */
+    public List<EmotionTextDto> segment(String text, TurnHandle turn) {
+        if (llmMode) {
+            llmCalls.incrementAndGet();
+            List<EmotionTextDto> result = turn != null
+                    ? modelService.douBaoTtsJsonCall(text, turn)
+                    : modelService.douBaoTtsJsonCall(text);
+            if (isValid(result)) {
+                return result;
+            }
+            fallbacks.incrementAndGet();
+            logger.warn("大模型情绪切分结果不可用，回退本地切分");
+        }
+        return segmentLocally(text);
+    }
+
+    public List<EmotionTextDto> segmentLocally(String text) {
+        long start = System.nanoTime();
+        List<EmotionTextDto> result = segmenter.segment(text);
+        localNanos.addAndGet(System.nanoTime() - start);
+        localCalls.incrementAndGet();
+        return result;
+    }
+
+    /**
+     * 单句情绪，供逐句合成等场景使用
+     */
+    public String classify(String sentence) {
+        return segmenter.classify(sentence);
+    }
+
+    // 情绪必须是已有的avatar，否则数字人推理找不到对应形象
+    private boolean isValid(List<EmotionTextDto> result) {
+        if (result == null || result.isEmpty()) {
+            return false;
+        }
+        for (EmotionTextDto dto : result) {
+            if (dto == null || dto.getText() == null || dto.getText().isBlank()
+                    || !segmenter.getEmotions().contains(dto.getEmotion())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public SegmenterStatus getStatus() {
+        long calls = localCalls.get();
+        return new SegmenterStatus(llmMode ? "llm" : "local", segmenter.getEmotions(), calls,
+                calls > 0 ? localNanos.get() / calls / 1000.0 : 0, llmCalls.get(), fallbacks.get());
+    }
+
+    // 情绪切分统计
+    public static class SegmenterStatus {
+        private final String mode;
+        private final List<String> avatars;
+        private final long localCalls;
+        private final double avgLocalMicros;
+        private final long llmCalls;
+        private final long fallbacks;
+
+        public SegmenterStatus(String mode, List<String> avatars, long localCalls, double avgLocalMicros,
+                               long llmCalls, long fallbacks) {
+            this.mode = mode;
+            this.avatars = avatars;
+            this.localCalls = localCalls;
+            this.avgLocalMicros = avgLocalMicros;
+            this.llmCalls = llmCalls;
+            this.fallbacks = fallbacks;
+        }
+
+        public long getLocalCalls() { return localCalls; }
+        public long getFallbacks() { return fallbacks; }
+
+        @Override
+        public String toString() {
+            return String.format("SegmenterStatus{mode=%s, avatars=%s, local=%d(avg %.1fus), llm=%d, fallbacks=%d}",
+                    mode, avatars, localCalls, avgLocalMicros, llmCalls, fallbacks);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.gyq.service.EmotionService;
+
+import com.gyq.service.dto.EmotionTextDto;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 本地情绪切分 - 按中文句末标点切句，过长的句子再按逗号等分句，
+ * 每句用情绪词典打分，得分最高的情绪即该句使用的 avatar，没有命中时用默认情绪
+ * 纯内存计算，不依赖大模型，单次切分在微秒级；实例不可变，可多线程共用
+ */
+public class EmotionSegmenter {
+
+    // 句末标点，连续出现时归为同一句（"！！"、"……"、"？！"）
+    private static final String SENTENCE_END = "。！？!?；;…\n";
+    // 句内停顿，句子过长时在这里断开
+    private static final String CLAUSE_END = "，,、：:";
+    // 紧跟在句末标点后的右引号、右括号归入前一句
+    private static final String CLOSING = "”’\"'）)」』》】";
+    // 否定词：紧挨着情绪词（"不担心"）或隔一个助词（"不用担心"、"别太害怕"）时该词不计分
+    private static final String NEGATION = "不没别无勿莫未";
+    private static final String NEGATION_GAP = "要用必会太再曾能想算";
+
+    private final Node root = new Node();
+    private final List<String> emotions;
+    private final String defaultEmotion;
+    private final int maxChars;
+    private final int minChars;
+
+    /**
+     * @param lexicon        情绪 → 关键词及权重，遍历顺序即同分时的优先级
+     * @param defaultEmotion 没有命中任何关键词时使用的情绪
+     * @param maxChars       单句超过这个长度时按逗号等继续拆分
+     * @param minChars       短于这个长度的句子并入前一句（"好的。"），避免过碎的合成请求
+     */
+    public EmotionSegmenter(Map<String, Map<String, Integer>> lexicon, String defaultEmotion, int maxChars,
+                            int minChars) {
+        this.emotions = new ArrayList<>(lexicon.keySet());
+        if (!emotions.contains(defaultEmotion)) {
+            emotions.add(defaultEmotion);
+        }
+        this.defaultEmotion = defaultEmotion;
+        this.maxChars = maxChars;
+        this.minChars = minChars;
+        for (Map.Entry<String, Map<String, Integer>> entry : lexicon.entrySet()) {
+            int emotion = emotions.indexOf(entry.getKey());
+            entry.getValue().forEach((word, weight) -> insert(word, emotion, weight));
+        }
+    }
+
+    /**
+     * 解析关键词配置："危险,可怕:2,毛骨悚然:3"，不写权重时为1
+     */
+    public static Map<String, Integer> parseKeywords(String csv) {
+        Map<String, Integer> keywords = new LinkedHashMap<>();
+        for (String item : csv.split("[,，]")) {
+            String word = item.trim();
+            if (word.isEmpty()) {
+                continue;
+            }
+            int weight = 1;
+            int colon = word.lastIndexOf(':');
+            if (colon > 0) {
+                weight = Integer.parseInt(word.substring(colon + 1).trim());
+                word = word.substring(0, colon).trim();
+            }
+            keywords.put(word, weight);
+        }
+        return keywords;
+    }
+
+    /**
+     * 切分并标注情绪；空文本返回空列表
+     */
+    public List<EmotionTextDto> segment(String text) {
+        List<EmotionTextDto> result = new ArrayList<>();
+        if (text == null) {
+            return result;
+        }
+        for (String sentence : splitSentences(text)) {
+            if (sentence.length() <= maxChars) {
+                add(result, sentence);
+            } else {
+                for (String clause : splitClauses(sentence)) {
+                    add(result, clause);
+                }
+            }
+        }
+        return result;
+    }
+
+    private void add(List<EmotionTextDto> result, String text) {
+        if (text.length() < minChars && !result.isEmpty()) {
+            EmotionTextDto last = result.get(result.size() - 1);
+            last.setText(last.getText() + text);
+            return;
+        }
+        EmotionTextDto dto = new EmotionTextDto();
+        dto.setText(text);
+        dto.setEmotion(classify(text));
+        result.add(dto);
+    }
+
+    /**
+     * 按句末标点切句，标点保留在句尾，去掉首尾空白
+     */
+    List<String> splitSentences(String text) {
+        List<String> sentences = new ArrayList<>();
+        int start = 0;
+        int i = 0;
+        int n = text.length();
+        while (i < n) {
+            if (isSentenceEnd(text, i)) {
+                while (i + 1 < n && (SENTENCE_END.indexOf(text.charAt(i + 1)) >= 0
+                        || CLOSING.indexOf(text.charAt(i + 1)) >= 0)) {
+                    i++;
+                }
+                addTrimmed(sentences, text, start, i + 1);
+                start = i + 1;
+            }
+            i++;
+        }
+        addTrimmed(sentences, text, start, n);
+        return sentences;
+    }
+
+    private static boolean isSentenceEnd(String text, int i) {
+        char c = text.charAt(i);
+        if (SENTENCE_END.indexOf(c) >= 0) {
+            return true;
+        }
+        // 英文句号只在后面是空白、结尾或中文时断句，排除小数点"3.5"、网址和"..."中间的点
+        if (c == '.') {
+            return i + 1 >= text.length() || Character.isWhitespace(text.charAt(i + 1)) || text.charAt(i + 1) > 0x7F;
+        }
+        return false;
+    }
+
+    /**
+     * 过长的句子在分句标点处断开，尽量凑满 maxChars
+     */
+    List<String> splitClauses(String sentence) {
+        List<String> clauses = new ArrayList<>();
+        int start = 0;
+        int lastBreak = -1;
+        for (int i = 0; i < sentence.length(); i++) {
+            if (CLAUSE_END.indexOf(sentence.charAt(i)) >= 0) {
+                if (i + 1 - start > maxChars && lastBreak > start) {
+                    addTrimmed(clauses, sentence, start, lastBreak);
+                    start = lastBreak;
+                }
+                lastBreak = i + 1;
+            }
+        }
+        if (sentence.length() - start > maxChars && lastBreak > start && lastBreak < sentence.length()) {
+            addTrimmed(clauses, sentence, start, lastBreak);
+            start = lastBreak;
+        }
+        addTrimmed(clauses, sentence, start, sentence.length());
+        return clauses;
+    }
+
+    private static void addTrimmed(List<String> out, String text, int from, int to) {
+        String s = text.substring(from, to).strip();
+        if (!s.isEmpty()) {
+            out.add(s);
+        }
+    }
+
+    /**
+     * 单句情绪：各情绪命中关键词的权重之和取最大，同分按词典顺序，全未命中为默认情绪
+     */
+    public String classify(String sentence) {
+        int[] scores = new int[emotions.size()];
+        boolean hit = false;
+        for (int i = 0; i < sentence.length(); i++) {
+            // 从i开始沿字典树取最长匹配，命中后跳过整个词，避免"可怕"里再匹配"怕"
+            Node node = root;
+            Node matched = null;
+            int matchedEnd = i;
+            for (int j = i; j < sentence.length(); j++) {
+                node = node.children.get(sentence.charAt(j));
+                if (node == null) {
+                    break;
+                }
+                if (node.emotion >= 0) {
+                    matched = node;
+                    matchedEnd = j;
+                }
+            }
+            if (matched != null) {
+                if (!negated(sentence, i)) {
+                    scores[matched.emotion] += matched.weight;
+                    hit = true;
+                }
+                i = matchedEnd;
+            }
+        }
+        if (!hit) {
+            return defaultEmotion;
+        }
+        int best = 0;
+        for (int e = 1; e < scores.length; e++) {
+            if (scores[e] > scores[best]) {
+                best = e;
+            }
+        }
+        return scores[best] > 0 ? emotions.get(best) : defaultEmotion;
+    }
+
+    private static boolean negated(String sentence, int start) {
+        if (start >= 1 && NEGATION.indexOf(sentence.charAt(start - 1)) >= 0) {
+            return true;
+        }
+        return start >= 2 && NEGATION_GAP.indexOf(sentence.charAt(start - 1)) >= 0
+                && NEGATION.indexOf(sentence.charAt(start - 2)) >= 0;
+    }
+
+    private void insert(String word, int emotion, int weight) {
+        Node node = root;
+        for (int i = 0; i < word.length(); i++) {
+            node = node.children.computeIfAbsent(word.charAt(i), k -> new Node());
+        }
+        // 同一个词配置在多个情绪下时以后配置的为准
+        node.emotion = emotion;
+        node.weight = weight;
+    }
+
+    public List<String> getEmotions() {
+        return emotions;
+    }
+
+    public String getDefaultEmotion() {
+        return defaultEmotion;
+    }
+
+    private static class Node {
+        final Map<Character, Node> children = new HashMap<>(4);
+        int emotion = -1;
+        int weight;
+    }
+}
@@ -7,33 +7,67 @@ import java.io.IOException;
 import java.net.SocketTimeoutException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 public class HttpUtil {
+    // 整个请求的总超时：到期取消请求（当前OkHttp版本没有callTimeout）
+    private static final ScheduledExecutorService CALL_DEADLINES = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "http-call-deadline");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private static String getResponseWithTimeout(Request q) {
+        return getResponseWithTimeout(q, 0);
+    }
+
+    /**
+     * @param timeoutMillis 连接、读、写超时的上限，同时作为整个请求的总超时（本轮剩余预算），0表示使用默认值
+     */
+    private static String getResponseWithTimeout(Request q, long timeoutMillis) {
         String ret = null;
 
         OkHttpClient.Builder httpBuilder = new OkHttpClient.Builder();
-        OkHttpClient client = httpBuilder.connectTimeout(10, TimeUnit.SECONDS)
-                .readTimeout(60, TimeUnit.SECONDS)
-                .writeTimeout(60, TimeUnit.SECONDS)
+        OkHttpClient client = httpBuilder.connectTimeout(capped(10_000, timeoutMillis), TimeUnit.MILLISECONDS)
+                .readTimeout(capped(60_000, timeoutMillis), TimeUnit.MILLISECONDS)
+                .writeTimeout(capped(60_000, timeoutMillis), TimeUnit.MILLISECONDS)
                 .build();
 
+        Call call = client.newCall(q);
+        // 读写超时只限制单次IO，响应持续慢速到达时仍会超出预算
+        ScheduledFuture<?> deadline = timeoutMillis > 0
+                ? CALL_DEADLINES.schedule(call::cancel, timeoutMillis, TimeUnit.MILLISECONDS) : null;
         try {
-            Response s = client.newCall(q).execute();
+            Response s = call.execute();
             ret = s.body().string();
             s.close();
         } catch (SocketTimeoutException e) {
             ret = null;
             System.err.println("get result timeout");
         } catch (IOException e) {
-            System.err.println("get result error " + e.getMessage());
+            ret = null;
+            System.err.println(call.isCanceled() ? "get result timeout" : "get result error " + e.getMessage());
+        } finally {
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
         }
 
         return ret;
     }
 
+    private static long capped(long defaultMillis, long timeoutMillis) {
+        return timeoutMillis > 0 ? Math.min(defaultMillis, timeoutMillis) : defaultMillis;
+    }
+
     public static String sendPostFile(String url, HashMap<String, String> headers, String fileName) {
+        return sendPostFile(url, headers, fileName, 0);
+    }
+
+    public static String sendPostFile(String url, HashMap<String, String> headers, String fileName, long timeoutMillis) {
         RequestBody body;
 
         File file = new File(fileName);
@@ -57,7 +91,7 @@ public class HttpUtil {
                 .post(body)
                 .build();
 
-        return getResponseWithTimeout(request);
+        return getResponseWithTimeout(request, timeoutMillis);
     }
 
     public static String sendPostData(String url, HashMap<String, String> headers, byte[] data) {
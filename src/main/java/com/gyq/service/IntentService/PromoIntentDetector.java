@@ -0,0 +1,169 @@
+package com.gyq.service.IntentService;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONException;
+import com.alibaba.fastjson2.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 宣传片意图快速识别 - 在调用大模型之前用关键词判断用户是不是要看宣传片，
+ * 命中时直接下发 {"type":"cult"} / {"type":"security"}，省掉一次大模型往返
+ * 判断规则：提到"宣传片/视频"等片名词，且有"看/播放"等请求词（或整句很短），且只命中一类主题词；
+ * 主题不明确、带否定（"不想看"）时交给大模型
+ *
+ * 类型及主题词可配置：intent.promo.types=cult,security
+ *                  intent.promo.keywords.{type}=词1,词2,...
+ * 下发的消息附带本服务上的播放地址 /media/promo/{type}.mp4（文件存在时）
+ */
+@Service
+public class PromoIntentDetector {
+    private static final Logger logger = LoggerFactory.getLogger(PromoIntentDetector.class);
+
+    private static final Map<String, String> DEFAULT_KEYWORDS = Map.of(
+            "cult", "反邪教,邪教,法轮功,全能神,反邪",
+            "security", "国家安全,国安,安全教育,反间谍,保密,网络安全,数据安全,国家安全教育");
+    private static final List<String> VIDEO_WORDS = List.of("宣传片", "宣传视频", "视频", "片子", "短片", "影片",
+            "纪录片", "专题片");
+    private static final List<String> REQUEST_WORDS = List.of("看", "播", "放", "来一", "来个", "来段", "展示", "打开");
+    private static final List<String> NEGATIVE_WORDS = List.of("不想", "不要", "不用", "不看", "别放", "别播", "关掉",
+            "关闭", "停止", "暂停");
+    // 只有片名和主题、没有请求词的短句（"反邪教宣传片"）也按请求处理
+    private static final int SHORT_REQUEST_CHARS = 10;
+
+    private final boolean enabled;
+    private final Path videoDir;
+    private final Map<String, List<String>> keywords = new LinkedHashMap<>();
+
+    private final AtomicLong checks = new AtomicLong();
+    private final Map<String, AtomicLong> hits = new ConcurrentHashMap<>();
+
+    public PromoIntentDetector(Environment env,
+                               @Value("${intent.promo.enabled:true}") boolean enabled,
+                               @Value("${intent.promo.types:cult,security}") String types,
+                               @Value("${media.promo.dir:./data/promo}") String videoDir) {
+        this.enabled = enabled;
+        this.videoDir = Path.of(videoDir);
+        for (String name : types.split(",")) {
+            String type = name.trim();
+            String csv = env.getProperty("intent.promo.keywords." + type, DEFAULT_KEYWORDS.getOrDefault(type, ""));
+            List<String> words = Arrays.stream(csv.split("[,，]")).map(String::trim).filter(w -> !w.isEmpty()).toList();
+            if (words.isEmpty()) {
+                logger.warn("宣传片类型{}没有配置主题词，只能由大模型识别", type);
+                continue;
+            }
+            keywords.put(type, words);
+        }
+        logger.info("宣传片意图快速识别: enabled={}, types={}, 视频目录={}", enabled, keywords.keySet(),
+                this.videoDir.toAbsolutePath());
+    }
+
+    /**
+     * 识别文本是否为观看宣传片的请求，命中时返回类型（cult/security），否则返回null
+     */
+    public String detect(String transcript) {
+        if (!enabled || transcript == null) {
+            return null;
+        }
+        checks.incrementAndGet();
+        // 识别结果里的标点和空格不影响判断
+        String text = transcript.replaceAll("[\\p{P}\\s]", "");
+        if (!containsAny(text, VIDEO_WORDS) || containsAny(text, NEGATIVE_WORDS)) {
+            return null;
+        }
+        if (text.length() > SHORT_REQUEST_CHARS && !containsAny(text, REQUEST_WORDS)) {
+            return null;
+        }
+        String matched = null;
+        for (Map.Entry<String, List<String>> entry : keywords.entrySet()) {
+            if (containsAny(text, entry.getValue())) {
+                if (matched != null) {
+                    // 同时提到两类主题，交给大模型判断
+                    return null;
+                }
+                matched = entry.getKey();
+            }
+        }
+        if (matched != null) {
+            hits.computeIfAbsent(matched, k -> new AtomicLong()).incrementAndGet();
+            logger.info("宣传片意图命中: {} -> {}", transcript, matched);
+        }
+        return matched;
+    }
+
+    private static boolean containsAny(String text, List<String> words) {
+        for (String word : words) {
+            if (text.contains(word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 下发给前端的控制消息，本地有对应视频时附带播放地址
+     */
+    public String toMessage(String type) {
+        JSONObject message = new JSONObject();
+        message.put("type", type);
+        String file = type + ".mp4";
+        if (Files.isRegularFile(videoDir.resolve(file))) {
+            message.put("url", "/media/promo/" + file);
+        }
+        return message.toJSONString();
+    }
+
+    /**
+     * 大模型返回的控制指令，是已知的宣传片类型时补上播放地址，其它原样返回
+     */
+    public String enrich(String typedJson) {
+        try {
+            Object type = JSON.parseObject(typedJson).get("type");
+            if (type instanceof String && keywords.containsKey(type)) {
+                return toMessage((String) type);
+            }
+        } catch (JSONException e) {
+            // 不是JSON对象，原样下发
+        }
+        return typedJson;
+    }
+
+    public IntentStatus getStatus() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        hits.forEach((type, count) -> counts.put(type, count.get()));
+        return new IntentStatus(enabled, checks.get(), counts);
+    }
+
+    // 意图识别统计
+    public static class IntentStatus {
+        private final boolean enabled;
+        private final long checks;
+        private final Map<String, Long> hits;
+
+        public IntentStatus(boolean enabled, long checks, Map<String, Long> hits) {
+            this.enabled = enabled;
+            this.checks = checks;
+            this.hits = hits;
+        }
+
+        public long getChecks() { return checks; }
+        public Map<String, Long> getHits() { return hits; }
+
+        @Override
+        public String toString() {
+            return String.format("IntentStatus{enabled=%s, checks=%d, hits=%s}", enabled, checks, hits);
+        }
+    }
+}
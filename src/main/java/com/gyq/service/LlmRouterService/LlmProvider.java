@@ -0,0 +1,134 @@
+package com.gyq.service.LlmRouterService;
+
+import com.gyq.service.ResilienceService.CircuitBreaker;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个OpenAI兼容的对话补全端点，以及它的耗时统计和熔断状态
+ * 首token耗时用于流式请求选路，总耗时用于非流式请求选路，均为指数滑动平均
+ */
+public class LlmProvider {
+
+    private static final double EWMA_ALPHA = 0.3;
+
+    private final String name;
+    private final String url;
+    private final String apiKey;
+    private final String model;
+    private final CircuitBreaker breaker;
+
+    private double ttftMs = -1;
+    private double totalMs = -1;
+    private long lastSampleAt = 0;
+
+    final AtomicLong calls = new AtomicLong();
+    final AtomicLong failures = new AtomicLong();
+    final AtomicLong wins = new AtomicLong();
+    final AtomicLong raceLosses = new AtomicLong();
+
+    public LlmProvider(String name, String url, String apiKey, String model, CircuitBreaker breaker) {
+        this.name = name;
+        this.url = url;
+        this.apiKey = apiKey;
+        this.model = model;
+        this.breaker = breaker;
+    }
+
+    public String getName() { return name; }
+    public String getUrl() { return url; }
+    public String getApiKey() { return apiKey; }
+    public String getModel() { return model; }
+    public CircuitBreaker getBreaker() { return breaker; }
+
+    public synchronized void recordFirstToken(long millis) {
+        ttftMs = ttftMs < 0 ? millis : ttftMs * (1 - EWMA_ALPHA) + millis * EWMA_ALPHA;
+        lastSampleAt = System.currentTimeMillis();
+    }
+
+    public synchronized void recordSuccess(long millis) {
+        totalMs = totalMs < 0 ? millis : totalMs * (1 - EWMA_ALPHA) + millis * EWMA_ALPHA;
+        lastSampleAt = System.currentTimeMillis();
+        breaker.recordSuccess();
+    }
+
+    public void recordFailure() {
+        failures.incrementAndGet();
+        breaker.recordFailure();
+    }
+
+    /**
+     * 竞速落选：真实耗时未知、只知道不短于被取消时的耗时；按两倍记为估计值，且不拉低已有估计，
+     * 避免落选者因没有样本或样本偏低反而排到胜者前面
+     */
+    public synchronized void recordRaceLoss(long elapsedMillis, boolean streaming) {
+        raceLosses.incrementAndGet();
+        double estimate = elapsedMillis * 2.0;
+        if (streaming) {
+            ttftMs = Math.max(ttftMs, estimate);
+        } else {
+            totalMs = Math.max(totalMs, estimate);
+        }
+        lastSampleAt = System.currentTimeMillis();
+        breaker.release();
+    }
+
+    public void recordCancelled() {
+        breaker.release();
+    }
+
+    /**
+     * 选路得分，越小越优先；没有样本或样本过旧时为0，让它尽快被重新试探
+     */
+    public synchronized double score(boolean streaming, long staleMillis) {
+        double latency = streaming ? ttftMs : totalMs;
+        if (latency < 0 || System.currentTimeMillis() - lastSampleAt > staleMillis) {
+            return 0;
+        }
+        return latency;
+    }
+
+    public synchronized ProviderStatus getStatus() {
+        return new ProviderStatus(name, model, breaker.getState(), calls.get(), failures.get(), wins.get(),
+                raceLosses.get(), Math.round(ttftMs), Math.round(totalMs));
+    }
+
+    // 服务商状态
+    public static class ProviderStatus {
+        private final String name;
+        private final String model;
+        private final CircuitBreaker.State state;
+        private final long calls;
+        private final long failures;
+        private final long wins;
+        private final long raceLosses;
+        private final long ttftMs;
+        private final long totalMs;
+
+        public ProviderStatus(String name, String model, CircuitBreaker.State state, long calls, long failures,
+                              long wins, long raceLosses, long ttftMs, long totalMs) {
+            this.name = name;
+            this.model = model;
+            this.state = state;
+            this.calls = calls;
+            this.failures = failures;
+            this.wins = wins;
+            this.raceLosses = raceLosses;
+            this.ttftMs = ttftMs;
+            this.totalMs = totalMs;
+        }
+
+        public String getName() { return name; }
+        public CircuitBreaker.State getState() { return state; }
+        public long getCalls() { return calls; }
+        public long getWins() { return wins; }
+        public long getTtftMs() { return ttftMs; }
+        public long getTotalMs() { return totalMs; }
+
+        @Override
+        public String toString() {
+            return String.format("%s(%s){breaker=%s, calls=%d, failures=%d, raceWins=%d, raceLosses=%d, ttft=%dms, total=%dms}",
+                    name, model, state, calls, failures, wins, raceLosses, ttftMs, totalMs);
+        }
+    }
+}
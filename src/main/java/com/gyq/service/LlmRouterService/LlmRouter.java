@@ -0,0 +1,347 @@
+package com.gyq.service.LlmRouterService;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gyq.service.ResilienceService.CircuitBreaker;
+import com.gyq.service.TurnService.TurnHandle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 大模型路由 - 在多个OpenAI兼容端点（OpenRouter、DashScope等）之间选路
+ * 按各服务商的首token耗时（流式）或总耗时（非流式）选最快的健康服务商，失败时按顺序切换；
+ * 短提问同时发给最快的两家，先出结果的生效，另一家立即取消，缓解单个服务商抖动时的长尾
+ *
+ * 服务商配置：llm.providers=openrouter,dashscope
+ *            llm.provider.{name}.url / api-key / model，api-key 为空的服务商不启用
+ */
+@Service
+public class LlmRouter {
+    private static final Logger logger = LoggerFactory.getLogger(LlmRouter.class);
+
+    private final List<LlmProvider> providers = new ArrayList<>();
+    private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final boolean raceEnabled;
+    private final int raceMaxChars;
+    private final long staleMillis;
+
+    public LlmRouter(Environment env,
+                     @Value("${llm.providers:openrouter}") String order,
+                     @Value("${llm.race.enabled:true}") boolean raceEnabled,
+                     @Value("${llm.race.max-prompt-chars:60}") int raceMaxChars,
+                     @Value("${llm.router.stale-ms:60000}") long staleMillis,
+                     @Value("${llm.breaker.failure-threshold:3}") int failureThreshold,
+                     @Value("${llm.breaker.open-ms:30000}") long openMillis) {
+        this.raceEnabled = raceEnabled;
+        this.raceMaxChars = raceMaxChars;
+        this.staleMillis = staleMillis;
+        for (String name : order.split(",")) {
+            String key = name.trim();
+            String prefix = "llm.provider." + key + ".";
+            String url = env.getProperty(prefix + "url", "");
+            String apiKey = env.getProperty(prefix + "api-key", "");
+            String model = env.getProperty(prefix + "model", "");
+            if (url.isBlank() || apiKey.isBlank() || model.isBlank()) {
+                logger.warn("大模型服务商{}缺少url/api-key/model配置，不启用", key);
+                continue;
+            }
+            providers.add(new LlmProvider(key, url, apiKey, model, new CircuitBreaker(failureThreshold, openMillis)));
+        }
+        if (providers.isEmpty()) {
+            throw new IllegalStateException("没有可用的大模型服务商: " + order);
+        }
+        logger.info("大模型服务商: {}", providers.stream()
+                .map(p -> p.getName() + "(" + p.getModel() + ")").collect(Collectors.toList()));
+    }
+
+    /**
+     * 非流式补全，返回回复文本
+     *
+     * @param promptChars 用户输入长度，不超过 llm.race.max-prompt-chars 时两家竞速
+     * @throws CancellationException 本轮对话被取消
+     */
+    public String complete(List<Map<String, String>> messages, int promptChars, TurnHandle turn,
+                           Duration timeout) throws Exception {
+        long deadline = System.currentTimeMillis() + timeout.toMillis();
+        List<LlmProvider> ranked = rank(false);
+        boolean race = raceEnabled && promptChars <= raceMaxChars;
+        Exception last = null;
+        int next = 0;
+        while (next < ranked.size() && System.currentTimeMillis() < deadline) {
+            List<LlmProvider> batch = new ArrayList<>();
+            while (next < ranked.size() && batch.size() < (race ? 2 : 1)) {
+                LlmProvider provider = ranked.get(next++);
+                if (provider.getBreaker().allowRequest()) {
+                    batch.add(provider);
+                }
+            }
+            if (batch.isEmpty()) {
+                break;
+            }
+            try {
+                return completeFirst(batch, messages, turn, deadline);
+            } catch (CancellationException e) {
+                throw e;
+            } catch (Exception e) {
+                if (turn != null && turn.isCancelled()) {
+                    throw new CancellationException("大模型请求已取消");
+                }
+                last = e;
+                logger.warn("大模型服务商{}请求失败: {}", batch.stream().map(LlmProvider::getName)
+                        .collect(Collectors.toList()), e.getMessage());
+            }
+            // 失败后逐家切换，不再竞速
+            race = false;
+        }
+        throw last != null ? last : new IOException("所有大模型服务商均已熔断");
+    }
+
+    /**
+     * 同时向一批服务商发起请求，返回第一个成功的结果，其余请求取消
+     */
+    private String completeFirst(List<LlmProvider> batch, List<Map<String, String>> messages, TurnHandle turn,
+                                 long deadline) throws Exception {
+        CompletableFuture<String> winner = new CompletableFuture<>();
+        AtomicInteger failed = new AtomicInteger();
+        List<CompletableFuture<HttpResponse<String>>> exchanges = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        for (LlmProvider provider : batch) {
+            provider.calls.incrementAndGet();
+            HttpRequest request = buildRequest(provider, messages, false, remaining(deadline));
+            CompletableFuture<HttpResponse<String>> exchange =
+                    httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+            exchanges.add(exchange);
+            if (turn != null) {
+                turn.track(exchange);
+            }
+            exchange.thenApply(this::content).whenComplete((content, e) -> {
+                if (e == null) {
+                    provider.recordSuccess(System.currentTimeMillis() - start);
+                    if (winner.complete(content) && batch.size() > 1) {
+                        provider.wins.incrementAndGet();
+                    }
+                    return;
+                }
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                if (cause instanceof CancellationException) {
+                    provider.recordCancelled();
+                } else {
+                    provider.recordFailure();
+                }
+                if (failed.incrementAndGet() >= batch.size()) {
+                    winner.completeExceptionally(cause);
+                }
+            });
+        }
+        try {
+            return winner.get(remaining(deadline).toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } finally {
+            // 落选或超时的请求中止HTTP交换
+            for (int i = 0; i < exchanges.size(); i++) {
+                if (exchanges.get(i).cancel(true) && batch.size() > 1) {
+                    batch.get(i).recordRaceLoss(System.currentTimeMillis() - start, false);
+                }
+            }
+        }
+    }
+
+    /**
+     * 流式补全，逐个输出token；取消订阅时中止HTTP交换
+     * 竞速时以最先吐出首token的服务商为准，另一家取消；不竞速时首token之前失败会切到下一家
+     */
+    public Flux<String> stream(List<Map<String, String>> messages, int promptChars, Duration timeout) {
+        return Flux.defer(() -> {
+            long deadline = System.currentTimeMillis() + timeout.toMillis();
+            LlmProvider primary = null;
+            LlmProvider secondary = null;
+            for (LlmProvider provider : rank(true)) {
+                if (primary == null) {
+                    if (provider.getBreaker().allowRequest()) {
+                        primary = provider;
+                    }
+                } else if (provider.getBreaker().isAvailable()) {
+                    secondary = provider;
+                    break;
+                }
+            }
+            if (primary == null) {
+                return Flux.error(new IOException("所有大模型服务商均已熔断"));
+            }
+            if (secondary == null) {
+                return leg(primary, messages, deadline, false);
+            }
+            if (raceEnabled && promptChars <= raceMaxChars && secondary.getBreaker().allowRequest()) {
+                return Flux.firstWithValue(leg(primary, messages, deadline, true),
+                        leg(secondary, messages, deadline, true));
+            }
+            LlmProvider fallback = secondary;
+            AtomicBoolean emitted = new AtomicBoolean();
+            String primaryName = primary.getName();
+            return leg(primary, messages, deadline, false)
+                    .doOnNext(token -> emitted.set(true))
+                    .onErrorResume(e -> !emitted.get() && System.currentTimeMillis() < deadline
+                                    && fallback.getBreaker().allowRequest(),
+                            e -> {
+                                logger.warn("大模型服务商{}首token前失败，切换到{}: {}", primaryName,
+                                        fallback.getName(), e.getMessage());
+                                return leg(fallback, messages, deadline, false);
+                            });
+        });
+    }
+
+    private Flux<String> leg(LlmProvider provider, List<Map<String, String>> messages, long deadline, boolean raced) {
+        AtomicBoolean first = new AtomicBoolean();
+        AtomicBoolean done = new AtomicBoolean();
+        long[] start = new long[1];
+        return Mono.fromCallable(() -> buildRequest(provider, messages, true, remaining(deadline)))
+                .flatMap(request -> {
+                    start[0] = System.currentTimeMillis();
+                    provider.calls.incrementAndGet();
+                    // 取消订阅会取消 future，进而中止HTTP交换
+                    return Mono.fromFuture(httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofLines()));
+                })
+                .flatMapMany(response -> {
+                    if (response.statusCode() != 200) {
+                        response.body().close();
+                        return Flux.error(new IOException(provider.getName() + "请求失败: HTTP " + response.statusCode()));
+                    }
+                    return Flux.using(response::body, Flux::fromStream, Stream::close);
+                })
+                .map(String::trim)
+                .filter(line -> line.startsWith("data:"))
+                .map(line -> line.substring(5).trim())
+                .takeWhile(data -> !"[DONE]".equals(data))
+                .map(this::deltaContent)
+                .filter(token -> !token.isEmpty())
+                .doOnNext(token -> {
+                    if (first.compareAndSet(false, true)) {
+                        provider.recordFirstToken(System.currentTimeMillis() - start[0]);
+                        if (raced) {
+                            provider.wins.incrementAndGet();
+                        }
+                    }
+                })
+                .doOnComplete(() -> {
+                    done.set(true);
+                    provider.recordSuccess(System.currentTimeMillis() - start[0]);
+                })
+                .doOnError(e -> {
+                    done.set(true);
+                    provider.recordFailure();
+                })
+                .doOnCancel(() -> {
+                    if (done.get()) {
+                        return;
+                    }
+                    if (raced && !first.get()) {
+                        provider.recordRaceLoss(System.currentTimeMillis() - start[0], true);
+                    } else {
+                        provider.recordCancelled();
+                    }
+                });
+    }
+
+    /**
+     * 预热流式请求会用到的服务商连接（排名前两家，竞速时两家都会请求）：
+     * 发HEAD请求完成握手，连接留在共享客户端里；不计入服务商的调用统计
+     */
+    public void prewarm(Duration timeout) {
+        List<CompletableFuture<HttpResponse<Void>>> warming = rank(true).stream()
+                .limit(2)
+                .map(provider -> httpClient.sendAsync(HttpRequest.newBuilder()
+                                .uri(URI.create(provider.getUrl()))
+                                .timeout(timeout)
+                                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                                .build(),
+                        HttpResponse.BodyHandlers.discarding()))
+                .collect(Collectors.toList());
+        CompletableFuture.allOf(warming.toArray(new CompletableFuture[0])).join();
+    }
+
+    /**
+     * 健康的服务商按得分排序；得分相同时保持配置顺序
+     */
+    private List<LlmProvider> rank(boolean streaming) {
+        return providers.stream()
+                .filter(p -> p.getBreaker().isAvailable())
+                .sorted(Comparator.comparingDouble(p -> p.score(streaming, staleMillis)))
+                .collect(Collectors.toList());
+    }
+
+    private HttpRequest buildRequest(LlmProvider provider, List<Map<String, String>> messages, boolean stream,
+                                     Duration timeout) throws IOException {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("model", provider.getModel());
+        payload.put("stream", stream);
+        payload.put("messages", messages);
+        return HttpRequest.newBuilder()
+                .uri(URI.create(provider.getUrl()))
+                .timeout(timeout)
+                .header("Content-Type", "application/json")
+                .header("Authorization", "Bearer " + provider.getApiKey())
+                .POST(HttpRequest.BodyPublishers.ofString(mapper.writeValueAsString(payload)))
+                .build();
+    }
+
+    private String content(HttpResponse<String> response) {
+        if (response.statusCode() != 200) {
+            throw new CompletionException(new IOException("大模型请求失败: HTTP " + response.statusCode()));
+        }
+        try {
+            JsonNode message = mapper.readTree(response.body()).path("choices").path(0).path("message");
+            if (!message.has("content")) {
+                throw new IOException("大模型返回缺少content字段");
+            }
+            return message.path("content").asText();
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private String deltaContent(String data) {
+        try {
+            return mapper.readTree(data).path("choices").path(0).path("delta").path("content").asText("");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Duration remaining(long deadline) {
+        return Duration.ofMillis(Math.max(1, deadline - System.currentTimeMillis()));
+    }
+
+    public List<LlmProvider.ProviderStatus> getStatuses() {
+        return providers.stream().map(LlmProvider::getStatus).collect(Collectors.toList());
+    }
+}
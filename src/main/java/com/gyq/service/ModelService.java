@@ -1,10 +1,14 @@
 package com.gyq.service;
 
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.gyq.config.ChatClientConfig;
+import com.gyq.service.ChatMemoryService.ConversationCompactor;
 import com.gyq.service.Enum.SystemPromptEnum;
+import com.gyq.service.LlmRouterService.LlmRouter;
+import com.gyq.service.PromptService.PromptAssembler;
+import com.gyq.service.TurnService.TurnDeadline;
+import com.gyq.service.TurnService.TurnHandle;
 import com.gyq.service.dto.EmotionTextDto;
 import jakarta.annotation.Resource;
 import org.slf4j.Logger;
@@ -14,109 +18,144 @@ import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
 import org.springframework.ai.chat.memory.MessageWindowChatMemory;
 import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.Usage;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.chat.model.ChatResponse;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
+import reactor.core.publisher.Flux;
 
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 
 @Service
 public class ModelService {
-    private final RestTemplate restTemplate = new RestTemplate();
     private static final Logger logger = org.slf4j.LoggerFactory.getLogger(ModelService.class);
-    private static final String API_URL = "https://openrouter.ai/api/v1/chat/completions";
-    private static final String API_KEY = "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";
     @Resource
     private ChatClientConfig chatClientConfig;
+    // 多服务商选路：OpenRouter、DashScope 等OpenAI兼容端点
+    @Resource
+    private LlmRouter llmRouter;
+    // 按识别文本检索问答，拼装精简的系统提示词
+    @Resource
+    private PromptAssembler promptAssembler;
+    @Resource
+    private ConversationCompactor conversationCompactor;
+    private static final Duration LLM_TIMEOUT = Duration.ofSeconds(60);
+    private final ObjectMapper mapper = new ObjectMapper();
 
     /**
      * 调用gpt-4-mini  模型 超快速度 值得拥有
      */
 
     public String process(String text) {
-        // 统一枚举管理prompt
-        String content = SystemPromptEnum.YZ_XIAOAN.getDesc();
-        HttpEntity<Map<String, Object>> request = buildRequest(text,content);
-        try {
-            ResponseEntity<String> response = restTemplate.postForEntity(API_URL, request, String.class);
-            String responseBody = response.getBody();
-
-            // 解析 content 字段
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode root = mapper.readTree(responseBody);
-            return root
-                    .path("choices")
-                    .get(0)
-                    .path("message")
-                    .path("content")
-                    .asText();
+        return chatCompletion(text, promptAssembler.assemble(text).getText(), null);
+    }
 
+    /**
+     * 可取消版本：本轮对话被打断时中止进行中的请求，返回null
+     */
+    public String process(String text, TurnHandle turn) {
+        return chatCompletion(text, promptAssembler.assemble(text).getText(), turn);
+    }
+
+    /**
+     * 发起对话补全请求并登记到本轮句柄，取消时抛出 CancellationException
+     */
+    private String chatCompletion(String text, String systemPrompt, TurnHandle turn) {
+        // 请求超时不超过本轮剩余预算
+        TurnDeadline deadline = turn != null ? turn.getDeadline() : TurnDeadline.unbounded();
+        deadline.check("LLM");
+        try {
+            return llmRouter.complete(buildMessages(text, systemPrompt), text.length(), turn,
+                    deadline.timeout(LLM_TIMEOUT));
+        } catch (CancellationException e) {
+            logger.info("大模型请求已取消: {}", turn);
+            throw e;
         } catch (Exception e) {
-            System.err.println("请求或解析失败: " + e.getMessage());
+            if (turn != null && turn.isCancelled()) {
+                throw new CancellationException("大模型请求已取消");
+            }
+            deadline.check("LLM");
+            logger.error("请求或解析失败: {}", e.getMessage());
             return null;
         }
     }
 
     /**
-     * 持久化记忆对话文本转换
+     * 流式版本：逐个输出模型生成的token
+     */
+    public Flux<String> streamProcess(String text) {
+        return streamProcess(text, TurnDeadline.unbounded());
+    }
+
+    /**
+     * 限时版本：请求超时不超过本轮剩余预算
+     */
+    public Flux<String> streamProcess(String text, TurnDeadline deadline) {
+        return streamCompletion(text, promptAssembler.assemble(text).getText(), deadline);
+    }
+
+    /**
+     * 以SSE方式发起对话补全：下游请求多少读多少，取消订阅时关闭连接
+     */
+    private Flux<String> streamCompletion(String text, String systemPrompt, TurnDeadline deadline) {
+        return Flux.defer(() -> llmRouter.stream(buildMessages(text, systemPrompt), text.length(),
+                deadline.timeout(LLM_TIMEOUT)));
+    }
+
+    /**
+     * 持久化记忆对话文本转换：按 chatId 带历史对话，两轮之间由 ConversationCompactor 压缩较早的历史
+     * 语音对话的 process / streamProcess 不经过这里，每轮只带系统提示词和本句文本
      * @param text
      * @return
      */
     public String chatProcess(String text,String chatId) {
+        long start = System.currentTimeMillis();
         ChatResponse response = chatClientConfig.getChatClient().prompt()
                 .user(text)
-                .advisors(advisorSpec -> advisorSpec.param(ChatMemory.CONVERSATION_ID,chatId).param(ChatMemory.CONVERSATION_ID,10))
+                .advisors(advisorSpec -> advisorSpec.param(ChatMemory.CONVERSATION_ID,chatId))
                 .call().chatResponse();
         String content = response.getResult().getOutput().getText();
         logger.info("content:{}",content);
+        Usage usage = response.getMetadata().getUsage();
+        conversationCompactor.recordTurn(usage != null && usage.getPromptTokens() != null ? usage.getPromptTokens() : 0,
+                System.currentTimeMillis() - start);
+        // 两轮之间在后台压缩较早的历史
+        conversationCompactor.schedule(chatId);
         return content;
     }
     public List<EmotionTextDto> douBaoTtsJsonCall(String text){
-        // 统一枚举管理prompt
-        String content = SystemPromptEnum.DOUBAO.getDesc();
-        HttpEntity<Map<String, Object>> request = buildRequest(text,content);
-        try {
-            ResponseEntity<String> response = restTemplate.postForEntity(API_URL, request, String.class);
-            String responseBody = response.getBody();
-
-            // 解析 content 字段
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode root = mapper.readTree(responseBody);
-            String contentStr =  root
-                    .path("choices")
-                    .get(0)
-                    .path("message")
-                    .path("content")
-                    .asText();
-            List<EmotionTextDto> jsonList = mapper.readValue(contentStr, new TypeReference<>() {});
-            return jsonList;
+        return douBaoTtsJsonCall(text, null);
+    }
 
+
+    /**
+     * 可取消版本：按情绪切分文本
+     */
+    public List<EmotionTextDto> douBaoTtsJsonCall(String text, TurnHandle turn) {
+        String contentStr = chatCompletion(text, SystemPromptEnum.DOUBAO.getDesc(), turn);
+        if (contentStr == null) {
+            return null;
+        }
+        // 模型偶尔用```json代码块包裹输出
+        contentStr = contentStr.strip().replaceFirst("^```(json)?", "").replaceFirst("```$", "");
+        try {
+            return mapper.readValue(contentStr, new TypeReference<>() {});
         } catch (Exception e) {
-            System.err.println("请求或解析失败: " + e.getMessage());
+            logger.error("情绪切分结果解析失败: {}", e.getMessage());
             return null;
         }
     }
 
-
     /**
-     * 构造请求
+     * 构造对话消息：system prompt + 用户输入，不带历史（推测执行会按半句识别结果提前发起请求，结果可能被丢弃）
      * @param text
      * @return
      */
-    public HttpEntity<Map<String, Object>> buildRequest(String text,String content){
-        Map<String, Object> payload = new HashMap<>();
-
-        payload.put("model", "gpt-4o-mini");
-        payload.put("stream", false);
-
+    private List<Map<String, String>> buildMessages(String text, String content){
         List<Map<String, String>> messages = new ArrayList<>();
         // system prompt
         messages.add(Map.of(
@@ -127,14 +166,7 @@ public class ModelService {
         messages.add(Map.of(
                 "role", "user",
                 "content", text));
-
-        payload.put("messages", messages);
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.setBearerAuth(API_KEY);
-        // 返回一个HTTP请求体
-        return new HttpEntity<>(payload, headers);
+        return messages;
     }
 
 }
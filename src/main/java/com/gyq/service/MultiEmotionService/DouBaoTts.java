@@ -37,6 +37,8 @@ public class DouBaoTts {
 //    private static final String OUT_FILE = "Output_file";
 //    private static final String EMOTION = "angry";
     private static final ObjectMapper M = new ObjectMapper();
+    // 共享客户端：保持与合成服务的长连接，预热建立的TLS连接可以被后续请求复用
+    private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
 
     /**
      * http调用豆包语音生成
@@ -47,7 +49,14 @@ public class DouBaoTts {
      * @throws Exception
      */
     public byte[] douBaoAudioCallHttp(String text, String emotion, int emotionScale) throws Exception {
-        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+        return douBaoAudioCallHttp(text, emotion, emotionScale, Duration.ofSeconds(60));
+    }
+
+    /**
+     * @param timeout 请求超时，调用方按本轮剩余预算传入
+     */
+    public byte[] douBaoAudioCallHttp(String text, String emotion, int emotionScale, Duration timeout) throws Exception {
+        HttpClient client = httpClient;
 
         // --- 构造请求 JSON ---
         DouBaoWsDto dto = new DouBaoWsDto();
@@ -72,7 +81,7 @@ public class DouBaoTts {
 
         HttpRequest request = HttpRequest.newBuilder()
                 .uri(URI.create(URL))
-                .timeout(Duration.ofSeconds(60))
+                .timeout(timeout)
                 .header("Content-Type", "application/json")
                 .header("Authorization", "Bearer; " + ACCESS_TOKEN) // 注意分号
                 .POST(HttpRequest.BodyPublishers.ofString(body))
@@ -107,6 +116,19 @@ public class DouBaoTts {
         return audioBytes;
     }
 
+    /**
+     * 预建连接：发一个HEAD请求完成DNS、TCP和TLS握手，连接留在共享客户端的连接池里
+     * 不关心响应状态码，只要连接建立即可
+     */
+    public void prewarm(Duration timeout) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(URL))
+                .timeout(timeout)
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .build();
+        httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+    }
+
     /**
      * 豆包websocket调用方法
      * @param text
@@ -3,7 +3,7 @@ package com.gyq.service;
 import com.alibaba.fastjson.JSONObject;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.gyq.FileDto;
-import jakarta.websocket.Session;
+import com.gyq.service.BlockingQueueService.ViewerGroup;
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.handshake.ServerHandshake;
 import org.springframework.cglib.core.Block;
@@ -19,17 +19,24 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class MuseTalkWebSocketClient extends WebSocketClient {
-    private final Session userSession; // 前端连接
     private final AtomicBoolean isCompleted = new AtomicBoolean(false);
     private final AtomicInteger messageCount = new AtomicInteger(0); // 消息计数器
 
     public final ObjectMapper objectMapper = new ObjectMapper();
     private volatile CountDownLatch doneLatch = new CountDownLatch(1);
     private final BlockingQueue<FileDto> audioQueue = new LinkedBlockingQueue<>();
+    // 观看组：同一路画面广播给主会话和展厅其它屏幕，各自由缓冲器的发送线程下发，不阻塞本连接的读线程，不额外占用GPU
+    private volatile ViewerGroup viewerGroup;
+    // 本轮对话被取消后不再转发残留的帧和消息
+    private volatile boolean cancelled = false;
 
-    public MuseTalkWebSocketClient(URI serverUri, Session userSession) {
+    public MuseTalkWebSocketClient(URI serverUri, ViewerGroup viewerGroup) {
         super(serverUri);
-        this.userSession = userSession;
+        this.viewerGroup = viewerGroup;
+    }
+
+    public void setViewerGroup(ViewerGroup viewerGroup) {
+        this.viewerGroup = viewerGroup;
     }
 
     @Override
@@ -67,8 +74,31 @@ public class MuseTalkWebSocketClient extends WebSocketClient {
         }
     }
 
+    /**
+     * 取消当前推理：通知服务端并断开连接，服务端发送帧失败后停止推理
+     */
+    public void cancelRender() {
+        cancelled = true;
+        try {
+            if (isOpen()) {
+                send("{\"type\":\"cancel\"}");
+            }
+        } catch (Exception e) {
+            System.err.println("发送取消消息失败: " + e.getMessage());
+        }
+        close();
+        doneLatch.countDown();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
     @Override
     public void onMessage(String message) {
+        if (cancelled) {
+            return;
+        }
         int count = messageCount.incrementAndGet();
         System.out.println("接收到第" + count + "条json消息: " + message);
         // {"status": "processing", "audio_path": "/home/main/wyw/java/audio/000_happy.wav"}
@@ -85,12 +115,12 @@ public class MuseTalkWebSocketClient extends WebSocketClient {
                 return;
             }
             
-            if (userSession.isOpen()) {
-                // 正常转发消息到前端
-                userSession.getBasicRemote().sendText(message);
-                System.out.println("消息已转发到前端");
+            ViewerGroup group = viewerGroup;
+            if (group != null) {
+                group.publishText(message);
+                System.out.println("消息已转发到观看组");
             } else {
-                System.out.println("前端会话已关闭，无法转发消息");
+                System.out.println("未设置观看组，无法转发消息");
             }
         } catch (Exception e) {
             System.err.println("发送json异常: " + e.getMessage());
@@ -104,9 +134,13 @@ public class MuseTalkWebSocketClient extends WebSocketClient {
 
     @Override
     public void onMessage(ByteBuffer bytes) {
+        if (cancelled) {
+            return;
+        }
         try {
-            if (userSession.isOpen()) {
-                userSession.getBasicRemote().sendBinary(bytes);
+            ViewerGroup group = viewerGroup;
+            if (group != null) {
+                group.publishFrame(bytes);
             }
         } catch (Exception e) {
             System.out.println("发送二进制数据异常: " + e.getMessage());
@@ -117,6 +151,7 @@ public class MuseTalkWebSocketClient extends WebSocketClient {
     public void onClose(int i, String s, boolean b) {
         System.out.printf("连接关闭: code=%d, reason=%s, remote=%b\n", i, s, b);
         isCompleted.set(true);
+        doneLatch.countDown();
     }
 
     @Override
@@ -124,6 +159,7 @@ public class MuseTalkWebSocketClient extends WebSocketClient {
         System.err.println("WebSocket错误: " + e.getMessage());
         e.printStackTrace();
         isCompleted.set(true);
+        doneLatch.countDown();
     }
 
     public void resetStatus() {
@@ -0,0 +1,187 @@
+package com.gyq.service.PromptService;
+
+import com.gyq.service.Enum.SystemPromptEnum;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 系统提示词按需拼装 - 把 YZ_XIAOAN 拆成人设与规则、问答条目、结尾要求三部分，
+ * 每次请求只带上与当前识别文本最相关的 top-k 条问答，而不是整份问答库
+ * 每次拼装记录完整提示词与精简提示词的token数
+ */
+@Service
+public class PromptAssembler {
+    private static final Logger logger = LoggerFactory.getLogger(PromptAssembler.class);
+
+    // 问答条目的起始行："1. 问：..." 或 "9. \"问题\": ..."
+    private static final Pattern ENTRY_START = Pattern.compile("^\\s*\\d+\\.\\s*(问：|\"问题\")");
+    private static final Pattern PLAIN_QA = Pattern.compile("问：\\s*(.*?)\\s*答：\\s*(.*)", Pattern.DOTALL);
+    private static final Pattern JSON_QA = Pattern.compile(
+            "\"问题\"\\s*:\\s*\"(.*?)\"\\s*,?\\s*\"回答\"\\s*:\\s*\"(.*)\"", Pattern.DOTALL);
+
+    @Value("${prompt.retrieval.enabled:true}")
+    private boolean enabled;
+    @Value("${prompt.retrieval.top-k:3}")
+    private int topK;
+
+    // gpt-4o 系列的分词
+    private final Encoding encoding = Encodings.newDefaultEncodingRegistry().getEncoding(EncodingType.O200K_BASE);
+
+    private String fullPrompt;
+    private String header;
+    private String footer;
+    private QaRetriever retriever;
+    private int fullTokens;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong fullTokenTotal = new AtomicLong();
+    private final AtomicLong compactTokenTotal = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        fullPrompt = SystemPromptEnum.YZ_XIAOAN.getDesc();
+        StringBuilder head = new StringBuilder();
+        StringBuilder tail = new StringBuilder();
+        List<StringBuilder> blocks = new ArrayList<>();
+        StringBuilder current = null;
+        for (String line : fullPrompt.split("\n")) {
+            String trimmed = line.trim();
+            if (ENTRY_START.matcher(line).find()) {
+                current = new StringBuilder(trimmed);
+                blocks.add(current);
+            } else if (trimmed.isEmpty()) {
+                // 空行结束当前条目
+                current = null;
+            } else if (current != null) {
+                current.append('\n').append(trimmed);
+            } else if (blocks.isEmpty()) {
+                head.append(trimmed).append('\n');
+            } else {
+                tail.append(trimmed).append('\n');
+            }
+        }
+        List<QaRetriever.Entry> entries = new ArrayList<>();
+        for (StringBuilder block : blocks) {
+            entries.add(parseEntry(block.toString()));
+        }
+        header = head.toString();
+        footer = tail.toString();
+        retriever = new QaRetriever(entries);
+        fullTokens = countTokens(fullPrompt);
+        logger.info("系统提示词: 问答{}条, 完整{} tokens, 固定部分{} tokens", entries.size(), fullTokens,
+                countTokens(header + footer));
+    }
+
+    private static QaRetriever.Entry parseEntry(String block) {
+        String body = block.replaceFirst("^\\d+\\.\\s*", "");
+        Matcher m = PLAIN_QA.matcher(body);
+        if (m.find()) {
+            return new QaRetriever.Entry(m.group(1).trim(), m.group(2).trim());
+        }
+        m = JSON_QA.matcher(body);
+        if (m.find()) {
+            return new QaRetriever.Entry(m.group(1).trim(), m.group(2).trim());
+        }
+        return new QaRetriever.Entry(body, "");
+    }
+
+    /**
+     * 拼装本次请求的系统提示词
+     */
+    public AssembledPrompt assemble(String transcript) {
+        if (!enabled || retriever == null) {
+            return new AssembledPrompt(fullPrompt, fullTokens, fullTokens, List.of());
+        }
+        List<QaRetriever.Entry> hits = retriever.topK(transcript, topK);
+        StringBuilder prompt = new StringBuilder(header);
+        for (int i = 0; i < hits.size(); i++) {
+            QaRetriever.Entry entry = hits.get(i);
+            prompt.append(i + 1).append(". 问：").append(entry.getQuestion()).append('\n')
+                    .append("   答：").append(entry.getAnswer()).append('\n');
+        }
+        prompt.append(footer);
+        String text = prompt.toString();
+        int compactTokens = countTokens(text);
+
+        requests.incrementAndGet();
+        fullTokenTotal.addAndGet(fullTokens);
+        compactTokenTotal.addAndGet(compactTokens);
+        List<String> questions = new ArrayList<>();
+        hits.forEach(h -> questions.add(h.getQuestion()));
+        logger.info("系统提示词 {} -> {} tokens, 命中问答: {}", fullTokens, compactTokens, questions);
+        return new AssembledPrompt(text, fullTokens, compactTokens, questions);
+    }
+
+    public int countTokens(String text) {
+        return encoding.countTokens(text);
+    }
+
+    /**
+     * 拼装结果
+     */
+    public static class AssembledPrompt {
+        private final String text;
+        private final int fullTokens;
+        private final int compactTokens;
+        private final List<String> matchedQuestions;
+
+        public AssembledPrompt(String text, int fullTokens, int compactTokens, List<String> matchedQuestions) {
+            this.text = text;
+            this.fullTokens = fullTokens;
+            this.compactTokens = compactTokens;
+            this.matchedQuestions = matchedQuestions;
+        }
+
+        public String getText() { return text; }
+        public int getFullTokens() { return fullTokens; }
+        public int getCompactTokens() { return compactTokens; }
+        public List<String> getMatchedQuestions() { return matchedQuestions; }
+    }
+
+    public PromptStatus getStatus() {
+        long n = requests.get();
+        return new PromptStatus(enabled, topK, fullTokens, n,
+                n > 0 ? fullTokenTotal.get() / n : 0, n > 0 ? compactTokenTotal.get() / n : 0);
+    }
+
+    // 提示词拼装统计
+    public static class PromptStatus {
+        private final boolean enabled;
+        private final int topK;
+        private final int fullTokens;
+        private final long requests;
+        private final long avgFullTokens;
+        private final long avgCompactTokens;
+
+        public PromptStatus(boolean enabled, int topK, int fullTokens, long requests, long avgFullTokens,
+                            long avgCompactTokens) {
+            this.enabled = enabled;
+            this.topK = topK;
+            this.fullTokens = fullTokens;
+            this.requests = requests;
+            this.avgFullTokens = avgFullTokens;
+            this.avgCompactTokens = avgCompactTokens;
+        }
+
+        public long getRequests() { return requests; }
+        public long getAvgCompactTokens() { return avgCompactTokens; }
+
+        @Override
+        public String toString() {
+            return String.format("PromptStatus{enabled=%s, topK=%d, fullTokens=%d, requests=%d, avgTokens=%d->%d}",
+                    enabled, topK, fullTokens, requests, avgFullTokens, avgCompactTokens);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.gyq.service.PromptService;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 问答条目检索 - 按字二元组做BM25打分，问题部分权重加倍
+ * 条目只有几十条，启动时建好倒排统计，每次查询直接遍历打分
+ */
+public class QaRetriever {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int QUESTION_BOOST = 2;
+
+    /**
+     * 问答条目
+     */
+    public static class Entry {
+        private final String question;
+        private final String answer;
+
+        public Entry(String question, String answer) {
+            this.question = question;
+            this.answer = answer;
+        }
+
+        public String getQuestion() { return question; }
+        public String getAnswer() { return answer; }
+    }
+
+    private final List<Entry> entries;
+    private final List<Map<String, Integer>> termFreqs = new ArrayList<>();
+    private final int[] lengths;
+    private final Map<String, Integer> docFreq = new HashMap<>();
+    private final double avgLength;
+
+    public QaRetriever(List<Entry> entries) {
+        this.entries = entries;
+        this.lengths = new int[entries.size()];
+        long total = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            Map<String, Integer> tf = new HashMap<>();
+            List<String> questionTerms = terms(entries.get(i).getQuestion());
+            for (int n = 0; n < QUESTION_BOOST; n++) {
+                questionTerms.forEach(t -> tf.merge(t, 1, Integer::sum));
+            }
+            terms(entries.get(i).getAnswer()).forEach(t -> tf.merge(t, 1, Integer::sum));
+            tf.keySet().forEach(t -> docFreq.merge(t, 1, Integer::sum));
+            termFreqs.add(tf);
+            lengths[i] = tf.values().stream().mapToInt(Integer::intValue).sum();
+            total += lengths[i];
+        }
+        this.avgLength = entries.isEmpty() ? 1 : (double) total / entries.size();
+    }
+
+    /**
+     * 与查询最相关的前 k 条，只返回得分大于0的条目，按得分从高到低
+     */
+    public List<Entry> topK(String query, int k) {
+        List<String> queryTerms = terms(query);
+        List<double[]> scored = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            double score = score(queryTerms, i);
+            if (score > 0) {
+                scored.add(new double[]{i, score});
+            }
+        }
+        scored.sort(Comparator.comparingDouble((double[] s) -> s[1]).reversed());
+        List<Entry> result = new ArrayList<>();
+        for (int i = 0; i < Math.min(k, scored.size()); i++) {
+            result.add(entries.get((int) scored.get(i)[0]));
+        }
+        return result;
+    }
+
+    private double score(List<String> queryTerms, int doc) {
+        Map<String, Integer> tf = termFreqs.get(doc);
+        double norm = K1 * (1 - B + B * lengths[doc] / avgLength);
+        double score = 0;
+        for (String term : queryTerms) {
+            Integer freq = tf.get(term);
+            if (freq == null) {
+                continue;
+            }
+            int df = docFreq.get(term);
+            double idf = Math.log(1 + (entries.size() - df + 0.5) / (df + 0.5));
+            score += idf * freq * (K1 + 1) / (freq + norm);
+        }
+        return score;
+    }
+
+    /**
+     * 中文按相邻两字切分，英文和数字按整词；标点和空白作为分隔
+     */
+    static List<String> terms(String text) {
+        List<String> terms = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        char prev = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isIdeographic(c)) {
+                flush(word, terms);
+                if (prev != 0) {
+                    terms.add("" + prev + c);
+                }
+                prev = c;
+            } else if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+                prev = 0;
+            } else {
+                flush(word, terms);
+                prev = 0;
+            }
+        }
+        flush(word, terms);
+        return terms;
+    }
+
+    private static void flush(StringBuilder word, List<String> terms) {
+        if (word.length() > 0) {
+            terms.add(word.toString());
+            word.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.gyq.service.ResilienceService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 对冲调用 - 多个可互相替代的后端（TTS服务商、识别通道等）按配置顺序选择主用和备用，每个后端单独统计耗时、单独熔断
+ * 主用请求超过其耗时分位（如p95）还没返回时，向备用发出对冲请求，先成功的结果生效；
+ * 主用直接失败时立即切到备用。落选的请求不取消，跑完后照常计入耗时和熔断统计
+ *
+ * @param <B> 后端类型
+ */
+public class HedgedCall<B> {
+    private static final Logger logger = LoggerFactory.getLogger(HedgedCall.class);
+
+    private static final int LATENCY_WINDOW = 100;
+    private static final int MIN_SAMPLES = 10; // 样本不足时按默认对冲延迟
+
+    /**
+     * 向某个后端发出一次请求；超时、服务端错误等以异常返回，返回null视为失败
+     */
+    @FunctionalInterface
+    public interface Attempt<B, T> {
+        T call(B backend, Duration timeout) throws Exception;
+    }
+
+    private final String label;
+    private final List<BackendState> backends = new ArrayList<>();
+    private final Executor executor;
+    private final double hedgePercentile;
+    private final long defaultHedgeDelayMs;
+
+    /**
+     * @param label 日志和错误信息里的后端称呼，如 "TTS服务商"
+     * @param order 逗号分隔的后端名称，靠前的优先作为主用；未知名称忽略
+     */
+    public HedgedCall(String label, List<B> available, Function<B, String> nameOf, String order, Executor executor,
+                      double hedgePercentile, long defaultHedgeDelayMs, int failureThreshold, long openMillis) {
+        this.label = label;
+        this.executor = executor;
+        this.hedgePercentile = hedgePercentile;
+        this.defaultHedgeDelayMs = defaultHedgeDelayMs;
+        Map<String, B> byName = available.stream().collect(Collectors.toMap(nameOf, Function.identity()));
+        for (String name : order.split(",")) {
+            B backend = byName.get(name.trim());
+            if (backend == null) {
+                logger.warn("未知的{}，忽略: {}", label, name);
+                continue;
+            }
+            backends.add(new BackendState(name.trim(), backend, new CircuitBreaker(failureThreshold, openMillis)));
+        }
+        if (backends.isEmpty()) {
+            throw new IllegalStateException("没有可用的" + label + ": " + order);
+        }
+        logger.info("{}: {}", label, backends.stream().map(b -> b.name).collect(Collectors.toList()));
+    }
+
+    /**
+     * 第一个熔断器可能放行的后端（不占用试探名额），都已熔断时返回null；用于预热
+     */
+    public B firstAvailable() {
+        for (BackendState state : backends) {
+            if (state.breaker.isAvailable()) {
+                return state.backend;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 返回先成功的后端的结果；所有后端都失败或超时时抛出最后一个异常
+     */
+    public <T> T call(Attempt<B, T> attempt, Duration timeout) throws Exception {
+        long deadline = System.currentTimeMillis() + timeout.toMillis();
+        // 主用：第一个熔断器放行的后端；备用：其后第一个可能放行的，真正发请求时再占用熔断器名额
+        BackendState primary = null;
+        BackendState secondary = null;
+        for (BackendState state : backends) {
+            if (primary == null) {
+                if (state.breaker.allowRequest()) {
+                    primary = state;
+                }
+            } else if (state.breaker.isAvailable()) {
+                secondary = state;
+                break;
+            }
+        }
+        if (primary == null) {
+            throw new IOException("所有" + label + "均已熔断");
+        }
+
+        Race<T> race = new Race<>(attempt, secondary != null ? 2 : 1);
+        race.launch(primary, timeout);
+        if (secondary == null) {
+            return race.await(remaining(deadline));
+        }
+
+        // 主用在分位耗时内返回（或失败）时不对冲
+        T result = race.awaitFirstOutcome(Math.min(primary.hedgeDelayMillis(), remaining(deadline)));
+        if (result != null) {
+            return result;
+        }
+        if (race.failed() > 0) {
+            secondary.failovers.incrementAndGet();
+            logger.warn("{}{}失败，切换到{}", label, primary.name, secondary.name);
+        } else {
+            secondary.hedges.incrementAndGet();
+            logger.info("{}{}超过{}ms未返回，对冲请求{}", label, primary.name, primary.hedgeDelayMillis(), secondary.name);
+        }
+        if (secondary.breaker.allowRequest()) {
+            race.launch(secondary, Duration.ofMillis(remaining(deadline)));
+        } else {
+            race.skip(new IOException(label + secondary.name + "已熔断"));
+        }
+        return race.await(remaining(deadline));
+    }
+
+    private static long remaining(long deadline) {
+        return Math.max(1, deadline - System.currentTimeMillis());
+    }
+
+    /**
+     * 一次调用中并发的几个请求：第一个成功的结果生效，全部失败时以最后一个异常结束
+     */
+    private class Race<T> {
+        private final CompletableFuture<T> winner = new CompletableFuture<>();
+        private final CompletableFuture<Void> firstOutcome = new CompletableFuture<>();
+        private final Attempt<B, T> attempt;
+        private final int expected;
+        private final AtomicInteger failures = new AtomicInteger();
+
+        Race(Attempt<B, T> attempt, int expected) {
+            this.attempt = attempt;
+            this.expected = expected;
+        }
+
+        void launch(BackendState state, Duration timeout) {
+            state.calls.incrementAndGet();
+            long start = System.currentTimeMillis();
+            CompletableFuture<T> future;
+            try {
+                future = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return attempt.call(state.backend, timeout);
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor);
+            } catch (Exception e) {
+                // 线程池已满
+                future = CompletableFuture.failedFuture(e);
+            }
+            future.whenComplete((result, e) -> {
+                if (e == null && result != null) {
+                    state.recordSuccess(System.currentTimeMillis() - start);
+                    if (winner.complete(result)) {
+                        state.wins.incrementAndGet();
+                    }
+                    firstOutcome.complete(null);
+                } else {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    state.recordFailure();
+                    logger.warn("{}{}请求失败: {}", label, state.name, cause != null ? cause.getMessage() : "空结果");
+                    skip(cause != null ? cause : new IOException(label + state.name + "返回空结果"));
+                }
+            });
+        }
+
+        /**
+         * 记一个失败的名额；所有名额都失败时结束
+         */
+        void skip(Throwable cause) {
+            if (failures.incrementAndGet() >= expected) {
+                winner.completeExceptionally(cause);
+            }
+            firstOutcome.complete(null);
+        }
+
+        int failed() {
+            return failures.get();
+        }
+
+        /**
+         * 等到第一个请求有结果（成功或失败）或超时；成功时返回结果，否则返回null
+         */
+        T awaitFirstOutcome(long timeoutMillis) throws InterruptedException {
+            try {
+                firstOutcome.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException | ExecutionException e) {
+                return null;
+            }
+            return winner.isDone() && !winner.isCompletedExceptionally() ? winner.join() : null;
+        }
+
+        T await(long timeoutMillis) throws Exception {
+            try {
+                return winner.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+    }
+
+    private class BackendState {
+        final String name;
+        final B backend;
+        final CircuitBreaker breaker;
+        final LatencyWindow latency = new LatencyWindow(LATENCY_WINDOW);
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong wins = new AtomicLong();
+        final AtomicLong hedges = new AtomicLong();
+        final AtomicLong failovers = new AtomicLong();
+
+        BackendState(String name, B backend, CircuitBreaker breaker) {
+            this.name = name;
+            this.backend = backend;
+            this.breaker = breaker;
+        }
+
+        void recordSuccess(long millis) {
+            latency.record(millis);
+            breaker.recordSuccess();
+        }
+
+        void recordFailure() {
+            failures.incrementAndGet();
+            breaker.recordFailure();
+        }
+
+        long hedgeDelayMillis() {
+            return latency.size() >= MIN_SAMPLES ? latency.percentile(hedgePercentile) : defaultHedgeDelayMs;
+        }
+
+        BackendStatus status() {
+            return new BackendStatus(name, breaker.getState(), breaker.getOpenCount(), calls.get(), failures.get(),
+                    wins.get(), hedges.get(), failovers.get(), latency.percentile(0.5),
+                    (int) Math.round(hedgePercentile * 100), latency.percentile(hedgePercentile));
+        }
+    }
+
+    public List<BackendStatus> getStatuses() {
+        return backends.stream().map(BackendState::status).collect(Collectors.toList());
+    }
+
+    // 后端状态，hedgeMs 为对冲所用分位的耗时
+    public static class BackendStatus {
+        private final String name;
+        private final CircuitBreaker.State state;
+        private final long opened;
+        private final long calls;
+        private final long failures;
+        private final long wins;
+        private final long hedges;
+        private final long failovers;
+        private final long p50Ms;
+        private final int hedgePercentile;
+        private final long hedgeMs;
+
+        public BackendStatus(String name, CircuitBreaker.State state, long opened, long calls, long failures,
+                             long wins, long hedges, long failovers, long p50Ms, int hedgePercentile, long hedgeMs) {
+            this.name = name;
+            this.state = state;
+            this.opened = opened;
+            this.calls = calls;
+            this.failures = failures;
+            this.wins = wins;
+            this.hedges = hedges;
+            this.failovers = failovers;
+            this.p50Ms = p50Ms;
+            this.hedgePercentile = hedgePercentile;
+            this.hedgeMs = hedgeMs;
+        }
+
+        public String getName() { return name; }
+        public CircuitBreaker.State getState() { return state; }
+        public long getCalls() { return calls; }
+        public long getFailures() { return failures; }
+        public long getWins() { return wins; }
+        public long getHedges() { return hedges; }
+        public long getFailovers() { return failovers; }
+        public long getHedgeMs() { return hedgeMs; }
+
+        @Override
+        public String toString() {
+            return String.format("%s{breaker=%s(opened %d), calls=%d, failures=%d, wins=%d, hedges=%d, failovers=%d, p50=%dms, p%d=%dms}",
+                    name, state, opened, calls, failures, wins, hedges, failovers, p50Ms, hedgePercentile, hedgeMs);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.gyq.service.ResilienceService;
+
+import java.util.Arrays;
+
+/**
+ * 最近N次成功请求的耗时，用于估算对冲延迟的分位数
+ */
+public class LatencyWindow {
+
+    private final long[] samples;
+    private int count = 0;
+    private int next = 0;
+
+    public LatencyWindow(int size) {
+        this.samples = new long[size];
+    }
+
+    public synchronized void record(long millis) {
+        samples[next] = millis;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * 分位数耗时，没有样本时返回 -1
+     */
+    public synchronized long percentile(double p) {
+        if (count == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(p * count) - 1;
+        return sorted[Math.max(0, Math.min(index, count - 1))];
+    }
+}
@@ -0,0 +1,175 @@
+package com.gyq.service.StreamService;
+
+import com.alibaba.nls.client.protocol.InputFormatEnum;
+import com.alibaba.nls.client.protocol.NlsClient;
+import com.alibaba.nls.client.protocol.SampleRateEnum;
+import com.alibaba.nls.client.protocol.asr.SpeechRecognizer;
+import com.alibaba.nls.client.protocol.asr.SpeechRecognizerListener;
+import com.alibaba.nls.client.protocol.asr.SpeechRecognizerResponse;
+import com.gyq.service.AudioService;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ObjectUtils;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 流式语音识别：PCM分块送入阿里云实时识别，识别中间结果实时下发给前端，输出最终文本
+ */
+@Component
+public class AsrStreamStage implements StreamStage<ByteBuffer, String> {
+    private static final Logger logger = LoggerFactory.getLogger(AsrStreamStage.class);
+
+    // 前端上传 48kHz 单声道 16bit PCM，识别服务要求 16kHz
+    private static final int DOWNSAMPLE_FACTOR = 3;
+
+    @Value("${alibaba.key}")
+    private String appKey;
+    @Value("${alibaba.ws-url:wss://nls-gateway-cn-shanghai.aliyuncs.com/ws/v1}")
+    private String wsUrl;
+    @Resource
+    private AudioService audioService;
+
+    private final Scheduler scheduler;
+    private NlsClient client;
+
+    public AsrStreamStage(@Qualifier("asrExecutor") ThreadPoolTaskExecutor asrExecutor) {
+        this.scheduler = Schedulers.fromExecutor(asrExecutor, true);
+    }
+
+    @Override
+    public String getName() {
+        return "asr";
+    }
+
+    @Override
+    public Flux<String> apply(Flux<ByteBuffer> input, StreamContext context) {
+        Flux<String> results = Flux.<String>create(sink -> {
+            SpeechRecognizer recognizer = null;
+            try {
+                recognizer = new SpeechRecognizer(getClient(), listener(sink, context));
+                recognizer.setAppKey(appKey);
+                recognizer.setFormat(InputFormatEnum.PCM);
+                recognizer.setSampleRate(SampleRateEnum.SAMPLE_RATE_16K);
+                recognizer.setEnableIntermediateResult(true);
+                recognizer.setEnablePunctuation(true);
+                recognizer.setEnableITN(true);
+                recognizer.start();
+            } catch (Exception e) {
+                if (recognizer != null) {
+                    recognizer.close();
+                }
+                sink.error(e);
+                return;
+            }
+            SpeechRecognizer started = recognizer;
+            // 上行Opus解码后已是16kHz，原始上行需要降采样
+            boolean resample = context.getInputSampleRate() != 16000;
+            // 按分块同步读取并发送，发送阻塞时自然降低读取速度
+            Disposable upstream = input.subscribe(
+                    chunk -> started.send(resample ? downsample(chunk) : toBytes(chunk)),
+                    sink::error,
+                    () -> {
+                        try {
+                            started.stop();
+                        } catch (Exception e) {
+                            sink.error(e);
+                        }
+                    });
+            sink.onDispose(() -> {
+                upstream.dispose();
+                started.close();
+            });
+        }).subscribeOn(scheduler);
+        return context.withinDeadline(results, "ASR");
+    }
+
+    private SpeechRecognizerListener listener(FluxSink<String> sink, StreamContext context) {
+        return new SpeechRecognizerListener() {
+            @Override
+            public void onRecognitionResultChanged(SpeechRecognizerResponse response) {
+                String text = response.getRecognizedText();
+                if (!ObjectUtils.isEmpty(text)) {
+                    context.sendResult("text_user_partial", text);
+                    Speculation speculation = context.getSpeculation();
+                    if (speculation != null) {
+                        speculation.onPartial(text);
+                    }
+                }
+            }
+
+            @Override
+            public void onRecognitionCompleted(SpeechRecognizerResponse response) {
+                String text = response.getRecognizedText();
+                logger.info("流式识别完成: {}", text);
+                if (!ObjectUtils.isEmpty(text)) {
+                    context.sendResult("text_user", text);
+                    sink.next(text);
+                }
+                sink.complete();
+            }
+
+            @Override
+            public void onStarted(SpeechRecognizerResponse response) {
+                logger.debug("流式识别开始: task={}", response.getTaskId());
+            }
+
+            @Override
+            public void onFail(SpeechRecognizerResponse response) {
+                sink.error(new IllegalStateException("语音识别失败: " + response.getStatus() + " " + response.getStatusText()));
+            }
+        };
+    }
+
+    private synchronized NlsClient getClient() throws Exception {
+        String token = audioService.getToken();
+        if (client == null) {
+            client = new NlsClient(wsUrl, token);
+        } else {
+            client.setToken(token);
+        }
+        return client;
+    }
+
+    /**
+     * 48kHz → 16kHz：每3个采样取平均，相当于简单的低通加抽取
+     */
+    static byte[] downsample(ByteBuffer pcm) {
+        ByteBuffer in = pcm.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int samples = in.remaining() / 2 / DOWNSAMPLE_FACTOR;
+        ByteBuffer out = ByteBuffer.allocate(samples * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < samples; i++) {
+            int sum = 0;
+            for (int j = 0; j < DOWNSAMPLE_FACTOR; j++) {
+                sum += in.getShort();
+            }
+            out.putShort((short) (sum / DOWNSAMPLE_FACTOR));
+        }
+        return out.array();
+    }
+
+    private static byte[] toBytes(ByteBuffer pcm) {
+        byte[] bytes = new byte[pcm.remaining()];
+        pcm.duplicate().get(bytes);
+        return bytes;
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (client != null) {
+            client.shutdown();
+        }
+    }
+}
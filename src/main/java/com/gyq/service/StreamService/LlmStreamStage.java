@@ -0,0 +1,57 @@
+package com.gyq.service.StreamService;
+
+import com.gyq.service.IntentService.PromoIntentDetector;
+import com.gyq.service.ModelService;
+import jakarta.annotation.Resource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * 流式大模型：识别文本 → 逐个token输出，读取在LLM阶段线程池上进行
+ */
+@Component
+public class LlmStreamStage implements StreamStage<String, String> {
+
+    @Resource
+    private ModelService modelService;
+    @Resource
+    private PromoIntentDetector promoIntentDetector;
+
+    private final Scheduler scheduler;
+
+    public LlmStreamStage(@Qualifier("llmExecutor") ThreadPoolTaskExecutor llmExecutor) {
+        this.scheduler = Schedulers.fromExecutor(llmExecutor, true);
+    }
+
+    @Override
+    public String getName() {
+        return "llm";
+    }
+
+    @Override
+    public Flux<String> apply(Flux<String> input, StreamContext context) {
+        Flux<String> tokens = input.concatMap(text -> {
+            // 观看宣传片的请求直接下发指令，不进入合成和渲染
+            Speculation speculation = context.getSpeculation();
+            String promo = promoIntentDetector.detect(text);
+            if (promo != null) {
+                if (speculation != null) {
+                    speculation.close();
+                }
+                context.getSink().sendText(promoIntentDetector.toMessage(promo));
+                return Flux.empty();
+            }
+            // 最终结果与推测一致时接管已在生成的回复
+            Flux<String> speculative = speculation != null ? speculation.claim(text) : null;
+            if (speculative != null) {
+                return speculative;
+            }
+            return modelService.streamProcess(text, context.getTurn().getDeadline()).subscribeOn(scheduler);
+        }, 1);
+        return context.withinDeadline(tokens, "LLM");
+    }
+}
@@ -0,0 +1,99 @@
+package com.gyq.service.StreamService;
+
+import reactor.core.publisher.Flux;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 算子计量：订阅次数、输出元素数、首个元素延迟、元素间隔和吞吐量
+ */
+public class OperatorMetrics {
+    private final String name;
+    private final AtomicLong subscriptions = new AtomicLong();
+    private final AtomicLong elements = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong cancels = new AtomicLong();
+    private final AtomicLong firstElementNanos = new AtomicLong();
+    private final AtomicLong firstElementCount = new AtomicLong();
+    private final AtomicLong intervalNanos = new AtomicLong();
+    private final AtomicLong activeNanos = new AtomicLong();
+
+    public OperatorMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 包装算子的输出流，每次订阅单独计时
+     */
+    public <T> Flux<T> meter(Flux<T> flux) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            long[] last = {start, 0};  // 上一个元素的时间、本次订阅已输出的元素数
+            subscriptions.incrementAndGet();
+            return flux
+                    .doOnNext(v -> {
+                        long now = System.nanoTime();
+                        if (last[1]++ == 0) {
+                            firstElementNanos.addAndGet(now - start);
+                            firstElementCount.incrementAndGet();
+                        } else {
+                            intervalNanos.addAndGet(now - last[0]);
+                        }
+                        last[0] = now;
+                        elements.incrementAndGet();
+                    })
+                    .doOnError(e -> errors.incrementAndGet())
+                    .doOnCancel(cancels::incrementAndGet)
+                    .doFinally(s -> activeNanos.addAndGet(System.nanoTime() - start));
+        });
+    }
+
+    public String getName() { return name; }
+
+    public MetricsStatus getStatus() {
+        long count = elements.get();
+        long firsts = firstElementCount.get();
+        long intervals = count - firsts;
+        double activeSeconds = activeNanos.get() / 1e9;
+        return new MetricsStatus(name, subscriptions.get(), count, errors.get(), cancels.get(),
+                firsts > 0 ? firstElementNanos.get() / 1e6 / firsts : 0,
+                intervals > 0 ? intervalNanos.get() / 1e6 / intervals : 0,
+                activeSeconds > 0 ? count / activeSeconds : 0);
+    }
+
+    // 算子统计
+    public static class MetricsStatus {
+        private final String name;
+        private final long subscriptions;
+        private final long elements;
+        private final long errors;
+        private final long cancels;
+        private final double avgFirstElementMs;
+        private final double avgIntervalMs;
+        private final double throughput;
+
+        public MetricsStatus(String name, long subscriptions, long elements, long errors, long cancels,
+                             double avgFirstElementMs, double avgIntervalMs, double throughput) {
+            this.name = name;
+            this.subscriptions = subscriptions;
+            this.elements = elements;
+            this.errors = errors;
+            this.cancels = cancels;
+            this.avgFirstElementMs = avgFirstElementMs;
+            this.avgIntervalMs = avgIntervalMs;
+            this.throughput = throughput;
+        }
+
+        public String getName() { return name; }
+        public long getElements() { return elements; }
+        public double getAvgFirstElementMs() { return avgFirstElementMs; }
+        public double getAvgIntervalMs() { return avgIntervalMs; }
+        public double getThroughput() { return throughput; }
+
+        @Override
+        public String toString() {
+            return String.format("%s{subscriptions=%d, elements=%d, first=%.0fms, interval=%.1fms, throughput=%.1f/s, errors=%d, cancels=%d}",
+                    name, subscriptions, elements, avgFirstElementMs, avgIntervalMs, throughput, errors, cancels);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.gyq.service.StreamService;
+
+import com.gyq.FileDto;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Collections;
+
+/**
+ * 逐段渲染：一段画面生成完才向上游请求下一段音频
+ * 画面经会话帧缓冲器下发，缓冲器满时阻塞MuseTalk接收线程，前端慢时推理随之放慢
+ */
+@Component
+public class RenderStreamStage implements StreamStage<FileDto, FileDto> {
+
+    private final Scheduler scheduler;
+
+    public RenderStreamStage(@Qualifier("renderExecutor") ThreadPoolTaskExecutor renderExecutor) {
+        this.scheduler = Schedulers.fromExecutor(renderExecutor, true);
+    }
+
+    @Override
+    public String getName() {
+        return "render";
+    }
+
+    @Override
+    public Flux<FileDto> apply(Flux<FileDto> input, StreamContext context) {
+        return input.concatMap(audio -> Mono.fromCallable(() -> {
+            context.getTurn().throwIfCancelled();
+            context.getSink().render(Collections.singletonList(audio), context.getTurn());
+            return audio;
+        }).subscribeOn(scheduler), 1);
+    }
+}
@@ -0,0 +1,136 @@
+package com.gyq.service.StreamService;
+
+import com.gyq.service.TurnService.TurnPipeline;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 分句：把token流切成适合单独合成语音的句子，每切出一句就下发给前端显示
+ * 大模型返回控制指令JSON（如播放宣传片）时不分句，结束后原样下发
+ */
+@Component
+public class SentenceStage implements StreamStage<String, String> {
+
+    private static final String HARD_BREAKS = "。！？!?；;\n";
+    private static final String SOFT_BREAKS = "，,、：:";
+
+    @Value("${pipeline.streaming.min-sentence-chars:6}")
+    private int minChars;
+    @Value("${pipeline.streaming.max-sentence-chars:40}")
+    private int maxChars;
+
+    @Override
+    public String getName() {
+        return "sentence";
+    }
+
+    @Override
+    public Flux<String> apply(Flux<String> input, StreamContext context) {
+        return Flux.defer(() -> {
+            Segmenter segmenter = new Segmenter(context);
+            return input.concatMapIterable(segmenter::push, 8)
+                    .concatWith(Flux.defer(() -> Flux.fromIterable(segmenter.finish())));
+        });
+    }
+
+    /**
+     * 按与逐句合成相同的规则取出已生成文本的第一句，还不够一句时返回null；供推测执行提前合成第一句
+     */
+    public String firstSentence(CharSequence text) {
+        if (text.toString().trim().startsWith("{")) {
+            return null;
+        }
+        StringBuilder pending = new StringBuilder(text);
+        int end;
+        while ((end = cutIndex(pending)) >= 0) {
+            String sentence = pending.substring(0, end).trim();
+            if (!sentence.isEmpty()) {
+                return sentence;
+            }
+            pending.delete(0, end);
+        }
+        return null;
+    }
+
+    /**
+     * 在句末标点处切分；过长时退而在逗号处或直接按长度切分，返回切分位置，不够一句时返回-1
+     */
+    private int cutIndex(CharSequence pending) {
+        for (int i = 0; i < pending.length(); i++) {
+            if (HARD_BREAKS.indexOf(pending.charAt(i)) >= 0 && i + 1 >= minChars) {
+                return i + 1;
+            }
+        }
+        if (pending.length() >= maxChars) {
+            for (int i = maxChars - 1; i >= minChars; i--) {
+                if (SOFT_BREAKS.indexOf(pending.charAt(i)) >= 0) {
+                    return i + 1;
+                }
+            }
+            return maxChars;
+        }
+        return -1;
+    }
+
+    private class Segmenter {
+        private final StreamContext context;
+        private final StringBuilder full = new StringBuilder();
+        private final StringBuilder pending = new StringBuilder();
+        private Boolean json;
+
+        Segmenter(StreamContext context) {
+            this.context = context;
+        }
+
+        List<String> push(String token) {
+            full.append(token);
+            if (json == null) {
+                String head = full.toString().trim();
+                if (head.isEmpty()) {
+                    return Collections.emptyList();
+                }
+                json = head.startsWith("{");
+            }
+            if (json) {
+                return Collections.emptyList();
+            }
+            pending.append(token);
+            List<String> sentences = new ArrayList<>();
+            String sentence;
+            while ((sentence = cut()) != null) {
+                sentences.add(sentence);
+                context.sendResult("text_assistant_partial", sentence);
+            }
+            return sentences;
+        }
+
+        private String cut() {
+            int end = cutIndex(pending);
+            if (end < 0) {
+                return null;
+            }
+            String sentence = pending.substring(0, end).trim();
+            pending.delete(0, end);
+            return sentence.isEmpty() ? cut() : sentence;
+        }
+
+        List<String> finish() {
+            String text = full.toString().trim();
+            if (text.isEmpty()) {
+                return Collections.emptyList();
+            }
+            if (Boolean.TRUE.equals(json) && TurnPipeline.isTypedJson(text)) {
+                context.getSink().sendText(text);
+                return Collections.emptyList();
+            }
+            String rest = Boolean.TRUE.equals(json) ? text : pending.toString().trim();
+            context.sendResult("text_assistant", text);
+            return rest.isEmpty() ? Collections.emptyList() : Collections.singletonList(rest);
+        }
+    }
+}
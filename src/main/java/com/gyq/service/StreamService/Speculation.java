@@ -0,0 +1,168 @@
+package com.gyq.service.StreamService;
+
+import com.gyq.FileDto;
+import reactor.core.Disposable;
+import reactor.core.publisher.ConnectableFlux;
+import reactor.core.publisher.Flux;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * 一轮流式对话的推测执行状态 - 识别中间结果稳定一段时间后，先用它启动大模型（可选再合成第一句），
+ * 最终识别结果与之一致时直接接管已经在生成的回复，不一致时取消，由大模型阶段按最终结果重新请求
+ * 同一时间最多一个推测请求；中间结果变化时取消旧的，重新计时
+ */
+public class Speculation {
+
+    private final SpeculativeStarter starter;
+    private final StreamContext context;
+
+    // 最新中间结果（去掉标点空白后的比较键）及其版本号，计时器只对发起时的版本生效
+    private String partialKey;
+    private String partialText;
+    private long version;
+    private ScheduledFuture<?> timer;
+    private boolean closed;
+    private int attempts;
+    private Attempt attempt;
+
+    /**
+     * 一次推测请求
+     */
+    static class Attempt {
+        final int index;
+        final String key;
+        final long startMillis = System.currentTimeMillis();
+        ConnectableFlux<String> tokens;
+        Disposable connection;
+        Disposable sentenceWatcher;
+        volatile boolean failed;
+        volatile String firstSentence;
+        volatile CompletableFuture<FileDto> firstAudio;
+        boolean committed;
+
+        Attempt(int index, String key) {
+            this.index = index;
+            this.key = key;
+        }
+    }
+
+    Speculation(SpeculativeStarter starter, StreamContext context) {
+        this.starter = starter;
+        this.context = context;
+    }
+
+    /**
+     * 识别中间结果回调：结果变化时重新计时，稳定 stable-ms 后发起推测
+     */
+    public synchronized void onPartial(String text) {
+        if (closed) {
+            return;
+        }
+        String key = normalize(text);
+        if (key.equals(partialKey)) {
+            return;
+        }
+        partialKey = key;
+        partialText = text;
+        long current = ++version;
+        cancelTimer();
+        if (attempt != null && !attempt.key.equals(key)) {
+            // 用户还在说，之前的推测作废
+            discard();
+        }
+        if (attempt == null && key.length() >= starter.getMinChars() && attempts < starter.getMaxPerTurn()) {
+            timer = starter.schedule(() -> fire(current));
+        }
+    }
+
+    private synchronized void fire(long expectedVersion) {
+        if (closed || expectedVersion != version || attempt != null) {
+            return;
+        }
+        attempt = new Attempt(attempts++, partialKey);
+        starter.launch(attempt, partialText, context);
+    }
+
+    /**
+     * 最终识别结果到达：与推测的文本一致时返回已在生成的token流（从头重放），否则取消推测并返回null
+     */
+    public synchronized Flux<String> claim(String finalText) {
+        closed = true;
+        cancelTimer();
+        if (attempt == null) {
+            starter.recordClaim(false, 0);
+            return null;
+        }
+        if (attempt.failed || !attempt.key.equals(normalize(finalText))) {
+            discard();
+            starter.recordClaim(false, 0);
+            return null;
+        }
+        attempt.committed = true;
+        starter.recordClaim(true, System.currentTimeMillis() - attempt.startMillis);
+        return attempt.tokens;
+    }
+
+    /**
+     * 已提交的推测提前合成好的第一句；句子与实际第一句不同或未合成时返回null
+     */
+    public synchronized CompletableFuture<FileDto> takeFirstAudio(String sentence) {
+        if (attempt == null || !attempt.committed || attempt.firstAudio == null
+                || !sentence.equals(attempt.firstSentence)) {
+            return null;
+        }
+        CompletableFuture<FileDto> audio = attempt.firstAudio;
+        attempt.firstAudio = null;
+        starter.recordTtsHit();
+        return audio;
+    }
+
+    /**
+     * 本轮结束或取消：未被接管的推测全部作废
+     */
+    public synchronized void close() {
+        closed = true;
+        cancelTimer();
+        if (attempt != null && !attempt.committed) {
+            discard();
+        } else if (attempt != null) {
+            // 已接管的请求随本轮一起结束（取消时中止HTTP请求）
+            dispose(attempt);
+        }
+    }
+
+    private void discard() {
+        dispose(attempt);
+        starter.recordWaste();
+        attempt = null;
+    }
+
+    private static void dispose(Attempt attempt) {
+        if (attempt.sentenceWatcher != null) {
+            attempt.sentenceWatcher.dispose();
+        }
+        if (attempt.connection != null) {
+            attempt.connection.dispose();
+        }
+        CompletableFuture<FileDto> audio = attempt.firstAudio;
+        if (audio != null) {
+            audio.cancel(false);
+        }
+    }
+
+    private void cancelTimer() {
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+    }
+
+    /**
+     * 比较用：忽略标点和空白，中间结果和最终结果的标点经常不同
+     */
+    static String normalize(String text) {
+        return text == null ? "" : text.replaceAll("[\\p{P}\\s]", "");
+    }
+}
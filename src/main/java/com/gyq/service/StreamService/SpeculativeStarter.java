@@ -0,0 +1,208 @@
+package com.gyq.service.StreamService;
+
+import com.gyq.FileDto;
+import com.gyq.service.ModelService;
+import com.gyq.service.TtsService;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 推测执行 - 流式识别的中间结果往往在最终结果前几百毫秒就已稳定，
+ * 稳定 stable-ms 后就用它启动大模型（可选同时合成第一句），最终结果一致时省下这段等待
+ * 每轮的推测状态见 Speculation；这里负责配置、计时线程和命中/浪费统计
+ */
+@Component
+public class SpeculativeStarter {
+    private static final Logger logger = LoggerFactory.getLogger(SpeculativeStarter.class);
+
+    @Resource
+    private ModelService modelService;
+    @Resource
+    private TtsService ttsService;
+    @Resource
+    private SentenceStage sentenceStage;
+
+    @Value("${pipeline.speculation.enabled:true}")
+    private boolean enabled;
+    // 中间结果保持不变多久后发起推测
+    @Value("${pipeline.speculation.stable-ms:300}")
+    private long stableMillis;
+    // 中间结果太短（"嗯"、"那个"）不推测
+    @Value("${pipeline.speculation.min-chars:4}")
+    private int minChars;
+    // 每轮最多发起的推测请求数，限制浪费的大模型调用
+    @Value("${pipeline.speculation.max-per-turn:2}")
+    private int maxPerTurn;
+    // 是否同时提前合成第一句
+    @Value("${pipeline.speculation.tts-enabled:false}")
+    private boolean ttsEnabled;
+    @Value("${pipeline.streaming.emotion:happy}")
+    private String emotion;
+
+    private final Scheduler llmScheduler;
+    private final ThreadPoolTaskExecutor ttsExecutor;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "SpeculationTimer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong committed = new AtomicLong();
+    private final AtomicLong wasted = new AtomicLong();
+    private final AtomicLong turns = new AtomicLong();
+    private final AtomicLong savedMillis = new AtomicLong();
+    private final AtomicLong ttsPrefetched = new AtomicLong();
+    private final AtomicLong ttsHits = new AtomicLong();
+
+    public SpeculativeStarter(@Qualifier("llmExecutor") ThreadPoolTaskExecutor llmExecutor,
+                              @Qualifier("ttsExecutor") ThreadPoolTaskExecutor ttsExecutor) {
+        this.llmScheduler = Schedulers.fromExecutor(llmExecutor, true);
+        this.ttsExecutor = ttsExecutor;
+    }
+
+    /**
+     * 为一轮流式对话创建推测状态，未开启时返回null；本轮取消时一并作废
+     */
+    public Speculation open(StreamContext context) {
+        if (!enabled) {
+            return null;
+        }
+        Speculation speculation = new Speculation(this, context);
+        context.getTurn().onCancel(speculation::close);
+        return speculation;
+    }
+
+    ScheduledFuture<?> schedule(Runnable task) {
+        return timer.schedule(task, stableMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 发起推测请求：立即订阅并缓存全部token，接管时从头重放
+     */
+    void launch(Speculation.Attempt attempt, String text, StreamContext context) {
+        started.incrementAndGet();
+        logger.info("推测执行: turn={}, 第{}次, 文本={}", context.getTurn().getTurnId(), attempt.index + 1, text);
+        attempt.tokens = modelService.streamProcess(text, context.getTurn().getDeadline())
+                .subscribeOn(llmScheduler)
+                .doOnError(e -> attempt.failed = true)
+                .replay();
+        if (ttsEnabled) {
+            StringBuilder generated = new StringBuilder();
+            attempt.sentenceWatcher = attempt.tokens
+                    .<String>handle((token, sink) -> {
+                        String sentence = sentenceStage.firstSentence(generated.append(token));
+                        if (sentence != null) {
+                            sink.next(sentence);
+                        }
+                    })
+                    .next()
+                    .subscribe(sentence -> prefetch(attempt, sentence, context), e -> { });
+        }
+        attempt.connection = attempt.tokens.connect();
+    }
+
+    private void prefetch(Speculation.Attempt attempt, String sentence, StreamContext context) {
+        ttsPrefetched.incrementAndGet();
+        // 文件名带推测序号，作废的合成不会覆盖正式合成的文件
+        String prefix = String.format("%s_s%d_%03d", context.getTurn().getTurnId(), attempt.index, 0);
+        try {
+            attempt.firstAudio = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return ttsService.synthesize(sentence, emotion, prefix, context.getTurn().getDeadline());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }, ttsExecutor);
+            attempt.firstSentence = sentence;
+        } catch (RejectedExecutionException e) {
+            // 合成阶段繁忙时不抢占正式请求的位置
+            logger.debug("推测合成被拒绝: turn={}", context.getTurn().getTurnId());
+        }
+    }
+
+    void recordClaim(boolean hit, long millis) {
+        turns.incrementAndGet();
+        if (hit) {
+            committed.incrementAndGet();
+            savedMillis.addAndGet(millis);
+        }
+    }
+
+    void recordWaste() {
+        wasted.incrementAndGet();
+    }
+
+    void recordTtsHit() {
+        ttsHits.incrementAndGet();
+    }
+
+    int getMinChars() {
+        return minChars;
+    }
+
+    int getMaxPerTurn() {
+        return maxPerTurn;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    public SpeculationStatus getStatus() {
+        return new SpeculationStatus(enabled, started.get(), committed.get(), wasted.get(), turns.get(),
+                savedMillis.get(), ttsPrefetched.get(), ttsHits.get());
+    }
+
+    // 推测执行统计
+    public static class SpeculationStatus {
+        private final boolean enabled;
+        private final long started;
+        private final long committed;
+        private final long wasted;
+        private final long turns;
+        private final long savedMillis;
+        private final long ttsPrefetched;
+        private final long ttsHits;
+
+        public SpeculationStatus(boolean enabled, long started, long committed, long wasted, long turns,
+                                 long savedMillis, long ttsPrefetched, long ttsHits) {
+            this.enabled = enabled;
+            this.started = started;
+            this.committed = committed;
+            this.wasted = wasted;
+            this.turns = turns;
+            this.savedMillis = savedMillis;
+            this.ttsPrefetched = ttsPrefetched;
+            this.ttsHits = ttsHits;
+        }
+
+        public double getHitRatio() { return started > 0 ? (double) committed / started : 0; }
+        public double getWasteRatio() { return started > 0 ? (double) wasted / started : 0; }
+        public double getSavedMillisPerTurn() { return turns > 0 ? (double) savedMillis / turns : 0; }
+
+        @Override
+        public String toString() {
+            return String.format("SpeculationStatus{enabled=%s, started=%d, hit=%.0f%%, waste=%.0f%%, turns=%d, saved=%.0fms/轮(命中时%.0fms), tts=%d/%d}",
+                    enabled, started, getHitRatio() * 100, getWasteRatio() * 100, turns, getSavedMillisPerTurn(),
+                    committed > 0 ? (double) savedMillis / committed : 0, ttsHits, ttsPrefetched);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.gyq.service.StreamService;
+
+import com.alibaba.fastjson.JSONObject;
+import com.gyq.service.TurnService.DeadlineExceededException;
+import com.gyq.service.TurnService.TurnDeadline;
+import com.gyq.service.TurnService.TurnHandle;
+import com.gyq.service.TurnService.TurnSink;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 一轮流式对话的上下文，各算子通过它下发中间结果（识别中间结果、逐句回复等）
+ */
+public class StreamContext {
+    private final TurnHandle turn;
+    private final TurnSink sink;
+    // 推测执行状态，未开启时为null
+    private volatile Speculation speculation;
+    // 输入PCM的采样率：原始上行为48kHz，上行Opus解码后为16kHz
+    private volatile int inputSampleRate = 48000;
+
+    public StreamContext(TurnHandle turn, TurnSink sink) {
+        this.turn = turn;
+        this.sink = sink;
+    }
+
+    public TurnHandle getTurn() { return turn; }
+    public TurnSink getSink() { return sink; }
+    public Speculation getSpeculation() { return speculation; }
+    public void setSpeculation(Speculation speculation) { this.speculation = speculation; }
+    public int getInputSampleRate() { return inputSampleRate; }
+    public void setInputSampleRate(int inputSampleRate) { this.inputSampleRate = inputSampleRate; }
+
+    /**
+     * 算子的第一个输出必须在本轮截止时间前到达，之后不再限时（后续句子由渲染节奏决定）
+     */
+    public <T> Flux<T> withinDeadline(Flux<T> flux, String stage) {
+        TurnDeadline deadline = turn.getDeadline();
+        return flux.timeout(Mono.defer(() -> Mono.delay(Duration.ofMillis(deadline.remainingMillis()))),
+                        item -> Mono.never())
+                .onErrorMap(TimeoutException.class, e -> new DeadlineExceededException(stage, deadline.elapsedMillis()));
+    }
+
+    public void sendResult(String type, String content) {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("type", type);
+        jsonObject.put("content", content);
+        sink.sendText(jsonObject.toJSONString());
+    }
+}
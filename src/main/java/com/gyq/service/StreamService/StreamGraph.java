@@ -0,0 +1,66 @@
+package com.gyq.service.StreamService;
+
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.function.Function;
+
+/**
+ * 流式对话图 - 按顺序串联算子，每个算子的输出都经过计量包装
+ * 新增算子只需在图里多接一个 via，端点无需修改
+ */
+public final class StreamGraph<T> {
+    private final Flux<T> flux;
+    private final StreamContext context;
+    private final Function<String, OperatorMetrics> metrics;
+
+    private StreamGraph(Flux<T> flux, StreamContext context, Function<String, OperatorMetrics> metrics) {
+        this.flux = flux;
+        this.context = context;
+        this.metrics = metrics;
+    }
+
+    public static <T> StreamGraph<T> from(String name, Flux<T> source, StreamContext context,
+                                          Function<String, OperatorMetrics> metrics) {
+        return new StreamGraph<>(metrics.apply(name).meter(source), context, metrics);
+    }
+
+    public <O> StreamGraph<O> via(StreamStage<T, O> stage) {
+        Flux<O> output = stage.apply(flux, context);
+        return new StreamGraph<>(metrics.apply(stage.getName()).meter(output), context, metrics);
+    }
+
+    public Flux<T> toFlux() {
+        return flux;
+    }
+
+    /**
+     * 按需分块读取PCM文件：下游请求一块才读一块
+     */
+    public static Flux<ByteBuffer> pcmFile(Path path, int chunkBytes) {
+        return Flux.using(
+                () -> FileChannel.open(path),
+                channel -> Flux.<ByteBuffer>generate(sink -> {
+                    try {
+                        ByteBuffer chunk = ByteBuffer.allocate(chunkBytes);
+                        if (channel.read(chunk) < 0) {
+                            sink.complete();
+                        } else {
+                            sink.next(chunk.flip());
+                        }
+                    } catch (IOException e) {
+                        sink.error(new UncheckedIOException(e));
+                    }
+                }),
+                channel -> {
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                    }
+                });
+    }
+}
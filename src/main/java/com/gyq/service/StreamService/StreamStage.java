@@ -0,0 +1,20 @@
+package com.gyq.service.StreamService;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * 流式对话图中的一个算子：把上游元素流变换为下游元素流
+ * 实现类只负责变换本身，计量和取消由 StreamGraph 统一包装
+ *
+ * @param <I> 上游元素类型
+ * @param <O> 下游元素类型
+ */
+public interface StreamStage<I, O> {
+
+    /**
+     * 算子名称，用作计量统计的键
+     */
+    String getName();
+
+    Flux<O> apply(Flux<I> input, StreamContext context);
+}
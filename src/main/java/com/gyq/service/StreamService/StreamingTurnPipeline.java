@@ -0,0 +1,84 @@
+package com.gyq.service.StreamService;
+
+import com.gyq.FileDto;
+import com.gyq.service.AudioService;
+import com.gyq.service.TurnService.TurnHandle;
+import com.gyq.service.TurnService.TurnSink;
+import jakarta.annotation.Resource;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 流式对话图：PCM → 识别 → token → 句子 → 语音 → 画面
+ * 每个环节都按下游需求拉取，第一句话合成完即可开始渲染，不必等整段回复
+ */
+@Service
+public class StreamingTurnPipeline {
+
+    // 48kHz 16bit 单声道，每块40ms
+    private static final int PCM_CHUNK_BYTES = 3840;
+
+    @Resource
+    private AsrStreamStage asrStage;
+    @Resource
+    private LlmStreamStage llmStage;
+    @Resource
+    private SentenceStage sentenceStage;
+    @Resource
+    private TtsStreamStage ttsStage;
+    @Resource
+    private RenderStreamStage renderStage;
+    @Resource
+    private SpeculativeStarter speculativeStarter;
+
+    private final Map<String, OperatorMetrics> metrics = new ConcurrentHashMap<>();
+
+    /**
+     * 启动一轮流式对话，立即返回；本轮取消时整张图停止订阅，HTTP/识别连接随之关闭
+     */
+    public CompletableFuture<Void> run(TurnHandle turn, String audioPath, TurnSink sink) {
+        StreamContext context = new StreamContext(turn, sink);
+        if (AudioService.is16k(audioPath)) {
+            context.setInputSampleRate(16000);
+        }
+        Speculation speculation = speculativeStarter.open(context);
+        context.setSpeculation(speculation);
+        Flux<FileDto> graph = StreamGraph.from("pcm", StreamGraph.pcmFile(Path.of(audioPath), PCM_CHUNK_BYTES), context, this::metrics)
+                .via(asrStage)
+                .via(llmStage)
+                .via(sentenceStage)
+                .via(ttsStage)
+                .via(renderStage)
+                .toFlux();
+
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        if (speculation != null) {
+            // 最终结果为空等情况下没有被接管的推测请求在本轮结束时作废
+            done.whenComplete((v, e) -> speculation.close());
+        }
+        Disposable subscription = graph.then().subscribe(null, done::completeExceptionally, () -> done.complete(null));
+        turn.onCancel(() -> {
+            subscription.dispose();
+            done.cancel(false);
+        });
+        return done;
+    }
+
+    private OperatorMetrics metrics(String name) {
+        return metrics.computeIfAbsent(name, OperatorMetrics::new);
+    }
+
+    public List<OperatorMetrics.MetricsStatus> getOperatorStatuses() {
+        List<OperatorMetrics.MetricsStatus> statuses = new ArrayList<>();
+        metrics.values().forEach(m -> statuses.add(m.getStatus()));
+        return statuses;
+    }
+}
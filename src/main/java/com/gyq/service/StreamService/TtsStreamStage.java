@@ -0,0 +1,57 @@
+package com.gyq.service.StreamService;
+
+import com.gyq.FileDto;
+import com.gyq.service.TtsService;
+import jakarta.annotation.Resource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 逐句语音合成：最多提前合成 lookahead 句，渲染跟不上时不再向上游要句子
+ */
+@Component
+public class TtsStreamStage implements StreamStage<String, FileDto> {
+
+    @Resource
+    private TtsService ttsService;
+    @Value("${pipeline.streaming.emotion:happy}")
+    private String emotion;
+    @Value("${pipeline.streaming.tts-lookahead:2}")
+    private int lookahead;
+
+    private final Scheduler scheduler;
+
+    public TtsStreamStage(@Qualifier("ttsExecutor") ThreadPoolTaskExecutor ttsExecutor) {
+        this.scheduler = Schedulers.fromExecutor(ttsExecutor, true);
+    }
+
+    @Override
+    public String getName() {
+        return "tts";
+    }
+
+    @Override
+    public Flux<FileDto> apply(Flux<String> input, StreamContext context) {
+        String turnId = context.getTurn().getTurnId();
+        Flux<FileDto> audio = input.index().flatMapSequential(indexed -> {
+            Mono<FileDto> synthesize = Mono.fromCallable(() ->
+                            ttsService.synthesize(indexed.getT2(), emotion, String.format("%s_%03d", turnId, indexed.getT1()),
+                                    context.getTurn().getDeadline()))
+                    .subscribeOn(scheduler);
+            // 推测执行已提前合成的第一句直接使用，失败时照常合成
+            Speculation speculation = context.getSpeculation();
+            CompletableFuture<FileDto> prefetched = indexed.getT1() == 0 && speculation != null
+                    ? speculation.takeFirstAudio(indexed.getT2()) : null;
+            return prefetched != null ? Mono.fromFuture(prefetched).onErrorResume(e -> synthesize) : synthesize;
+        }, lookahead, 1);
+        return context.withinDeadline(audio, "TTS");
+    }
+}
@@ -0,0 +1,59 @@
+package com.gyq.service.TtsProviderService;
+
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * audio-suite 转发的阿里云语音合成，单一音色、不支持情绪，作为豆包的备用
+ */
+@Component
+public class AliTtsProvider implements TtsProvider {
+
+    private static final String URL = "https://audio-suite.host.paeleap.com/task/tts/direct";
+    private static final String VOICE = "zhixiaoxia";
+
+    @Override
+    public String getName() {
+        return "ali";
+    }
+
+    @Override
+    public byte[] synthesize(String text, String emotion, Duration timeout) throws Exception {
+        // 构造请求体
+        Map<String, Object> args = new HashMap<>();
+        args.put("vcn", VOICE);
+        args.put("speed", 50);
+
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("text", text);
+        payload.put("provider", "AliTts");
+        payload.put("args", args);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout((int) Math.min(timeout.toMillis(), 10_000));
+        requestFactory.setReadTimeout((int) timeout.toMillis());
+        RestTemplate restTemplate = new RestTemplate(requestFactory);
+
+        ResponseEntity<byte[]> response = restTemplate.exchange(URL, HttpMethod.POST,
+                new HttpEntity<>(payload, headers), byte[].class);
+        if (response.getStatusCode() != HttpStatus.OK || response.getBody() == null) {
+            throw new IOException("TTS请求失败，状态码：" + response.getStatusCode());
+        }
+        return response.getBody();
+    }
+}
@@ -0,0 +1,34 @@
+package com.gyq.service.TtsProviderService;
+
+import com.gyq.service.MultiEmotionService.DouBaoTts;
+import jakarta.annotation.Resource;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 豆包多情感语音合成
+ */
+@Component
+public class DouBaoTtsProvider implements TtsProvider {
+
+    private static final int EMOTION_SCALE = 5;
+
+    @Resource
+    private DouBaoTts douBaoTts;
+
+    @Override
+    public String getName() {
+        return "doubao";
+    }
+
+    @Override
+    public byte[] synthesize(String text, String emotion, Duration timeout) throws Exception {
+        return douBaoTts.douBaoAudioCallHttp(text, emotion, EMOTION_SCALE, timeout);
+    }
+
+    @Override
+    public void prewarm(Duration timeout) throws Exception {
+        douBaoTts.prewarm(timeout);
+    }
+}
@@ -0,0 +1,53 @@
+package com.gyq.service.TtsProviderService;
+
+import com.gyq.service.ResilienceService.HedgedCall;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * 多服务商语音合成 - 按 tts.providers 的顺序选择主用和备用服务商，主用超过其p95耗时未返回时对冲到备用，
+ * 选路、对冲和熔断见 {@link HedgedCall}
+ */
+@Service
+public class HedgedTtsClient {
+
+    private static final double HEDGE_PERCENTILE = 0.95;
+
+    private final HedgedCall<TtsProvider> hedgedCall;
+
+    public HedgedTtsClient(List<TtsProvider> available,
+                           @Qualifier("ttsProviderExecutor") Executor executor,
+                           @Value("${tts.providers:doubao,ali}") String order,
+                           @Value("${tts.hedge.default-delay-ms:1500}") long defaultHedgeDelayMs,
+                           @Value("${tts.breaker.failure-threshold:5}") int failureThreshold,
+                           @Value("${tts.breaker.open-ms:30000}") long openMillis) {
+        this.hedgedCall = new HedgedCall<>("TTS服务商", available, TtsProvider::getName, order, executor,
+                HEDGE_PERCENTILE, defaultHedgeDelayMs, failureThreshold, openMillis);
+    }
+
+    /**
+     * 预热主用服务商的连接（熔断器不放行的跳过），预热失败不计入熔断统计
+     */
+    public void prewarm(Duration timeout) throws Exception {
+        TtsProvider provider = hedgedCall.firstAvailable();
+        if (provider != null) {
+            provider.prewarm(timeout);
+        }
+    }
+
+    /**
+     * 合成一句话，返回先成功的服务商的音频；所有服务商都失败或超时时抛出最后一个异常
+     */
+    public byte[] synthesize(String text, String emotion, Duration timeout) throws Exception {
+        return hedgedCall.call((provider, attemptTimeout) -> provider.synthesize(text, emotion, attemptTimeout), timeout);
+    }
+
+    public List<HedgedCall.BackendStatus> getStatuses() {
+        return hedgedCall.getStatuses();
+    }
+}
@@ -0,0 +1,28 @@
+package com.gyq.service.TtsProviderService;
+
+import java.time.Duration;
+
+/**
+ * 语音合成服务商 - 同一段文本可以由任意一家合成，返回WAV音频
+ */
+public interface TtsProvider {
+
+    /**
+     * 服务商名称，与配置项 tts.providers 中的名称对应
+     */
+    String getName();
+
+    /**
+     * 合成一句话；超时、HTTP错误等都以异常返回，由调用方计入熔断统计
+     *
+     * @param emotion 情绪标识，不支持多情感的服务商忽略
+     * @param timeout 本次请求的超时
+     */
+    byte[] synthesize(String text, String emotion, Duration timeout) throws Exception;
+
+    /**
+     * 预先建立到服务商的连接，用户还在说话时调用；不复用连接的服务商忽略
+     */
+    default void prewarm(Duration timeout) throws Exception {
+    }
+}
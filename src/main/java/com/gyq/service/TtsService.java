@@ -1,7 +1,11 @@
 package com.gyq.service;
 
 import com.gyq.FileDto;
-import com.gyq.service.MultiEmotionService.DouBaoTts;
+import com.gyq.service.EmotionService.EmotionSegmentService;
+import com.gyq.service.TtsProviderService.HedgedTtsClient;
+import com.gyq.service.TurnService.DeadlineExceededException;
+import com.gyq.service.TurnService.TurnDeadline;
+import com.gyq.service.TurnService.TurnHandle;
 import com.gyq.service.dto.EmotionTextDto;
 import jakarta.annotation.Resource;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -18,8 +22,10 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -41,16 +47,20 @@ import java.util.stream.Collectors;
 @Service
 public class TtsService {
 
+    // 按句切分并标注情绪，默认本地规则切分
     @Resource
-    private ModelService modelService;
+    private EmotionSegmentService emotionSegmentService;
+    // 多服务商对冲合成，主用豆包
     @Resource
-    private DouBaoTts douBaoTts;
+    private HedgedTtsClient hedgedTtsClient;
 
     @Autowired
     @Qualifier("taskExecutor")
     private Executor taskExecutor;
 
     private static final String outputDir = "/home/main/wyw/java/audio/";
+    // 单句合成的上限，与本轮剩余预算取小
+    private static final Duration TTS_TIMEOUT = Duration.ofSeconds(20);
 
     public FileDto textToSpeechBase64(String text) {
         String url = "https://audio-suite.host.paeleap.com/task/tts/direct";
@@ -116,8 +126,22 @@ public class TtsService {
      * @throws Exception
      */
     public List<FileDto> text2DouBaoAudio(String text) throws Exception {
-        // 1. 调用gpt-4-mini拿到json列表
-        List<EmotionTextDto> resList = modelService.douBaoTtsJsonCall(text);
+        return text2DouBaoAudio(text, null);
+    }
+
+    /**
+     * 可取消版本：每段TTS的future登记到本轮句柄，打断时尚未开始的合成不再执行
+     */
+    public List<FileDto> text2DouBaoAudio(String text, TurnHandle turn) throws Exception {
+        TurnDeadline deadline = turn != null ? turn.getDeadline() : TurnDeadline.unbounded();
+        // 1. 切分文本并标注情绪，不会返回null
+        List<EmotionTextDto> resList;
+        try {
+            resList = emotionSegmentService.segment(text, turn);
+        } catch (DeadlineExceededException e) {
+            // 情绪切分属于语音合成阶段，回复文本已下发
+            throw new DeadlineExceededException("TTS", deadline.elapsedMillis());
+        }
         // 2. 结果集合，按索引顺序存
 //        Path[] paths = new Path[resList.size()];
         FileDto[] res = new FileDto[resList.size()];
@@ -129,37 +153,66 @@ public class TtsService {
             final int idx = i;
             final EmotionTextDto dto = resList.get(i);
             // 4. 并发调用豆包tts,接受到返回的音频数据
-             futures[idx] = CompletableFuture.supplyAsync(() -> {
+            CompletableFuture<byte[]> call = CompletableFuture.supplyAsync(() -> {
                         try {
-                            return douBaoTts.douBaoAudioCallHttp(dto.getText(), dto.getEmotion(), 5);
+                            return hedgedTtsClient.synthesize(dto.getText(), dto.getEmotion(),
+                                    deadline.timeout(TTS_TIMEOUT));
                         } catch (Exception e) {
                             throw new RuntimeException(e);
                         }
-                    }, taskExecutor)
-                    .orTimeout(20, TimeUnit.SECONDS)
+                    }, taskExecutor);
+            // 取消后还在线程池排队的合成任务不会再执行
+            if (turn != null) {
+                turn.track(call);
+            }
+             futures[idx] = call
+                    .orTimeout(deadline.timeoutMillis(TTS_TIMEOUT.toMillis()), TimeUnit.MILLISECONDS)
                      // 拿到结果后消费，写入本地文件
                     .thenAccept(audioBytes -> {
                         String fileName = String.format("%03d_%s.wav", idx, dto.getEmotion());
-                        Path output = Path.of(outputDir, fileName);
-                        try {
-                            Files.write(output, audioBytes);
-                        } catch (IOException e) {
-                            throw new RuntimeException("文件保存失败" ,e);
-                        }
-                        // FileDto
-                        FileDto fileDto = new FileDto();
-                        fileDto.setPath(output.toString());
-                        fileDto.setBase64(Base64.getEncoder().encodeToString(audioBytes));
-                        fileDto.setEmotion(dto.getEmotion());
-                        res[idx] = fileDto;
+                        res[idx] = saveAudio(fileName, dto.getEmotion(), audioBytes);
                     });
         }
         // 取到completableFuture数组中的所有任务,等待所有任务完成,收集结果
-        CompletableFuture.allOf(futures).join();
+        try {
+            CompletableFuture.allOf(futures).join();
+        } catch (CompletionException e) {
+            // 超出本轮预算时交给流水线降级为纯文字回复
+            deadline.check("TTS");
+            throw e;
+        }
         System.out.println("所有任务完成,音频数量" + futures.length);
         return Arrays.asList(res);
     }
 
+    /**
+     * 合成单句语音，流式对话逐句调用；文件名带上前缀，避免并发会话互相覆盖
+     */
+    public FileDto synthesize(String text, String emotion, String filePrefix) throws Exception {
+        return synthesize(text, emotion, filePrefix, TurnDeadline.unbounded());
+    }
+
+    public FileDto synthesize(String text, String emotion, String filePrefix, TurnDeadline deadline) throws Exception {
+        Files.createDirectories(Path.of(outputDir));
+        byte[] audioBytes = hedgedTtsClient.synthesize(text, emotion, deadline.timeout(TTS_TIMEOUT));
+        return saveAudio(filePrefix + "_" + emotion + ".wav", emotion, audioBytes);
+    }
+
+    private FileDto saveAudio(String fileName, String emotion, byte[] audioBytes) {
+        Path output = Path.of(outputDir, fileName);
+        try {
+            Files.write(output, audioBytes);
+        } catch (IOException e) {
+            throw new RuntimeException("文件保存失败" ,e);
+        }
+        // FileDto
+        FileDto fileDto = new FileDto();
+        fileDto.setPath(output.toString());
+        fileDto.setBase64(Base64.getEncoder().encodeToString(audioBytes));
+        fileDto.setEmotion(emotion);
+        return fileDto;
+    }
+
 
 }
 
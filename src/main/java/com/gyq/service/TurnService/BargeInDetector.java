@@ -0,0 +1,64 @@
+package com.gyq.service.TurnService;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 插话检测 - 对上行16bit PCM按20ms窗口计算能量（RMS），
+ * 连续超过阈值达到指定时长即认为用户开始说话；窗口按会话的上行采样率换算（PCM上行48kHz，Opus解码后16kHz）
+ */
+public class BargeInDetector {
+
+    private static final int WINDOW_MS = 20;
+
+    private final int sampleRate;
+    private final int windowSamples;
+    private final double rmsThreshold;
+    private final int requiredWindows;
+
+    // 当前窗口累计
+    private double sumSquares;
+    private int samples;
+    private int loudWindows;
+
+    public BargeInDetector(int sampleRate, double rmsThreshold, int minSpeechMs) {
+        this.sampleRate = sampleRate;
+        this.windowSamples = sampleRate * WINDOW_MS / 1000;
+        this.rmsThreshold = rmsThreshold;
+        this.requiredWindows = Math.max(1, minSpeechMs / WINDOW_MS);
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * 输入一段PCM（小端16bit单声道），检测到持续语音时返回true；不改变入参position
+     */
+    public synchronized boolean feed(ByteBuffer pcm) {
+        ByteBuffer view = pcm.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        boolean detected = false;
+        while (view.remaining() >= 2) {
+            double sample = view.getShort();
+            sumSquares += sample * sample;
+            if (++samples < windowSamples) {
+                continue;
+            }
+            double rms = Math.sqrt(sumSquares / samples);
+            loudWindows = rms >= rmsThreshold ? loudWindows + 1 : 0;
+            sumSquares = 0;
+            samples = 0;
+            if (loudWindows >= requiredWindows) {
+                detected = true;
+                loudWindows = 0;
+            }
+        }
+        return detected;
+    }
+
+    public synchronized void reset() {
+        sumSquares = 0;
+        samples = 0;
+        loudWindows = 0;
+    }
+}
@@ -0,0 +1,17 @@
+package com.gyq.service.TurnService;
+
+/**
+ * 本轮对话的端到端预算在某个阶段用完，由流水线转为降级回复
+ */
+public class DeadlineExceededException extends RuntimeException {
+    private final String stage;
+
+    public DeadlineExceededException(String stage, long elapsedMillis) {
+        super(String.format("%s阶段超出本轮时间预算，已用时%dms", stage, elapsedMillis));
+        this.stage = stage;
+    }
+
+    public String getStage() {
+        return stage;
+    }
+}
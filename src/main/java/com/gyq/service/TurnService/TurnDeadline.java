@@ -0,0 +1,75 @@
+package com.gyq.service.TurnService;
+
+import java.time.Duration;
+
+/**
+ * 一轮对话的端到端截止时间 - 用户说完（audio_end）时创建，随轮次句柄传给ASR、LLM、TTS、渲染各阶段，
+ * 各阶段的超时都取"自身上限"与"剩余预算"中较小的一个，坏的一轮最多等到截止时间就降级，不会卡上几分钟
+ * 数字人开始说话后，每播放一段音频截止时间顺延该段时长：下一段只需在上一段播完前开始渲染
+ */
+public class TurnDeadline {
+
+    private final long startTime = System.currentTimeMillis();
+    private final long budgetMillis;
+    private volatile long deadlineAt;
+
+    public TurnDeadline(long budgetMillis) {
+        this.budgetMillis = budgetMillis;
+        this.deadlineAt = budgetMillis > 0 ? startTime + budgetMillis : Long.MAX_VALUE;
+    }
+
+    /**
+     * 不限时，兼容没有创建截止时间的调用方
+     */
+    public static TurnDeadline unbounded() {
+        return new TurnDeadline(0);
+    }
+
+    public long remainingMillis() {
+        return Math.max(0, deadlineAt - System.currentTimeMillis());
+    }
+
+    public boolean isExpired() {
+        return remainingMillis() == 0;
+    }
+
+    /**
+     * 阶段超时 = min(阶段上限, 剩余预算)，至少1ms
+     */
+    public long timeoutMillis(long capMillis) {
+        return Math.max(1, Math.min(capMillis, remainingMillis()));
+    }
+
+    public Duration timeout(Duration cap) {
+        return Duration.ofMillis(timeoutMillis(cap.toMillis()));
+    }
+
+    /**
+     * 阶段开始前检查，预算已用完时抛出 DeadlineExceededException
+     */
+    public void check(String stage) {
+        if (isExpired()) {
+            throw new DeadlineExceededException(stage, elapsedMillis());
+        }
+    }
+
+    /**
+     * 顺延截止时间（已开始播放的音频时长）
+     */
+    public void extend(long millis) {
+        if (deadlineAt != Long.MAX_VALUE && millis > 0) {
+            deadlineAt += millis;
+        }
+    }
+
+    public long elapsedMillis() {
+        return System.currentTimeMillis() - startTime;
+    }
+
+    @Override
+    public String toString() {
+        return deadlineAt == Long.MAX_VALUE ? "TurnDeadline{unbounded}"
+                : String.format("TurnDeadline{budget=%dms, elapsed=%dms, remaining=%dms}",
+                    budgetMillis, elapsedMillis(), remainingMillis());
+    }
+}
@@ -0,0 +1,125 @@
+package com.gyq.service.TurnService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一轮对话的句柄 - ASR、LLM、TTS、MuseTalk推理都挂在同一个句柄上，
+ * 用户打断或关闭页面时一次取消，已登记的请求和任务全部中止
+ */
+public class TurnHandle {
+    private static final Logger logger = LoggerFactory.getLogger(TurnHandle.class);
+
+    private final String turnId;
+    private final String sessionId;
+    private final long startTime = System.currentTimeMillis();
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+    private final CountDownLatch cancelledLatch = new CountDownLatch(1);
+    private final List<Runnable> cancelHooks = new CopyOnWriteArrayList<>();
+    private volatile String cancelReason;
+    private final AtomicInteger segmentCounter = new AtomicInteger();
+    private final TurnDeadline deadline;
+
+    public TurnHandle(String turnId, String sessionId) {
+        this(turnId, sessionId, TurnDeadline.unbounded());
+    }
+
+    public TurnHandle(String turnId, String sessionId, TurnDeadline deadline) {
+        this.turnId = turnId;
+        this.sessionId = sessionId;
+        this.deadline = deadline;
+    }
+
+    /**
+     * 登记取消回调；已取消时立即执行
+     */
+    public void onCancel(Runnable hook) {
+        cancelHooks.add(hook);
+        if (cancelled.get() && cancelHooks.remove(hook)) {
+            runHook(hook);
+        }
+    }
+
+    /**
+     * 登记进行中的异步任务，取消本轮时一并取消
+     */
+    public <T extends Future<?>> T track(T future) {
+        onCancel(() -> future.cancel(true));
+        return future;
+    }
+
+    /**
+     * 取消本轮对话，只有第一次调用生效
+     */
+    public boolean cancel(String reason) {
+        if (!cancelled.compareAndSet(false, true)) {
+            return false;
+        }
+        cancelReason = reason;
+        cancelledLatch.countDown();
+        logger.info("取消对话轮次: session={}, turn={}, reason={}, 已进行{}ms",
+                sessionId, turnId, reason, System.currentTimeMillis() - startTime);
+        for (Runnable hook : cancelHooks) {
+            if (cancelHooks.remove(hook)) {
+                runHook(hook);
+            }
+        }
+        return true;
+    }
+
+    private void runHook(Runnable hook) {
+        try {
+            hook.run();
+        } catch (Exception e) {
+            logger.warn("执行取消回调失败: turn={}", turnId, e);
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * 最多等待指定时长，期间本轮被取消时立即返回true
+     */
+    public boolean awaitCancelled(long timeoutMillis) throws InterruptedException {
+        return cancelledLatch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 阶段之间检查，已取消时抛出 CancellationException 结束本轮
+     */
+    public void throwIfCancelled() {
+        if (cancelled.get()) {
+            throw new CancellationException("对话轮次已取消: " + cancelReason);
+        }
+    }
+
+    /**
+     * 本轮下一个渲染分段的序号，从0开始；流式对话逐段提交时也能认出第一段
+     */
+    public int nextSegmentIndex() {
+        return segmentCounter.getAndIncrement();
+    }
+
+    public String getTurnId() { return turnId; }
+    public String getSessionId() { return sessionId; }
+    public String getCancelReason() { return cancelReason; }
+    public long getStartTime() { return startTime; }
+    public TurnDeadline getDeadline() { return deadline; }
+
+    @Override
+    public String toString() {
+        return String.format("TurnHandle{turn=%s, session=%s, cancelled=%s, elapsed=%dms}",
+            turnId, sessionId, cancelled.get(), System.currentTimeMillis() - startTime);
+    }
+}
@@ -0,0 +1,104 @@
+package com.gyq.service.TurnService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 对话轮次管理 - 每个会话同时只有一轮进行中的对话
+ * 新一轮开始、用户插话、会话关闭时取消上一轮
+ */
+@Service
+public class TurnManager {
+    private static final Logger logger = LoggerFactory.getLogger(TurnManager.class);
+
+    @Value("${bargein.enabled:true}")
+    private boolean bargeInEnabled;
+    // 16bit PCM的RMS阈值，正常说话一般在1000以上，需结合麦克风增益调整
+    @Value("${bargein.rms-threshold:1200}")
+    private double rmsThreshold;
+    @Value("${bargein.min-speech-ms:200}")
+    private int minSpeechMs;
+    // 一轮对话从用户说完到数字人开口的总预算，0表示不限
+    @Value("${turn.deadline-ms:30000}")
+    private long deadlineMillis;
+
+    private final Map<String, TurnHandle> activeTurns = new ConcurrentHashMap<>();
+    private final Map<String, BargeInDetector> detectors = new ConcurrentHashMap<>();
+
+    /**
+     * 开始新一轮对话（用户说完时），同一会话尚未结束的上一轮被取消
+     */
+    public TurnHandle begin(String sessionId) {
+        TurnHandle turn = new TurnHandle(UUID.randomUUID().toString().substring(0, 8), sessionId,
+                new TurnDeadline(deadlineMillis));
+        TurnHandle previous = activeTurns.put(sessionId, turn);
+        if (previous != null) {
+            previous.cancel("新一轮对话开始");
+        }
+        BargeInDetector detector = detectors.get(sessionId);
+        if (detector != null) {
+            detector.reset();
+        }
+        logger.info("开始对话轮次: {}", turn);
+        return turn;
+    }
+
+    /**
+     * 本轮正常结束
+     */
+    public void end(TurnHandle turn) {
+        if (activeTurns.remove(turn.getSessionId(), turn)) {
+            logger.info("对话轮次结束: {}", turn);
+        }
+    }
+
+    /**
+     * 取消会话当前进行中的对话
+     */
+    public boolean cancel(String sessionId, String reason) {
+        TurnHandle turn = activeTurns.remove(sessionId);
+        return turn != null && turn.cancel(reason);
+    }
+
+    public TurnHandle getActiveTurn(String sessionId) {
+        return activeTurns.get(sessionId);
+    }
+
+    /**
+     * 上行PCM：有进行中的对话且检测到用户开始说话时打断本轮
+     *
+     * @param sampleRate 该会话上行PCM的采样率，采样率变化时重建检测器
+     */
+    public boolean onInboundAudio(String sessionId, ByteBuffer pcm, int sampleRate) {
+        if (!bargeInEnabled || !activeTurns.containsKey(sessionId)) {
+            return false;
+        }
+        BargeInDetector detector = detectors.compute(sessionId, (id, existing) ->
+                existing != null && existing.getSampleRate() == sampleRate
+                        ? existing : new BargeInDetector(sampleRate, rmsThreshold, minSpeechMs));
+        if (detector.feed(pcm)) {
+            logger.info("检测到用户插话: {}", sessionId);
+            return cancel(sessionId, "用户插话");
+        }
+        return false;
+    }
+
+    /**
+     * 会话关闭：取消进行中的对话并清理检测器
+     */
+    public void close(String sessionId) {
+        cancel(sessionId, "会话关闭");
+        detectors.remove(sessionId);
+    }
+
+    public int getActiveCount() {
+        return activeTurns.size();
+    }
+}
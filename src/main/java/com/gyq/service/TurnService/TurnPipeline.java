@@ -0,0 +1,369 @@
+package com.gyq.service.TurnService;
+
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONException;
+import com.gyq.FileDto;
+import com.gyq.service.AudioService;
+import com.gyq.service.IntentService.PromoIntentDetector;
+import com.gyq.service.ModelService;
+import com.gyq.service.TtsService;
+import com.gyq.service.StreamService.OperatorMetrics;
+import com.gyq.service.StreamService.StreamingTurnPipeline;
+import jakarta.annotation.Resource;
+import jakarta.websocket.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.util.ObjectUtils;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 对话流水线 - ASR → LLM → TTS → 渲染，每个阶段在各自的隔离线程池上执行，
+ * WebSocket容器线程只负责提交。某个阶段队列满时本轮立即失败并提示用户，不排队等待
+ */
+@Service
+public class TurnPipeline {
+    private static final Logger logger = LoggerFactory.getLogger(TurnPipeline.class);
+
+    public enum Stage { ASR, LLM, TTS, RENDER, DELIVER }
+
+    @Resource
+    private AudioService audioService;
+    @Resource
+    private ModelService modelService;
+    @Resource
+    private TtsService ttsService;
+    @Resource
+    private TurnManager turnManager;
+    @Resource
+    private StreamingTurnPipeline streamingTurnPipeline;
+    // 观看宣传片的请求在调用大模型之前直接识别
+    @Resource
+    private PromoIntentDetector promoIntentDetector;
+    // 开启后按流式对话图执行：逐句合成、逐段渲染
+    @Value("${pipeline.streaming.enabled:false}")
+    private boolean streamingEnabled;
+    // 识别或大模型超出本轮预算时的兜底回复
+    @Value("${turn.deadline-fallback-text:抱歉，我刚才没有反应过来，请再说一遍。}")
+    private String deadlineFallbackText;
+    private final AtomicLong deadlineExceeded = new AtomicLong();
+
+    private final Map<Stage, ThreadPoolTaskExecutor> executors = new EnumMap<>(Stage.class);
+    private final Map<Stage, StageCounter> counters = new EnumMap<>(Stage.class);
+    // 每个会话的下发链：同一会话的消息按提交顺序串行发送
+    private final Map<String, CompletableFuture<Void>> deliveryChains = new ConcurrentHashMap<>();
+
+    public TurnPipeline(@Qualifier("asrExecutor") ThreadPoolTaskExecutor asrExecutor,
+                        @Qualifier("llmExecutor") ThreadPoolTaskExecutor llmExecutor,
+                        @Qualifier("ttsExecutor") ThreadPoolTaskExecutor ttsExecutor,
+                        @Qualifier("renderExecutor") ThreadPoolTaskExecutor renderExecutor,
+                        @Qualifier("deliverExecutor") ThreadPoolTaskExecutor deliverExecutor) {
+        executors.put(Stage.ASR, asrExecutor);
+        executors.put(Stage.LLM, llmExecutor);
+        executors.put(Stage.TTS, ttsExecutor);
+        executors.put(Stage.RENDER, renderExecutor);
+        executors.put(Stage.DELIVER, deliverExecutor);
+        for (Stage stage : Stage.values()) {
+            counters.put(stage, new StageCounter());
+        }
+    }
+
+    /**
+     * 提交一轮对话，立即返回；结束（完成、取消或失败）后自动结束轮次
+     */
+    public CompletableFuture<Void> submit(TurnHandle turn, String audioPath, TurnSink sink) {
+        if (streamingEnabled) {
+            return streamingTurnPipeline.run(turn, audioPath, sink)
+                    .whenComplete((v, e) -> finish(turn, sink, e));
+        }
+        CompletableFuture<String> asr;
+        try {
+            asr = supply(Stage.ASR, turn, () -> audioService.process(audioPath, turn.getDeadline()));
+        } catch (RejectedExecutionException e) {
+            handleFailure(turn, e, sink);
+            turnManager.end(turn);
+            return CompletableFuture.failedFuture(e);
+        }
+        return asr
+                .thenCompose(text -> afterAsr(turn, text, sink))
+                .whenComplete((v, e) -> finish(turn, sink, e));
+    }
+
+    private void finish(TurnHandle turn, TurnSink sink, Throwable e) {
+        try {
+            if (e != null) {
+                handleFailure(turn, unwrap(e), sink);
+            } else if (!turn.isCancelled()) {
+                sink.complete();
+            }
+        } finally {
+            turnManager.end(turn);
+        }
+    }
+
+    private CompletableFuture<Void> afterAsr(TurnHandle turn, String text, TurnSink sink) {
+        logger.info("音频转文字成功: {}", text);
+        if (ObjectUtils.isEmpty(text)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        turn.throwIfCancelled();
+        // 将文本返还给前端
+        sink.sendText(getResult("text_user", text));
+        String promo = promoIntentDetector.detect(text);
+        if (promo != null) {
+            sink.sendText(promoIntentDetector.toMessage(promo));
+            return CompletableFuture.completedFuture(null);
+        }
+        return supply(Stage.LLM, turn, () -> modelService.process(text, turn))
+                .thenCompose(textModel -> afterLlm(turn, textModel, sink));
+    }
+
+    private CompletableFuture<Void> afterLlm(TurnHandle turn, String textModel, TurnSink sink) {
+        if (ObjectUtils.isEmpty(textModel)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        turn.throwIfCancelled();
+        // 大模型直接返回的控制指令原样下发，不生成语音
+        if (isTypedJson(textModel)) {
+            sink.sendText(promoIntentDetector.enrich(textModel));
+            return CompletableFuture.completedFuture(null);
+        }
+        sink.sendText(getResult("text_assistant", textModel));
+        return supply(Stage.TTS, turn, () -> ttsService.text2DouBaoAudio(textModel, turn))
+                .thenCompose(audioList -> supply(Stage.RENDER, turn, () -> {
+                    turn.throwIfCancelled();
+                    sink.render(audioList, turn);
+                    return null;
+                }));
+    }
+
+    /**
+     * 在指定阶段的线程池上执行；队列满时同步抛出RejectedExecutionException
+     */
+    private <T> CompletableFuture<T> supply(Stage stage, TurnHandle turn, Callable<T> work) {
+        ThreadPoolTaskExecutor executor = executors.get(stage);
+        StageCounter counter = counters.get(stage);
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                if (future.isDone()) {
+                    return;
+                }
+                long start = System.currentTimeMillis();
+                try {
+                    future.complete(work.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    counter.record(System.currentTimeMillis() - start);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            counter.rejected.incrementAndGet();
+            logger.warn("{}阶段已满，拒绝对话轮次{}: {}", stage, turn.getTurnId(), getStageStatus(stage));
+            throw new RejectedExecutionException(stage + "阶段繁忙", e);
+        }
+        counter.updatePeak(executor.getThreadPoolExecutor().getQueue().size());
+        // 取消时排队中的任务直接跳过，下游收到CancellationException
+        return turn.track(future);
+    }
+
+    /**
+     * 按会话串行下发文本消息，不阻塞调用线程
+     */
+    public void deliver(Session session, String message) {
+        deliver(session, CompletableFuture.completedFuture(message));
+    }
+
+    /**
+     * 消息内容还在生成（如下行音频编码）时先占住下发顺序，生成完成后按原顺序发出，调用线程不等待
+     */
+    public void deliver(Session session, CompletableFuture<String> pendingMessage) {
+        ThreadPoolTaskExecutor executor = executors.get(Stage.DELIVER);
+        StageCounter counter = counters.get(Stage.DELIVER);
+        deliveryChains.compute(session.getId(), (id, tail) -> {
+            CompletableFuture<Void> previous = tail == null ? CompletableFuture.completedFuture(null) : tail;
+            // 生成失败的消息不下发，也不打断后面的消息
+            CompletableFuture<String> ready = previous.handle((v, e) -> null)
+                    .thenCombine(pendingMessage.exceptionally(e -> null), (v, message) -> message);
+            return ready.thenAcceptAsync(message -> {
+                long start = System.currentTimeMillis();
+                try {
+                    if (message != null && session.isOpen()) {
+                        // 与MuseTalk转发帧的线程共用同一个远端，需互斥
+                        synchronized (session) {
+                            session.getBasicRemote().sendText(message);
+                        }
+                    }
+                } catch (Exception e) {
+                    logger.error("下发消息失败: session={}, {}", id, e.getMessage());
+                } finally {
+                    counter.record(System.currentTimeMillis() - start);
+                }
+            }, executor).whenComplete((v, e) -> {
+                if (e instanceof RejectedExecutionException) {
+                    counter.rejected.incrementAndGet();
+                    logger.warn("下发阶段已满，丢弃消息: session={}", id);
+                }
+            });
+        });
+        counter.updatePeak(executor.getThreadPoolExecutor().getQueue().size());
+    }
+
+    /**
+     * 会话关闭时释放下发链
+     */
+    public void release(Session session) {
+        deliveryChains.remove(session.getId());
+    }
+
+    private void handleFailure(TurnHandle turn, Throwable e, TurnSink sink) {
+        if (turn.isCancelled() || e instanceof CancellationException) {
+            logger.info("对话轮次已取消: {}", turn);
+        } else if (e instanceof DeadlineExceededException) {
+            handleDeadlineExceeded(turn, (DeadlineExceededException) e, sink);
+        } else if (e instanceof RejectedExecutionException) {
+            sink.sendText(getResult("error", "系统繁忙，请稍后再试"));
+        } else {
+            logger.error("对话处理异常: {}", turn, e);
+            sink.sendText(getResult("error", "处理异常: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 超出预算时降级而不是报错：还没有回复文本时给出兜底回复，已经有文本时只保留文字（不再等语音）
+     */
+    private void handleDeadlineExceeded(TurnHandle turn, DeadlineExceededException e, TurnSink sink) {
+        deadlineExceeded.incrementAndGet();
+        logger.warn("对话轮次超出时间预算: {}, {}, {}", turn, turn.getDeadline(), e.getMessage());
+        if ("ASR".equals(e.getStage()) || "LLM".equals(e.getStage())) {
+            sink.sendText(getResult("text_assistant", deadlineFallbackText));
+        }
+        sink.sendText(getResult("turn_timeout", e.getStage()));
+    }
+
+    public long getDeadlineExceededCount() {
+        return deadlineExceeded.get();
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        while (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e;
+    }
+
+    /**
+     * 是否为大模型返回的控制指令，例如 {"type":"cult"}
+     */
+    public static boolean isTypedJson(String str) {
+        try {
+            Object parsed = JSON.parse(str);
+            return parsed instanceof com.alibaba.fastjson2.JSONObject
+                    && ((com.alibaba.fastjson2.JSONObject) parsed).containsKey("type");
+        } catch (JSONException e) {
+            return false;
+        }
+    }
+
+    public static String getResult(String type, String content) {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("type", type);
+        jsonObject.put("content", content);
+        return jsonObject.toJSONString();
+    }
+
+    public StageStatus getStageStatus(Stage stage) {
+        ThreadPoolExecutor executor = executors.get(stage).getThreadPoolExecutor();
+        StageCounter counter = counters.get(stage);
+        long completed = counter.completed.get();
+        return new StageStatus(stage, executor.getActiveCount(), executor.getMaximumPoolSize(),
+                executor.getQueue().size(), counter.peakQueue.get(),
+                executor.getQueue().size() + executor.getQueue().remainingCapacity(),
+                completed, counter.rejected.get(),
+                completed > 0 ? (double) counter.totalMillis.get() / completed : 0);
+    }
+
+    public List<OperatorMetrics.MetricsStatus> getOperatorStatuses() {
+        return streamingTurnPipeline.getOperatorStatuses();
+    }
+
+    public List<StageStatus> getStageStatuses() {
+        List<StageStatus> statuses = new ArrayList<>();
+        for (Stage stage : Stage.values()) {
+            statuses.add(getStageStatus(stage));
+        }
+        return statuses;
+    }
+
+    private static class StageCounter {
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong totalMillis = new AtomicLong();
+        final AtomicInteger peakQueue = new AtomicInteger();
+
+        void record(long millis) {
+            completed.incrementAndGet();
+            totalMillis.addAndGet(millis);
+        }
+
+        void updatePeak(int depth) {
+            peakQueue.accumulateAndGet(depth, Math::max);
+        }
+    }
+
+    // 阶段状态
+    public static class StageStatus {
+        private final Stage stage;
+        private final int active;
+        private final int threads;
+        private final int queued;
+        private final int peakQueued;
+        private final int queueCapacity;
+        private final long completed;
+        private final long rejected;
+        private final double avgMillis;
+
+        public StageStatus(Stage stage, int active, int threads, int queued, int peakQueued,
+                           int queueCapacity, long completed, long rejected, double avgMillis) {
+            this.stage = stage;
+            this.active = active;
+            this.threads = threads;
+            this.queued = queued;
+            this.peakQueued = peakQueued;
+            this.queueCapacity = queueCapacity;
+            this.completed = completed;
+            this.rejected = rejected;
+            this.avgMillis = avgMillis;
+        }
+
+        public Stage getStage() { return stage; }
+        public int getActive() { return active; }
+        public int getQueued() { return queued; }
+        public int getPeakQueued() { return peakQueued; }
+        public long getRejected() { return rejected; }
+
+        @Override
+        public String toString() {
+            return String.format("%s{active=%d/%d, queue=%d/%d, peak=%d, completed=%d, rejected=%d, avg=%.0fms}",
+                    stage, active, threads, queued, queueCapacity, peakQueued, completed, rejected, avgMillis);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.gyq.service.TurnService;
+
+import com.gyq.service.AudioService;
+import com.gyq.service.BlockingQueueService.RenderAdmissionScheduler;
+import com.gyq.service.BlockingQueueService.ViewerGroup;
+import com.gyq.service.LlmRouterService.LlmRouter;
+import com.gyq.service.MuseTalkWebSocketClient;
+import com.gyq.service.TtsProviderService.HedgedTtsClient;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 说话开始时预热 - 收到一句话的第一个PCM分片时，并行刷新快到期的识别token、建立大模型和语音合成的连接、
+ * 向最空闲的推理节点预先建立MuseTalk连接，用户说话的这几秒里完成握手，后续各阶段直接用热连接
+ *
+ * 大模型、语音合成、token是所有会话共享的，min-interval-ms 内只预热一次；
+ * MuseTalk连接按会话租出，lease-ms 内没被本轮渲染取走就关闭，节点与实际分配不一致时也关闭
+ */
+@Service
+public class TurnPrewarmer {
+    private static final Logger logger = LoggerFactory.getLogger(TurnPrewarmer.class);
+
+    public enum Target { TOKEN, LLM, TTS, MUSETALK }
+
+    @Resource
+    private AudioService audioService;
+    @Resource
+    private LlmRouter llmRouter;
+    @Resource
+    private HedgedTtsClient hedgedTtsClient;
+    @Resource
+    private RenderAdmissionScheduler renderAdmissionScheduler;
+
+    @Value("${prewarm.enabled:true}")
+    private boolean enabled;
+    // 共享连接的预热间隔，服务端一般在空闲一两分钟后断开长连接
+    @Value("${prewarm.min-interval-ms:20000}")
+    private long minIntervalMillis;
+    // 单项预热的超时，超时只是没预热上，不影响正式请求
+    @Value("${prewarm.timeout-ms:3000}")
+    private long timeoutMillis;
+    @Value("${prewarm.musetalk.enabled:true}")
+    private boolean museTalkEnabled;
+    // 预先建立的MuseTalk连接保留多久
+    @Value("${prewarm.musetalk.lease-ms:30000}")
+    private long leaseMillis;
+
+    private final ThreadPoolTaskExecutor executor;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "PrewarmLeaseTimer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Map<Target, AtomicLong> lastWarmed = new EnumMap<>(Target.class);
+    private final Map<Target, TargetCounter> counters = new EnumMap<>(Target.class);
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+    private final AtomicLong triggers = new AtomicLong();
+    private final AtomicLong leaseHits = new AtomicLong();
+    private final AtomicLong leaseMisses = new AtomicLong();
+    private final AtomicLong leaseExpired = new AtomicLong();
+
+    /**
+     * 租出的MuseTalk连接
+     */
+    private static class Lease {
+        final MuseTalkWebSocketClient client;
+        final URI worker;
+
+        Lease(MuseTalkWebSocketClient client, URI worker) {
+            this.client = client;
+            this.worker = worker;
+        }
+    }
+
+    private static class TargetCounter {
+        final AtomicLong warmed = new AtomicLong();
+        final AtomicLong skipped = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong totalMillis = new AtomicLong();
+    }
+
+    public TurnPrewarmer(@Qualifier("prewarmExecutor") ThreadPoolTaskExecutor executor) {
+        this.executor = executor;
+        for (Target target : Target.values()) {
+            lastWarmed.put(target, new AtomicLong());
+            counters.put(target, new TargetCounter());
+        }
+    }
+
+    /**
+     * 一句话开始（不含MuseTalk连接），用于自带MuseTalk连接的分段处理器
+     */
+    public void onSpeechStart(String sessionId) {
+        onSpeechStart(sessionId, null);
+    }
+
+    /**
+     * 一句话开始：各项预热并行提交后立即返回，不阻塞WebSocket容器线程
+     *
+     * @param group 本会话的观看组，预建的MuseTalk连接把画面发布到这里；为null时不预建MuseTalk连接
+     */
+    public void onSpeechStart(String sessionId, ViewerGroup group) {
+        if (!enabled) {
+            return;
+        }
+        triggers.incrementAndGet();
+        Duration timeout = Duration.ofMillis(timeoutMillis);
+        submitShared(Target.TOKEN, () -> audioService.prewarmToken(timeout));
+        submitShared(Target.LLM, () -> llmRouter.prewarm(timeout));
+        submitShared(Target.TTS, () -> hedgedTtsClient.prewarm(timeout));
+        if (museTalkEnabled && group != null) {
+            submit(Target.MUSETALK, () -> lease(sessionId, group));
+        }
+    }
+
+    @FunctionalInterface
+    private interface WarmTask {
+        void run() throws Exception;
+    }
+
+    /**
+     * 共享连接：间隔内已有其它会话预热过则跳过
+     */
+    private void submitShared(Target target, WarmTask task) {
+        AtomicLong last = lastWarmed.get(target);
+        long now = System.currentTimeMillis();
+        long previous = last.get();
+        if (now - previous < minIntervalMillis || !last.compareAndSet(previous, now)) {
+            counters.get(target).skipped.incrementAndGet();
+            return;
+        }
+        if (!submit(target, task)) {
+            // 没有提交成功，下一句话再试
+            last.compareAndSet(now, previous);
+        }
+    }
+
+    private boolean submit(Target target, WarmTask task) {
+        TargetCounter counter = counters.get(target);
+        try {
+            executor.execute(() -> {
+                long start = System.currentTimeMillis();
+                try {
+                    task.run();
+                    counter.warmed.incrementAndGet();
+                    counter.totalMillis.addAndGet(System.currentTimeMillis() - start);
+                } catch (Exception e) {
+                    counter.failed.incrementAndGet();
+                    // 失败后允许下一句话重新预热
+                    lastWarmed.get(target).set(0);
+                    logger.debug("预热{}失败: {}", target, e.getMessage());
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            counter.skipped.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * 向当前最空闲的推理节点建立连接，留给本会话下一轮渲染使用
+     */
+    private void lease(String sessionId, ViewerGroup group) throws Exception {
+        URI worker = renderAdmissionScheduler.preferredWorker();
+        Lease existing = leases.get(sessionId);
+        if (worker == null || (existing != null && existing.client.isOpen() && existing.worker.equals(worker))) {
+            return;
+        }
+        MuseTalkWebSocketClient client = new MuseTalkWebSocketClient(worker, group);
+        if (!client.connectBlocking(timeoutMillis, TimeUnit.MILLISECONDS)) {
+            client.close();
+            throw new IllegalStateException("连接MuseTalk服务超时: " + worker);
+        }
+        Lease lease = new Lease(client, worker);
+        Lease replaced = leases.put(sessionId, lease);
+        if (replaced != null) {
+            replaced.client.close();
+        }
+        timer.schedule(() -> {
+            if (leases.remove(sessionId, lease)) {
+                leaseExpired.incrementAndGet();
+                lease.client.close();
+                logger.debug("预建的MuseTalk连接未被使用，已关闭: {}", sessionId);
+            }
+        }, leaseMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 取走本会话预建的MuseTalk连接；节点与分配的不一致或连接已断开时关闭它并返回null
+     */
+    public MuseTalkWebSocketClient takeMuseTalk(String sessionId, URI worker) {
+        Lease lease = leases.remove(sessionId);
+        if (lease == null) {
+            return null;
+        }
+        if (lease.client.isOpen() && lease.worker.equals(worker)) {
+            leaseHits.incrementAndGet();
+            return lease.client;
+        }
+        leaseMisses.incrementAndGet();
+        lease.client.close();
+        return null;
+    }
+
+    /**
+     * 会话关闭时释放预建的连接
+     */
+    public void release(String sessionId) {
+        Lease lease = leases.remove(sessionId);
+        if (lease != null) {
+            lease.client.close();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+        leases.values().forEach(lease -> lease.client.close());
+        leases.clear();
+    }
+
+    public PrewarmStatus getStatus() {
+        StringBuilder targets = new StringBuilder();
+        counters.forEach((target, counter) -> {
+            long warmed = counter.warmed.get();
+            targets.append(String.format("%s=%d/%d/%d(%.0fms) ", target, warmed, counter.skipped.get(),
+                    counter.failed.get(), warmed > 0 ? (double) counter.totalMillis.get() / warmed : 0));
+        });
+        return new PrewarmStatus(enabled, triggers.get(), targets.toString().trim(), leases.size(),
+                leaseHits.get(), leaseMisses.get(), leaseExpired.get());
+    }
+
+    // 预热统计：各项为 预热/跳过/失败(平均耗时)
+    public static class PrewarmStatus {
+        private final boolean enabled;
+        private final long triggers;
+        private final String targets;
+        private final int leased;
+        private final long leaseHits;
+        private final long leaseMisses;
+        private final long leaseExpired;
+
+        public PrewarmStatus(boolean enabled, long triggers, String targets, int leased, long leaseHits,
+                             long leaseMisses, long leaseExpired) {
+            this.enabled = enabled;
+            this.triggers = triggers;
+            this.targets = targets;
+            this.leased = leased;
+            this.leaseHits = leaseHits;
+            this.leaseMisses = leaseMisses;
+            this.leaseExpired = leaseExpired;
+        }
+
+        public long getTriggers() { return triggers; }
+        public long getLeaseHits() { return leaseHits; }
+
+        @Override
+        public String toString() {
+            return String.format("PrewarmStatus{enabled=%s, triggers=%d, %s, musetalk{leased=%d, hit=%d, miss=%d, expired=%d}}",
+                    enabled, triggers, targets, leased, leaseHits, leaseMisses, leaseExpired);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.gyq.service.TurnService;
+
+import com.gyq.FileDto;
+
+import java.util.List;
+
+/**
+ * 对话流水线的输出端，由各WebSocket端点实现
+ */
+public interface TurnSink {
+
+    /**
+     * 下发JSON文本消息，不能阻塞调用线程
+     */
+    void sendText(String message);
+
+    /**
+     * 渲染数字人画面，在渲染阶段线程上执行，可以阻塞到本轮画面全部生成
+     */
+    void render(List<FileDto> audioList, TurnHandle turn) throws Exception;
+
+    /**
+     * 本轮正常结束（未取消、未失败）
+     */
+    default void complete() {
+    }
+}
@@ -5,10 +5,23 @@ import com.alibaba.fastjson2.JSON;
 import com.alibaba.fastjson2.JSONException;
 import com.gyq.FileDto;
 import com.gyq.config.SpringContextUtil;
+import com.gyq.service.AudioCodecService.UplinkAudioService;
 import com.gyq.service.AudioService;
 import com.gyq.service.ModelService;
 import com.gyq.service.MuseTalkWebSocketClient;
 import com.gyq.service.TtsService;
+import com.gyq.service.BlockingQueueService.RenderAdmissionScheduler;
+import com.gyq.service.BlockingQueueService.RenderDegradationPolicy;
+import com.gyq.service.BlockingQueueService.VideoFrameBuffer;
+import com.gyq.service.BlockingQueueService.VideoFrameManager;
+import com.gyq.service.BlockingQueueService.ViewerGroup;
+import com.gyq.service.TurnService.DeadlineExceededException;
+import com.gyq.service.TurnService.TurnDeadline;
+import com.gyq.service.TurnService.TurnHandle;
+import com.gyq.service.TurnService.TurnManager;
+import com.gyq.service.TurnService.TurnPipeline;
+import com.gyq.service.TurnService.TurnPrewarmer;
+import com.gyq.service.TurnService.TurnSink;
 import jakarta.annotation.Resource;
 import jakarta.websocket.*;
 import jakarta.websocket.server.PathParam;
@@ -29,6 +42,7 @@ import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
 
 @Component
@@ -48,6 +62,22 @@ public class ChatEndpoint {
     private ModelService modelService;
     @Resource
     private TtsService ttsService;
+    @Resource
+    private VideoFrameManager videoFrameManager;
+    @Resource
+    private TurnManager turnManager;
+    @Resource
+    private TurnPipeline turnPipeline;
+    @Resource
+    private RenderAdmissionScheduler renderAdmissionScheduler;
+    @Resource
+    private RenderDegradationPolicy renderDegradationPolicy;
+    @Resource
+    private TurnPrewarmer turnPrewarmer;
+    @Resource
+    private UplinkAudioService uplinkAudioService;
+    // 本连接最近一次的渲染方式，变化时通知前端
+    private volatile RenderDegradationPolicy.Mode renderMode = RenderDegradationPolicy.Mode.FULL;
 
     @OnOpen
     public void onOpen(Session session, @PathParam("token") String token) throws IOException {
@@ -60,10 +90,41 @@ public class ChatEndpoint {
         if (ttsService == null) {
             ttsService = SpringContextUtil.getBean(TtsService.class);
         }
+        if (videoFrameManager == null) {
+            videoFrameManager = SpringContextUtil.getBean(VideoFrameManager.class);
+        }
+        if (turnManager == null) {
+            turnManager = SpringContextUtil.getBean(TurnManager.class);
+        }
+        if (turnPipeline == null) {
+            turnPipeline = SpringContextUtil.getBean(TurnPipeline.class);
+        }
+        if (renderAdmissionScheduler == null) {
+            renderAdmissionScheduler = SpringContextUtil.getBean(RenderAdmissionScheduler.class);
+        }
+        if (renderDegradationPolicy == null) {
+            renderDegradationPolicy = SpringContextUtil.getBean(RenderDegradationPolicy.class);
+        }
+        if (turnPrewarmer == null) {
+            turnPrewarmer = SpringContextUtil.getBean(TurnPrewarmer.class);
+        }
+        if (uplinkAudioService == null) {
+            uplinkAudioService = SpringContextUtil.getBean(UplinkAudioService.class);
+        }
         sessions.put(token, session);
         audioBufferMap.put(token, new ByteArrayOutputStream());
+        // 上行为Opus的会话（?audio=opus），缓冲区里存的是解码后的16kHz PCM
+        List<String> audioFormat = session.getRequestParameterMap().get("audio");
+        uplinkAudioService.open(token, audioFormat != null && audioFormat.contains("opus"));
+        // 主会话与观看屏幕一样由自己的缓冲器和发送线程下发，前端接收慢不会拖住MuseTalk读线程和其它屏幕
+        VideoFrameBuffer frameBuffer = videoFrameManager.createBuffer(token, session);
+        // ?audioCodec=opus 时TTS音频按Ogg Opus下发，缺省为WAV
+        List<String> audioCodec = session.getRequestParameterMap().get("audioCodec");
+        if (audioCodec != null && !audioCodec.isEmpty()) {
+            videoFrameManager.applyAudioCodec(frameBuffer, audioCodec.get(0));
+        }
         logger.info("连接建立: token={}, session={}", token, session.getId());
-        session.getBasicRemote().sendText("连接成功");
+        frameBuffer.addText("连接成功");
     }
 
     /**
@@ -78,7 +139,7 @@ public class ChatEndpoint {
             ByteArrayOutputStream buffer = audioBufferMap.get(token);
             if (buffer != null) {
                 try {
-                    String path = "/home/main/wyw/java/audio/" + uuid + ".pcm";
+                    String path = "/home/main/wyw/java/audio/" + uuid + uplinkAudioService.fileSuffix(token);
 //                    String path = "D:\\paeleap\\musetalk_java\\src\\main\\resources\\audio" + uuid + ".pcm";
 //                    String path = "/Users/guoyunquan/Desktop/work/halo/" + uuid + ".pcm";
                     try (FileOutputStream fos = new FileOutputStream(path)) {
@@ -88,6 +149,7 @@ public class ChatEndpoint {
                     // 清理缓冲区
 //                    audioBufferMap.remove(token);
                     audioBufferMap.put(token, new ByteArrayOutputStream());
+                    uplinkAudioService.endUtterance(token);
                     return path;
                 } catch (IOException e) {
                     System.err.println("写入音频文件失败: " + e.getMessage());
@@ -105,36 +167,31 @@ public class ChatEndpoint {
         if (ObjectUtils.isEmpty(path)) {
             return;
         }
-        //调用音频转文字的方法
-        String text = audioService.process(path);
-        System.out.println("文本转文字成功: " + text);
-        if (ObjectUtils.isEmpty(text)) {
-            return;
-        }
-
-        //将文本返还给前端
-        String textUser = getResult("text_user", text);
-        session.getBasicRemote().sendText(textUser);
-        //用文本调用大模型
-        String textModel = modelService.process(text);
-        if (isValidJson(textModel)){
-            com.alibaba.fastjson2.JSONObject jsonObject = JSON.parseObject(textModel);
-            if (jsonObject.containsKey("type")){
-                session.getBasicRemote().sendText(textModel);
-                return;
+        // 容器线程只负责提交，后续各阶段在流水线的隔离线程池上执行
+        TurnHandle turn = turnManager.begin(token);
+        turnPipeline.submit(turn, path, new TurnSink() {
+            @Override
+            public void sendText(String message) {
+                ChatEndpoint.this.sendText(token, message);
             }
-        }
-
-        String textModelUser = getResult("text_assistant", textModel);
-        session.getBasicRemote().sendText(textModelUser);
-//        FileDto dto = ttsService.textToSpeechBase64(textModelUser);
-        // 生成音频
-        List<FileDto> audioList = ttsService.text2DouBaoAudio(textModel);
-
-        processAudioList(audioList,session,token);
 
+            @Override
+            public void render(List<FileDto> audioList, TurnHandle turn) {
+                processAudioList(audioList, session, token, turn);
+            }
+        });
+    }
 
+    /**
+     * 经观看组由各自的发送线程发出，主会话和订阅了本会话的观看屏幕都能收到
+     */
+    private void sendText(String token, String message) {
+        ViewerGroup group = videoFrameManager.getGroup(token);
+        if (group != null) {
+            group.publishText(message);
+        }
     }
+
     public static boolean isValidJson(String str) {
         try {
             JSON.parse(str);  // 可以换成 JSON.parseObject(str) 具体看你用途
@@ -156,8 +213,18 @@ public class ChatEndpoint {
     @OnMessage
     public void onBinaryMessage(ByteBuffer byteBuffer, Session session, @PathParam("token") String token) {
         logger.info("收到[" + token + "]音频数据: " + byteBuffer.remaining() + " 字节");
+        // Ogg页不完整、坏包等没有样本的消息直接忽略，不算开口也不触发插话
+        byteBuffer = uplinkAudioService.decode(token, byteBuffer);
+        if (byteBuffer == null) {
+            return;
+        }
+        turnManager.onInboundAudio(token, byteBuffer, uplinkAudioService.sampleRate(token));
         ByteArrayOutputStream buffer = audioBufferMap.get(token);
         if (buffer != null) {
+            if (buffer.size() == 0) {
+                // 一句话的第一个分片：用户说话期间提前建立各阶段的连接
+                turnPrewarmer.onSpeechStart(token, videoFrameManager.getGroup(token));
+            }
             try {
                 byte[] bytes = new byte[byteBuffer.remaining()];
                 byteBuffer.get(bytes);
@@ -171,7 +238,11 @@ public class ChatEndpoint {
     @OnClose
     public void onClose(Session session, @PathParam("token") String token) {
         sessions.remove(token);
+        turnManager.close(token);
+        turnPrewarmer.release(token);
         ByteArrayOutputStream buffer = audioBufferMap.remove(token);
+        uplinkAudioService.close(token);
+        videoFrameManager.removeBuffer(token);
 
         if (buffer != null) {
             try {
@@ -192,59 +263,155 @@ public class ChatEndpoint {
     @OnError
     public void onError(Session session, Throwable error, @PathParam("token") String token) {
         System.err.println("连接异常 [" + token + "]: " + error.getMessage());
+        turnManager.close(token);
     }
 
 
 
-    private void processAudioList(List<FileDto> audioList, Session session, String token) {
-        try {
-            URI uri = new URI("ws://192.168.10.101:8765");
-            System.out.println("准备连接到MuseTalk服务: " + uri);
-
-            MuseTalkWebSocketClient client = new MuseTalkWebSocketClient(uri, session);
-
-            // 连接并等待连接建立
-            System.out.println("开始连接MuseTalk服务...");
-            client.connect();
-
-            // 等待连接建立，最多等待10秒
-            long connectStartTime = System.currentTimeMillis();
-            while (!client.isOpen()) {
-                if (System.currentTimeMillis() - connectStartTime > 10000) {
-                    throw new RuntimeException("连接MuseTalk服务超时，10秒内未建立连接");
-                }
+    private void processAudioList(List<FileDto> audioList, Session session, String token, TurnHandle turn) {
+        ViewerGroup group = videoFrameManager.getGroup(token);
+        // 每段分到的推理节点可能不同，节点变化时重新连接
+        AtomicReference<MuseTalkWebSocketClient> current = new AtomicReference<>();
+        // 本轮被取消时中止MuseTalk推理并丢弃积压的帧
+        turn.onCancel(() -> {
+            MuseTalkWebSocketClient client = current.get();
+            if (client != null) {
+                client.cancelRender();
             }
-            System.out.println("成功连接到MuseTalk服务，连接状态: " + client.getReadyState());
-
-            if (!client.isOpen()) {
-                throw new RuntimeException("连接建立后立即断开，无法继续处理");
+            if (group != null) {
+                group.flush();
             }
+        });
+        // 主会话和观看屏幕中声明Opus的，在编码线程池上提前转码整轮音频
+        if (group != null) {
+            group.prepareAudio(audioList);
+        }
+        TurnDeadline deadline = turn.getDeadline();
+        // 超出本轮预算或渲染超时后，剩余分段只播放音频
+        boolean audioOnlyFallback = false;
+        try {
             for (FileDto dto : audioList) {
+                if (turn.isCancelled()) {
+                    logger.info("对话已取消，停止发送剩余音频: {}", turn);
+                    break;
+                }
+                RenderAdmissionScheduler.RenderSlot slot = null;
+                int segmentIndex = turn.nextSegmentIndex();
+                long audioMillis = RenderDegradationPolicy.audioDurationMillis(dto.getPath());
                 try {
+                    if (!audioOnlyFallback && deadline.isExpired()) {
+                        logger.warn("开始渲染前已超出本轮预算，剩余分段只播放音频: {}, {}", turn, deadline);
+                        audioOnlyFallback = true;
+                    }
+                    // 推理节点繁忙时只播放音频，画面保持待机循环；本接口不支持降帧率，按完整渲染处理
+                    RenderDegradationPolicy.Mode mode = audioOnlyFallback
+                            ? RenderDegradationPolicy.Mode.AUDIO_ONLY : renderDegradationPolicy.decide(false);
+                    if (mode != renderMode) {
+                        renderMode = mode;
+                        sendText(token, renderDegradationPolicy.toMessage(mode));
+                    }
+                    if (mode == RenderDegradationPolicy.Mode.AUDIO_ONLY) {
+                        playAudioOnly(turn, dto, audioMillis, group);
+                        deadline.extend(audioMillis);
+                        continue;
+                    }
+                    
+                    // 0. 申请渲染名额，排队期间推送排队位置
+                    try {
+                        slot = renderAdmissionScheduler.acquire(token, turn, segmentIndex,
+                                position -> sendText(token, RenderAdmissionScheduler.toMessage(position)));
+                    } catch (DeadlineExceededException e) {
+                        logger.warn("排队时超出本轮预算，剩余分段只播放音频: {}, {}", turn, deadline);
+                        audioOnlyFallback = true;
+                        playAudioOnly(turn, dto, audioMillis, group);
+                        deadline.extend(audioMillis);
+                        continue;
+                    }
+                    MuseTalkWebSocketClient client = current.get();
+                    if (client == null || !client.isOpen() || !client.getURI().equals(slot.getWorker())) {
+                        if (client != null) {
+                            client.close();
+                        }
+                        // 优先用说话时预建的连接，节点不一致时重新连接
+                        client = turnPrewarmer.takeMuseTalk(token, slot.getWorker());
+                        if (client != null) {
+                            client.setViewerGroup(group);
+                        } else {
+                            client = connectMuseTalk(slot.getWorker(), group);
+                        }
+                        current.set(client);
+                    }
+
                     // 1. 先把音频文本回传给前端
-                    session.getBasicRemote().sendText(getResult("audio", dto.getBase64()));
+                    String audioMessage = getResult("audio", dto.getBase64());
+                    if (group != null) {
+                        group.publishAudio(dto, audioMessage);
+                        group.beginSegment(dto.getEmotion());
+                    }
 
                     // 2. 发送给 musetalk
                     client.resetStatus();
                     System.out.println("准备发送音频请求: " + dto.getPath() + ", 情感: " + dto.getEmotion());
                     client.sendAudioRequest(dto.getPath(), dto.getEmotion());
 
-                    // 3. 等待 completed（60s 自行调整）
-                    boolean ok = client.awaitCompleted(60_000);
-                    if (!ok) throw new RuntimeException("等待 completed 超时");
+                    // 3. 等待 completed，上限按音频时长伸缩；超时则停止推理，剩余分段只播放音频
+                    boolean ok = client.awaitCompleted(renderAdmissionScheduler.renderTimeoutMillis(audioMillis));
+                    if (client.isCancelled()) break;
+                    deadline.extend(audioMillis);
+                    if (!ok) {
+                        logger.error("等待 completed 超时，剩余分段只播放音频: {}", turn);
+                        client.cancelRender();
+                        audioOnlyFallback = true;
+                        continue;
+                    }
 
                     System.out.println("数字人生成图片完成，准备下一段");
                     if(client.isCompleted()){
                         System.out.println("数字人生成图片完成");
                     }
+                } catch (CancellationException e) {
+                    logger.info("排队时对话已取消: {}", turn);
+                    break;
+                } catch (RejectedExecutionException e) {
+                    throw e;
                 } catch (Exception e) {
                     logger.error("图片生成失败: " + e.getMessage(), e);
                     break;
+                } finally {
+                    renderAdmissionScheduler.release(slot);
+                    if (group != null) {
+                        group.endSegment();
+                    }
                 }
             }
-        } catch (URISyntaxException e) {
-            throw new RuntimeException(e);
+        } finally {
+            MuseTalkWebSocketClient client = current.get();
+            if (client != null && client.isOpen()) {
+                client.close();
+            }
+        }
+    }
+
+    /**
+     * 只下发音频，画面保持待机循环；按音频时长等待，保证与后续分段的顺序，本轮取消时立即返回
+     */
+    private void playAudioOnly(TurnHandle turn, FileDto dto, long audioMillis, ViewerGroup group) throws InterruptedException {
+        String audioMessage = getResult("audio", dto.getBase64());
+        if (group != null) {
+            group.publishAudio(dto, audioMessage);
+        }
+        turn.awaitCancelled(audioMillis);
+    }
+
+    private MuseTalkWebSocketClient connectMuseTalk(URI uri, ViewerGroup group) throws InterruptedException {
+        System.out.println("准备连接到MuseTalk服务: " + uri);
+        MuseTalkWebSocketClient client = new MuseTalkWebSocketClient(uri, group);
+        // 连接并等待连接建立，最多等待10秒
+        if (!client.connectBlocking(10, TimeUnit.SECONDS)) {
+            throw new RuntimeException("连接MuseTalk服务超时，10秒内未建立连接");
         }
+        System.out.println("成功连接到MuseTalk服务，连接状态: " + client.getReadyState());
+        return client;
     }
 
 
@@ -5,11 +5,32 @@ import com.alibaba.fastjson2.JSON;
 import com.alibaba.fastjson2.JSONException;
 import com.gyq.FileDto;
 import com.gyq.config.SpringContextUtil;
+import com.gyq.service.AsrProviderService.HedgedAsrClient;
+import com.gyq.service.AudioCodecService.OpusDownlinkEncoder;
+import com.gyq.service.AudioCodecService.UplinkAudioService;
 import com.gyq.service.AudioService;
+import com.gyq.service.LlmRouterService.LlmRouter;
+import com.gyq.service.ChatMemoryService.BoundedChatMemoryRepository;
+import com.gyq.service.ChatMemoryService.ConversationCompactor;
+import com.gyq.service.CredentialService.CredentialManager;
+import com.gyq.service.EmotionService.EmotionSegmentService;
+import com.gyq.service.IntentService.PromoIntentDetector;
+import com.gyq.service.StreamService.SpeculativeStarter;
 import com.gyq.service.ModelService;
+import com.gyq.service.PromptService.PromptAssembler;
 import com.gyq.service.TtsService;
+import com.gyq.service.TtsProviderService.HedgedTtsClient;
+import com.gyq.service.BlockingQueueService.RenderAdmissionScheduler;
+import com.gyq.service.BlockingQueueService.RenderDegradationPolicy;
 import com.gyq.service.BlockingQueueService.SegmentedAudioProcessor;
+import com.gyq.service.BlockingQueueService.VideoFrameBuffer;
 import com.gyq.service.BlockingQueueService.VideoFrameManager;
+import com.gyq.service.BlockingQueueService.ViewerGroup;
+import com.gyq.service.TurnService.TurnHandle;
+import com.gyq.service.TurnService.TurnManager;
+import com.gyq.service.TurnService.TurnPipeline;
+import com.gyq.service.TurnService.TurnPrewarmer;
+import com.gyq.service.TurnService.TurnSink;
 import jakarta.annotation.Resource;
 import jakarta.websocket.*;
 import jakarta.websocket.server.PathParam;
@@ -50,6 +71,40 @@ public class OptimizedChatEndpoint {
     private TtsService ttsService;
     @Resource
     private VideoFrameManager videoFrameManager;
+    @Resource
+    private TurnManager turnManager;
+    @Resource
+    private TurnPipeline turnPipeline;
+    @Resource
+    private RenderAdmissionScheduler renderAdmissionScheduler;
+    @Resource
+    private RenderDegradationPolicy renderDegradationPolicy;
+    @Resource
+    private HedgedTtsClient hedgedTtsClient;
+    @Resource
+    private LlmRouter llmRouter;
+    @Resource
+    private PromptAssembler promptAssembler;
+    @Resource
+    private BoundedChatMemoryRepository chatMemoryRepository;
+    @Resource
+    private ConversationCompactor conversationCompactor;
+    @Resource
+    private EmotionSegmentService emotionSegmentService;
+    @Resource
+    private PromoIntentDetector promoIntentDetector;
+    @Resource
+    private SpeculativeStarter speculativeStarter;
+    @Resource
+    private TurnPrewarmer turnPrewarmer;
+    @Resource
+    private UplinkAudioService uplinkAudioService;
+    @Resource
+    private CredentialManager credentialManager;
+    @Resource
+    private HedgedAsrClient hedgedAsrClient;
+    @Resource
+    private OpusDownlinkEncoder opusDownlinkEncoder;
     
     @OnOpen
     public void onOpen(Session session, @PathParam("token") String token) throws IOException {
@@ -59,23 +114,44 @@ public class OptimizedChatEndpoint {
         // 存储会话信息
         sessions.put(token, session);
         audioBufferMap.put(token, new ByteArrayOutputStream());
+        // 上行为Opus的会话（?audio=opus），缓冲区里存的是解码后的16kHz PCM
+        List<String> audioFormat = session.getRequestParameterMap().get("audio");
+        uplinkAudioService.open(token, audioFormat != null && audioFormat.contains("opus"));
         
-        // 创建视频帧缓冲器
-        videoFrameManager.createBuffer(token, session);
+        // 创建视频帧缓冲器（会话级，空闲时播放待机循环）
+        VideoFrameBuffer frameBuffer = videoFrameManager.createBuffer(token, session);
+        // 前端通过 ?codec=h264 或 ?codec=delta 声明下行格式，缺省为JPEG
+        List<String> codec = session.getRequestParameterMap().get("codec");
+        if (codec != null && !codec.isEmpty()) {
+            videoFrameManager.applyCodec(frameBuffer, codec.get(0));
+        }
+        // ?audioCodec=opus 时TTS音频按Ogg Opus下发，缺省为WAV
+        List<String> audioCodec = session.getRequestParameterMap().get("audioCodec");
+        if (audioCodec != null && !audioCodec.isEmpty()) {
+            videoFrameManager.applyAudioCodec(frameBuffer, audioCodec.get(0));
+        }
+        // ?rendition=low 等固定画质档位，缺省按网络状况自动调整
+        List<String> rendition = session.getRequestParameterMap().get("rendition");
+        if (rendition != null && !rendition.isEmpty()) {
+            videoFrameManager.applyRendition(frameBuffer, token, rendition.get(0));
+        }
         
         // 创建分段音频处理器
         try {
             URI museTalkUri = new URI("ws://192.168.10.101:8765");
-            SegmentedAudioProcessor processor = new SegmentedAudioProcessor(session, token, museTalkUri);
+            ViewerGroup viewerGroup = videoFrameManager.getOrCreateGroup(token);
+            SegmentedAudioProcessor processor = new SegmentedAudioProcessor(session, token, museTalkUri, frameBuffer, viewerGroup);
+            processor.setRenderScheduler(renderAdmissionScheduler);
+            processor.setDegradationPolicy(renderDegradationPolicy);
             processor.start();
             processorMap.put(token, processor);
             
             logger.info("连接建立: token={}, session={}", token, session.getId());
-            session.getBasicRemote().sendText("连接成功 - 使用优化版阻塞队列处理");
+            frameBuffer.addText("连接成功 - 使用优化版阻塞队列处理");
             
         } catch (URISyntaxException e) {
             logger.error("创建MuseTalk URI失败", e);
-            session.getBasicRemote().sendText("连接失败: MuseTalk服务配置错误");
+            frameBuffer.addText("连接失败: MuseTalk服务配置错误");
         }
     }
     
@@ -95,6 +171,57 @@ public class OptimizedChatEndpoint {
         if (videoFrameManager == null) {
             videoFrameManager = SpringContextUtil.getBean(VideoFrameManager.class);
         }
+        if (turnManager == null) {
+            turnManager = SpringContextUtil.getBean(TurnManager.class);
+        }
+        if (turnPipeline == null) {
+            turnPipeline = SpringContextUtil.getBean(TurnPipeline.class);
+        }
+        if (renderAdmissionScheduler == null) {
+            renderAdmissionScheduler = SpringContextUtil.getBean(RenderAdmissionScheduler.class);
+        }
+        if (renderDegradationPolicy == null) {
+            renderDegradationPolicy = SpringContextUtil.getBean(RenderDegradationPolicy.class);
+        }
+        if (hedgedTtsClient == null) {
+            hedgedTtsClient = SpringContextUtil.getBean(HedgedTtsClient.class);
+        }
+        if (llmRouter == null) {
+            llmRouter = SpringContextUtil.getBean(LlmRouter.class);
+        }
+        if (promptAssembler == null) {
+            promptAssembler = SpringContextUtil.getBean(PromptAssembler.class);
+        }
+        if (chatMemoryRepository == null) {
+            chatMemoryRepository = SpringContextUtil.getBean(BoundedChatMemoryRepository.class);
+        }
+        if (conversationCompactor == null) {
+            conversationCompactor = SpringContextUtil.getBean(ConversationCompactor.class);
+        }
+        if (emotionSegmentService == null) {
+            emotionSegmentService = SpringContextUtil.getBean(EmotionSegmentService.class);
+        }
+        if (promoIntentDetector == null) {
+            promoIntentDetector = SpringContextUtil.getBean(PromoIntentDetector.class);
+        }
+        if (speculativeStarter == null) {
+            speculativeStarter = SpringContextUtil.getBean(SpeculativeStarter.class);
+        }
+        if (turnPrewarmer == null) {
+            turnPrewarmer = SpringContextUtil.getBean(TurnPrewarmer.class);
+        }
+        if (uplinkAudioService == null) {
+            uplinkAudioService = SpringContextUtil.getBean(UplinkAudioService.class);
+        }
+        if (credentialManager == null) {
+            credentialManager = SpringContextUtil.getBean(CredentialManager.class);
+        }
+        if (hedgedAsrClient == null) {
+            hedgedAsrClient = SpringContextUtil.getBean(HedgedAsrClient.class);
+        }
+        if (opusDownlinkEncoder == null) {
+            opusDownlinkEncoder = SpringContextUtil.getBean(OpusDownlinkEncoder.class);
+        }
     }
     
     /**
@@ -109,13 +236,14 @@ public class OptimizedChatEndpoint {
             ByteArrayOutputStream buffer = audioBufferMap.get(token);
             if (buffer != null) {
                 try {
-                    String path = "/home/main/wyw/java/audio/" + uuid + ".pcm";
+                    String path = "/home/main/wyw/java/audio/" + uuid + uplinkAudioService.fileSuffix(token);
                     try (FileOutputStream fos = new FileOutputStream(path)) {
                         buffer.writeTo(fos);
                         logger.info("已保存[{}]的音频到: {}", token, path);
                     }
                     // 重置缓冲区
                     audioBufferMap.put(token, new ByteArrayOutputStream());
+                    uplinkAudioService.endUtterance(token);
                     return path;
                 } catch (IOException e) {
                     logger.error("写入音频文件失败: {}", e.getMessage(), e);
@@ -135,85 +263,75 @@ public class OptimizedChatEndpoint {
             return;
         }
         
-        // 音频转文字
-        String text = audioService.process(path);
-        logger.info("音频转文字成功: {}", text);
-        if (ObjectUtils.isEmpty(text)) {
-            return;
-        }
-
-        // 将文本返还给前端
-        String textUser = getResult("text_user", text);
-        session.getBasicRemote().sendText(textUser);
+        // 新一轮对话开始，上一轮未完成的推理被取消
+        TurnHandle turn = turnManager.begin(token);
+        turn.onCancel(() -> publishQuietly(session, token, getResult("turn_cancelled", turn.getCancelReason())));
         
-        // 调用大模型
-        String textModel = modelService.process(text);
-        if (isValidJson(textModel)) {
-            com.alibaba.fastjson2.JSONObject jsonObject = JSON.parseObject(textModel);
-            if (jsonObject.containsKey("type")) {
-                session.getBasicRemote().sendText(textModel);
-                return;
+        // 容器线程只负责提交，ASR、大模型、TTS、渲染在流水线各阶段的线程池上执行
+        turnPipeline.submit(turn, path, new TurnSink() {
+            @Override
+            public void sendText(String text) {
+                publishQuietly(session, token, text);
             }
-        }
-
-        String textModelUser = getResult("text_assistant", textModel);
-        session.getBasicRemote().sendText(textModelUser);
-        
-        // 生成音频段列表
-        List<FileDto> audioList = ttsService.text2DouBaoAudio(textModel);
-        
-        // 使用阻塞队列方式处理音频列表
-        processAudioListWithBlockingQueue(audioList, session, token);
-        // 方式2：CountDownLatch方式（原有）
-        // processAudioListWithCountDownLatch(audioList, session, token);
+            
+            @Override
+            public void render(List<FileDto> audioList, TurnHandle turn) throws Exception {
+                processAudioListWithBlockingQueue(audioList, session, token, turn);
+            }
+            
+            @Override
+            public void complete() {
+                // 发送完成通知
+                publishQuietly(session, token, getResult("process_completed", "所有音频段处理完成"));
+            }
+        });
     }
     
     /**
-     * 使用阻塞队列处理音频列表 - 核心优化方法
+     * 使用阻塞队列处理音频列表 - 核心优化方法，在流水线的渲染阶段线程上执行
      */
-    private void processAudioListWithBlockingQueue(List<FileDto> audioList, Session session, String token) {
+    private void processAudioListWithBlockingQueue(List<FileDto> audioList, Session session, String token, TurnHandle turn) {
         SegmentedAudioProcessor processor = processorMap.get(token);
         
         if (processor == null) {
             logger.error("未找到音频处理器: {}", token);
-            try {
-                session.getBasicRemote().sendText(getResult("error", "音频处理器未初始化"));
-            } catch (IOException e) {
-                logger.error("发送错误消息失败", e);
-            }
-            return;
+            throw new IllegalStateException("音频处理器未初始化");
         }
         
         logger.info("开始使用阻塞队列处理音频列表，共{}段", audioList.size());
         
-        // 异步处理音频列表，避免阻塞WebSocket线程
-        new Thread(() -> {
-            try {
-                // 获取处理器状态
-                SegmentedAudioProcessor.ProcessorStatus status = processor.getStatus();
-                logger.info("处理器状态: {}", status);
-                
-                // 处理音频列表 - 这里会按顺序一段一段处理
-                processor.processAudioList(audioList);
-                
-                // 发送完成通知
-                if (session.isOpen()) {
-                    session.getAsyncRemote().sendText(getResult("process_completed", "所有音频段处理完成"));
-                }
-                
-                logger.info("音频列表处理完成: token={}", token);
-                
-            } catch (Exception e) {
-                logger.error("处理音频列表异常: token={}", token, e);
-                try {
-                    if (session.isOpen()) {
-                        session.getAsyncRemote().sendText(getResult("error", "音频处理异常: " + e.getMessage()));
-                    }
-                } catch (Exception ex) {
-                    logger.error("发送异常消息失败", ex);
-                }
-            }
-        }, "AudioListProcessor-" + token).start();
+        // 获取处理器状态
+        SegmentedAudioProcessor.ProcessorStatus status = processor.getStatus();
+        logger.info("处理器状态: {}", status);
+        
+        // 处理音频列表 - 这里会按顺序一段一段处理
+        processor.processAudioList(audioList, turn);
+        if (turn.isCancelled()) {
+            logger.info("音频列表处理已取消: {}", turn);
+            return;
+        }
+        
+        logger.info("音频列表处理完成: token={}", token);
+    }
+    
+    /**
+     * 发送JSON消息：经观看组由各自的发送线程发出，主会话和观看屏幕都能收到
+     */
+    private void publishText(Session session, String token, String message) throws IOException {
+        ViewerGroup group = videoFrameManager.getGroup(token);
+        if (group != null) {
+            group.publishText(message);
+        } else if (session.isOpen()) {
+            session.getBasicRemote().sendText(message);
+        }
+    }
+    
+    private void publishQuietly(Session session, String token, String message) {
+        try {
+            publishText(session, token, message);
+        } catch (IOException e) {
+            logger.warn("发送消息失败: token={}, {}", token, e.getMessage());
+        }
     }
     
     /**
@@ -222,8 +340,19 @@ public class OptimizedChatEndpoint {
     @OnMessage
     public void onBinaryMessage(ByteBuffer byteBuffer, Session session, @PathParam("token") String token) {
         logger.debug("收到[{}]音频数据: {} 字节", token, byteBuffer.remaining());
+        // Ogg页不完整、坏包等没有样本的消息直接忽略，不算开口也不触发插话
+        byteBuffer = uplinkAudioService.decode(token, byteBuffer);
+        if (byteBuffer == null) {
+            return;
+        }
+        // 数字人说话时用户开口，打断当前这一轮
+        turnManager.onInboundAudio(token, byteBuffer, uplinkAudioService.sampleRate(token));
         ByteArrayOutputStream buffer = audioBufferMap.get(token);
         if (buffer != null) {
+            if (buffer.size() == 0) {
+                // 一句话的第一个分片：提前刷新token、建立大模型和语音合成的连接（MuseTalk连接由分段处理器常驻）
+                turnPrewarmer.onSpeechStart(token);
+            }
             try {
                 byte[] bytes = new byte[byteBuffer.remaining()];
                 byteBuffer.get(bytes);
@@ -238,7 +367,9 @@ public class OptimizedChatEndpoint {
     public void onClose(Session session, @PathParam("token") String token) {
         // 清理会话
         sessions.remove(token);
+        turnManager.close(token);
         ByteArrayOutputStream buffer = audioBufferMap.remove(token);
+        uplinkAudioService.close(token);
 
         // 停止分段音频处理器
         SegmentedAudioProcessor processor = processorMap.remove(token);
@@ -271,6 +402,7 @@ public class OptimizedChatEndpoint {
         logger.error("连接异常 [{}]: {}", token, error.getMessage(), error);
         
         // 清理资源
+        turnManager.close(token);
         SegmentedAudioProcessor processor = processorMap.remove(token);
         if (processor != null) {
             processor.stop();
@@ -308,6 +440,25 @@ public class OptimizedChatEndpoint {
         status.put("activeSessions", sessions.size());
         status.put("activeProcessors", processorMap.size());
         status.put("audioBuffers", audioBufferMap.size());
+        status.put("opusUplink", uplinkAudioService.getStatuses().toString());
+        status.put("opusDownlink", opusDownlinkEncoder.getStatus().toString());
+        status.put("activeTurns", turnManager.getActiveCount());
+        status.put("renderScheduler", renderAdmissionScheduler.getStatus().toString());
+        status.put("renderDegradation", renderDegradationPolicy.getStatus().toString());
+        status.put("pipelineStages", turnPipeline.getStageStatuses().toString());
+        status.put("deadlineExceeded", turnPipeline.getDeadlineExceededCount());
+        status.put("asrRecognizers", hedgedAsrClient.getStatuses().toString());
+        status.put("ttsProviders", hedgedTtsClient.getStatuses().toString());
+        status.put("llmProviders", llmRouter.getStatuses().toString());
+        status.put("prompt", promptAssembler.getStatus().toString());
+        status.put("chatMemory", chatMemoryRepository.getStatus().toString());
+        status.put("contextCompaction", conversationCompactor.getStatus().toString());
+        status.put("emotionSegmenter", emotionSegmentService.getStatus().toString());
+        status.put("promoIntent", promoIntentDetector.getStatus().toString());
+        status.put("speculation", speculativeStarter.getStatus().toString());
+        status.put("prewarm", turnPrewarmer.getStatus().toString());
+        status.put("credentials", credentialManager.getStatus().toString());
+        status.put("streamOperators", turnPipeline.getOperatorStatuses().toString());
         
         // 获取视频帧管理器状态
         VideoFrameManager.SystemStatus frameStatus = videoFrameManager.getSystemStatus();
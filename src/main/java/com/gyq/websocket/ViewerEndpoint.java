@@ -0,0 +1,76 @@
+package com.gyq.websocket;
+
+import com.gyq.config.SpringContextUtil;
+import com.gyq.service.BlockingQueueService.VideoFrameBuffer;
+import com.gyq.service.BlockingQueueService.VideoFrameManager;
+import jakarta.annotation.Resource;
+import jakarta.websocket.*;
+import jakarta.websocket.server.PathParam;
+import jakarta.websocket.server.ServerEndpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 观看屏幕端点 - 订阅某个对话会话的画面、音频和文本事件，不参与对话、不触发推理
+ * 连接地址：/ws/view/{token}?policy=DROP_OLDEST&capacity=50&audio=false&codec=h264|delta&rendition=auto
+ * token 为被观看的对话会话token；rendition 可选 auto/full/high/medium/low，缺省自动
+ */
+@Component
+@ServerEndpoint("/ws/view/{token}")
+public class ViewerEndpoint {
+    private static final Logger logger = LoggerFactory.getLogger(ViewerEndpoint.class);
+
+    private static final int DEFAULT_CAPACITY = 50;
+
+    @Resource
+    private VideoFrameManager videoFrameManager;
+
+    @OnOpen
+    public void onOpen(Session session, @PathParam("token") String token) {
+        if (videoFrameManager == null) {
+            videoFrameManager = SpringContextUtil.getBean(VideoFrameManager.class);
+        }
+        Map<String, List<String>> params = session.getRequestParameterMap();
+        VideoFrameBuffer.DropPolicy policy = VideoFrameBuffer.DropPolicy.parse(param(params, "policy"));
+        int capacity = parseInt(param(params, "capacity"), DEFAULT_CAPACITY);
+        boolean receiveAudio = !"false".equalsIgnoreCase(param(params, "audio"));
+
+        VideoFrameBuffer buffer = videoFrameManager.subscribeViewer(token, session, capacity, policy, receiveAudio,
+                param(params, "rendition"));
+        videoFrameManager.applyCodec(buffer, param(params, "codec"));
+        videoFrameManager.applyAudioCodec(buffer, param(params, "audioCodec"));
+        logger.info("观看屏幕已连接: token={}, session={}, policy={}, capacity={}, audio={}",
+                token, session.getId(), policy, capacity, receiveAudio);
+        // 发送线程已在下发待机帧，经缓冲器发出，避免并发写同一会话
+        buffer.addText("连接成功 - 观看模式");
+    }
+
+    @OnClose
+    public void onClose(Session session, @PathParam("token") String token) {
+        videoFrameManager.unsubscribeViewer(token, session);
+        logger.info("观看屏幕已断开: token={}, session={}", token, session.getId());
+    }
+
+    @OnError
+    public void onError(Session session, Throwable error, @PathParam("token") String token) {
+        logger.error("观看屏幕连接异常 [{}]: {}", token, error.getMessage());
+        videoFrameManager.unsubscribeViewer(token, session);
+    }
+
+    private static String param(Map<String, List<String>> params, String name) {
+        List<String> values = params.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
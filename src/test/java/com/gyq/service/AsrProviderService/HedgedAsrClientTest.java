@@ -0,0 +1,40 @@
+package com.gyq.service.AsrProviderService;
+
+import com.gyq.service.ResilienceService.StubBackend;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 对冲、熔断本身见 HedgedCallTest，这里只验证识别通道的接入
+ */
+public class HedgedAsrClientTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+    private static final String PCM = "offline.pcm";
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void recognizesWithConfiguredOrderAndFailsOver() throws Exception {
+        StubBackend rest = new StubBackend("rest", 10);
+        StubBackend stream = new StubBackend("stream", 10);
+        HedgedAsrClient client = new HedgedAsrClient(List.of(stream, rest), executor, "rest,stream", 300, 3, 10_000);
+
+        assertEquals("rest", client.recognize(PCM, TIMEOUT));
+        rest.errorBurst(1);
+        assertEquals("stream", client.recognize(PCM, TIMEOUT));
+        assertEquals(1, client.getStatuses().get(1).getFailovers());
+    }
+}
@@ -0,0 +1,167 @@
+package com.gyq.service.AudioCodecService;
+
+import com.gyq.FileDto;
+import com.gyq.service.AudioService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OpusCodecTest {
+
+    private static final int RATE = 16000;
+
+    @TempDir
+    Path dir;
+
+    private OpusDownlinkEncoder encoder() {
+        return encoder(Runnable::run);
+    }
+
+    private OpusDownlinkEncoder encoder(Executor executor) {
+        OpusDownlinkEncoder encoder = new OpusDownlinkEncoder(executor);
+        ReflectionTestUtils.setField(encoder, "enabled", true);
+        ReflectionTestUtils.setField(encoder, "bitrate", 20000);
+        ReflectionTestUtils.setField(encoder, "complexity", 5);
+        ReflectionTestUtils.setField(encoder, "poolSize", 2);
+        return encoder;
+    }
+
+    // 与豆包返回一致的16kHz单声道16bit WAV，内容为带包络的双音
+    private static byte[] wav(int seconds) {
+        int samples = RATE * seconds;
+        ByteBuffer wav = ByteBuffer.allocate(44 + samples * 2).order(ByteOrder.LITTLE_ENDIAN);
+        wav.put("RIFF".getBytes(StandardCharsets.US_ASCII)).putInt(36 + samples * 2)
+                .put("WAVE".getBytes(StandardCharsets.US_ASCII))
+                .put("fmt ".getBytes(StandardCharsets.US_ASCII)).putInt(16).putShort((short) 1).putShort((short) 1)
+                .putInt(RATE).putInt(RATE * 2).putShort((short) 2).putShort((short) 16)
+                .put("data".getBytes(StandardCharsets.US_ASCII)).putInt(samples * 2);
+        for (int i = 0; i < samples; i++) {
+            double t = (double) i / RATE;
+            wav.putShort((short) (6000 * Math.sin(2 * Math.PI * 220 * t)
+                    + 3000 * Math.sin(2 * Math.PI * 1300 * t) * Math.sin(2 * Math.PI * 3 * t)));
+        }
+        return wav.array();
+    }
+
+    @Test
+    public void downlinkIsAboutTenTimesSmallerThanWav() throws Exception {
+        byte[] wav = wav(5);
+        byte[] ogg = encoder().encode(wav);
+        assertTrue(wav.length / ogg.length >= 10, "压缩比不足: " + wav.length + "/" + ogg.length);
+        assertEquals("OggS", new String(ogg, 0, 4, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void oggDownlinkDecodesBackToSameDuration() throws Exception {
+        byte[] ogg = encoder().encode(wav(2));
+        OpusUplinkDecoder decoder = new OpusUplinkDecoder();
+        // 按任意长度切开，模拟页跨消息
+        int decoded = 0;
+        for (int offset = 0; offset < ogg.length; offset += 777) {
+            byte[] part = Arrays.copyOfRange(ogg, offset, Math.min(ogg.length, offset + 777));
+            decoded += decoder.decode(ByteBuffer.wrap(part)).length / 2;
+        }
+        // 末尾补齐的静音帧也会被解码，时长误差不超过两帧
+        assertTrue(Math.abs(decoded - RATE * 2) <= RATE / 25, "解码样本数: " + decoded);
+    }
+
+    @Test
+    public void uplinkIgnoresPartialOggPagesAndStaysOpus() throws Exception {
+        byte[] ogg = encoder().encode(wav(1));
+        UplinkAudioService uplink = new UplinkAudioService();
+        uplink.open("opus", true);
+        uplink.open("pcm", false);
+        // 只有半个页头的消息没有样本，不能当成一句话的开口
+        assertNull(uplink.decode("opus", ByteBuffer.wrap(Arrays.copyOfRange(ogg, 0, 10))));
+        ByteBuffer pcm = uplink.decode("opus", ByteBuffer.wrap(Arrays.copyOfRange(ogg, 10, ogg.length)));
+        assertNotNull(pcm);
+        assertTrue(pcm.remaining() > 0);
+
+        uplink.endUtterance("opus");
+        assertEquals(OpusUplinkDecoder.OUTPUT_SAMPLE_RATE, uplink.sampleRate("opus"));
+        assertEquals(AudioService.PCM_16K_SUFFIX, uplink.fileSuffix("opus"));
+        ByteBuffer raw = ByteBuffer.wrap(new byte[]{1, 2, 3, 4});
+        assertSame(raw, uplink.decode("pcm", raw));
+        assertEquals(".pcm", uplink.fileSuffix("pcm"));
+    }
+
+    @Test
+    public void encodedAudioIsCachedNextToWav() throws Exception {
+        byte[] wav = wav(1);
+        Path wavPath = dir.resolve("000_happy.wav");
+        Files.write(wavPath, wav);
+        FileDto dto = new FileDto();
+        dto.setPath(wavPath.toString());
+        dto.setBase64(Base64.getEncoder().encodeToString(wav));
+
+        OpusDownlinkEncoder encoder = encoder();
+        String first = encoder.encodeBase64(dto);
+        assertNotNull(first);
+        assertTrue(Files.exists(dir.resolve("000_happy.opus")));
+        assertEquals(first, encoder.encodeBase64(dto));
+
+        // 新的FileDto指向同一个WAV时从缓存文件读取，不再编码
+        FileDto again = new FileDto();
+        again.setPath(wavPath.toString());
+        assertEquals(first, encoder.encodeBase64(again));
+        assertEquals(1, encoder.getStatus().getClips());
+        assertEquals(2, encoder.getStatus().getCacheHits());
+    }
+
+    @Test
+    public void prefetchedSegmentIsEncodedOnceOffTheCallerThread() throws Exception {
+        byte[] wav = wav(1);
+        FileDto dto = new FileDto();
+        dto.setPath(dir.resolve("001_neutral.wav").toString());
+        dto.setBase64(Base64.getEncoder().encodeToString(wav));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            OpusDownlinkEncoder encoder = encoder(executor);
+            encoder.prefetch(List.of(dto));
+            String message = encoder.audioMessageAsync(dto).get(5, TimeUnit.SECONDS);
+            assertTrue(message.contains("\"format\":\"opus\""), message);
+            assertEquals(1, encoder.getStatus().getClips());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void cachedSegmentCompletingInlineIsServedAndReleased() throws Exception {
+        byte[] wav = wav(1);
+        Path wavPath = dir.resolve("002_calm.wav");
+        Files.write(wavPath, wav);
+        FileDto first = new FileDto();
+        first.setPath(wavPath.toString());
+        first.setBase64(Base64.getEncoder().encodeToString(wav));
+        // 在调用线程上执行：读到缓存文件时future在映射函数里就已完成
+        OpusDownlinkEncoder encoder = encoder(Runnable::run);
+        encoder.encodeBase64(first);
+
+        FileDto cached = new FileDto();
+        cached.setPath(wavPath.toString());
+        String message = encoder.audioMessageAsync(cached).get(5, TimeUnit.SECONDS);
+        assertTrue(message.contains("\"format\":\"opus\""), message);
+        assertEquals(0, encoder.getStatus().getPending());
+    }
+}
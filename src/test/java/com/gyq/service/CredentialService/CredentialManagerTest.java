@@ -0,0 +1,78 @@
+package com.gyq.service.CredentialService;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CredentialManagerTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private final CredentialManager manager = new CredentialManager();
+    // 依次返回的凭证，null元素表示SDK失败时返回的空token
+    private final BlockingQueue<CredentialManager.Credential> fetched = new ArrayBlockingQueue<>(8);
+
+    @BeforeEach
+    public void setUp() {
+        ReflectionTestUtils.setField(manager, "refreshAheadSeconds", 600L);
+        ReflectionTestUtils.setField(manager, "checkIntervalSeconds", 3600L);
+        ReflectionTestUtils.setField(manager, "awaitTimeoutMillis", 5000L);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        manager.shutdown();
+    }
+
+    private void register() {
+        manager.register("nls", () -> fetched.poll(5, TimeUnit.SECONDS));
+    }
+
+    private static CredentialManager.Credential valid(String value) {
+        return new CredentialManager.Credential(value, System.currentTimeMillis() + TimeUnit.HOURS.toMillis(24));
+    }
+
+    @Test
+    public void emptyOrExpiredCredentialCountsAsFailure() throws Exception {
+        fetched.add(new CredentialManager.Credential(null, 0));
+        register();
+        assertThrows(IOException.class, () -> manager.get("nls"));
+
+        fetched.add(new CredentialManager.Credential("expired", 0));
+        assertThrows(IOException.class, () -> manager.refreshIfExpiring("nls", TIMEOUT));
+
+        fetched.add(valid("token-1"));
+        assertTrue(manager.refreshIfExpiring("nls", TIMEOUT));
+        assertEquals("token-1", manager.get("nls"));
+        String status = manager.getStatus().getCredentials().get("nls");
+        assertTrue(status.contains("refreshes=1, failures=2"), status);
+    }
+
+    @Test
+    public void failedRefreshKeepsPreviousSnapshot() throws Exception {
+        fetched.add(new CredentialManager.Credential("token-1",
+                System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(60)));
+        register();
+        assertEquals("token-1", manager.get("nls"));
+
+        // 快到期时预热刷新，SDK返回空token
+        fetched.add(new CredentialManager.Credential("", 0));
+        assertThrows(IOException.class, () -> manager.refreshIfExpiring("nls", TIMEOUT));
+        assertEquals("token-1", manager.get("nls"));
+
+        fetched.add(valid("token-2"));
+        assertTrue(manager.refreshIfExpiring("nls", TIMEOUT));
+        assertEquals("token-2", manager.get("nls"));
+    }
+}
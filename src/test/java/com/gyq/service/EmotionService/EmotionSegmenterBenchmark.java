@@ -0,0 +1,54 @@
+package com.gyq.service.EmotionService;
+
+import com.gyq.service.dto.EmotionTextDto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地情绪切分的耗时基准，对照原来一次大模型请求（数百毫秒到数秒）
+ * 运行：mvn test-compile 后执行 main 方法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmotionSegmenterBenchmark {
+
+    // 一段典型的讲解回复，约200字
+    private static final String REPLY = "欢迎来到反邪教警示教育展馆，我是讲解员小安。"
+            + "邪教组织打着宗教的幌子，编造歪理邪说，欺骗群众、敛取钱财。"
+            + "有的信徒甚至因此自焚身亡，家破人亡，看到这些遗物真让人感到毛骨悚然。"
+            + "这种精神控制的手段简直令人发指！我们一定要揭露他们的真面目。"
+            + "不用担心，只要提高辨别能力，我们就不会上当受骗。"
+            + "让我们一起热爱生活，共建和谐社会！感谢您的参观，祝您生活愉快，再见！";
+
+    private final EmotionSegmenter segmenter = EmotionSegmentService.defaultSegmenter(40, 4);
+
+    @Benchmark
+    public List<EmotionTextDto> segmentReply() {
+        return segmenter.segment(REPLY);
+    }
+
+    @Benchmark
+    public String classifySentence() {
+        return segmenter.classify("有的信徒甚至因此自焚身亡，家破人亡，看到这些遗物真让人感到毛骨悚然。");
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(EmotionSegmenterBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,110 @@
+package com.gyq.service.EmotionService;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gyq.service.dto.EmotionTextDto;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EmotionSegmenterTest {
+
+    private final EmotionSegmenter segmenter = EmotionSegmentService.defaultSegmenter(40, 4);
+
+    // 人工按 DOUBAO 提示词的规则对讲解词做的切分和情绪标注
+    public static class LabelledCase {
+        public String input;
+        public List<EmotionTextDto> output;
+    }
+
+    private static List<LabelledCase> handLabelled() throws Exception {
+        try (InputStream in = EmotionSegmenterTest.class.getResourceAsStream("/emotion/hand-labelled-segments.json")) {
+            return new ObjectMapper().readValue(in, new TypeReference<>() {});
+        }
+    }
+
+    @Test
+    public void matchesHandLabels() throws Exception {
+        int total = 0;
+        List<String> mismatches = new ArrayList<>();
+        for (LabelledCase c : handLabelled()) {
+            for (EmotionTextDto expected : c.output) {
+                total++;
+                String actual = segmenter.classify(expected.getText());
+                if (!actual.equals(expected.getEmotion())) {
+                    mismatches.add(String.format("%s 人工=%s 本地=%s", expected.getText(), expected.getEmotion(), actual));
+                }
+            }
+        }
+        double accuracy = (double) (total - mismatches.size()) / total;
+        assertTrue(accuracy >= 0.85, String.format("一致率过低: %d/%d = %.2f, 不一致: %s",
+                total - mismatches.size(), total, accuracy, mismatches));
+    }
+
+    @Test
+    public void segmentsKeepAllTextInOrder() throws Exception {
+        for (LabelledCase c : handLabelled()) {
+            List<EmotionTextDto> segments = segmenter.segment(c.input);
+            String joined = segments.stream().map(EmotionTextDto::getText).collect(Collectors.joining());
+            assertEquals(c.input.replaceAll("\\s", ""), joined.replaceAll("\\s", ""));
+            segments.forEach(s -> assertTrue(segmenter.getEmotions().contains(s.getEmotion())));
+        }
+    }
+
+    @Test
+    public void splitsAtSentenceEnds() {
+        List<String> sentences = segmenter.splitSentences("版本3.5已经发布了。真的吗？！“太好了！”  他说... 好吧");
+        assertEquals(List.of("版本3.5已经发布了。", "真的吗？！", "“太好了！”", "他说...", "好吧"), sentences);
+    }
+
+    @Test
+    public void splitsLongSentenceAtClauses() {
+        EmotionSegmenter short10 = EmotionSegmentService.defaultSegmenter(10, 1);
+        List<EmotionTextDto> segments = short10.segment("人工智能安全是指通过采取必要措施，防范对系统的攻击，保障系统稳定可靠运行。");
+        assertEquals(3, segments.size());
+        assertEquals("人工智能安全是指通过采取必要措施，", segments.get(0).getText());
+        assertEquals("保障系统稳定可靠运行。", segments.get(2).getText());
+    }
+
+    @Test
+    public void shortSentenceMergesIntoPrevious() {
+        List<EmotionTextDto> segments = segmenter.segment("这个问题我来为您解答。好的。");
+        assertEquals(1, segments.size());
+        assertEquals("这个问题我来为您解答。好的。", segments.get(0).getText());
+    }
+
+    @Test
+    public void negatedKeywordIsIgnored() {
+        assertEquals("fear", segmenter.classify("大家都很害怕。"));
+        assertEquals("happy", segmenter.classify("不用害怕。"));
+        assertEquals("happy", segmenter.classify("别太担心。"));
+        assertEquals("angry", segmenter.classify("这种态度简直不可接受！"));
+    }
+
+    @Test
+    public void lexiconIsConfigurablePerAvatar() {
+        Map<String, Map<String, Integer>> lexicon = new LinkedHashMap<>();
+        lexicon.put("calm", EmotionSegmenter.parseKeywords("请,您好:2"));
+        lexicon.put("sad", EmotionSegmenter.parseKeywords("遗憾:2，难过"));
+        EmotionSegmenter custom = new EmotionSegmenter(lexicon, "neutral", 40, 4);
+
+        assertEquals(List.of("calm", "sad", "neutral"), custom.getEmotions());
+        assertEquals("calm", custom.classify("您好，请随我来。"));
+        assertEquals("sad", custom.classify("很遗憾，这件展品正在修复。"));
+        assertEquals("neutral", custom.classify("这里是第二展厅。"));
+    }
+
+    @Test
+    public void blankTextGivesEmptyList() {
+        assertTrue(segmenter.segment(null).isEmpty());
+        assertTrue(segmenter.segment("  \n ").isEmpty());
+    }
+}
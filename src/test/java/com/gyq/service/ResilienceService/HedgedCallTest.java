@@ -0,0 +1,133 @@
+package com.gyq.service.ResilienceService;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HedgedCallTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private HedgedCall<StubBackend> call(StubBackend primary, StubBackend secondary, double percentile, long openMs) {
+        return new HedgedCall<>("测试后端", List.of(primary, secondary), StubBackend::getName, "primary,secondary",
+                executor, percentile, 200, 3, openMs);
+    }
+
+    private String invoke(HedgedCall<StubBackend> call) throws Exception {
+        return call.call(StubBackend::call, TIMEOUT);
+    }
+
+    private HedgedCall.BackendStatus status(HedgedCall<StubBackend> call, String name) {
+        return call.getStatuses().stream().filter(s -> s.getName().equals(name)).findFirst().orElseThrow();
+    }
+
+    @Test
+    public void fastPrimaryIsNotHedged() throws Exception {
+        StubBackend primary = new StubBackend("primary", 20);
+        StubBackend secondary = new StubBackend("secondary", 20);
+        HedgedCall<StubBackend> call = call(primary, secondary, 0.95, 10_000);
+
+        assertEquals("primary", invoke(call));
+        assertEquals(0, secondary.getCalls());
+    }
+
+    @Test
+    public void latencySpikeHedgesToSecondary() throws Exception {
+        StubBackend primary = new StubBackend("primary", 20);
+        StubBackend secondary = new StubBackend("secondary", 50);
+        HedgedCall<StubBackend> call = call(primary, secondary, 0.95, 10_000);
+        primary.spike(1, 2000);
+
+        long start = System.currentTimeMillis();
+        String result = invoke(call);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals("secondary", result);
+        assertTrue(elapsed < 1000, "对冲后应在备用返回时结束，实际 " + elapsed + "ms");
+        assertEquals(1, status(call, "secondary").getHedges());
+        assertEquals(1, status(call, "secondary").getWins());
+    }
+
+    @Test
+    public void hedgeDelayFollowsPrimaryPercentile() throws Exception {
+        StubBackend primary = new StubBackend("primary", 20);
+        StubBackend secondary = new StubBackend("secondary", 50);
+        HedgedCall<StubBackend> call = call(primary, secondary, 0.9, 10_000);
+        // 积累足够样本后，对冲延迟从默认200ms降到主用的p90（约20ms）
+        for (int i = 0; i < 10; i++) {
+            invoke(call);
+        }
+        primary.spike(1, 3000);
+
+        long start = System.currentTimeMillis();
+        String result = invoke(call);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals("secondary", result);
+        assertTrue(elapsed < 180, "应在p90后对冲并以备用结果结束，实际 " + elapsed + "ms");
+        assertEquals(10, status(call, "primary").getWins());
+    }
+
+    @Test
+    public void primaryFailureFailsOverImmediately() throws Exception {
+        StubBackend primary = new StubBackend("primary", 20);
+        StubBackend secondary = new StubBackend("secondary", 20);
+        HedgedCall<StubBackend> call = call(primary, secondary, 0.95, 10_000);
+        primary.errorBurst(1);
+
+        long start = System.currentTimeMillis();
+        assertEquals("secondary", invoke(call));
+        assertTrue(System.currentTimeMillis() - start < 150, "主用失败应立即切换，不等对冲延迟");
+        assertEquals(1, status(call, "secondary").getFailovers());
+        assertEquals(1, status(call, "primary").getFailures());
+    }
+
+    @Test
+    public void errorBurstOpensBreakerThenHalfOpenRestores() throws Exception {
+        StubBackend primary = new StubBackend("primary", 10);
+        StubBackend secondary = new StubBackend("secondary", 10);
+        HedgedCall<StubBackend> call = call(primary, secondary, 0.95, 300);
+        primary.errorBurst(3);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("secondary", invoke(call));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, status(call, "primary").getState());
+
+        // 熔断期间不再请求主用
+        int primaryCalls = primary.getCalls();
+        assertEquals("secondary", invoke(call));
+        assertEquals(primaryCalls, primary.getCalls());
+
+        // 冷却结束后试探请求成功，主用恢复
+        Thread.sleep(350);
+        assertEquals("primary", invoke(call));
+        assertEquals(CircuitBreaker.State.CLOSED, status(call, "primary").getState());
+    }
+
+    @Test
+    public void allBackendsFailingThrowsLastError() {
+        StubBackend primary = new StubBackend("primary", 10);
+        StubBackend secondary = new StubBackend("secondary", 10);
+        HedgedCall<StubBackend> call = call(primary, secondary, 0.95, 10_000);
+        primary.errorBurst(1);
+        secondary.errorBurst(1);
+
+        assertThrows(Exception.class, () -> invoke(call));
+    }
+}
@@ -0,0 +1,77 @@
+package com.gyq.service.ResilienceService;
+
+import com.gyq.service.AsrProviderService.AsrRecognizer;
+import com.gyq.service.TtsProviderService.TtsProvider;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 测试用后端：不访问外部服务，固定耗时返回自己的名字，可注入耗时尖刺和连续错误
+ * 同时实现TTS服务商和识别通道接口，对冲相关的测试共用
+ */
+public class StubBackend implements TtsProvider, AsrRecognizer {
+
+    private final String name;
+    private volatile long latencyMs;
+    private final AtomicInteger spikesLeft = new AtomicInteger();
+    private volatile long spikeMs;
+    private final AtomicInteger errorsLeft = new AtomicInteger();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    public StubBackend(String name, long latencyMs) {
+        this.name = name;
+        this.latencyMs = latencyMs;
+    }
+
+    /**
+     * 接下来 count 次请求耗时 spikeMs
+     */
+    public void spike(int count, long spikeMs) {
+        this.spikeMs = spikeMs;
+        spikesLeft.set(count);
+    }
+
+    /**
+     * 接下来 count 次请求直接失败
+     */
+    public void errorBurst(int count) {
+        errorsLeft.set(count);
+    }
+
+    public int getCalls() {
+        return calls.get();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 一次请求，返回后端名字
+     */
+    public String call(Duration timeout) throws Exception {
+        calls.incrementAndGet();
+        if (errorsLeft.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            throw new IOException(name + " 模拟失败");
+        }
+        long sleep = spikesLeft.getAndUpdate(n -> Math.max(0, n - 1)) > 0 ? spikeMs : latencyMs;
+        Thread.sleep(Math.min(sleep, timeout.toMillis()));
+        if (sleep > timeout.toMillis()) {
+            throw new IOException(name + " 模拟超时");
+        }
+        return name;
+    }
+
+    @Override
+    public byte[] synthesize(String text, String emotion, Duration timeout) throws Exception {
+        return call(timeout).getBytes();
+    }
+
+    @Override
+    public String recognize(String pcmPath, Duration timeout) throws Exception {
+        return call(timeout);
+    }
+}
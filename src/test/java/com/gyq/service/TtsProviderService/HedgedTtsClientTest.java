@@ -0,0 +1,40 @@
+package com.gyq.service.TtsProviderService;
+
+import com.gyq.service.ResilienceService.StubBackend;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 对冲、熔断本身见 HedgedCallTest，这里只验证TTS的接入
+ */
+public class HedgedTtsClientTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void synthesizesWithConfiguredOrderAndFailsOver() throws Exception {
+        StubBackend doubao = new StubBackend("doubao", 10);
+        StubBackend ali = new StubBackend("ali", 10);
+        HedgedTtsClient client = new HedgedTtsClient(List.of(ali, doubao), executor, "doubao,ali", 200, 3, 10_000);
+
+        assertArrayEquals("doubao".getBytes(), client.synthesize("你好", "happy", TIMEOUT));
+        doubao.errorBurst(1);
+        assertArrayEquals("ali".getBytes(), client.synthesize("你好", "happy", TIMEOUT));
+        assertEquals(List.of("doubao", "ali"), client.getStatuses().stream().map(s -> s.getName()).toList());
+    }
+}